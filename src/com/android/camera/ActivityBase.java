@@ -37,6 +37,7 @@ abstract public class ActivityBase extends Activity {
     private int mResultCodeForTesting;
     private boolean mOnResumePending;
     private Intent mResultDataForTesting;
+    private volatile boolean mDestroyedForTesting;
     protected Camera mCameraDevice;
     protected String mCaptureMode;
 
@@ -126,10 +127,17 @@ abstract public class ActivityBase extends Activity {
         return mResultDataForTesting;
     }
 
+    // Returns true after onDestroy, so the tests can wait for the camera to
+    // be released.
+    public boolean isDestroyedForTesting() {
+        return mDestroyedForTesting;
+    }
+
     @Override
     protected void onDestroy() {
         PopupManager.removeInstance(this);
         super.onDestroy();
+        mDestroyedForTesting = true;
     }
 
     private boolean isKeyguardLocked() {
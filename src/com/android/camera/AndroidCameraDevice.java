@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+// A CameraDevice backed by android.hardware.Camera. The callbacks run where
+// the framework delivers them, i.e. in the looper of the thread that opened
+// the camera. The camera is still opened and released by CameraHolder.
+public class AndroidCameraDevice implements CameraDevice {
+    private final android.hardware.Camera mCamera;
+
+    public AndroidCameraDevice(android.hardware.Camera camera) {
+        mCamera = camera;
+    }
+
+    public android.hardware.Camera getCamera() {
+        return mCamera;
+    }
+
+    public void startPreview() {
+        mCamera.startPreview();
+    }
+
+    public void stopPreview() {
+        mCamera.stopPreview();
+    }
+
+    public void setPreviewCallback(final PreviewCallback cb) {
+        if (cb == null) {
+            mCamera.setPreviewCallback(null);
+            return;
+        }
+        mCamera.setPreviewCallback(new android.hardware.Camera.PreviewCallback() {
+            public void onPreviewFrame(byte[] data, android.hardware.Camera camera) {
+                cb.onPreviewFrame(data);
+            }
+        });
+    }
+
+    public void autoFocus(final AutoFocusCallback cb) {
+        mCamera.autoFocus(new android.hardware.Camera.AutoFocusCallback() {
+            public void onAutoFocus(boolean focused, android.hardware.Camera camera) {
+                cb.onAutoFocus(focused);
+            }
+        });
+    }
+
+    public void cancelAutoFocus() {
+        mCamera.cancelAutoFocus();
+    }
+
+    public void takePicture(final ShutterCallback shutter, PictureCallback raw,
+            PictureCallback postview, PictureCallback jpeg) {
+        android.hardware.Camera.ShutterCallback shutterCallback = null;
+        if (shutter != null) {
+            shutterCallback = new android.hardware.Camera.ShutterCallback() {
+                public void onShutter() {
+                    shutter.onShutter();
+                }
+            };
+        }
+        mCamera.takePicture(shutterCallback, wrap(raw), wrap(postview), wrap(jpeg));
+    }
+
+    private static android.hardware.Camera.PictureCallback wrap(final PictureCallback cb) {
+        if (cb == null) return null;
+        return new android.hardware.Camera.PictureCallback() {
+            public void onPictureTaken(byte[] data, android.hardware.Camera camera) {
+                cb.onPictureTaken(data);
+            }
+        };
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+// A class that keeps the state and the statistics of a continuous burst. The
+// Camera activity calls start() when the shutter button is held, then
+// onCaptureStarted() and onJpegTaken() for every frame, and stop() when the
+// shutter button is released or the burst reaches its maximum length.
+//
+// The timestamps of the frames are kept in arrays that are allocated once and
+// reused by the following bursts, so a burst does not allocate per frame.
+public class BurstController {
+    private static final String TAG = "BurstController";
+
+    private boolean mActive;
+    private int mMaxLength;
+    // The number of frames whose capture has started and the number of
+    // frames whose jpeg has arrived.
+    private int mStarted;
+    private int mTaken;
+    // The uptime in milliseconds when takePicture and the jpeg callback
+    // happened for each frame.
+    private long[] mCaptureTimes = new long[0];
+    private long[] mJpegTimes = new long[0];
+
+    // The statistics of the last burst.
+    private float mFramesPerSecond;
+    private long mAverageLatency;
+    private long mMaxLatency;
+
+    public void start(int maxLength) {
+        if (mCaptureTimes.length < maxLength) {
+            mCaptureTimes = new long[maxLength];
+            mJpegTimes = new long[maxLength];
+        }
+        mMaxLength = maxLength;
+        mStarted = 0;
+        mTaken = 0;
+        mActive = true;
+        Log.v(TAG, "Start burst. max length=" + maxLength);
+    }
+
+    public boolean isActive() {
+        return mActive;
+    }
+
+    // Returns true if another frame can be captured in this burst.
+    public boolean canCaptureMore() {
+        return mActive && mStarted < mMaxLength;
+    }
+
+    public void onCaptureStarted() {
+        if (!canCaptureMore()) return;
+        mCaptureTimes[mStarted++] = SystemClock.uptimeMillis();
+    }
+
+    public void onJpegTaken() {
+        if (mTaken >= mStarted) return;
+        mJpegTimes[mTaken++] = SystemClock.uptimeMillis();
+    }
+
+    public int getFrameCount() {
+        return mTaken;
+    }
+
+    public void stop() {
+        if (!mActive) return;
+        mActive = false;
+        computeStatistics();
+        Log.v(TAG, "Burst done. frames=" + mTaken + ", fps=" + mFramesPerSecond
+                + ", avg latency=" + mAverageLatency + "ms, max latency="
+                + mMaxLatency + "ms");
+    }
+
+    // The sustained frame rate, measured between the first and the last jpeg.
+    public float getFramesPerSecond() {
+        return mFramesPerSecond;
+    }
+
+    // The average and the maximum time from takePicture to the jpeg callback.
+    public long getAverageLatency() {
+        return mAverageLatency;
+    }
+
+    public long getMaxLatency() {
+        return mMaxLatency;
+    }
+
+    private void computeStatistics() {
+        mFramesPerSecond = 0;
+        mAverageLatency = 0;
+        mMaxLatency = 0;
+        if (mTaken == 0) return;
+
+        long total = 0;
+        for (int i = 0; i < mTaken; i++) {
+            long latency = mJpegTimes[i] - mCaptureTimes[i];
+            total += latency;
+            mMaxLatency = Math.max(mMaxLatency, latency);
+        }
+        mAverageLatency = total / mTaken;
+
+        long duration = mJpegTimes[mTaken - 1] - mJpegTimes[0];
+        if (mTaken > 1 && duration > 0) {
+            mFramesPerSecond = (mTaken - 1) * 1000f / duration;
+        }
+    }
+}
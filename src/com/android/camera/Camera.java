@@ -17,30 +17,36 @@
 package com.android.camera;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
+import java.io.PrintWriter;
 import java.util.Collections;
 import java.util.Formatter;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 import android.app.Activity;
+import android.app.ActivityManager;
 import android.content.BroadcastReceiver;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.content.pm.ActivityInfo;
 import android.graphics.Bitmap;
+import android.graphics.Color;
 import android.hardware.Camera.CameraInfo;
 import android.hardware.Camera.Face;
 import android.hardware.Camera.FaceDetectionListener;
 import android.hardware.Camera.Parameters;
-import android.hardware.Camera.PictureCallback;
 import android.hardware.Camera.Size;
 import android.hardware.CameraSound;
 import android.location.Location;
@@ -66,6 +72,7 @@ import android.view.OrientationEventListener;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.View;
+import android.view.ViewConfiguration;
 import android.view.ViewGroup;
 import android.view.WindowManager;
 import android.view.animation.AnimationUtils;
@@ -101,19 +108,111 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
     private static final int SHOW_TAP_TO_FOCUS_TOAST = 6;
     private static final int UPDATE_THUMBNAIL = 7;
     private static final int CAMERA_TIMER = 10;
+    private static final int START_BURST = 11;
 
     // The subset of parameters we need to update in setCameraParameters().
     private static final int UPDATE_PARAM_INITIALIZE = 1;
     private static final int UPDATE_PARAM_ZOOM = 2;
-    private static final int UPDATE_PARAM_PREFERENCE = 4;
+    // AE and AWB locks, focus and metering areas.
+    private static final int UPDATE_PARAM_FOCUS_AREAS = 4;
+    // Picture size, preview size and jpeg quality.
+    private static final int UPDATE_PARAM_PICTURE_SIZE = 8;
+    private static final int UPDATE_PARAM_SCENE_MODE = 16;
+    private static final int UPDATE_PARAM_EXPOSURE = 32;
+    // The following are set in the auto scene mode only.
+    private static final int UPDATE_PARAM_FLASH = 64;
+    private static final int UPDATE_PARAM_WHITE_BALANCE = 128;
+    private static final int UPDATE_PARAM_FOCUS_MODE = 256;
+    private static final int UPDATE_PARAM_TIMER = 512;
+    private static final int UPDATE_PARAM_PREFERENCE = UPDATE_PARAM_FOCUS_AREAS
+            | UPDATE_PARAM_PICTURE_SIZE | UPDATE_PARAM_SCENE_MODE | UPDATE_PARAM_EXPOSURE
+            | UPDATE_PARAM_FLASH | UPDATE_PARAM_WHITE_BALANCE | UPDATE_PARAM_FOCUS_MODE
+            | UPDATE_PARAM_TIMER;
     private static final int UPDATE_PARAM_ALL = -1;
 
+    // The on-screen indicators to update in updateOnScreenIndicators().
+    private static final int INDICATOR_SCENE = 1;
+    private static final int INDICATOR_EXPOSURE = 2;
+    private static final int INDICATOR_FLASH = 4;
+    private static final int INDICATOR_TIMER = 8;
+    private static final int INDICATOR_WHITE_BALANCE = 16;
+    private static final int INDICATOR_FOCUS = 32;
+    private static final int INDICATOR_ALL = -1;
+
+    // What a change of a preference updates: a subset of parameters and the
+    // indicators. A key that is not in the table updates all the preference
+    // parameters and all the indicators.
+    private static class PreferenceBinding {
+        final int mUpdateSet;
+        final int mIndicators;
+
+        PreferenceBinding(int updateSet, int indicators) {
+            mUpdateSet = updateSet;
+            mIndicators = indicators;
+        }
+    }
+
+    private static final HashMap<String, PreferenceBinding> sPreferenceBindings =
+            new HashMap<String, PreferenceBinding>();
+    static {
+        sPreferenceBindings.put(CameraSettings.KEY_FLASH_MODE,
+                new PreferenceBinding(UPDATE_PARAM_FLASH, INDICATOR_FLASH));
+        sPreferenceBindings.put(CameraSettings.KEY_WHITE_BALANCE,
+                new PreferenceBinding(UPDATE_PARAM_WHITE_BALANCE, INDICATOR_WHITE_BALANCE));
+        sPreferenceBindings.put(CameraSettings.KEY_FOCUS_MODE,
+                new PreferenceBinding(UPDATE_PARAM_FOCUS_MODE, INDICATOR_FOCUS));
+        sPreferenceBindings.put(CameraSettings.KEY_EXPOSURE,
+                new PreferenceBinding(UPDATE_PARAM_EXPOSURE, INDICATOR_EXPOSURE));
+        sPreferenceBindings.put(CameraSettings.KEY_TIMER_MODE,
+                new PreferenceBinding(UPDATE_PARAM_TIMER, INDICATOR_TIMER));
+        // The scene mode overrides flash, white balance and focus mode, and
+        // they are set again when it goes back to auto.
+        sPreferenceBindings.put(CameraSettings.KEY_SCENE_MODE, new PreferenceBinding(
+                UPDATE_PARAM_SCENE_MODE | UPDATE_PARAM_FLASH | UPDATE_PARAM_WHITE_BALANCE
+                | UPDATE_PARAM_FOCUS_MODE | UPDATE_PARAM_TIMER,
+                INDICATOR_SCENE | INDICATOR_FLASH | INDICATOR_WHITE_BALANCE
+                | INDICATOR_FOCUS | INDICATOR_TIMER));
+        sPreferenceBindings.put(CameraSettings.KEY_PICTURE_SIZE,
+                new PreferenceBinding(UPDATE_PARAM_PICTURE_SIZE, 0));
+        // These are read when they are used.
+        sPreferenceBindings.put(CameraSettings.KEY_RECORD_LOCATION,
+                new PreferenceBinding(0, 0));
+        sPreferenceBindings.put(CameraSettings.KEY_CAMERA_ID,
+                new PreferenceBinding(0, 0));
+        sPreferenceBindings.put(CameraSettings.KEY_BURST_LENGTH,
+                new PreferenceBinding(0, 0));
+        sPreferenceBindings.put(CameraSettings.KEY_UPRIGHT_PICTURES,
+                new PreferenceBinding(0, 0));
+        // These are not settings.
+        sPreferenceBindings.put(CameraSettings.KEY_VERSION,
+                new PreferenceBinding(0, 0));
+        sPreferenceBindings.put(CameraSettings.KEY_LOCAL_VERSION,
+                new PreferenceBinding(0, 0));
+        sPreferenceBindings.put(CameraSettings.KEY_CAMERA_FIRST_USE_HINT_SHOWN,
+                new PreferenceBinding(0, 0));
+    }
+
+    // The preferences changed since the last onSharedPreferenceChanged().
+    private final HashSet<String> mChangedPreferences = new HashSet<String>();
+    private final OnSharedPreferenceChangeListener mPreferenceKeyListener =
+            new OnSharedPreferenceChangeListener() {
+        public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+            mChangedPreferences.add(key);
+        }
+    };
+
     // When setCameraParametersWhenIdle() is called, we accumulate the subsets
-    // needed to be updated in mUpdateSet.
+    // needed to be updated in mUpdateSet. They are set at the next transition
+    // to idle.
     private int mUpdateSet;
+    // The indicators to update with mUpdateSet.
+    private int mUpdateIndicators;
 
     private static final int SCREEN_DELAY = 2 * 60 * 1000;
 
+    // The background of the CaptureTrace overlay: half transparent black.
+    private static final int TRACE_OVERLAY_BACKGROUND = 0x80000000;
+
     private static final int ZOOM_STOPPED = 0;
     private static final int ZOOM_START = 1;
     private static final int ZOOM_STOPPING = 2;
@@ -126,6 +225,7 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
     private ZoomControl mZoomControl;
 
     private Parameters mParameters;
+    private ParameterCache mParameterCache;
     private Parameters mInitialParams;
     private boolean mFocusAreaSupported;
     private boolean mMeteringAreaSupported;
@@ -135,6 +235,8 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
     private MyOrientationEventListener mOrientationListener;
     // The degrees of the device rotated clockwise from its natural orientation.
     private int mOrientation = OrientationEventListener.ORIENTATION_UNKNOWN;
+    // The jpeg rotation set to the camera device, or -1 if it is unknown.
+    private int mJpegRotation = -1;
     // The orientation compensation for icons and thumbnails. Ex: if the value
     // is 90, the UI components should be rotated 90 degrees counter-clockwise.
     private int mOrientationCompensation = 0;
@@ -185,7 +287,9 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
 
     // We use a thread in ImageSaver to do the work of saving images and
     // generating thumbnails. This reduces the shot-to-shot time.
-    private ImageSaver mImageSaver;
+    private ImageSaver<Location> mImageSaver;
+    // Takes the thumbnails of mImageSaver to the thumbnail button.
+    private ThumbnailUpdater mThumbnailUpdater;
 
     private CameraSound mCameraSound;
 
@@ -195,6 +299,11 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         }
     };
 
+    // Takes the pictures on mDevice and the bursts. A burst starts when the
+    // shutter button is held and the burst length preference is not off.
+    private final CaptureSequencer<Location> mSequencer =
+            new CaptureSequencer<Location>(new CaptureHost());
+
     private final StringBuilder mBuilder = new StringBuilder();
     private final Formatter mFormatter = new Formatter(mBuilder);
     private final Object[] mFormatterArgs = new Object[1];
@@ -223,6 +332,8 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
     private static final int FOCUSING = 2;
     private static final int SNAPSHOT_IN_PROGRESS = 3;
     private int mCameraState = PREVIEW_STOPPED;
+    // The capture operations of mCameraDevice. Set and cleared with it.
+    private CameraDevice mDevice;
     private boolean mSnapshotOnIdle = false;
 
     private ContentResolver mContentResolver;
@@ -230,32 +341,28 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
 
     private LocationManager mLocationManager;
 
-    private final ShutterCallback mShutterCallback = new ShutterCallback();
-    private final PostViewPictureCallback mPostViewPictureCallback =
-            new PostViewPictureCallback();
-    private final RawPictureCallback mRawPictureCallback =
-            new RawPictureCallback();
-    private final AutoFocusCallback mAutoFocusCallback =
-            new AutoFocusCallback();
     private final ZoomListener mZoomListener = new ZoomListener();
     private final CameraErrorCallback mErrorCallback = new CameraErrorCallback();
 
-    private long mFocusStartTime;
-    private long mCaptureStartTime;
-    private long mShutterCallbackTime;
-    private long mPostViewPictureCallbackTime;
-    private long mRawPictureCallbackTime;
-    private long mJpegPictureCallbackTime;
+    // Shows the percentiles of CaptureTrace if it is enabled. May be null.
+    private TextView mTraceOverlay;
     private long mOnResumeTime;
     private long mPicturesRemaining;
+    // The PictureSizeEstimator key and prior of the current picture size and
+    // jpeg quality.
+    private String mPictureSizeKey;
+    private long mPictureSizePrior;
     private byte[] mJpegImageData;
 
-    // These latency time are for the CameraLatency test.
-    public long mAutoFocusTime;
-    public long mShutterLag;
-    public long mShutterToPictureDisplayedTime;
-    public long mPictureDisplayedToJpegCallbackTime;
-    public long mJpegCallbackFinishTime;
+    // The latencies of the shots are in CaptureTrace. The backpressure of the
+    // image saver: the bytes queued after the last shot was added, and the
+    // largest bytes queued.
+    public long mSaverQueuedBytes;
+    public long mSaverHighWaterBytes;
+    // The sustained frame rate and the average takePicture-to-jpeg latency of
+    // the last burst.
+    public float mBurstFramesPerSecond;
+    public long mBurstFrameLatency;
 
     // This handles everything about focus.
     private FocusManager mFocusManager;
@@ -325,13 +432,20 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
                 }
 
                 case UPDATE_THUMBNAIL: {
-                    mImageSaver.updateThumbnail();
+                    // The image saver may have been finished in onPause and
+                    // still be working in the background.
+                    ((ThumbnailUpdater) msg.obj).updateThumbnail();
                     break;
                 }
                 case CAMERA_TIMER: {
                     updateTimer(msg.arg1);
                     break;
                 }
+
+                case START_BURST: {
+                    startBurst();
+                    break;
+                }
             }
         }
     }
@@ -398,7 +512,7 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         boolean mirror = (info.facing == CameraInfo.CAMERA_FACING_FRONT);
         mFocusManager.initialize(mFocusAreaIndicator, mPreviewFrame, mFaceView, this,
                 mirror, mDisplayOrientation);
-        mImageSaver = new ImageSaver();
+        createImageSaver();
         Util.initializeScreenBrightness(getWindow(), getContentResolver());
         installIntentFilter();
         initializeZoom();
@@ -420,14 +534,20 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         queue.addIdleHandler(new MessageQueue.IdleHandler() {
             public boolean queueIdle() {
                 Storage.ensureOSXCompatible();
+                // Save the pictures spooled by a process that died.
+                startService(new Intent(Camera.this, SpoolService.class));
                 return false;
             }
         });
     }
 
     private void initThumbnailButton() {
-        // Load the thumbnail from the disk.
-        mThumbnail = Thumbnail.loadFrom(new File(getFilesDir(), Thumbnail.LAST_THUMB_FILENAME));
+        // Take the thumbnail of the mode that was left, or load it from the
+        // disk.
+        mThumbnail = ModeHandoff.takeThumbnail();
+        if (mThumbnail == null) {
+            mThumbnail = Thumbnail.loadFrom(new File(getFilesDir(), Thumbnail.LAST_THUMB_FILENAME));
+        }
         updateThumbnailButton();
     }
 
@@ -457,9 +577,9 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         mLocationManager.recordLocation(recordLocation);
 
         installIntentFilter();
-        mImageSaver = new ImageSaver();
-        initializeZoom();
         keepMediaProviderInstance();
+        createImageSaver();
+        initializeZoom();
         checkStorage();
         hidePostCaptureAlert();
 
@@ -497,8 +617,8 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
     }
 
     private void initializeZoom() {
-        // Get the parameter to make sure we have the up-to-date zoom value.
-        mParameters = mCameraDevice.getParameters();
+        // The zoom listener keeps the zoom value of the cache up to date.
+        mParameters = mParameterCache.get();
         if (!mParameters.isZoomSupported()) return;
         mZoomMax = mParameters.getMaxZoom();
         // Currently we use immediate zoom for fast zooming to get better UX and
@@ -600,8 +720,11 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
             if (action.equals(Intent.ACTION_MEDIA_MOUNTED)
                     || action.equals(Intent.ACTION_MEDIA_UNMOUNTED)
                     || action.equals(Intent.ACTION_MEDIA_CHECKING)) {
+                StorageMonitor.instance().invalidate();
+                if (action.equals(Intent.ACTION_MEDIA_MOUNTED)) Util.loadImageNames(true);
                 checkStorage();
             } else if (action.equals(Intent.ACTION_MEDIA_SCANNER_FINISHED)) {
+                StorageMonitor.instance().invalidate();
                 checkStorage();
                 if (!mIsImageCaptureIntent) {
                     updateThumbnailButton();
@@ -610,6 +733,14 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         }
     };
 
+    // Updates the storage hint when StorageMonitor finishes a poll.
+    private final StorageMonitor.Listener mStorageListener =
+            new StorageMonitor.Listener() {
+        public void onStorageSpaceChanged() {
+            updatePicturesRemaining();
+        }
+    };
+
     private void initOnScreenIndicator() {
         mGpsIndicator = (ImageView) findViewById(R.id.onscreen_gps_indicator);
         mExposureIndicator = (TextView) findViewById(R.id.onscreen_exposure_indicator);
@@ -731,74 +862,42 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
     }
 
     private void updateOnScreenIndicators() {
-        boolean isAutoScene = !(Parameters.SCENE_MODE_AUTO.equals(mParameters.getSceneMode()));
-        updateSceneOnScreenIndicator(isAutoScene);
-        updateExposureOnScreenIndicator(CameraSettings.readExposure(mPreferences));
-        updateFlashOnScreenIndicator(mParameters.getFlashMode());
-        updateTimerOnScreenIndicator();
-        updateWhiteBalanceOnScreenIndicator(mParameters.getWhiteBalance());
-        updateFocusOnScreenIndicator(mParameters.getFocusMode());
-    }
-    private final class ShutterCallback
-            implements android.hardware.Camera.ShutterCallback {
-        public void onShutter() {
-            mShutterCallbackTime = System.currentTimeMillis();
-            mShutterLag = mShutterCallbackTime - mCaptureStartTime;
-            Log.v(TAG, "mShutterLag = " + mShutterLag + "ms");
-            mFocusManager.onShutter();
-        }
+        updateOnScreenIndicators(INDICATOR_ALL);
     }
 
-    private final class PostViewPictureCallback implements PictureCallback {
-        public void onPictureTaken(
-                byte [] data, android.hardware.Camera camera) {
-            mPostViewPictureCallbackTime = System.currentTimeMillis();
-            Log.v(TAG, "mShutterToPostViewCallbackTime = "
-                    + (mPostViewPictureCallbackTime - mShutterCallbackTime)
-                    + "ms");
+    private void updateOnScreenIndicators(int indicators) {
+        if ((indicators & INDICATOR_SCENE) != 0) {
+            boolean isAutoScene = !(Parameters.SCENE_MODE_AUTO.equals(mParameters.getSceneMode()));
+            updateSceneOnScreenIndicator(isAutoScene);
         }
-    }
-
-    private final class RawPictureCallback implements PictureCallback {
-        public void onPictureTaken(
-                byte [] rawData, android.hardware.Camera camera) {
-            mRawPictureCallbackTime = System.currentTimeMillis();
-            Log.v(TAG, "mShutterToRawCallbackTime = "
-                    + (mRawPictureCallbackTime - mShutterCallbackTime) + "ms");
+        if ((indicators & INDICATOR_EXPOSURE) != 0) {
+            updateExposureOnScreenIndicator(CameraSettings.readExposure(mPreferences));
+        }
+        if ((indicators & INDICATOR_FLASH) != 0) {
+            updateFlashOnScreenIndicator(mParameters.getFlashMode());
+        }
+        if ((indicators & INDICATOR_TIMER) != 0) {
+            updateTimerOnScreenIndicator();
+        }
+        if ((indicators & INDICATOR_WHITE_BALANCE) != 0) {
+            updateWhiteBalanceOnScreenIndicator(mParameters.getWhiteBalance());
+        }
+        if ((indicators & INDICATOR_FOCUS) != 0) {
+            updateFocusOnScreenIndicator(mParameters.getFocusMode());
         }
     }
-
-    private final class JpegPictureCallback implements PictureCallback {
-        Location mLocation;
-
-        public JpegPictureCallback(Location loc) {
-            mLocation = loc;
+    // Runs in main thread
+    private final class CaptureHost implements CaptureSequencer.Host<Location> {
+        public void onShutter() {
+            mFocusManager.onShutter();
         }
 
-        public void onPictureTaken(
-                final byte [] jpegData, final android.hardware.Camera camera) {
-            if (mPausing) {
-                return;
-            }
-
-            mJpegPictureCallbackTime = System.currentTimeMillis();
-            // If postview callback has arrived, the captured image is displayed
-            // in postview callback. If not, the captured image is displayed in
-            // raw picture callback.
-            if (mPostViewPictureCallbackTime != 0) {
-                mShutterToPictureDisplayedTime =
-                        mPostViewPictureCallbackTime - mShutterCallbackTime;
-                mPictureDisplayedToJpegCallbackTime =
-                        mJpegPictureCallbackTime - mPostViewPictureCallbackTime;
-            } else {
-                mShutterToPictureDisplayedTime =
-                        mRawPictureCallbackTime - mShutterCallbackTime;
-                mPictureDisplayedToJpegCallbackTime =
-                        mJpegPictureCallbackTime - mRawPictureCallbackTime;
-            }
-            Log.v(TAG, "mPictureDisplayedToJpegCallbackTime = "
-                    + mPictureDisplayedToJpegCallbackTime + "ms");
+        public void onAutoFocus(boolean focused) {
+            setCameraState(IDLE);
+            mFocusManager.onAutoFocus(focused);
+        }
 
+        public void onJpegTaken(byte[] jpegData, Location loc, CaptureTrace.Shot shot) {
             if (!mIsImageCaptureIntent) {
                 startPreview();
                 startFaceDetection();
@@ -806,7 +905,22 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
 
             if (!mIsImageCaptureIntent) {
                 Size s = mParameters.getPictureSize();
-                mImageSaver.addImage(jpegData, mLocation, s.width, s.height);
+                int previewWidth;
+                if (getRequestedOrientation() == ActivityInfo.SCREEN_ORIENTATION_PORTRAIT) {
+                    previewWidth = mPreviewFrameLayout.getHeight();
+                } else {
+                    previewWidth = mPreviewFrameLayout.getWidth();
+                }
+                mImageSaver.addImage(jpegData, (loc == null) ? null : new Location(loc),
+                        s.width, s.height, previewWidth, isUprightPictures(),
+                        PictureSizeEstimator.getKey(mCameraId, s.width, s.height,
+                                mParameters.getJpegQuality()), shot);
+                mSaverQueuedBytes = mImageSaver.getQueuedBytes();
+                mSaverHighWaterBytes = mImageSaver.getHighWaterBytes();
+                Log.v(TAG, "Add image blocked = " + shot.getDuration(
+                        CaptureTrace.SPAN_ADD_IMAGE_BLOCKED) / 1000
+                        + "ms, queued bytes = " + mSaverQueuedBytes
+                        + ", high-water bytes = " + mSaverHighWaterBytes);
             } else {
                 mJpegImageData = jpegData;
                 if (!mQuickCapture) {
@@ -821,25 +935,32 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
             // the mean time and fill it, but that could have happened between the
             // shutter press and saving the JPEG too.
             checkStorage();
+        }
 
-            long now = System.currentTimeMillis();
-            mJpegCallbackFinishTime = now - mJpegPictureCallbackTime;
-            Log.v(TAG, "mJpegCallbackFinishTime = "
-                    + mJpegCallbackFinishTime + "ms");
-            mJpegPictureCallbackTime = 0;
+        public long getBurstRemaining() {
+            return Camera.this.getBurstRemaining();
         }
-    }
 
-    private final class AutoFocusCallback
-            implements android.hardware.Camera.AutoFocusCallback {
-        public void onAutoFocus(
-                boolean focused, android.hardware.Camera camera) {
-            if (mPausing) return;
+        public void snap() {
+            mFocusManager.doSnap();
+        }
 
-            mAutoFocusTime = System.currentTimeMillis() - mFocusStartTime;
-            Log.v(TAG, "mAutoFocusTime = " + mAutoFocusTime + "ms");
-            setCameraState(IDLE);
-            mFocusManager.onAutoFocus(focused);
+        public void onBurstStopped(BurstController burst) {
+            mFocusManager.setBurstLock(false);
+            mBurstFramesPerSecond = burst.getFramesPerSecond();
+            mBurstFrameLatency = burst.getAverageLatency();
+        }
+
+        public void onShotDone(CaptureTrace.Shot shot) {
+            updateTraceOverlay();
+        }
+
+        public void post(Runnable r) {
+            mHandler.post(r);
+        }
+
+        public void removeCallbacks(Runnable r) {
+            mHandler.removeCallbacks(r);
         }
     }
 
@@ -869,130 +990,35 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         }
     }
 
-    // Each SaveRequest remembers the data needed to save an image.
-    private static class SaveRequest {
-        byte[] data;
-        Location loc;
-        int width, height;
-        long dateTaken;
-        int previewWidth;
-    }
-
-    // We use a queue to store the SaveRequests that have not been completed
-    // yet. The main thread puts the request into the queue. The saver thread
-    // gets it from the queue, does the work, and removes it from the queue.
-    //
-    // There are several cases the main thread needs to wait for the saver
-    // thread to finish all the work in the queue:
-    // (1) When the activity's onPause() is called, we need to finish all the
-    // work, so other programs (like Gallery) can see all the images.
-    // (2) When we need to show the SharePop, we need to finish all the work
-    // too, because we want to show the thumbnail of the last image taken.
-    //
-    // If the queue becomes too long, adding a new request will block the main
-    // thread until the queue length drops below the threshold (QUEUE_LIMIT).
-    // If we don't do this, we may face several problems: (1) We may OOM
-    // because we are holding all the jpeg data in memory. (2) We may ANR
-    // when we need to wait for saver thread finishing all the work (in
-    // onPause() or showSharePopup()) because the time to finishing a long queue
-    // of work may be too long.
-    private class ImageSaver extends Thread {
-        private static final int QUEUE_LIMIT = 3;
-
-        private ArrayList<SaveRequest> mQueue;
-        private Thumbnail mPendingThumbnail;
-        private Object mUpdateThumbnailLock = new Object();
-        private boolean mStop;
-
-        // Runs in main thread
-        public ImageSaver() {
-            mQueue = new ArrayList<SaveRequest>();
-            start();
-        }
-
-        // Runs in main thread
-        public void addImage(final byte[] data, Location loc, int width,
-                int height) {
-            SaveRequest r = new SaveRequest();
-            r.data = data;
-            r.loc = (loc == null) ? null : new Location(loc);  // make a copy
-            r.width = width;
-            r.height = height;
-            r.dateTaken = System.currentTimeMillis();
-            if (getRequestedOrientation() == ActivityInfo.SCREEN_ORIENTATION_PORTRAIT) {
-                r.previewWidth = mPreviewFrameLayout.getHeight();
-            } else {
-                r.previewWidth = mPreviewFrameLayout.getWidth();
-            }
-            synchronized (this) {
-                while (mQueue.size() >= QUEUE_LIMIT) {
-                    try {
-                        wait();
-                    } catch (InterruptedException ex) {
-                        // ignore.
-                    }
-                }
-                mQueue.add(r);
-                notifyAll();  // Tell saver thread there is new work to do.
-            }
-        }
-
-        // Runs in saver thread
-        @Override
-        public void run() {
-            while (true) {
-                SaveRequest r;
-                synchronized (this) {
-                    if (mQueue.isEmpty()) {
-                        notifyAll();  // notify main thread in waitDone
-
-                        // Note that we can only stop after we saved all images
-                        // in the queue.
-                        if (mStop) break;
-
-                        try {
-                            wait();
-                        } catch (InterruptedException ex) {
-                            // ignore.
-                        }
-                        continue;
-                    }
-                    r = mQueue.get(0);
-                }
-                storeImage(r.data, r.loc, r.width, r.height, r.dateTaken,
-                        r.previewWidth);
-                synchronized(this) {
-                    mQueue.remove(0);
-                    notifyAll();  // the main thread may wait in addImage
-                }
-            }
-        }
-
-        // Runs in main thread
-        public void waitDone() {
-            synchronized (this) {
-                while (!mQueue.isEmpty()) {
-                    try {
-                        wait();
-                    } catch (InterruptedException ex) {
-                        // ignore.
-                    }
-                }
-            }
-            updateThumbnail();
-        }
+    // Runs in main thread
+    private void createImageSaver() {
+        ActivityManager am = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        mThumbnailUpdater = new ThumbnailUpdater();
+        mImageSaver = new ImageSaver<Location>(am.getMemoryClass() * 1024L * 1024L,
+                new MediaImageStore(this), mThumbnailUpdater);
+        mThumbnailUpdater.mSaver = mImageSaver;
+    }
 
-        // Runs in main thread
-        public void finish() {
-            waitDone();
-            synchronized (this) {
-                mStop = true;
-                notifyAll();
-            }
-            try {
-                join();
-            } catch (InterruptedException ex) {
-                // ignore.
+    // Makes the thumbnails of an ImageSaver, and shows them on the thumbnail
+    // button. It outlives the image saver finished by onPause(), and the next
+    // image saver gets a new one.
+    private class ThumbnailUpdater implements ImageSaver.ThumbnailListener<Location> {
+        ImageSaver<Location> mSaver;
+        private Thumbnail mPendingThumbnail;
+        private final Object mUpdateThumbnailLock = new Object();
+
+        // Runs in thumbnail thread
+        public void onThumbnail(ImageSaver.Request<Location> r) {
+            // Create a thumbnail whose width is equal or bigger than that of
+            // the preview.
+            Thumbnail t = Thumbnail.createThumbnail(r.data, r.thumbnailOffset,
+                    r.thumbnailLength, r.orientation, r.width, r.height,
+                    r.previewWidth, (r.uri == null) ? null : Uri.parse(r.uri));
+            synchronized (mUpdateThumbnailLock) {
+                // We need to update the thumbnail in the main thread, so send
+                // a message to run updateThumbnail().
+                mPendingThumbnail = t;
+                mHandler.obtainMessage(UPDATE_THUMBNAIL, this).sendToTarget();
             }
         }
 
@@ -1001,7 +1027,7 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         public void updateThumbnail() {
             Thumbnail t;
             synchronized (mUpdateThumbnailLock) {
-                mHandler.removeMessages(UPDATE_THUMBNAIL);
+                mHandler.removeMessages(UPDATE_THUMBNAIL, this);
                 t = mPendingThumbnail;
                 mPendingThumbnail = null;
             }
@@ -1009,46 +1035,45 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
             if (t != null) {
                 mThumbnail = t;
                 mThumbnailView.setBitmap(mThumbnail.getBitmap());
+                // onPause() has saved the old thumbnail. Save this one too,
+                // after it.
+                if (mPausing) {
+                    final Thumbnail saved = t;
+                    mSaver.runInBackground(new Runnable() {
+                        public void run() {
+                            saved.saveTo(new File(getFilesDir(),
+                                    Thumbnail.LAST_THUMB_FILENAME));
+                        }
+                    });
+                }
             }
             // Share popup may still have the reference to the old thumbnail. Clear it.
             mSharePopup = null;
+            updateTraceOverlay();
         }
+    }
 
-        // Runs in saver thread
-        private void storeImage(final byte[] data, Location loc, int width,
-                int height, long dateTaken, int previewWidth) {
-            String title = Util.createJpegName(dateTaken);
-            int orientation = Exif.getOrientation(data);
-            Uri uri = Storage.addImage(mContentResolver, title, dateTaken,
-                    loc, orientation, data, width, height);
-            if (uri != null) {
-                boolean needThumbnail;
-                synchronized (this) {
-                    // If the number of requests in the queue (include the
-                    // current one) is greater than 1, we don't need to generate
-                    // thumbnail for this image. Because we'll soon replace it
-                    // with the thumbnail for some image later in the queue.
-                    needThumbnail = (mQueue.size() <= 1);
-                }
-                if (needThumbnail) {
-                    // Create a thumbnail whose width is equal or bigger than
-                    // that of the preview.
-                    int ratio = (int) Math.ceil((double) width / previewWidth);
-                    int inSampleSize = Integer.highestOneBit(ratio);
-                    Thumbnail t = Thumbnail.createThumbnail(
-                                data, orientation, inSampleSize, uri);
-                    synchronized (mUpdateThumbnailLock) {
-                        // We need to update the thumbnail in the main thread,
-                        // so send a message to run updateThumbnail().
-                        mPendingThumbnail = t;
-                        mHandler.sendEmptyMessage(UPDATE_THUMBNAIL);
-                    }
-                }
-                Util.broadcastNewPicture(Camera.this, uri);
-            }
+    private void initTraceOverlay() {
+        mTraceOverlay = new TextView(this);
+        mTraceOverlay.setTextColor(Color.WHITE);
+        mTraceOverlay.setBackgroundColor(TRACE_OVERLAY_BACKGROUND);
+        addContentView(mTraceOverlay, new ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        updateTraceOverlay();
+    }
+
+    private void updateTraceOverlay() {
+        if (mTraceOverlay != null) {
+            mTraceOverlay.setText(CaptureTrace.instance().getSummary());
         }
     }
 
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        CaptureTrace.instance().dump(writer);
+    }
+
     private void setCameraState(int state) {
         mCameraState = state;
         switch (state) {
@@ -1057,6 +1082,13 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
                 enableCameraControls(false);
                 break;
             case IDLE:
+                // Set the parameters that changed while the camera was busy.
+                if (mUpdateSet != 0
+                        && !mHandler.hasMessages(SET_CAMERA_PARAMETERS_WHEN_IDLE)) {
+                    mHandler.sendEmptyMessage(SET_CAMERA_PARAMETERS_WHEN_IDLE);
+                }
+                enableCameraControls(true);
+                break;
             case PREVIEW_STOPPED:
                 enableCameraControls(true);
                 break;
@@ -1069,18 +1101,25 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         if (mCameraState == SNAPSHOT_IN_PROGRESS || mCameraDevice == null) {
             return false;
         }
-        mCaptureStartTime = System.currentTimeMillis();
-        mPostViewPictureCallbackTime = 0;
         mJpegImageData = null;
 
-        // Set rotation and gps data.
-        Util.setRotationParameter(mParameters, mCameraId, mOrientation);
+        // Set rotation and gps data. The image saver adds the location to
+        // the EXIF data itself, so the parameters only need to be set when
+        // the rotation changes. The jpeg of an image capture intent does not
+        // go through the image saver, so the HAL adds the location.
         Location loc = mLocationManager.getCurrentLocation();
-        Util.setGpsParameters(mParameters, loc);
-        mCameraDevice.setParameters(mParameters);
+        int rotation = Util.getJpegRotation(mCameraId, mOrientation);
+        if (mIsImageCaptureIntent) {
+            mParameters.setRotation(rotation);
+            Util.setGpsParameters(mParameters, loc);
+            mParameterCache.commit();
+        } else if (rotation != mJpegRotation) {
+            mParameters.setRotation(rotation);
+            mParameterCache.commit();
+        }
+        mJpegRotation = rotation;
 
-        mCameraDevice.takePicture(mShutterCallback, mRawPictureCallback,
-                mPostViewPictureCallback, new JpegPictureCallback(loc));
+        mSequencer.capture(loc);
         mFaceDetectionStarted = false;
         setCameraState(SNAPSHOT_IN_PROGRESS);
         return true;
@@ -1088,7 +1127,7 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
 
     @Override
     public void setFocusParameters() {
-        setCameraParameters(UPDATE_PARAM_PREFERENCE);
+        setCameraParameters(UPDATE_PARAM_FOCUS_AREAS | UPDATE_PARAM_FOCUS_MODE);
     }
 
     @Override
@@ -1111,6 +1150,7 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
 
     private void getPreferredCameraId() {
         mPreferences = new ComboPreferences(this);
+        mPreferences.registerOnSharedPreferenceChangeListener(mPreferenceKeyListener);
         CameraSettings.upgradeGlobalPreferences(mPreferences.getGlobal());
         mCameraId = CameraSettings.readPreferredCameraId(mPreferences);
 
@@ -1121,39 +1161,128 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         }
     }
 
-    Thread mCameraOpenThread = new Thread(new Runnable() {
-        public void run() {
-            try {
-                mCameraDevice = Util.openCamera(Camera.this, mCameraId);
-            } catch (CameraHardwareException e) {
-                mOpenCameraFail = true;
-            } catch (CameraDisabledException e) {
-                mCameraDisabled = true;
-            }
-        }
-    });
+    // The tasks of the startup. See createStartupGraph().
+    private static final String STARTUP_CAMERA_ID = "camera id";
+    private static final String STARTUP_OPEN_CAMERA = "open camera";
+    private static final String STARTUP_INFLATE = "inflate views";
+    private static final String STARTUP_PREFERENCES = "preferences loaded";
+    private static final String STARTUP_CONTROLS = "controls";
+    private static final String STARTUP_SOUND = "camera sound";
+    private static final String STARTUP_PARAMETERS = "parameters read";
+    private static final String STARTUP_PREVIEW = "start preview";
+    private static final String STARTUP_INDICATORS = "indicators";
+    private static final String STARTUP_SURFACE = "surface ready";
 
-    Thread mCameraPreviewThread = new Thread(new Runnable() {
-        public void run() {
-            initializeCapabilities();
-            startPreview();
-        }
-    });
+    private StartupGraph mStartup;
+
+    // Used by the stress tests to report the startup phases.
+    public StartupGraph getStartupGraph() {
+        return mStartup;
+    }
+
+    // To reduce startup time, the camera is opened and the preview is started
+    // in background threads while the main thread inflates the views and
+    // loads the preferences.
+    private StartupGraph createStartupGraph() {
+        StartupGraph graph = new StartupGraph(TAG);
+        graph.addTask(STARTUP_CAMERA_ID, false, new Runnable() {
+            public void run() {
+                getPreferredCameraId();
+                String[] defaultFocusModes = getResources().getStringArray(
+                        R.array.pref_camera_focusmode_default_array);
+                mFocusManager = new FocusManager(mPreferences, defaultFocusModes);
+            }
+        });
+        graph.addTask(STARTUP_OPEN_CAMERA, true, new Runnable() {
+            public void run() {
+                try {
+                    mCameraDevice = Util.openCamera(Camera.this, mCameraId);
+                    mDevice = new AndroidCameraDevice(mCameraDevice);
+                    mSequencer.setDevice(mDevice);
+                    mParameterCache = new ParameterCache(mCameraDevice);
+                } catch (CameraHardwareException e) {
+                    mOpenCameraFail = true;
+                    mStartup.cancel();
+                } catch (CameraDisabledException e) {
+                    mCameraDisabled = true;
+                    mStartup.cancel();
+                }
+            }
+        }, STARTUP_CAMERA_ID);
+        graph.addTask(STARTUP_INFLATE, false, new Runnable() {
+            public void run() {
+                inflateViews();
+            }
+        });
+        graph.addTask(STARTUP_PREFERENCES, false, new Runnable() {
+            public void run() {
+                mPreferences.setLocalId(Camera.this, mCameraId);
+                CameraSettings.upgradeLocalPreferences(mPreferences.getLocal());
+                // we need to reset exposure for the preview
+                resetExposureCompensation();
+            }
+        }, STARTUP_CAMERA_ID);
+        graph.addTask(STARTUP_CONTROLS, false, new Runnable() {
+            public void run() {
+                initializeControls();
+            }
+        }, STARTUP_INFLATE);
+        graph.addTask(STARTUP_SOUND, false, new Runnable() {
+            public void run() {
+                mCameraSound = new CameraSound();
+            }
+        });
+        // Marked by startPreview() when the parameters are set.
+        graph.addMilestone(STARTUP_PARAMETERS, STARTUP_OPEN_CAMERA);
+        graph.addTask(STARTUP_PREVIEW, true, new Runnable() {
+            public void run() {
+                try {
+                    initializeCapabilities();
+                    startPreview();
+                } finally {
+                    // startPreview() returns early if the activity is paused.
+                    mStartup.markDone(STARTUP_PARAMETERS);
+                }
+            }
+        }, STARTUP_OPEN_CAMERA, STARTUP_INFLATE, STARTUP_PREFERENCES);
+        graph.addTask(STARTUP_INDICATORS, false, new Runnable() {
+            public void run() {
+                // This depends on camera parameters.
+                initializeIndicatorControl();
+            }
+        }, STARTUP_PARAMETERS, STARTUP_CONTROLS);
+        // Marked by surfaceChanged(), after onCreate.
+        graph.addMilestone(STARTUP_SURFACE, STARTUP_INFLATE);
+        return graph;
+    }
 
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
-        getPreferredCameraId();
-        String[] defaultFocusModes = getResources().getStringArray(
-                R.array.pref_camera_focusmode_default_array);
-        mFocusManager = new FocusManager(mPreferences, defaultFocusModes);
+        mStartup = createStartupGraph();
+        mStartup.start();
+
+        // Make sure camera device is opened. The views and the preferences are
+        // ready even if it fails.
+        mStartup.runUntil(STARTUP_INFLATE);
+        mStartup.runUntil(STARTUP_PREFERENCES);
+        mStartup.runUntil(STARTUP_OPEN_CAMERA);
+        if (mOpenCameraFail) {
+            Util.showErrorAndFinish(this, R.string.cannot_connect_camera);
+            return;
+        } else if (mCameraDisabled) {
+            Util.showErrorAndFinish(this, R.string.camera_disabled);
+            return;
+        }
 
-        /*
-         * To reduce startup time, we start the camera open and preview threads.
-         * We make sure the preview is started at the end of onCreate.
-         */
-        mCameraOpenThread.start();
+        // Make sure preview is started and the UI is initialized.
+        mStartup.runUntil(STARTUP_PREVIEW);
+        mStartup.runUntil(STARTUP_INDICATORS);
+        mStartup.runUntil(STARTUP_SOUND);
+        Log.v(TAG, mStartup.dump());
+    }
 
+    private void inflateViews() {
         mIsImageCaptureIntent = isImageCaptureIntent();
         setContentView(R.layout.camera);
         if (mIsImageCaptureIntent) {
@@ -1168,16 +1297,11 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         mRecordingTimeView = (TextView) findViewById(R.id.recording_time);
         mRecordingTimeRect = (RotateLayout) findViewById(R.id.recording_time_rect);
         mRotateDialog = new RotateDialogController(this, R.layout.rotate_dialog);
-
-        mPreferences.setLocalId(this, mCameraId);
-        CameraSettings.upgradeLocalPreferences(mPreferences.getLocal());
+        if (CaptureTrace.isOverlayEnabled()) initTraceOverlay();
 
         mNumberOfCameras = CameraHolder.instance().getNumberOfCameras();
         mQuickCapture = getIntent().getBooleanExtra(EXTRA_QUICK_CAPTURE, false);
 
-        // we need to reset exposure for the preview
-        resetExposureCompensation();
-
         Util.enterLightsOutMode(getWindow());
 
         // don't set mSurfaceHolder here. We have it set ONLY within
@@ -1187,23 +1311,9 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         SurfaceHolder holder = preview.getHolder();
         holder.addCallback(this);
         holder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
+    }
 
-        // Make sure camera device is opened.
-        try {
-            mCameraOpenThread.join();
-            mCameraOpenThread = null;
-            if (mOpenCameraFail) {
-                Util.showErrorAndFinish(this, R.string.cannot_connect_camera);
-                return;
-            } else if (mCameraDisabled) {
-                Util.showErrorAndFinish(this, R.string.camera_disabled);
-                return;
-            }
-        } catch (InterruptedException ex) {
-            // ignore
-        }
-        mCameraPreviewThread.start();
-
+    private void initializeControls() {
         if (mIsImageCaptureIntent) {
             setupCaptureParams();
         } else {
@@ -1219,28 +1329,6 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
 
         mBackCameraId = CameraHolder.instance().getBackCameraId();
         mFrontCameraId = CameraHolder.instance().getFrontCameraId();
-
-        // Wait until the camera settings are retrieved.
-        synchronized (mCameraPreviewThread) {
-            try {
-                mCameraPreviewThread.wait();
-            } catch (InterruptedException ex) {
-                // ignore
-            }
-        }
-
-        // Do this after starting preview because it depends on camera
-        // parameters.
-        initializeIndicatorControl();
-        mCameraSound = new CameraSound();
-
-        // Make sure preview is started.
-        try {
-            mCameraPreviewThread.join();
-        } catch (InterruptedException ex) {
-            // ignore
-        }
-        mCameraPreviewThread = null;
     }
 
     private void overrideCameraSettings(final String flashMode,
@@ -1285,7 +1373,9 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
                 CameraSettings.KEY_RECORD_LOCATION,
                 CameraSettings.KEY_PICTURE_SIZE,
                 CameraSettings.KEY_FOCUS_MODE,
-                CameraSettings.KEY_TIMER_MODE};
+                CameraSettings.KEY_TIMER_MODE,
+                CameraSettings.KEY_BURST_LENGTH,
+                CameraSettings.KEY_UPRIGHT_PICTURES};
 
         CameraPicker.setImageResourceId(R.drawable.ic_switch_photo_facing_holo_light);
         mIndicatorControlContainer.initialize(this, mPreferenceGroup,
@@ -1361,18 +1451,44 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         }
     }
 
+    // Reads the cached available space and asks StorageMonitor to poll in the
+    // background. The result of the poll comes to mStorageListener.
     private void checkStorage() {
-        mPicturesRemaining = Storage.getAvailableSpace();
-        if (mPicturesRemaining > Storage.LOW_STORAGE_THRESHOLD) {
-            mPicturesRemaining = (mPicturesRemaining - Storage.LOW_STORAGE_THRESHOLD)
-                    / Storage.PICTURE_SIZE;
-        } else if (mPicturesRemaining > 0) {
-            mPicturesRemaining = 0;
+        StorageMonitor.instance().requestUpdate();
+        updatePicturesRemaining();
+    }
+
+    // The estimate follows the sizes of the pictures saved before with the
+    // current picture size and jpeg quality.
+    private void updatePicturesRemaining() {
+        long space = StorageMonitor.instance().getAvailableSpace();
+        if (mPictureSizeKey == null) {
+            // The parameters are not set yet.
+            mPicturesRemaining = space;
+            if (mPicturesRemaining > Storage.LOW_STORAGE_THRESHOLD) {
+                mPicturesRemaining = (mPicturesRemaining - Storage.LOW_STORAGE_THRESHOLD)
+                        / Storage.PICTURE_SIZE;
+            } else if (mPicturesRemaining > 0) {
+                mPicturesRemaining = 0;
+            }
+        } else {
+            mPicturesRemaining = PictureSizeEstimator.instance(this).getPicturesRemaining(
+                    mPictureSizeKey, mPictureSizePrior, space);
         }
 
         updateStorageHint();
     }
 
+    // Returns the number of pictures a burst may still take. It is more
+    // conservative than mPicturesRemaining and counts the pictures not written
+    // yet, so the storage does not fill in the middle of a burst.
+    private long getBurstRemaining() {
+        if (mPictureSizeKey == null) return mPicturesRemaining;
+        long pending = (mImageSaver == null) ? 0 : mImageSaver.getQueuedBytes();
+        return PictureSizeEstimator.instance(this).getBurstRemaining(mPictureSizeKey,
+                mPictureSizePrior, StorageMonitor.instance().getAvailableSpace(), pending);
+    }
+
     @OnClickAttr
     public void onThumbnailClicked(View v) {
         if (isCameraIdle() && mThumbnail != null) {
@@ -1480,12 +1596,24 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
 
     @Override
     public void onShutterButtonFocus(boolean pressed) {
+        // Start a burst if the shutter button is held long enough. Releasing
+        // the button before that cancels it.
+        mHandler.removeMessages(START_BURST);
+        if (pressed && getBurstLength() > 0 && !mTimerMode && !mIsImageCaptureIntent
+                && mCameraState != SNAPSHOT_IN_PROGRESS) {
+            mHandler.sendEmptyMessageDelayed(START_BURST,
+                    ViewConfiguration.getLongPressTimeout());
+        } else if (!pressed && mSequencer.isBurstActive()) {
+            mSequencer.stopBurst();
+        }
+
         if (mTimerMode && pressed || mPausing || collapseCameraControls() || mCameraState == SNAPSHOT_IN_PROGRESS) return;
 
         // Do not do focus if there is not enough storage.
         if (pressed && !canTakePicture()) return;
 
         if (pressed) {
+            mSequencer.beginShot();
             mFocusManager.onShutterDown();
         } else {
             mFocusManager.onShutterUp();
@@ -1510,8 +1638,40 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         }
     }
 
+    private boolean isUprightPictures() {
+        return "on".equals(mPreferences.getString(CameraSettings.KEY_UPRIGHT_PICTURES,
+                getString(R.string.pref_camera_upright_default)));
+    }
+
+    private int getBurstLength() {
+        return Integer.parseInt(mPreferences.getString(CameraSettings.KEY_BURST_LENGTH,
+                getString(R.string.pref_camera_burst_default)));
+    }
+
+    // Runs when the shutter button has been held. Focus, AE and AWB are locked
+    // for the whole burst, and every jpeg callback takes the next picture as
+    // soon as the preview is restarted.
+    private void startBurst() {
+        if (mPausing || mPicturesRemaining <= 0 || mSequencer.isBurstActive()) return;
+        long remaining = getBurstRemaining();
+        if (remaining <= 0) return;
+        mSequencer.startBurst((int) Math.min(getBurstLength(), remaining));
+        mFocusManager.setBurstLock(true);
+        if (mCameraState != SNAPSHOT_IN_PROGRESS) {
+            mSnapshotOnIdle = false;
+            mFocusManager.doSnap();
+        }
+    }
+
     @Override
     public void onShutterButtonClick() {
+        // The click that follows a held shutter button ends the burst. Do not
+        // take another picture.
+        if (mSequencer.isBurstActive()) {
+            mSequencer.stopBurst();
+            return;
+        }
+
         if (!mTimerMode) {
             if (!mCaptureMode.equals(getResources().getString(R.string.pref_camera_timer_entry_0))) {
                 mTimerMode = true;
@@ -1591,6 +1751,7 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         intentFilter.addAction(Intent.ACTION_MEDIA_CHECKING);
         intentFilter.addDataScheme("file");
         registerReceiver(mReceiver, intentFilter);
+        StorageMonitor.instance().addListener(mStorageListener);
         mDidRegister = true;
     }
 
@@ -1599,13 +1760,16 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         if (mOpenCameraFail || mCameraDisabled) return;
 
         mPausing = false;
-        mJpegPictureCallbackTime = 0;
+        mSequencer.resume();
         mZoomValue = 0;
 
         // Start the preview if it is not started.
         if (mCameraState == PREVIEW_STOPPED) {
             try {
                 mCameraDevice = Util.openCamera(this, mCameraId);
+                mDevice = new AndroidCameraDevice(mCameraDevice);
+                mSequencer.setDevice(mDevice);
+                mParameterCache = new ParameterCache(mCameraDevice);
                 initializeCapabilities();
                 resetExposureCompensation();
                 startPreview();
@@ -1641,6 +1805,8 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
     @Override
     protected void onPause() {
         mPausing = true;
+        mHandler.removeMessages(START_BURST);
+        mSequencer.pause();
         stopPreview();
         // Close the camera now because other activities may need to use it.
         closeCamera();
@@ -1657,6 +1823,7 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
             if (mImageSaver != null) {
                 mImageSaver.finish();
                 mImageSaver = null;
+                startService(new Intent(this, SpoolService.class));
             }
             if (!mIsImageCaptureIntent && mThumbnail != null && !mThumbnail.fromFile()) {
                 mThumbnail.saveTo(new File(getFilesDir(), Thumbnail.LAST_THUMB_FILENAME));
@@ -1665,6 +1832,7 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
 
         if (mDidRegister) {
             unregisterReceiver(mReceiver);
+            StorageMonitor.instance().removeListener(mStorageListener);
             mDidRegister = false;
         }
         if (mLocationManager != null) mLocationManager.recordLocation(false);
@@ -1716,16 +1884,15 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
 
     @Override
     public void autoFocus() {
-        mFocusStartTime = System.currentTimeMillis();
-        mCameraDevice.autoFocus(mAutoFocusCallback);
+        mSequencer.autoFocus();
         setCameraState(FOCUSING);
     }
 
     @Override
     public void cancelAutoFocus() {
-        mCameraDevice.cancelAutoFocus();
+        mDevice.cancelAutoFocus();
         setCameraState(IDLE);
-        setCameraParameters(UPDATE_PARAM_PREFERENCE);
+        setCameraParameters(UPDATE_PARAM_FOCUS_AREAS | UPDATE_PARAM_FOCUS_MODE);
     }
 
     // Preview area is touched. Handle touch focus.
@@ -1815,6 +1982,7 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         // is null. This could happen if onResume() is invoked after this
         // function.
         mSurfaceHolder = holder;
+        if (mStartup != null) mStartup.markDone(STARTUP_SURFACE);
 
         // The mCameraDevice will be null if it fails to connect to the camera
         // hardware. In this case we will show a dialog and then finish the
@@ -1871,6 +2039,15 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
             mCameraDevice.setFaceDetectionListener(null);
             mCameraDevice.setErrorCallback(null);
             mCameraDevice = null;
+            mDevice = null;
+            mSequencer.setDevice(null);
+            Log.v(TAG, "Camera parameters: " + mParameterCache.getStatistics());
+            mParameterCache = null;
+            // All the parameters are set when the device is opened again.
+            mUpdateSet = 0;
+            mUpdateIndicators = 0;
+            mHandler.removeMessages(SET_CAMERA_PARAMETERS_WHEN_IDLE);
+            mJpegRotation = -1;
             setCameraState(PREVIEW_STOPPED);
             mFocusManager.onCameraReleased();
         }
@@ -1908,26 +2085,22 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         setPreviewDisplay(mSurfaceHolder);
         setDisplayOrientation();
 
-        if (!mSnapshotOnIdle) {
+        if (!mSnapshotOnIdle && !mSequencer.isBurstActive()) {
             // If the focus mode is continuous autofocus, call cancelAutoFocus to
             // resume it because it may have been paused by autoFocus call.
             if (Parameters.FOCUS_MODE_CONTINUOUS_PICTURE.equals(mFocusManager.getFocusMode())) {
-                mCameraDevice.cancelAutoFocus();
+                mDevice.cancelAutoFocus();
             }
             mFocusManager.setAeAwbLock(false); // Unlock AE and AWB.
         }
         setCameraParameters(UPDATE_PARAM_ALL);
 
         // Inform the mainthread to go on the UI initialization.
-        if (mCameraPreviewThread != null) {
-            synchronized (mCameraPreviewThread) {
-                mCameraPreviewThread.notify();
-            }
-        }
+        if (mStartup != null) mStartup.markDone(STARTUP_PARAMETERS);
 
         try {
             Log.v(TAG, "startPreview");
-            mCameraDevice.startPreview();
+            mDevice.startPreview();
         } catch (Throwable ex) {
             closeCamera();
             throw new RuntimeException("startPreview failed", ex);
@@ -1945,8 +2118,8 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
     private void stopPreview() {
         if (mCameraDevice != null && mCameraState != PREVIEW_STOPPED) {
             Log.v(TAG, "stopPreview");
-            mCameraDevice.cancelAutoFocus(); // Reset the focus.
-            mCameraDevice.stopPreview();
+            mDevice.cancelAutoFocus(); // Reset the focus.
+            mDevice.stopPreview();
             mFaceDetectionStarted = false;
         }
         setCameraState(PREVIEW_STOPPED);
@@ -1983,7 +2156,7 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         }
     }
 
-    private void updateCameraParametersPreference() {
+    private void updateCameraParametersFocusAreas() {
         if (mAeLockSupported) {
             mParameters.setAutoExposureLock(mFocusManager.getAeAwbLock());
         }
@@ -2000,7 +2173,11 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
             // Use the same area for focus and metering.
             mParameters.setMeteringAreas(mFocusManager.getMeteringAreas());
         }
+    }
 
+    // Returns false if the preview was restarted, which sets all the
+    // parameters again.
+    private boolean updateCameraParametersPictureSize() {
         // Set picture size.
         String pictureSize = mPreferences.getString(
                 CameraSettings.KEY_PICTURE_SIZE, null);
@@ -2029,20 +2206,34 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
             mParameters.setPreviewSize(optimalSize.width, optimalSize.height);
 
             // If preview is running, stop preview and let startPreview call
-            // this function again because we cannot change size on the fly
+            // this function again because we cannot change size on the fly.
+            // Drop the cached changes so it sets the size and reads the
+            // parameters back.
             if (mCameraState != PREVIEW_STOPPED) {
+                mParameterCache.reload();
                 stopPreview();
                 startPreview();
-                return;
+                return false;
             }
 
             // Zoom related settings will be changed for different preview
             // sizes, so set and read the parameters to get lastest values
-            mCameraDevice.setParameters(mParameters);
-            mParameters = mCameraDevice.getParameters();
+            mParameterCache.commit();
+            mParameters = mParameterCache.reload();
         }
         Log.v(TAG, "Preview size is " + optimalSize.width + "x" + optimalSize.height);
 
+        // Set JPEG quality.
+        int jpegQuality = CameraProfile.getJpegEncodingQualityParameter(mCameraId,
+                CameraProfile.QUALITY_HIGH);
+        mParameters.setJpegQuality(jpegQuality);
+        mPictureSizeKey = PictureSizeEstimator.getKey(mCameraId, size.width,
+                size.height, jpegQuality);
+        mPictureSizePrior = PictureSizeEstimator.getPrior(size.width, size.height);
+        return true;
+    }
+
+    private void updateCameraParametersSceneMode() {
         // Since change scene mode may change supported values,
         // Set scene mode first,
         mSceneMode = mPreferences.getString(
@@ -2051,12 +2242,12 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         if (isSupported(mSceneMode, mParameters.getSupportedSceneModes())) {
             if (!mParameters.getSceneMode().equals(mSceneMode)) {
                 mParameters.setSceneMode(mSceneMode);
-                mCameraDevice.setParameters(mParameters);
+                mParameterCache.commit();
 
                 // Setting scene mode will change the settings of flash mode,
                 // white balance, and focus mode. Here we read back the
                 // parameters, so we can know those settings.
-                mParameters = mCameraDevice.getParameters();
+                mParameters = mParameterCache.reload();
             }
         } else {
             mSceneMode = mParameters.getSceneMode();
@@ -2064,15 +2255,9 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
                 mSceneMode = Parameters.SCENE_MODE_AUTO;
             }
         }
+    }
 
-        // Set JPEG quality.
-        int jpegQuality = CameraProfile.getJpegEncodingQualityParameter(mCameraId,
-                CameraProfile.QUALITY_HIGH);
-        mParameters.setJpegQuality(jpegQuality);
-
-        // For the following settings, we need to check if the settings are
-        // still supported by latest driver, if not, ignore the settings.
-
+    private void updateCameraParametersExposure() {
         // Set exposure compensation
         int value = CameraSettings.readExposure(mPreferences);
         int max = mParameters.getMaxExposureCompensation();
@@ -2082,46 +2267,72 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         } else {
             Log.w(TAG, "invalid exposure range: " + value);
         }
+    }
+
+    private void updateCameraParametersFlash() {
+        // Set flash mode.
+        String flashMode = mPreferences.getString(
+                CameraSettings.KEY_FLASH_MODE,
+                getString(R.string.pref_camera_flashmode_default));
+        List<String> supportedFlash = mParameters.getSupportedFlashModes();
+        if (isSupported(flashMode, supportedFlash)) {
+            mParameters.setFlashMode(flashMode);
+        }
+    }
+
+    private void updateCameraParametersWhiteBalance() {
+        // Set white balance parameter.
+        String whiteBalance = mPreferences.getString(
+                CameraSettings.KEY_WHITE_BALANCE,
+                getString(R.string.pref_camera_whitebalance_default));
+        if (isSupported(whiteBalance,
+                mParameters.getSupportedWhiteBalance())) {
+            mParameters.setWhiteBalance(whiteBalance);
+        }
+    }
+
+    private void updateCameraParametersPreference(int updateSet) {
+        if ((updateSet & UPDATE_PARAM_FOCUS_AREAS) != 0) {
+            updateCameraParametersFocusAreas();
+        }
+
+        if ((updateSet & UPDATE_PARAM_PICTURE_SIZE) != 0) {
+            if (!updateCameraParametersPictureSize()) return;
+        }
+
+        if ((updateSet & UPDATE_PARAM_SCENE_MODE) != 0) {
+            updateCameraParametersSceneMode();
+        }
+
+        // For the following settings, we need to check if the settings are
+        // still supported by latest driver, if not, ignore the settings.
+
+        if ((updateSet & UPDATE_PARAM_EXPOSURE) != 0) {
+            updateCameraParametersExposure();
+        }
 
         if (Parameters.SCENE_MODE_AUTO.equals(mSceneMode)) {
-            // Set flash mode.
-            String flashMode = mPreferences.getString(
-                    CameraSettings.KEY_FLASH_MODE,
-                    getString(R.string.pref_camera_flashmode_default));
-            List<String> supportedFlash = mParameters.getSupportedFlashModes();
-            if (isSupported(flashMode, supportedFlash)) {
-                mParameters.setFlashMode(flashMode);
-            } else {
-                flashMode = mParameters.getFlashMode();
-                if (flashMode == null) {
-                    flashMode = getString(
-                            R.string.pref_camera_flashmode_no_flash);
-                }
+            if ((updateSet & UPDATE_PARAM_FLASH) != 0) {
+                updateCameraParametersFlash();
             }
 
-            // Set white balance parameter.
-            String whiteBalance = mPreferences.getString(
-                    CameraSettings.KEY_WHITE_BALANCE,
-                    getString(R.string.pref_camera_whitebalance_default));
-            if (isSupported(whiteBalance,
-                    mParameters.getSupportedWhiteBalance())) {
-                mParameters.setWhiteBalance(whiteBalance);
-            } else {
-                whiteBalance = mParameters.getWhiteBalance();
-                if (whiteBalance == null) {
-                    whiteBalance = Parameters.WHITE_BALANCE_AUTO;
-                }
+            if ((updateSet & UPDATE_PARAM_WHITE_BALANCE) != 0) {
+                updateCameraParametersWhiteBalance();
             }
 
-            // Set focus mode.
-            mFocusManager.overrideFocusMode(null);
-            mParameters.setFocusMode(mFocusManager.getFocusMode());
+            if ((updateSet & UPDATE_PARAM_FOCUS_MODE) != 0) {
+                // Set focus mode.
+                mFocusManager.overrideFocusMode(null);
+                mParameters.setFocusMode(mFocusManager.getFocusMode());
+            }
 
-            // Set capture mode.
-            mCaptureMode = mPreferences.getString(
-                    CameraSettings.KEY_TIMER_MODE,
-                    getString(R.string.pref_camera_timer_entry_0));
-        } else {
+            if ((updateSet & UPDATE_PARAM_TIMER) != 0) {
+                // Set capture mode.
+                mCaptureMode = mPreferences.getString(
+                        CameraSettings.KEY_TIMER_MODE,
+                        getString(R.string.pref_camera_timer_entry_0));
+            }
+        } else if ((updateSet & (UPDATE_PARAM_SCENE_MODE | UPDATE_PARAM_FOCUS_MODE)) != 0) {
             mFocusManager.overrideFocusMode(mParameters.getFocusMode());
         }
     }
@@ -2129,8 +2340,9 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
     // We separate the parameters into several subsets, so we can update only
     // the subsets actually need updating. The PREFERENCE set needs extra
     // locking because the preference can be changed from GLThread as well.
+    // The parameters are sent to the device only if a value changed.
     private void setCameraParameters(int updateSet) {
-        mParameters = mCameraDevice.getParameters();
+        mParameters = mParameterCache.get();
 
         if ((updateSet & UPDATE_PARAM_INITIALIZE) != 0) {
             updateCameraParametersInitialize();
@@ -2141,31 +2353,41 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
         }
 
         if ((updateSet & UPDATE_PARAM_PREFERENCE) != 0) {
-            updateCameraParametersPreference();
+            updateCameraParametersPreference(updateSet);
         }
 
-        mCameraDevice.setParameters(mParameters);
+        mParameterCache.commit();
     }
 
     // If the Camera is idle, update the parameters immediately, otherwise
-    // accumulate them in mUpdateSet and update later.
-    private void setCameraParametersWhenIdle(int additionalUpdateSet) {
+    // accumulate them in mUpdateSet and update them when the camera becomes
+    // idle. The indicators are updated with the parameters they show.
+    private void setCameraParametersWhenIdle(int additionalUpdateSet,
+            int additionalIndicators) {
         mUpdateSet |= additionalUpdateSet;
+        mUpdateIndicators |= additionalIndicators;
         if (mCameraDevice == null) {
             // We will update all the parameters when we open the device, so
             // we don't need to do anything now.
             mUpdateSet = 0;
+            mUpdateIndicators = 0;
             return;
         } else if (isCameraIdle()) {
-            setCameraParameters(mUpdateSet);
-            updateSceneModeUI();
+            int updateSet = mUpdateSet;
+            int indicators = mUpdateIndicators;
             mUpdateSet = 0;
-        } else {
-            if (!mHandler.hasMessages(SET_CAMERA_PARAMETERS_WHEN_IDLE)) {
-                mHandler.sendEmptyMessageDelayed(
-                        SET_CAMERA_PARAMETERS_WHEN_IDLE, 1000);
+            mUpdateIndicators = 0;
+            setCameraParameters(updateSet);
+            if ((updateSet & UPDATE_PARAM_SCENE_MODE) != 0) {
+                updateSceneModeUI();
             }
+            updateOnScreenIndicators(indicators);
         }
+        // Otherwise setCameraState(IDLE) sets them.
+    }
+
+    private void setCameraParametersWhenIdle(int additionalUpdateSet) {
+        setCameraParametersWhenIdle(additionalUpdateSet, 0);
     }
 
     private void gotoGallery() {
@@ -2265,7 +2487,12 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
 
     private boolean switchToOtherMode(int mode) {
         if (isFinishing()) return false;
-        if (mImageSaver != null) mImageSaver.waitDone();
+        // Do not wait for the image saver. onPause() hands the pictures not
+        // saved yet to the background. The thumbnail is handed over only if
+        // no picture can replace it.
+        Thumbnail thumbnail = (mImageSaver != null && mImageSaver.getPendingCount() > 0)
+                ? null : mThumbnail;
+        ModeHandoff.put(thumbnail, mLocationManager.getCurrentLocation());
         MenuHelper.gotoMode(mode, Camera.this);
         mHandler.removeMessages(FIRST_TIME_INIT);
         finish();
@@ -2281,6 +2508,26 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
     }
 
     public void onSharedPreferenceChanged() {
+        // The parameters and the indicators bound to the changed keys.
+        int updateSet = 0;
+        int indicators = 0;
+        if (mChangedPreferences.isEmpty()) {
+            // Changed without a key, like restoring the defaults.
+            updateSet = UPDATE_PARAM_PREFERENCE;
+            indicators = INDICATOR_ALL;
+        }
+        for (String key : mChangedPreferences) {
+            PreferenceBinding binding = sPreferenceBindings.get(key);
+            if (binding == null) {
+                updateSet = UPDATE_PARAM_PREFERENCE;
+                indicators = INDICATOR_ALL;
+                break;
+            }
+            updateSet |= binding.mUpdateSet;
+            indicators |= binding.mIndicators;
+        }
+        mChangedPreferences.clear();
+
         // ignore the events after "onPause()"
         if (mPausing) return;
 
@@ -2302,10 +2549,12 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
 
             finish();
         } else {
-            setCameraParametersWhenIdle(UPDATE_PARAM_PREFERENCE);
+            setCameraParametersWhenIdle(updateSet, indicators);
+            if ((updateSet & UPDATE_PARAM_PICTURE_SIZE) != 0) {
+                // The picture size or quality may have changed.
+                updatePicturesRemaining();
+            }
         }
-
-        updateOnScreenIndicators();
     }
 
     @Override
@@ -2351,6 +2600,8 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
             CameraSettings.restorePreferences(Camera.this, mPreferences,
                     mParameters);
             mIndicatorControlContainer.reloadPreferences();
+            // Clearing the preferences does not tell the keys. Update all.
+            mChangedPreferences.clear();
             onSharedPreferenceChanged();
         }
     }
@@ -2366,6 +2617,7 @@ public class Camera extends ActivityBase implements FocusManager.Listener,
 
     private void showSharePopup() {
         mImageSaver.waitDone();
+        mThumbnailUpdater.updateThumbnail();
         Uri uri = mThumbnail.getUri();
         if (mSharePopup == null || !uri.equals(mSharePopup.getUri())) {
             // SharePopup window takes the mPreviewPanel as its size reference.
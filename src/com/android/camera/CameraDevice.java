@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+// The capture operations of a camera: preview, focus and pictures. The
+// callbacks do not use framework types. The Camera activity uses
+// AndroidCameraDevice, and takes pictures through CaptureSequencer.
+// FakeCameraDevice lets tests run CaptureSequencer without a camera.
+//
+// As with android.hardware.Camera, the preview stops when a picture is taken
+// and must be started again after the jpeg callback.
+public interface CameraDevice {
+    public interface AutoFocusCallback {
+        public void onAutoFocus(boolean focused);
+    }
+
+    public interface ShutterCallback {
+        public void onShutter();
+    }
+
+    public interface PictureCallback {
+        // data is null if the camera does not give the picture in this form.
+        public void onPictureTaken(byte[] data);
+    }
+
+    public interface PreviewCallback {
+        public void onPreviewFrame(byte[] data);
+    }
+
+    public void startPreview();
+
+    public void stopPreview();
+
+    // Frames are delivered only while the preview runs. Set null to stop.
+    public void setPreviewCallback(PreviewCallback cb);
+
+    public void autoFocus(AutoFocusCallback cb);
+
+    public void cancelAutoFocus();
+
+    // Any callback may be null.
+    public void takePicture(ShutterCallback shutter, PictureCallback raw,
+            PictureCallback postview, PictureCallback jpeg);
+}
@@ -25,6 +25,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.io.IOException;
@@ -41,17 +42,39 @@ import java.io.IOException;
  *
  * <p>This is used in switching between {@code Camera} and {@code VideoCamera}
  * activities.
+ *
+ * <p>How long the instance is kept is decided by a {@link KeepAlivePolicy}.
+ * The holder counts the switches that reconnected to the kept instance (hits)
+ * and the ones that had to open it again (misses), the time an instance was
+ * kept without user, and the latency of open and reconnect.
  */
 public class CameraHolder {
     private static final String TAG = "CameraHolder";
     private android.hardware.Camera mCameraDevice;
     private long mKeepBeforeTime = 0;  // Keep the Camera before this time.
+    private KeepAlivePolicy mKeepAlivePolicy =
+            new KeepAlivePolicy.Fixed(KeepAlivePolicy.DEFAULT_KEEP_TIME);
+    private long mKeepCallTime = -1;  // when keep() was called, or -1
+    private long mUnusedSince = -1;  // when the kept Camera lost its user, or -1
+
+    // An open() later than this after keep() is not a switch.
+    private static final long MAX_SWITCH_INTERVAL = 10000;
+
+    // Statistics, reset by resetStatistics().
+    private int mReconnectHits;
+    private int mReconnectMisses;
+    private int mColdOpens;
+    private long mHoldTime;  // in milliseconds
+    private LatencyHistogram mOpenLatency = new LatencyHistogram();  // in microseconds
+    private LatencyHistogram mReconnectLatency = new LatencyHistogram();
     private final Handler mHandler;
     private int mUsers = 0;  // number of open() - number of release()
-    private int mNumberOfCameras;
     private int mCameraId = -1;  // current camera id
-    private int mBackCameraId = -1, mFrontCameraId = -1;
-    private CameraInfo[] mInfo;
+    // The cameras may come from the CapabilityCache and be corrected later by
+    // the handler thread, so they are volatile.
+    private volatile int mNumberOfCameras;
+    private volatile int mBackCameraId = -1, mFrontCameraId = -1;
+    private volatile CameraInfo[] mInfo;
 
     // We store the camera parameters when we actually open the device,
     // so we can restore them in the subsequent open() requests by the user.
@@ -69,6 +92,7 @@ public class CameraHolder {
     }
 
     private static final int RELEASE_CAMERA = 1;
+    private static final int CHECK_CAMERA_INFO = 2;
     private class MyHandler extends Handler {
         MyHandler(Looper looper) {
             super(looper);
@@ -87,6 +111,9 @@ public class CameraHolder {
                         if (CameraHolder.this.mUsers == 0) releaseCamera();
                     }
                     break;
+                case CHECK_CAMERA_INFO:
+                    checkCameraInfo();
+                    break;
             }
         }
     }
@@ -95,18 +122,52 @@ public class CameraHolder {
         HandlerThread ht = new HandlerThread("CameraHolder");
         ht.start();
         mHandler = new MyHandler(ht.getLooper());
-        mNumberOfCameras = android.hardware.Camera.getNumberOfCameras();
-        mInfo = new CameraInfo[mNumberOfCameras];
-        for (int i = 0; i < mNumberOfCameras; i++) {
-            mInfo[i] = new CameraInfo();
-            android.hardware.Camera.getCameraInfo(i, mInfo[i]);
-            if (mBackCameraId == -1 && mInfo[i].facing == CameraInfo.CAMERA_FACING_BACK) {
-                mBackCameraId = i;
+        CapabilityCache cache = CapabilityCache.instance();
+        CameraInfo[] info = (cache == null) ? null : cache.getCameraInfo();
+        if (info == null) {
+            info = queryCameraInfo();
+            if (cache != null) cache.putCameraInfo(info);
+        } else {
+            // Check the cached cameras off the startup path.
+            mHandler.sendEmptyMessage(CHECK_CAMERA_INFO);
+        }
+        setCameraInfo(info);
+    }
+
+    private static CameraInfo[] queryCameraInfo() {
+        int n = android.hardware.Camera.getNumberOfCameras();
+        CameraInfo[] info = new CameraInfo[n];
+        for (int i = 0; i < n; i++) {
+            info[i] = new CameraInfo();
+            android.hardware.Camera.getCameraInfo(i, info[i]);
+        }
+        return info;
+    }
+
+    private void setCameraInfo(CameraInfo[] info) {
+        int back = -1, front = -1;
+        for (int i = 0; i < info.length; i++) {
+            if (back == -1 && info[i].facing == CameraInfo.CAMERA_FACING_BACK) {
+                back = i;
             }
-            if (mFrontCameraId == -1 && mInfo[i].facing == CameraInfo.CAMERA_FACING_FRONT) {
-                mFrontCameraId = i;
+            if (front == -1 && info[i].facing == CameraInfo.CAMERA_FACING_FRONT) {
+                front = i;
             }
         }
+        mInfo = info;
+        mNumberOfCameras = info.length;
+        mBackCameraId = back;
+        mFrontCameraId = front;
+    }
+
+    // Runs in the handler thread.
+    private void checkCameraInfo() {
+        CameraInfo[] info = queryCameraInfo();
+        if (CapabilityCache.equals(info, mInfo)) return;
+        Log.w(TAG, "The cached cameras are wrong: " + CapabilityCache.encodeCameraInfo(mInfo)
+                + " instead of " + CapabilityCache.encodeCameraInfo(info));
+        setCameraInfo(info);
+        CapabilityCache.instance().putCameraInfo(info);
     }
 
     public int getNumberOfCameras() {
@@ -125,6 +186,12 @@ public class CameraHolder {
             mCameraDevice = null;
             mCameraId = -1;
         }
+        long start = SystemClock.uptimeMillis();
+        boolean isSwitch = (mKeepCallTime >= 0)
+                && (start - mKeepCallTime <= MAX_SWITCH_INTERVAL);
+        if (isSwitch) mKeepAlivePolicy.onSwitch(start - mKeepCallTime);
+        mKeepCallTime = -1;
+        stopHolding(start);
         if (mCameraDevice == null) {
             try {
                 Log.v(TAG, "open camera " + cameraId);
@@ -135,6 +202,12 @@ public class CameraHolder {
                 throw new CameraHardwareException(e);
             }
             mParameters = mCameraDevice.getParameters();
+            mOpenLatency.record((SystemClock.uptimeMillis() - start) * 1000);
+            if (isSwitch) {
+                mReconnectMisses++;
+            } else {
+                mColdOpens++;
+            }
         } else {
             try {
                 mCameraDevice.reconnect();
@@ -143,6 +216,8 @@ public class CameraHolder {
                 throw new CameraHardwareException(e);
             }
             mCameraDevice.setParameters(mParameters);
+            mReconnectLatency.record((SystemClock.uptimeMillis() - start) * 1000);
+            mReconnectHits++;
         }
         ++mUsers;
         mHandler.removeMessages(RELEASE_CAMERA);
@@ -171,18 +246,20 @@ public class CameraHolder {
         Assert(mUsers == 1);
         --mUsers;
         mCameraDevice.stopPreview();
+        mUnusedSince = SystemClock.uptimeMillis();
         releaseCamera();
     }
 
     private synchronized void releaseCamera() {
         Assert(mUsers == 0);
         Assert(mCameraDevice != null);
-        long now = System.currentTimeMillis();
+        long now = SystemClock.uptimeMillis();
         if (now < mKeepBeforeTime) {
             mHandler.sendEmptyMessageDelayed(RELEASE_CAMERA,
                     mKeepBeforeTime - now);
             return;
         }
+        stopHolding(now);
         mCameraDevice.release();
         mCameraDevice = null;
         // We must set this to null because it has a reference to Camera.
@@ -196,8 +273,58 @@ public class CameraHolder {
         // The activity may not have a chance to call open() before the user
         // choose the menu item to switch to another activity.
         Assert(mUsers == 1 || mUsers == 0);
-        // Keep the camera instance for 3 seconds.
-        mKeepBeforeTime = System.currentTimeMillis() + 3000;
+        mKeepCallTime = SystemClock.uptimeMillis();
+        mKeepBeforeTime = mKeepCallTime + mKeepAlivePolicy.getKeepTime();
+    }
+
+    private void stopHolding(long now) {
+        if (mUnusedSince < 0) return;
+        mHoldTime += now - mUnusedSince;
+        mUnusedSince = -1;
+    }
+
+    public synchronized void setKeepAlivePolicy(KeepAlivePolicy policy) {
+        Log.v(TAG, "keep alive policy: " + policy);
+        mKeepAlivePolicy = policy;
+    }
+
+    public synchronized KeepAlivePolicy getKeepAlivePolicy() {
+        return mKeepAlivePolicy;
+    }
+
+    public synchronized int getReconnectHits() {
+        return mReconnectHits;
+    }
+
+    public synchronized int getReconnectMisses() {
+        return mReconnectMisses;
+    }
+
+    public synchronized int getColdOpens() {
+        return mColdOpens;
+    }
+
+    // Returns the time the Camera was kept without user, in milliseconds.
+    public synchronized long getHoldTime() {
+        return mHoldTime;
+    }
+
+    // Returns a copy of the latencies of open(), in microseconds.
+    public synchronized LatencyHistogram getOpenLatency() {
+        return new LatencyHistogram(mOpenLatency);
+    }
+
+    public synchronized LatencyHistogram getReconnectLatency() {
+        return new LatencyHistogram(mReconnectLatency);
+    }
+
+    public synchronized void resetStatistics() {
+        mReconnectHits = 0;
+        mReconnectMisses = 0;
+        mColdOpens = 0;
+        mHoldTime = 0;
+        mOpenLatency = new LatencyHistogram();
+        mReconnectLatency = new LatencyHistogram();
     }
 
     public int getBackCameraId() {
@@ -44,6 +44,8 @@ public class CameraSettings {
     public static final String KEY_JPEG_QUALITY = "pref_camera_jpegquality_key";
     public static final String KEY_FOCUS_MODE = "pref_camera_focusmode_key";
     public static final String KEY_TIMER_MODE = "pref_camera_timer_key";
+    public static final String KEY_BURST_LENGTH = "pref_camera_burst_key";
+    public static final String KEY_UPRIGHT_PICTURES = "pref_camera_upright_key";
     public static final String KEY_FLASH_MODE = "pref_camera_flashmode_key";
     public static final String KEY_VIDEOCAMERA_FLASH_MODE = "pref_camera_video_flashmode_key";
     public static final String KEY_WHITE_BALANCE = "pref_camera_whitebalance_key";
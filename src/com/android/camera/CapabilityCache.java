@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.hardware.Camera.CameraInfo;
+import android.os.Build;
+import android.util.Log;
+
+// The class keeps the information of the cameras of the device in a private
+// SharedPreferences file, so a cold start does not ask the camera service for
+// the number of cameras and the info of each one before the camera is opened.
+//
+// The cameras of a device only change with the system, so the cache is valid
+// for one build fingerprint and one VERSION of the format. Anything else is
+// dropped. The caller checks the cached values against the camera service
+// later, off the startup path, and stores them again if they differ.
+public class CapabilityCache {
+    private static final String TAG = "CapabilityCache";
+
+    private static final String PREFS_NAME = "camera_capabilities";
+    private static final int VERSION = 1;
+    private static final String KEY_BUILD = "build";
+    private static final String KEY_CAMERAS = "cameras";
+
+    private final SharedPreferences mPrefs;
+
+    private static CapabilityCache sCache;
+
+    // Called by the application before any camera is used.
+    public static synchronized void initialize(Context context) {
+        if (sCache == null) {
+            sCache = new CapabilityCache(context.getApplicationContext());
+        }
+    }
+
+    // Returns null if initialize() was not called.
+    public static synchronized CapabilityCache instance() {
+        return sCache;
+    }
+
+    private CapabilityCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String build = getBuildKey();
+        if (!build.equals(mPrefs.getString(KEY_BUILD, null))) {
+            mPrefs.edit().clear().putString(KEY_BUILD, build).apply();
+        }
+    }
+
+    // Returns the cached info of the cameras, or null if they are not cached.
+    public synchronized CameraInfo[] getCameraInfo() {
+        return decodeCameraInfo(mPrefs.getString(KEY_CAMERAS, null));
+    }
+
+    public synchronized void putCameraInfo(CameraInfo[] info) {
+        Log.v(TAG, "Caching " + info.length + " cameras");
+        // apply() writes the file in the background.
+        mPrefs.edit().putString(KEY_CAMERAS, encodeCameraInfo(info)).apply();
+    }
+
+    private static String getBuildKey() {
+        return VERSION + ":" + Build.FINGERPRINT;
+    }
+
+    // "facing,orientation;facing,orientation" in the order of the camera ids.
+    public static String encodeCameraInfo(CameraInfo[] info) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < info.length; i++) {
+            if (i > 0) sb.append(';');
+            sb.append(info[i].facing).append(',').append(info[i].orientation);
+        }
+        return sb.toString();
+    }
+
+    // Returns null if the string is null or malformed.
+    public static CameraInfo[] decodeCameraInfo(String s) {
+        if (s == null) return null;
+        if (s.length() == 0) return new CameraInfo[0];
+        String[] cameras = s.split(";");
+        CameraInfo[] info = new CameraInfo[cameras.length];
+        try {
+            for (int i = 0; i < cameras.length; i++) {
+                String[] values = cameras[i].split(",");
+                if (values.length != 2) return null;
+                info[i] = new CameraInfo();
+                info[i].facing = Integer.parseInt(values[0]);
+                info[i].orientation = Integer.parseInt(values[1]);
+            }
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Invalid cached cameras: " + s);
+            return null;
+        }
+        return info;
+    }
+
+    public static boolean equals(CameraInfo[] a, CameraInfo[] b) {
+        if (a.length != b.length) return false;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i].facing != b[i].facing || a[i].orientation != b[i].orientation) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.util.Log;
+
+// The capture sequencing of the Camera activity: it starts the focus and the
+// pictures on a CameraDevice, follows each shot through its callbacks with
+// CaptureTrace, and takes the next picture of a continuous burst when the jpeg
+// of the previous one arrives.
+//
+// The activity keeps the camera state, the parameters and the UI, and is
+// called back through a Host. The sequencer does not use framework types, so
+// the tests drive it with FakeCameraDevice on any JVM. L is the type of the
+// location of a picture.
+//
+// All the methods and the callbacks of the host run in main thread.
+public class CaptureSequencer<L> {
+    private static final String TAG = "CaptureSequencer";
+
+    public interface Host<L> {
+        // The shutter of a picture fired.
+        public void onShutter();
+
+        public void onAutoFocus(boolean focused);
+
+        // The jpeg of a shot arrived. The preview is stopped. The host saves
+        // the picture. It may hold the shot, which is finished after this
+        // returns.
+        public void onJpegTaken(byte[] jpeg, L location, CaptureTrace.Shot shot);
+
+        // Returns the number of pictures a burst may still take.
+        public long getBurstRemaining();
+
+        // Takes the next picture of a burst, through capture().
+        public void snap();
+
+        public void onBurstStopped(BurstController burst);
+
+        // The jpeg callback is done with the shot.
+        public void onShotDone(CaptureTrace.Shot shot);
+
+        public void post(Runnable r);
+
+        public void removeCallbacks(Runnable r);
+    }
+
+    private final Host<L> mHost;
+    private final BurstController mBurst = new BurstController();
+    private CameraDevice mDevice;
+    private boolean mPausing;
+
+    // The shot started by pressing the shutter button, and the shot being
+    // captured. See CaptureTrace.
+    private CaptureTrace.Shot mPendingShot;
+    private CaptureTrace.Shot mCaptureShot;
+
+    private final ShutterCallback mShutterCallback = new ShutterCallback();
+    private final PostViewPictureCallback mPostViewPictureCallback =
+            new PostViewPictureCallback();
+    private final RawPictureCallback mRawPictureCallback = new RawPictureCallback();
+    private final AutoFocusCallback mAutoFocusCallback = new AutoFocusCallback();
+
+    // Takes the next picture of a burst. Focus is locked, so this does not
+    // focus again.
+    private final Runnable mBurstSnapRunnable = new Runnable() {
+        public void run() {
+            if (mBurst.canCaptureMore()) mHost.snap();
+        }
+    };
+
+    public CaptureSequencer(Host<L> host) {
+        mHost = host;
+    }
+
+    // Set when the camera is opened, and null when it is closed.
+    public void setDevice(CameraDevice device) {
+        mDevice = device;
+    }
+
+    public void resume() {
+        mPausing = false;
+        mPendingShot = null;
+        mCaptureShot = null;
+    }
+
+    // The callbacks of the pictures and the focus in progress are ignored
+    // after this.
+    public void pause() {
+        mPausing = true;
+        stopBurst();
+    }
+
+    // The shot starts when the shutter button is pressed. A shot that was not
+    // captured is dropped.
+    public void beginShot() {
+        mPendingShot = CaptureTrace.instance().beginShot();
+    }
+
+    public void autoFocus() {
+        if (mPendingShot != null) mPendingShot.begin(CaptureTrace.SPAN_AUTO_FOCUS);
+        mDevice.autoFocus(mAutoFocusCallback);
+    }
+
+    // Takes a picture. The shot may have been started by the shutter button.
+    public void capture(L location) {
+        mCaptureShot = (mPendingShot != null)
+                ? mPendingShot : CaptureTrace.instance().beginShot();
+        mPendingShot = null;
+        mCaptureShot.begin(CaptureTrace.SPAN_SHUTTER_LAG);
+        mBurst.onCaptureStarted();
+        mDevice.takePicture(mShutterCallback, mRawPictureCallback,
+                mPostViewPictureCallback, new JpegPictureCallback(location, mCaptureShot));
+    }
+
+    public boolean isBurstActive() {
+        return mBurst.isActive();
+    }
+
+    // Starts a burst of at most maxLength pictures. The host takes the first
+    // one, and every jpeg callback takes the next.
+    public void startBurst(int maxLength) {
+        mBurst.start(maxLength);
+    }
+
+    public void stopBurst() {
+        mHost.removeCallbacks(mBurstSnapRunnable);
+        if (!mBurst.isActive()) return;
+        mBurst.stop();
+        mHost.onBurstStopped(mBurst);
+    }
+
+    private final class ShutterCallback implements CameraDevice.ShutterCallback {
+        public void onShutter() {
+            if (mCaptureShot != null) {
+                mCaptureShot.end(CaptureTrace.SPAN_SHUTTER_LAG);
+                mCaptureShot.begin(CaptureTrace.SPAN_SHUTTER_TO_PICTURE_DISPLAYED);
+                Log.v(TAG, "Shutter lag = " + mCaptureShot.getDuration(
+                        CaptureTrace.SPAN_SHUTTER_LAG) / 1000 + "ms");
+            }
+            mHost.onShutter();
+        }
+    }
+
+    private final class PostViewPictureCallback implements CameraDevice.PictureCallback {
+        public void onPictureTaken(byte [] data) {
+            // The picture is displayed now. The raw callback may have ended
+            // the span before. The postview callback wins.
+            onPictureDisplayed();
+            Log.v(TAG, "Postview callback");
+        }
+    }
+
+    private final class RawPictureCallback implements CameraDevice.PictureCallback {
+        public void onPictureTaken(byte [] rawData) {
+            onPictureDisplayed();
+            Log.v(TAG, "Raw callback");
+        }
+    }
+
+    // If the postview callback arrives, the captured image is displayed in the
+    // postview callback. If not, the captured image is displayed in the raw
+    // picture callback.
+    private void onPictureDisplayed() {
+        if (mCaptureShot == null) return;
+        mCaptureShot.end(CaptureTrace.SPAN_SHUTTER_TO_PICTURE_DISPLAYED);
+        mCaptureShot.begin(CaptureTrace.SPAN_PICTURE_DISPLAYED_TO_JPEG);
+    }
+
+    private final class JpegPictureCallback implements CameraDevice.PictureCallback {
+        private final L mLocation;
+        private final CaptureTrace.Shot mShot;
+
+        public JpegPictureCallback(L location, CaptureTrace.Shot shot) {
+            mLocation = location;
+            mShot = shot;
+        }
+
+        public void onPictureTaken(byte [] jpegData) {
+            if (mPausing) return;
+
+            if (mCaptureShot == mShot) mCaptureShot = null;
+            mShot.end(CaptureTrace.SPAN_PICTURE_DISPLAYED_TO_JPEG);
+            mShot.begin(CaptureTrace.SPAN_JPEG_CALLBACK);
+            Log.v(TAG, "Picture displayed to jpeg callback = " + mShot.getDuration(
+                    CaptureTrace.SPAN_PICTURE_DISPLAYED_TO_JPEG) / 1000 + "ms");
+
+            mBurst.onJpegTaken();
+            mHost.onJpegTaken(jpegData, mLocation, mShot);
+
+            if (mBurst.isActive()) {
+                if (mBurst.canCaptureMore() && mHost.getBurstRemaining() > 0) {
+                    mHost.post(mBurstSnapRunnable);
+                } else {
+                    stopBurst();
+                }
+            }
+
+            mShot.end(CaptureTrace.SPAN_JPEG_CALLBACK);
+            Log.v(TAG, "Jpeg callback = " + mShot.getDuration(
+                    CaptureTrace.SPAN_JPEG_CALLBACK) / 1000 + "ms");
+            mShot.finish();
+            mHost.onShotDone(mShot);
+        }
+    }
+
+    private final class AutoFocusCallback implements CameraDevice.AutoFocusCallback {
+        public void onAutoFocus(boolean focused) {
+            if (mPausing) return;
+
+            if (mPendingShot != null) {
+                mPendingShot.end(CaptureTrace.SPAN_AUTO_FOCUS);
+                Log.v(TAG, "Auto focus = " + mPendingShot.getDuration(
+                        CaptureTrace.SPAN_AUTO_FOCUS) / 1000 + "ms");
+            }
+            mHost.onAutoFocus(focused);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.util.Log;
+
+import java.io.PrintWriter;
+
+// The class records where the time of each shot goes. A shot is a tree of
+// spans, from the shutter button down to the thumbnail of the saved picture:
+//
+//   shot
+//     auto focus
+//     shutter lag                     (takePicture to the shutter callback)
+//     shutter to picture displayed    (to the postview or raw callback)
+//     picture displayed to jpeg
+//     jpeg callback                   (the work in the jpeg callback)
+//       add image blocked             (waiting for room in the image saver)
+//     save                            (the image saver)
+//       spool
+//       write
+//       insert
+//       thumbnail
+//
+// The spans use the monotonic clock. A span may start and end in different
+// threads. When a shot finishes, the duration of each of its spans is added to
+// the histogram of the span, and the shot is kept in a short history.
+//
+// The histograms and the history can be read by the tests, dumped with
+// "adb shell dumpsys activity com.android.camera/.Camera", and shown on the
+// screen after "adb shell setprop log.tag.CaptureTrace DEBUG".
+public class CaptureTrace {
+    public static final String TAG = "CaptureTrace";
+
+    public static final int SPAN_SHOT = 0;
+    public static final int SPAN_AUTO_FOCUS = 1;
+    public static final int SPAN_SHUTTER_LAG = 2;
+    public static final int SPAN_SHUTTER_TO_PICTURE_DISPLAYED = 3;
+    public static final int SPAN_PICTURE_DISPLAYED_TO_JPEG = 4;
+    public static final int SPAN_JPEG_CALLBACK = 5;
+    public static final int SPAN_ADD_IMAGE_BLOCKED = 6;
+    public static final int SPAN_SAVE = 7;
+    public static final int SPAN_SPOOL = 8;
+    public static final int SPAN_WRITE = 9;
+    public static final int SPAN_INSERT = 10;
+    public static final int SPAN_THUMBNAIL = 11;
+    public static final int SPAN_ROTATE = 12;
+    public static final int SPAN_COUNT = 13;
+
+    private static final String[] SPAN_NAMES = {
+        "shot", "auto focus", "shutter lag", "shutter to picture displayed",
+        "picture displayed to jpeg", "jpeg callback", "add image blocked",
+        "save", "spool", "write", "insert", "thumbnail", "rotate",
+    };
+
+    // The parent of each span in the tree.
+    private static final int[] SPAN_PARENTS = {
+        -1, SPAN_SHOT, SPAN_SHOT, SPAN_SHOT, SPAN_SHOT, SPAN_SHOT,
+        SPAN_JPEG_CALLBACK, SPAN_SHOT, SPAN_SAVE, SPAN_SAVE, SPAN_SAVE, SPAN_SAVE,
+        SPAN_SAVE,
+    };
+
+    private static final int HISTORY_SIZE = 16;
+    private static final float[] DUMP_PERCENTILES = {50, 90, 99};
+
+    // The spans of one shot.
+    public static class Shot {
+        private final long mId;
+        // The begin and end times in nanoseconds. 0 means not yet.
+        private final long[] mBegin = new long[SPAN_COUNT];
+        private final long[] mEnd = new long[SPAN_COUNT];
+        // The number of finish() calls needed to finish the shot.
+        private int mHolders = 1;
+
+        private Shot(long id) {
+            mId = id;
+            mBegin[SPAN_SHOT] = System.nanoTime();
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        // Begins the span. If the span was begun before, it starts again.
+        public synchronized void begin(int span) {
+            mBegin[span] = System.nanoTime();
+            mEnd[span] = 0;
+        }
+
+        // Ends the span. If the span was ended before, the later end wins.
+        public synchronized void end(int span) {
+            if (mBegin[span] != 0) mEnd[span] = System.nanoTime();
+        }
+
+        // Returns the duration of the span in microseconds, or -1 if the span
+        // has not ended.
+        public synchronized long getDuration(int span) {
+            if (mBegin[span] == 0 || mEnd[span] == 0) return -1;
+            return (mEnd[span] - mBegin[span]) / 1000;
+        }
+
+        // Makes the shot wait for one more finish() call. This is used when
+        // the work of a shot is handed to another thread, which may finish
+        // before or after the thread that started the shot.
+        public synchronized void hold() {
+            mHolders++;
+        }
+
+        // Ends the shot after the last holder calls it. Its spans are then
+        // added to the histograms of the trace.
+        public void finish() {
+            synchronized (this) {
+                if (--mHolders > 0) return;
+            }
+            end(SPAN_SHOT);
+            instance().onShotFinished(this);
+        }
+
+        private synchronized void dump(PrintWriter pw) {
+            pw.println("  shot #" + mId);
+            for (int span = 0; span < SPAN_COUNT; span++) {
+                long duration = getDuration(span);
+                if (duration < 0) continue;
+                StringBuilder sb = new StringBuilder("    ");
+                for (int p = SPAN_PARENTS[span]; p >= 0; p = SPAN_PARENTS[p]) {
+                    sb.append("  ");
+                }
+                sb.append(SPAN_NAMES[span]).append(": ").append(formatMillis(duration));
+                pw.println(sb.toString());
+            }
+        }
+    }
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[SPAN_COUNT];
+    // The finished shots, as a ring buffer. Guarded by "this".
+    private final Shot[] mHistory = new Shot[HISTORY_SIZE];
+    private int mHistoryNext;
+    private long mNextId;
+    // The number of shots finished since the process started. Not reset.
+    private long mFinishedCount;
+
+    // Use a singleton.
+    private static CaptureTrace sTrace;
+    public static synchronized CaptureTrace instance() {
+        if (sTrace == null) {
+            sTrace = new CaptureTrace();
+        }
+        return sTrace;
+    }
+
+    private CaptureTrace() {
+        for (int i = 0; i < SPAN_COUNT; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    // Returns true if the spans should be shown on the screen.
+    public static boolean isOverlayEnabled() {
+        return Log.isLoggable(TAG, Log.DEBUG);
+    }
+
+    public static String getSpanName(int span) {
+        return SPAN_NAMES[span];
+    }
+
+    public static int getSpanParent(int span) {
+        return SPAN_PARENTS[span];
+    }
+
+    // Begins a new shot. The shot span starts now.
+    public synchronized Shot beginShot() {
+        return new Shot(mNextId++);
+    }
+
+    private synchronized void onShotFinished(Shot shot) {
+        for (int span = 0; span < SPAN_COUNT; span++) {
+            long duration = shot.getDuration(span);
+            if (duration >= 0) mHistograms[span].record(duration);
+        }
+        mHistory[mHistoryNext] = shot;
+        mHistoryNext = (mHistoryNext + 1) % HISTORY_SIZE;
+        mFinishedCount++;
+        notifyAll();
+        Log.v(TAG, "Shot #" + shot.getId() + " finished in "
+                + formatMillis(shot.getDuration(SPAN_SHOT)));
+    }
+
+    public synchronized long getFinishedCount() {
+        return mFinishedCount;
+    }
+
+    // Waits until the given number of shots have finished since the process
+    // started. Returns false if they have not after the timeout. Test only.
+    public synchronized boolean waitForFinishedCount(long count, long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (mFinishedCount < count) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return false;
+            try {
+                wait(remaining);
+            } catch (InterruptedException ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns the last finished shot, or null if there is none.
+    public synchronized Shot getLastShot() {
+        return mHistory[(mHistoryNext + HISTORY_SIZE - 1) % HISTORY_SIZE];
+    }
+
+    // Returns a copy of the histogram of the span, in microseconds.
+    public synchronized LatencyHistogram getHistogram(int span) {
+        return new LatencyHistogram(mHistograms[span]);
+    }
+
+    public synchronized void reset() {
+        for (LatencyHistogram h : mHistograms) h.reset();
+        for (int i = 0; i < HISTORY_SIZE; i++) mHistory[i] = null;
+        mHistoryNext = 0;
+    }
+
+    // Returns a few lines for the debug overlay: the percentiles of the main
+    // spans.
+    public synchronized String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        int[] spans = {SPAN_SHOT, SPAN_SHUTTER_LAG, SPAN_JPEG_CALLBACK,
+                SPAN_ADD_IMAGE_BLOCKED, SPAN_SAVE};
+        for (int span : spans) {
+            LatencyHistogram h = mHistograms[span];
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(SPAN_NAMES[span]).append(' ')
+                    .append(formatMillis(h.getPercentile(50))).append(" / ")
+                    .append(formatMillis(h.getPercentile(90))).append(" / ")
+                    .append(formatMillis(h.getPercentile(99)));
+        }
+        return sb.toString();
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("Capture trace (count, mean, p50, p90, p99, max):");
+        for (int span = 0; span < SPAN_COUNT; span++) {
+            LatencyHistogram h = mHistograms[span];
+            StringBuilder sb = new StringBuilder("  ");
+            for (int p = SPAN_PARENTS[span]; p >= 0; p = SPAN_PARENTS[p]) {
+                sb.append("  ");
+            }
+            sb.append(SPAN_NAMES[span]).append(": ").append(h.getCount())
+                    .append(", ").append(formatMillis(h.getMean()));
+            for (float percent : DUMP_PERCENTILES) {
+                sb.append(", ").append(formatMillis(h.getPercentile(percent)));
+            }
+            sb.append(", ").append(formatMillis(h.getMax()));
+            pw.println(sb.toString());
+        }
+        pw.println("Last shots:");
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            Shot shot = mHistory[(mHistoryNext + i) % HISTORY_SIZE];
+            if (shot != null) shot.dump(pw);
+        }
+    }
+
+    private static String formatMillis(long micros) {
+        return (micros / 1000) + "." + (micros % 1000 / 100) + "ms";
+    }
+}
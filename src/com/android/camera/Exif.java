@@ -18,56 +18,393 @@ package com.android.camera;
 
 import android.util.Log;
 
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+// The static methods read one field from the EXIF data of a jpeg.
+//
+// An Exif object is an index of all the fields in IFD0, the Exif IFD, the GPS
+// IFD, IFD1 (the thumbnail) and the interoperability IFD of a jpeg in memory. parse() scans the jpeg
+// once and remembers where the value of each tag is, in primitive arrays that
+// are reused by the next parse(). The getters read the values from the jpeg
+// and do not allocate, so an Exif object can be kept by a thread and used for
+// every picture.
+//
+// The class is not thread-safe.
 public class Exif {
     private static final String TAG = "CameraExif";
 
-    public static int getOrientation(byte[] jpeg) {
-        if (jpeg == null) {
-            return 0;
-        }
+    // The IFDs.
+    public static final int IFD_0 = 0;
+    public static final int IFD_EXIF = 1;
+    public static final int IFD_GPS = 2;
+    public static final int IFD_1 = 3;
+    public static final int IFD_INTEROP = 4;
 
-        int offset = 0;
-        int length = 0;
+    // The tags used by the getters and ExifWriter.
+    public static final int TAG_IMAGE_WIDTH = 0x0100;
+    public static final int TAG_IMAGE_LENGTH = 0x0101;
+    public static final int TAG_MAKE = 0x010F;
+    public static final int TAG_MODEL = 0x0110;
+    public static final int TAG_ORIENTATION = 0x0112;
+    public static final int TAG_DATE_TIME = 0x0132;
+    public static final int TAG_JPEG_INTERCHANGE_FORMAT = 0x0201;
+    public static final int TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = 0x0202;
+    public static final int TAG_EXIF_IFD_POINTER = 0x8769;
+    public static final int TAG_GPS_IFD_POINTER = 0x8825;
+    public static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    public static final int TAG_MAKER_NOTE = 0x927C;
+    public static final int TAG_INTEROPERABILITY_IFD_POINTER = 0xA005;
+    public static final int TAG_PIXEL_X_DIMENSION = 0xA002;
+    public static final int TAG_PIXEL_Y_DIMENSION = 0xA003;
+    public static final int TAG_GPS_LATITUDE_REF = 0x0001;
+    public static final int TAG_GPS_LATITUDE = 0x0002;
+    public static final int TAG_GPS_LONGITUDE_REF = 0x0003;
+    public static final int TAG_GPS_LONGITUDE = 0x0004;
 
-        // ISO/IEC 10918-1:1993(E)
-        while (offset + 3 < jpeg.length && (jpeg[offset++] & 0xFF) == 0xFF) {
-            int marker = jpeg[offset] & 0xFF;
+    // The types of the values.
+    public static final int TYPE_BYTE = 1;
+    public static final int TYPE_ASCII = 2;
+    public static final int TYPE_SHORT = 3;
+    public static final int TYPE_LONG = 4;
+    public static final int TYPE_RATIONAL = 5;
+    public static final int TYPE_UNDEFINED = 7;
+    public static final int TYPE_SLONG = 9;
+    public static final int TYPE_SRATIONAL = 10;
 
-            // Check if the marker is a padding.
-            if (marker == 0xFF) {
-                continue;
-            }
-            offset++;
+    private static final int INITIAL_CAPACITY = 64;
+    // The length of "YYYY:MM:DD HH:MM:SS".
+    private static final int DATE_TIME_LENGTH = 19;
 
-            // Check if the marker is SOI or TEM.
-            if (marker == 0xD8 || marker == 0x01) {
-                continue;
-            }
-            // Check if the marker is EOI or SOS.
-            if (marker == 0xD9 || marker == 0xDA) {
-                break;
-            }
+    // The jpeg being indexed and the position of its TIFF header.
+    private byte[] mJpeg;
+    private int mTiffOffset;
+    private int mTiffLength;
+    private boolean mLittleEndian;
 
-            // Get the length and check if it is reasonable.
-            length = pack(jpeg, offset, 2, false);
-            if (length < 2 || offset + length > jpeg.length) {
-                Log.e(TAG, "Invalid length");
-                return 0;
-            }
+    // The index. mKeys[i] is (ifd << 16 | tag). mOffsets[i] is the offset of
+    // the value in mJpeg.
+    private int mSize;
+    private int[] mKeys = new int[INITIAL_CAPACITY];
+    private int[] mTypes = new int[INITIAL_CAPACITY];
+    private int[] mCounts = new int[INITIAL_CAPACITY];
+    private int[] mOffsets = new int[INITIAL_CAPACITY];
 
-            // Break if the marker is EXIF in APP1.
-            if (marker == 0xE1 && length >= 8 &&
-                    pack(jpeg, offset + 2, 4, false) == 0x45786966 &&
-                    pack(jpeg, offset + 6, 2, false) == 0) {
-                offset += 8;
-                length -= 8;
-                break;
+    private final int[] mRange = new int[2];
+    private final Calendar mCalendar = new GregorianCalendar();
+
+    // Indexes the EXIF data of the jpeg. Returns false if the jpeg has no
+    // valid EXIF data. The jpeg must not change while the index is used.
+    public boolean parse(byte[] jpeg) {
+        mJpeg = null;
+        mSize = 0;
+        if (jpeg == null || !findTiffHeader(jpeg, mRange) || mRange[1] <= 8) {
+            return false;
+        }
+        int tiff = mRange[0];
+        int tag = pack(jpeg, tiff, 4, false);
+        if (tag != 0x49492A00 && tag != 0x4D4D002A) {
+            Log.e(TAG, "Invalid byte order");
+            return false;
+        }
+        mJpeg = jpeg;
+        mTiffOffset = tiff;
+        mTiffLength = mRange[1];
+        mLittleEndian = (tag == 0x49492A00);
+
+        int ifd1 = parseIfd(IFD_0, readInt(tiff + 4, 4));
+        int exif = getInt(IFD_0, TAG_EXIF_IFD_POINTER, 0);
+        if (exif != 0) parseIfd(IFD_EXIF, exif);
+        int gps = getInt(IFD_0, TAG_GPS_IFD_POINTER, 0);
+        if (gps != 0) parseIfd(IFD_GPS, gps);
+        if (ifd1 != 0) parseIfd(IFD_1, ifd1);
+        int interop = getInt(IFD_EXIF, TAG_INTEROPERABILITY_IFD_POINTER, 0);
+        if (interop != 0) parseIfd(IFD_INTEROP, interop);
+        return true;
+    }
+
+    // Adds the entries of an IFD to the index. The offset is relative to the
+    // TIFF header. Returns the offset of the next IFD, or 0 if there is none.
+    private int parseIfd(int ifd, int offset) {
+        if (offset < 8 || offset > mTiffLength - 2) return 0;
+        int count = readInt(mTiffOffset + offset, 2);
+        int entry = offset + 2;
+        for (int i = 0; i < count; i++, entry += 12) {
+            if (entry > mTiffLength - 12) return 0;
+            int p = mTiffOffset + entry;
+            int type = readInt(p + 2, 2);
+            int n = readInt(p + 4, 4);
+            int size = getTypeSize(type);
+            if (size == 0 || n < 0 || n > mTiffLength / size) continue;
+            int value = entry + 8;
+            if (size * n > 4) {
+                value = readInt(p + 8, 4);
+                if (value < 8 || value > mTiffLength - size * n) continue;
             }
+            add((ifd << 16) | readInt(p, 2), type, n, mTiffOffset + value);
+        }
+        if (entry > mTiffLength - 4) return 0;
+        int next = readInt(mTiffOffset + entry, 4);
+        return (next < 8) ? 0 : next;
+    }
 
-            // Skip other markers.
-            offset += length;
-            length = 0;
+    private void add(int key, int type, int count, int offset) {
+        if (mSize == mKeys.length) {
+            // Only a jpeg with more entries than all the ones before gets here.
+            int capacity = mSize * 2;
+            mKeys = grow(mKeys, capacity);
+            mTypes = grow(mTypes, capacity);
+            mCounts = grow(mCounts, capacity);
+            mOffsets = grow(mOffsets, capacity);
+        }
+        mKeys[mSize] = key;
+        mTypes[mSize] = type;
+        mCounts[mSize] = count;
+        mOffsets[mSize] = offset;
+        mSize++;
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] result = new int[capacity];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    // Returns the size in bytes of one value of the type, or 0 if the type is
+    // unknown.
+    public static int getTypeSize(int type) {
+        switch (type) {
+            case TYPE_BYTE:
+            case TYPE_ASCII:
+            case TYPE_UNDEFINED:
+                return 1;
+            case TYPE_SHORT:
+                return 2;
+            case TYPE_LONG:
+            case TYPE_SLONG:
+                return 4;
+            case TYPE_RATIONAL:
+            case TYPE_SRATIONAL:
+                return 8;
+        }
+        return 0;
+    }
+
+    private int readInt(int offset, int length) {
+        return (length == 2) ? read16(offset) : read32(offset);
+    }
+
+    private int read16(int offset) {
+        byte[] b = mJpeg;
+        if (mLittleEndian) {
+            return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8;
+        }
+        return (b[offset] & 0xFF) << 8 | (b[offset + 1] & 0xFF);
+    }
+
+    private int read32(int offset) {
+        byte[] b = mJpeg;
+        if (mLittleEndian) {
+            return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8
+                    | (b[offset + 2] & 0xFF) << 16 | (b[offset + 3] & 0xFF) << 24;
+        }
+        return (b[offset] & 0xFF) << 24 | (b[offset + 1] & 0xFF) << 16
+                | (b[offset + 2] & 0xFF) << 8 | (b[offset + 3] & 0xFF);
+    }
+
+    // Returns the index of the entry, or -1 if the tag is not in the IFD.
+    public int find(int ifd, int tag) {
+        int key = (ifd << 16) | tag;
+        for (int i = 0; i < mSize; i++) {
+            if (mKeys[i] == key) return i;
+        }
+        return -1;
+    }
+
+    public int getEntryCount() {
+        return mSize;
+    }
+
+    public int getIfd(int index) {
+        return mKeys[index] >>> 16;
+    }
+
+    public int getTag(int index) {
+        return mKeys[index] & 0xFFFF;
+    }
+
+    public int getType(int index) {
+        return mTypes[index];
+    }
+
+    public int getCount(int index) {
+        return mCounts[index];
+    }
+
+    // Returns the offset of the value in the jpeg.
+    public int getValueOffset(int index) {
+        return mOffsets[index];
+    }
+
+    // The offset and the length of the TIFF data in the jpeg, and its byte
+    // order. The offsets in the TIFF data are relative to its start.
+    public int getTiffOffset() {
+        return mTiffOffset;
+    }
+
+    public int getTiffLength() {
+        return mTiffLength;
+    }
+
+    public boolean isLittleEndian() {
+        return mLittleEndian;
+    }
+
+    // Returns the first value of a BYTE, SHORT, LONG or SLONG tag.
+    public int getInt(int ifd, int tag, int defaultValue) {
+        int i = find(ifd, tag);
+        if (i < 0 || mCounts[i] < 1) return defaultValue;
+        switch (mTypes[i]) {
+            case TYPE_BYTE:
+                return mJpeg[mOffsets[i]] & 0xFF;
+            case TYPE_SHORT:
+                return readInt(mOffsets[i], 2);
+            case TYPE_LONG:
+            case TYPE_SLONG:
+                return readInt(mOffsets[i], 4);
+        }
+        return defaultValue;
+    }
+
+    // Returns the component-th value of a RATIONAL or SRATIONAL tag.
+    public double getRational(int ifd, int tag, int component, double defaultValue) {
+        int i = find(ifd, tag);
+        if (i < 0 || component >= mCounts[i]) return defaultValue;
+        int offset = mOffsets[i] + component * 8;
+        long numerator = readInt(offset, 4);
+        long denominator = readInt(offset + 4, 4);
+        if (mTypes[i] == TYPE_RATIONAL) {
+            numerator &= 0xFFFFFFFFL;
+            denominator &= 0xFFFFFFFFL;
+        } else if (mTypes[i] != TYPE_SRATIONAL) {
+            return defaultValue;
         }
+        if (denominator == 0) return defaultValue;
+        return (double) numerator / denominator;
+    }
+
+    // Returns the orientation in degrees, like getOrientation(byte[]).
+    public int getOrientation() {
+        switch (getInt(IFD_0, TAG_ORIENTATION, 1)) {
+            case 3:
+                return 180;
+            case 6:
+                return 90;
+            case 8:
+                return 270;
+        }
+        return 0;
+    }
+
+    // Returns the size of the picture, or -1 if it is not known.
+    public int getImageWidth() {
+        int width = getInt(IFD_EXIF, TAG_PIXEL_X_DIMENSION, -1);
+        return (width > 0) ? width : getInt(IFD_0, TAG_IMAGE_WIDTH, -1);
+    }
+
+    public int getImageHeight() {
+        int height = getInt(IFD_EXIF, TAG_PIXEL_Y_DIMENSION, -1);
+        return (height > 0) ? height : getInt(IFD_0, TAG_IMAGE_LENGTH, -1);
+    }
+
+    // Returns the time the picture was taken, in milliseconds since the
+    // epoch in the local time zone, or -1 if it is not known.
+    public long getDateTime() {
+        long time = getDateTime(IFD_EXIF, TAG_DATE_TIME_ORIGINAL);
+        return (time >= 0) ? time : getDateTime(IFD_0, TAG_DATE_TIME);
+    }
+
+    // Parses an ASCII "YYYY:MM:DD HH:MM:SS" value.
+    private long getDateTime(int ifd, int tag) {
+        int i = find(ifd, tag);
+        if (i < 0 || mTypes[i] != TYPE_ASCII || mCounts[i] < DATE_TIME_LENGTH) return -1;
+        int p = mOffsets[i];
+        int year = readDecimal(p, 4);
+        int month = readDecimal(p + 5, 2);
+        int day = readDecimal(p + 8, 2);
+        int hour = readDecimal(p + 11, 2);
+        int minute = readDecimal(p + 14, 2);
+        int second = readDecimal(p + 17, 2);
+        if (year < 0 || month < 1 || day < 1 || hour < 0 || minute < 0 || second < 0) {
+            return -1;
+        }
+        mCalendar.clear();
+        mCalendar.set(year, month - 1, day, hour, minute, second);
+        return mCalendar.getTimeInMillis();
+    }
+
+    private int readDecimal(int offset, int length) {
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            int digit = mJpeg[offset + i] - '0';
+            if (digit < 0 || digit > 9) return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    // Puts the latitude and the longitude in degrees into latLong[0] and
+    // latLong[1]. Returns false if the location is not known.
+    public boolean getLatLong(double[] latLong) {
+        double latitude = getCoordinate(TAG_GPS_LATITUDE, TAG_GPS_LATITUDE_REF, 'S');
+        double longitude = getCoordinate(TAG_GPS_LONGITUDE, TAG_GPS_LONGITUDE_REF, 'W');
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) return false;
+        latLong[0] = latitude;
+        latLong[1] = longitude;
+        return true;
+    }
+
+    // Converts degrees, minutes and seconds. The reference is 'N' or 'S' for
+    // the latitude and 'E' or 'W' for the longitude.
+    private double getCoordinate(int tag, int refTag, char negativeRef) {
+        double degrees = getRational(IFD_GPS, tag, 0, Double.NaN);
+        double minutes = getRational(IFD_GPS, tag, 1, 0);
+        double seconds = getRational(IFD_GPS, tag, 2, 0);
+        int ref = find(IFD_GPS, refTag);
+        if (Double.isNaN(degrees) || ref < 0 || mTypes[ref] != TYPE_ASCII) {
+            return Double.NaN;
+        }
+        double result = degrees + minutes / 60 + seconds / 3600;
+        return (mJpeg[mOffsets[ref]] == negativeRef) ? -result : result;
+    }
+
+    // Returns the offset of the jpeg thumbnail in IFD1, or -1 if there is no
+    // valid one.
+    public int getThumbnailOffset() {
+        int offset = getInt(IFD_1, TAG_JPEG_INTERCHANGE_FORMAT, 0);
+        int length = getThumbnailLength();
+        if (offset < 8 || length < 4 || offset > mTiffLength - length) return -1;
+        // The thumbnail is a jpeg, which is always big-endian.
+        if (pack(mJpeg, mTiffOffset + offset, 2, false) != 0xFFD8) return -1;
+        return mTiffOffset + offset;
+    }
+
+    public int getThumbnailLength() {
+        return getInt(IFD_1, TAG_JPEG_INTERCHANGE_FORMAT_LENGTH, 0);
+    }
+
+    public static int getOrientation(byte[] jpeg) {
+        if (jpeg == null) {
+            return 0;
+        }
+
+        int[] range = new int[2];
+        if (!findTiffHeader(jpeg, range)) {
+            Log.i(TAG, "Orientation not found");
+            return 0;
+        }
+        int offset = range[0];
+        int length = range[1];
 
         // JEITA CP-3451 Exif Version 2.2
         if (length > 8) {
@@ -118,6 +455,106 @@ public class Exif {
         return 0;
     }
 
+    // Finds the jpeg thumbnail in IFD1 of the EXIF data. Returns true and puts
+    // its offset and length in jpeg into range[0] and range[1] if there is
+    // one. The thumbnail is not copied, so it can be decoded in place.
+    public static boolean getThumbnailRange(byte[] jpeg, int[] range) {
+        if (jpeg == null || !findTiffHeader(jpeg, range)) return false;
+        int tiff = range[0];
+        int length = range[1];
+        if (length <= 8) return false;
+
+        int tag = pack(jpeg, tiff, 4, false);
+        if (tag != 0x49492A00 && tag != 0x4D4D002A) return false;
+        boolean littleEndian = (tag == 0x49492A00);
+
+        // Skip IFD0 to get the offset of IFD1. The offsets are relative to
+        // the TIFF header.
+        int ifd = pack(jpeg, tiff + 4, 4, littleEndian);
+        if (ifd < 8 || ifd + 2 > length) return false;
+        int count = pack(jpeg, tiff + ifd, 2, littleEndian);
+        int next = ifd + 2 + count * 12;
+        if (count < 0 || next + 4 > length) return false;
+        ifd = pack(jpeg, tiff + next, 4, littleEndian);
+        if (ifd < 8 || ifd + 2 > length) return false;
+
+        // Look for JPEGInterchangeFormat and JPEGInterchangeFormatLength.
+        int thumbOffset = 0;
+        int thumbLength = 0;
+        count = pack(jpeg, tiff + ifd, 2, littleEndian);
+        int entry = ifd + 2;
+        while (count-- > 0 && entry + 12 <= length) {
+            tag = pack(jpeg, tiff + entry, 2, littleEndian);
+            if (tag == 0x0201) {
+                thumbOffset = pack(jpeg, tiff + entry + 8, 4, littleEndian);
+            } else if (tag == 0x0202) {
+                thumbLength = pack(jpeg, tiff + entry + 8, 4, littleEndian);
+            }
+            entry += 12;
+        }
+
+        // Check that the thumbnail is in the segment and starts with SOI.
+        if (thumbOffset < 8 || thumbLength < 4 || thumbOffset > length - thumbLength) {
+            return false;
+        }
+        if (pack(jpeg, tiff + thumbOffset, 2, false) != 0xFFD8) {
+            Log.e(TAG, "Invalid thumbnail");
+            return false;
+        }
+        range[0] = tiff + thumbOffset;
+        range[1] = thumbLength;
+        return true;
+    }
+
+    // Finds the TIFF header in the EXIF APP1 segment. Returns true and puts
+    // its offset and the length of the rest of the segment into range[0] and
+    // range[1] if it is found.
+    private static boolean findTiffHeader(byte[] jpeg, int[] range) {
+        int offset = 0;
+        int length = 0;
+
+        // ISO/IEC 10918-1:1993(E)
+        while (offset + 3 < jpeg.length && (jpeg[offset++] & 0xFF) == 0xFF) {
+            int marker = jpeg[offset] & 0xFF;
+
+            // Check if the marker is a padding.
+            if (marker == 0xFF) {
+                continue;
+            }
+            offset++;
+
+            // Check if the marker is SOI or TEM.
+            if (marker == 0xD8 || marker == 0x01) {
+                continue;
+            }
+            // Check if the marker is EOI or SOS.
+            if (marker == 0xD9 || marker == 0xDA) {
+                break;
+            }
+
+            // Get the length and check if it is reasonable.
+            length = pack(jpeg, offset, 2, false);
+            if (length < 2 || offset + length > jpeg.length) {
+                Log.e(TAG, "Invalid length");
+                return false;
+            }
+
+            // Break if the marker is EXIF in APP1.
+            if (marker == 0xE1 && length >= 8 &&
+                    pack(jpeg, offset + 2, 4, false) == 0x45786966 &&
+                    pack(jpeg, offset + 6, 2, false) == 0) {
+                range[0] = offset + 8;
+                range[1] = length - 8;
+                return true;
+            }
+
+            // Skip other markers.
+            offset += length;
+            length = 0;
+        }
+        return false;
+    }
+
     private static int pack(byte[] bytes, int offset, int length,
             boolean littleEndian) {
         int step = 1;
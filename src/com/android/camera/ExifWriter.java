@@ -0,0 +1,571 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+// The class adds EXIF fields to a jpeg in memory, before it is written, so the
+// file does not have to be read and written again by ExifInterface.
+//
+// write() first tries to patch the fields in place: a field that is already in
+// the jpeg with the same type and count is overwritten in the jpeg array. If
+// all the fields can be patched, the jpeg is returned as is. Otherwise a new
+// APP1 segment is built with the old fields and the new ones, and write()
+// returns the parts of the new jpeg as buffers for a gather write, so the
+// jpeg is not copied.
+//
+// When the APP1 segment is rebuilt, the values of the old fields are copied
+// as they are and the IFD pointers are rebuilt. The MakerNote is kept at its
+// old offset from the TIFF header, because the offsets inside it may be
+// relative to the header, and the IFDs are laid out around it. The
+// thumbnail is kept if it is a jpeg and the segment does not get too large.
+public class ExifWriter {
+    private static final String TAG = "ExifWriter";
+
+    private static final int TAG_GPS_VERSION_ID = 0x0000;
+    private static final int TAG_GPS_ALTITUDE_REF = 0x0005;
+    private static final int TAG_GPS_ALTITUDE = 0x0006;
+    private static final int TAG_GPS_TIME_STAMP = 0x0007;
+    private static final int TAG_GPS_DATE_STAMP = 0x001D;
+    private static final int TAG_USER_COMMENT = 0x9286;
+    private static final int TAG_COMPRESSION = 0x0103;
+    private static final int COMPRESSION_JPEG = 6;
+    private static final int MAX_SEGMENT_LENGTH = 0xFFFF;
+    // "Exif\0\0" and the segment length.
+    private static final int APP1_HEADER_LENGTH = 8;
+
+    // A field to write. The value is in the byte order of the TIFF data it
+    // is written to.
+    private static class Field {
+        final int mIfd;
+        final int mTag;
+        final int mType;
+        final int mCount;
+        byte[] mValue;
+        // The offset of the value from the TIFF header if it must not move,
+        // or -1.
+        int mFixedOffset = -1;
+
+        Field(int ifd, int tag, int type, int count, byte[] value) {
+            mIfd = ifd;
+            mTag = tag;
+            mType = type;
+            mCount = count;
+            mValue = value;
+        }
+    }
+
+    private static final Comparator<Field> TAG_ORDER = new Comparator<Field>() {
+        public int compare(Field a, Field b) {
+            return a.mTag - b.mTag;
+        }
+    };
+
+    // The new fields. The numbers are kept as ints until the byte order is
+    // known.
+    private static class NewField {
+        final int mIfd;
+        final int mTag;
+        final int mType;
+        final int[] mNumbers;  // for SHORT, LONG and RATIONAL
+        final byte[] mBytes;  // for BYTE, ASCII and UNDEFINED
+
+        NewField(int ifd, int tag, int type, int[] numbers, byte[] bytes) {
+            mIfd = ifd;
+            mTag = tag;
+            mType = type;
+            mNumbers = numbers;
+            mBytes = bytes;
+        }
+
+        int getCount() {
+            if (mBytes != null) return mBytes.length;
+            return (mType == Exif.TYPE_RATIONAL) ? mNumbers.length / 2 : mNumbers.length;
+        }
+
+        byte[] encode(ByteOrder order) {
+            if (mBytes != null) return mBytes;
+            int size = (mType == Exif.TYPE_SHORT) ? 2 : 4;
+            ByteBuffer b = ByteBuffer.allocate(mNumbers.length * size).order(order);
+            for (int n : mNumbers) {
+                if (size == 2) {
+                    b.putShort((short) n);
+                } else {
+                    b.putInt(n);
+                }
+            }
+            return b.array();
+        }
+    }
+
+    private final ArrayList<NewField> mFields = new ArrayList<NewField>();
+    private final Exif mExif = new Exif();
+    // If true, mThumbnail replaces the thumbnail in the jpeg. It may be null
+    // to remove the thumbnail.
+    private boolean mReplaceThumbnail;
+    private byte[] mThumbnail;
+
+    // Removes all the fields, so the writer can be used for another jpeg.
+    public void clear() {
+        mFields.clear();
+        mReplaceThumbnail = false;
+        mThumbnail = null;
+    }
+
+    // Sets the orientation in degrees.
+    public void setOrientation(int degrees) {
+        int value;
+        switch (degrees) {
+            case 90:
+                value = 6;
+                break;
+            case 180:
+                value = 3;
+                break;
+            case 270:
+                value = 8;
+                break;
+            default:
+                value = 1;
+        }
+        setNumbers(Exif.IFD_0, Exif.TAG_ORIENTATION, Exif.TYPE_SHORT, new int[] {value});
+    }
+
+    // Sets the time the picture was taken, in milliseconds since the epoch.
+    // It is written in the local time zone, like the camera HALs do.
+    public void setDateTime(long millis) {
+        Calendar c = new GregorianCalendar();
+        c.setTimeInMillis(millis);
+        String value = String.format(Locale.US, "%04d:%02d:%02d %02d:%02d:%02d",
+                c.get(Calendar.YEAR), c.get(Calendar.MONTH) + 1,
+                c.get(Calendar.DAY_OF_MONTH), c.get(Calendar.HOUR_OF_DAY),
+                c.get(Calendar.MINUTE), c.get(Calendar.SECOND));
+        setAscii(Exif.IFD_0, Exif.TAG_DATE_TIME, value);
+        setAscii(Exif.IFD_EXIF, Exif.TAG_DATE_TIME_ORIGINAL, value);
+    }
+
+    // Sets the size of the picture in pixels.
+    public void setImageSize(int width, int height) {
+        setNumbers(Exif.IFD_EXIF, Exif.TAG_PIXEL_X_DIMENSION, Exif.TYPE_LONG,
+                new int[] {width});
+        setNumbers(Exif.IFD_EXIF, Exif.TAG_PIXEL_Y_DIMENSION, Exif.TYPE_LONG,
+                new int[] {height});
+    }
+
+    // Replaces the jpeg thumbnail. The thumbnail is removed if it is null.
+    public void setThumbnail(byte[] thumbnail) {
+        mReplaceThumbnail = true;
+        mThumbnail = thumbnail;
+    }
+
+    public void setMake(String make) {
+        setAscii(Exif.IFD_0, Exif.TAG_MAKE, make);
+    }
+
+    public void setModel(String model) {
+        setAscii(Exif.IFD_0, Exif.TAG_MODEL, model);
+    }
+
+    // Sets the location in degrees.
+    public void setLocation(double latitude, double longitude) {
+        setBytes(Exif.IFD_GPS, TAG_GPS_VERSION_ID, Exif.TYPE_BYTE,
+                new byte[] {2, 2, 0, 0});
+        setAscii(Exif.IFD_GPS, Exif.TAG_GPS_LATITUDE_REF, latitude < 0 ? "S" : "N");
+        setNumbers(Exif.IFD_GPS, Exif.TAG_GPS_LATITUDE, Exif.TYPE_RATIONAL,
+                toDegreesMinutesSeconds(latitude));
+        setAscii(Exif.IFD_GPS, Exif.TAG_GPS_LONGITUDE_REF, longitude < 0 ? "W" : "E");
+        setNumbers(Exif.IFD_GPS, Exif.TAG_GPS_LONGITUDE, Exif.TYPE_RATIONAL,
+                toDegreesMinutesSeconds(longitude));
+    }
+
+    // Sets the altitude in meters above the sea level.
+    public void setAltitude(double meters) {
+        setBytes(Exif.IFD_GPS, TAG_GPS_ALTITUDE_REF, Exif.TYPE_BYTE,
+                new byte[] {(byte) (meters < 0 ? 1 : 0)});
+        setNumbers(Exif.IFD_GPS, TAG_GPS_ALTITUDE, Exif.TYPE_RATIONAL,
+                new int[] {(int) Math.round(Math.abs(meters) * 100), 100});
+    }
+
+    // Sets the time of the location fix, in milliseconds since the epoch. It
+    // is written in UTC.
+    public void setGpsDateTime(long millis) {
+        Calendar c = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        c.setTimeInMillis(millis);
+        setNumbers(Exif.IFD_GPS, TAG_GPS_TIME_STAMP, Exif.TYPE_RATIONAL, new int[] {
+                c.get(Calendar.HOUR_OF_DAY), 1, c.get(Calendar.MINUTE), 1,
+                c.get(Calendar.SECOND), 1});
+        setAscii(Exif.IFD_GPS, TAG_GPS_DATE_STAMP, String.format(Locale.US,
+                "%04d:%02d:%02d", c.get(Calendar.YEAR), c.get(Calendar.MONTH) + 1,
+                c.get(Calendar.DAY_OF_MONTH)));
+    }
+
+    // Sets the user comment in ASCII. The comment starts with the 8-byte
+    // character code and is not terminated.
+    public void setUserComment(String comment) {
+        byte[] bytes = new byte[8 + comment.length()];
+        System.arraycopy(new byte[] {'A', 'S', 'C', 'I', 'I', 0, 0, 0}, 0, bytes, 0, 8);
+        for (int i = 0; i < comment.length(); i++) {
+            char c = comment.charAt(i);
+            bytes[8 + i] = (byte) (c < 0x80 ? c : '?');
+        }
+        setBytes(Exif.IFD_EXIF, TAG_USER_COMMENT, Exif.TYPE_UNDEFINED, bytes);
+    }
+
+    // Returns degrees/1, minutes/1, seconds/1000 as RATIONAL values. The
+    // seconds are rounded, so 60 seconds are carried into the minutes and 60
+    // minutes into the degrees.
+    private static int[] toDegreesMinutesSeconds(double value) {
+        value = Math.abs(value);
+        int degrees = (int) value;
+        value = (value - degrees) * 60;
+        int minutes = (int) value;
+        int milliSeconds = (int) Math.round((value - minutes) * 60000);
+        if (milliSeconds >= 60000) {
+            milliSeconds -= 60000;
+            minutes++;
+        }
+        if (minutes >= 60) {
+            minutes -= 60;
+            degrees++;
+        }
+        return new int[] {degrees, 1, minutes, 1, milliSeconds, 1000};
+    }
+
+    private void setAscii(int ifd, int tag, String value) {
+        byte[] bytes = new byte[value.length() + 1];
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            bytes[i] = (byte) (c < 0x80 ? c : '?');
+        }
+        setBytes(ifd, tag, Exif.TYPE_ASCII, bytes);
+    }
+
+    private void setBytes(int ifd, int tag, int type, byte[] bytes) {
+        remove(ifd, tag);
+        mFields.add(new NewField(ifd, tag, type, null, bytes));
+    }
+
+    private void setNumbers(int ifd, int tag, int type, int[] numbers) {
+        remove(ifd, tag);
+        mFields.add(new NewField(ifd, tag, type, numbers, null));
+    }
+
+    private void remove(int ifd, int tag) {
+        for (int i = mFields.size() - 1; i >= 0; i--) {
+            NewField f = mFields.get(i);
+            if (f.mIfd == ifd && f.mTag == tag) mFields.remove(i);
+        }
+    }
+
+    // Adds the fields to the jpeg. Returns the buffers to write, in order.
+    // The jpeg array may be changed in place.
+    public ByteBuffer[] write(byte[] jpeg) {
+        boolean hasExif = mExif.parse(jpeg);
+        if (hasExif && !mReplaceThumbnail && patch(jpeg)) {
+            return new ByteBuffer[] {ByteBuffer.wrap(jpeg)};
+        }
+
+        byte[] segment = buildSegment(jpeg, hasExif);
+        if (segment == null) return new ByteBuffer[] {ByteBuffer.wrap(jpeg)};
+
+        // Replace the old APP1 segment, or put the new one after SOI and JFIF.
+        int start;
+        int end;
+        if (hasExif) {
+            start = mExif.getTiffOffset() - APP1_HEADER_LENGTH - 2;
+            end = mExif.getTiffOffset() + mExif.getTiffLength();
+        } else {
+            start = getJfifEnd(jpeg);
+            end = start;
+        }
+        return new ByteBuffer[] {
+            ByteBuffer.wrap(jpeg, 0, start),
+            ByteBuffer.wrap(segment),
+            ByteBuffer.wrap(jpeg, end, jpeg.length - end),
+        };
+    }
+
+    // Returns an APP1 segment, including the marker, with the EXIF data of the
+    // jpeg and the fields. Returns null if the segment is too large.
+    public byte[] getSegment(byte[] jpeg) {
+        return buildSegment(jpeg, mExif.parse(jpeg));
+    }
+
+    private byte[] buildSegment(byte[] jpeg, boolean hasExif) {
+        ByteOrder order = (hasExif && mExif.isLittleEndian())
+                ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        byte[] segment = buildSegment(jpeg, order, true);
+        if (segment == null) {
+            Log.w(TAG, "EXIF is too large. Drop the thumbnail.");
+            segment = buildSegment(jpeg, order, false);
+            if (segment == null) Log.e(TAG, "EXIF is too large");
+        }
+        return segment;
+    }
+
+    // Returns the offset after SOI and the JFIF APP0 segment if there is one.
+    private static int getJfifEnd(byte[] jpeg) {
+        if (jpeg.length >= 6 && (jpeg[2] & 0xFF) == 0xFF && (jpeg[3] & 0xFF) == 0xE0) {
+            int length = (jpeg[4] & 0xFF) << 8 | (jpeg[5] & 0xFF);
+            if (4 + length <= jpeg.length) return 4 + length;
+        }
+        return 2;
+    }
+
+    // Overwrites the values of the fields that are in the jpeg with the same
+    // type and count. Returns true if all the fields are patched.
+    private boolean patch(byte[] jpeg) {
+        ByteOrder order = mExif.isLittleEndian()
+                ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        for (NewField f : mFields) {
+            int i = mExif.find(f.mIfd, f.mTag);
+            if (i < 0 || mExif.getType(i) != f.mType || mExif.getCount(i) != f.getCount()) {
+                return false;
+            }
+        }
+        for (NewField f : mFields) {
+            int i = mExif.find(f.mIfd, f.mTag);
+            byte[] value = f.encode(order);
+            System.arraycopy(value, 0, jpeg, mExif.getValueOffset(i), value.length);
+        }
+        return true;
+    }
+
+    // Builds an APP1 segment with the fields in the index and the new fields.
+    // Returns null if the segment is too large.
+    private byte[] buildSegment(byte[] jpeg, ByteOrder order, boolean withThumbnail) {
+        ArrayList<ArrayList<Field>> ifds = new ArrayList<ArrayList<Field>>();
+        for (int i = 0; i <= Exif.IFD_INTEROP; i++) ifds.add(new ArrayList<Field>());
+
+        // Copy the old fields, except the pointers which are rebuilt.
+        Field makerNote = null;
+        for (int i = 0; i < mExif.getEntryCount(); i++) {
+            int ifd = mExif.getIfd(i);
+            int tag = mExif.getTag(i);
+            if (isPointer(ifd, tag)) continue;
+            if (ifd == Exif.IFD_1 && !withThumbnail) continue;
+            int type = mExif.getType(i);
+            int count = mExif.getCount(i);
+            int size = Exif.getTypeSize(type) * count;
+            byte[] value = new byte[size];
+            System.arraycopy(jpeg, mExif.getValueOffset(i), value, 0, size);
+            Field f = new Field(ifd, tag, type, count, value);
+            if (tag == Exif.TAG_MAKER_NOTE && ifd == Exif.IFD_EXIF && size > 4) {
+                f.mFixedOffset = mExif.getValueOffset(i) - mExif.getTiffOffset();
+                makerNote = f;
+            }
+            ifds.get(ifd).add(f);
+        }
+
+        // Add the new fields over the old ones.
+        for (NewField f : mFields) {
+            ArrayList<Field> list = ifds.get(f.mIfd);
+            for (int i = list.size() - 1; i >= 0; i--) {
+                if (list.get(i).mTag != f.mTag) continue;
+                if (list.get(i) == makerNote) makerNote = null;
+                list.remove(i);
+            }
+            list.add(new Field(f.mIfd, f.mTag, f.mType, f.getCount(), f.encode(order)));
+        }
+
+        // Keep IFD1 only with a jpeg thumbnail.
+        byte[] thumbnailData = jpeg;
+        int thumbnailOffset = -1;
+        int thumbnailLength = 0;
+        if (withThumbnail && !mReplaceThumbnail) {
+            thumbnailOffset = mExif.getThumbnailOffset();
+            thumbnailLength = (thumbnailOffset < 0) ? 0 : mExif.getThumbnailLength();
+        } else if (withThumbnail && mThumbnail != null) {
+            thumbnailData = mThumbnail;
+            thumbnailOffset = 0;
+            thumbnailLength = mThumbnail.length;
+            if (!hasTag(ifds.get(Exif.IFD_1), TAG_COMPRESSION)) {
+                ifds.get(Exif.IFD_1).add(new Field(Exif.IFD_1, TAG_COMPRESSION,
+                        Exif.TYPE_SHORT, 1, ByteBuffer.allocate(2).order(order)
+                        .putShort((short) COMPRESSION_JPEG).array()));
+            }
+        }
+        if (thumbnailOffset < 0) ifds.get(Exif.IFD_1).clear();
+
+        // Add the pointers with placeholder values. The interoperability IFD
+        // is pointed to by the Exif IFD, so its pointer goes first.
+        ArrayList<Field> ifd0 = ifds.get(Exif.IFD_0);
+        Field interopPointer = null;
+        Field exifPointer = null;
+        Field gpsPointer = null;
+        Field thumbnailPointer = null;
+        if (!ifds.get(Exif.IFD_INTEROP).isEmpty()) {
+            interopPointer = newLong(Exif.IFD_EXIF,
+                    Exif.TAG_INTEROPERABILITY_IFD_POINTER, 0, order);
+            ifds.get(Exif.IFD_EXIF).add(interopPointer);
+        }
+        if (!ifds.get(Exif.IFD_EXIF).isEmpty()) {
+            exifPointer = newLong(Exif.IFD_0, Exif.TAG_EXIF_IFD_POINTER, 0, order);
+            ifd0.add(exifPointer);
+        }
+        if (!ifds.get(Exif.IFD_GPS).isEmpty()) {
+            gpsPointer = newLong(Exif.IFD_0, Exif.TAG_GPS_IFD_POINTER, 0, order);
+            ifd0.add(gpsPointer);
+        }
+        if (thumbnailOffset >= 0) {
+            thumbnailPointer = newLong(Exif.IFD_1, Exif.TAG_JPEG_INTERCHANGE_FORMAT, 0, order);
+            ifds.get(Exif.IFD_1).add(thumbnailPointer);
+            ifds.get(Exif.IFD_1).add(newLong(Exif.IFD_1,
+                    Exif.TAG_JPEG_INTERCHANGE_FORMAT_LENGTH, thumbnailLength, order));
+        }
+
+        // Lay out the IFDs after the 8-byte TIFF header, then the thumbnail.
+        // Nothing is put over the MakerNote.
+        int holeStart = 0;
+        int holeEnd = 0;
+        if (makerNote != null) {
+            holeStart = makerNote.mFixedOffset;
+            holeEnd = (holeStart + makerNote.mValue.length + 1) & ~1;
+        }
+        int[] offsets = new int[ifds.size()];
+        int offset = 8;
+        for (int i = 0; i < ifds.size(); i++) {
+            ArrayList<Field> list = ifds.get(i);
+            Collections.sort(list, TAG_ORDER);
+            if (list.isEmpty() && i != Exif.IFD_0) continue;
+            int size = getIfdSize(list);
+            if (offset < holeEnd && offset + size > holeStart) offset = holeEnd;
+            offsets[i] = offset;
+            offset += size;
+        }
+        if (offset < holeEnd && offset + thumbnailLength > holeStart) offset = holeEnd;
+        int thumbnail = offset;
+        int tiffLength = Math.max(thumbnail + thumbnailLength, holeEnd);
+        if (APP1_HEADER_LENGTH + tiffLength > MAX_SEGMENT_LENGTH) return null;
+
+        if (interopPointer != null) {
+            setLong(interopPointer, offsets[Exif.IFD_INTEROP], order);
+        }
+        if (exifPointer != null) setLong(exifPointer, offsets[Exif.IFD_EXIF], order);
+        if (gpsPointer != null) setLong(gpsPointer, offsets[Exif.IFD_GPS], order);
+        if (thumbnailPointer != null) setLong(thumbnailPointer, thumbnail, order);
+
+        // Write the segment.
+        ByteBuffer b = ByteBuffer.allocate(2 + APP1_HEADER_LENGTH + tiffLength);
+        b.put((byte) 0xFF).put((byte) 0xE1);
+        b.putShort((short) (APP1_HEADER_LENGTH + tiffLength));
+        b.put(new byte[] {'E', 'x', 'i', 'f', 0, 0});
+        int tiff = b.position();
+        b.order(order);
+        b.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        b.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        b.putShort((short) 0x2A);
+        b.putInt(offsets[Exif.IFD_0]);
+        for (int i = 0; i < ifds.size(); i++) {
+            ArrayList<Field> list = ifds.get(i);
+            if (list.isEmpty() && i != Exif.IFD_0) continue;
+            int next = (i == Exif.IFD_0 && thumbnailOffset >= 0) ? offsets[Exif.IFD_1] : 0;
+            b.position(tiff + offsets[i]);
+            writeIfd(b, offsets[i], list, next);
+        }
+        if (makerNote != null) {
+            b.position(tiff + makerNote.mFixedOffset);
+            b.put(makerNote.mValue);
+        }
+        if (thumbnailOffset >= 0) {
+            b.position(tiff + thumbnail);
+            b.put(thumbnailData, thumbnailOffset, thumbnailLength);
+        }
+        return b.array();
+    }
+
+    private static boolean hasTag(ArrayList<Field> list, int tag) {
+        for (Field f : list) {
+            if (f.mTag == tag) return true;
+        }
+        return false;
+    }
+
+    private static boolean isPointer(int ifd, int tag) {
+        switch (tag) {
+            case Exif.TAG_EXIF_IFD_POINTER:
+            case Exif.TAG_GPS_IFD_POINTER:
+            case Exif.TAG_INTEROPERABILITY_IFD_POINTER:
+                return true;
+            case Exif.TAG_JPEG_INTERCHANGE_FORMAT:
+            case Exif.TAG_JPEG_INTERCHANGE_FORMAT_LENGTH:
+                return ifd == Exif.IFD_1;
+        }
+        return false;
+    }
+
+    private static Field newLong(int ifd, int tag, int value, ByteOrder order) {
+        Field f = new Field(ifd, tag, Exif.TYPE_LONG, 1, null);
+        setLong(f, value, order);
+        return f;
+    }
+
+    private static void setLong(Field f, int value, ByteOrder order) {
+        f.mValue = ByteBuffer.allocate(4).order(order).putInt(value).array();
+    }
+
+    // The size of an IFD and the values that do not fit in its entries,
+    // except the fixed ones. Each value is padded to an even offset.
+    private static int getIfdSize(ArrayList<Field> list) {
+        int size = 2 + list.size() * 12 + 4;
+        for (Field f : list) {
+            if (isOutOfLine(f)) size += (f.mValue.length + 1) & ~1;
+        }
+        return size;
+    }
+
+    // Returns true if the value of the field follows the entries of its IFD.
+    private static boolean isOutOfLine(Field f) {
+        return f.mValue.length > 4 && f.mFixedOffset < 0;
+    }
+
+    private static void writeIfd(ByteBuffer b, int offset, ArrayList<Field> list, int next) {
+        int data = offset + 2 + list.size() * 12 + 4;
+        b.putShort((short) list.size());
+        for (Field f : list) {
+            b.putShort((short) f.mTag);
+            b.putShort((short) f.mType);
+            b.putInt(f.mCount);
+            if (f.mFixedOffset >= 0) {
+                b.putInt(f.mFixedOffset);
+            } else if (f.mValue.length > 4) {
+                b.putInt(data);
+                data += (f.mValue.length + 1) & ~1;
+            } else {
+                b.put(f.mValue);
+                for (int i = f.mValue.length; i < 4; i++) b.put((byte) 0);
+            }
+        }
+        b.putInt(next);
+        for (Field f : list) {
+            if (isOutOfLine(f)) {
+                b.put(f.mValue);
+                if ((f.mValue.length & 1) != 0) b.put((byte) 0);
+            }
+        }
+    }
+}
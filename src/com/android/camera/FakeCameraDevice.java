@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// A simulated CameraDevice for tests and benchmarks. It has no framework
+// dependency, so it runs on any JVM and can feed pictures to a SavePipeline
+// much faster than a real camera if the latencies are set low. The tests
+// drive the capture code of the Camera activity, CaptureSequencer, with it.
+//
+// The "hardware" is a scheduler thread. The callbacks are delivered through
+// the executor given to the constructor, which plays the role of the looper
+// of the activity. The random values (focus results, jpeg sizes) are drawn
+// when the request is made, from a generator with the given seed, so the same
+// sequence of calls gets the same values whatever the timing.
+//
+// Like android.hardware.Camera, it throws a RuntimeException for a picture or
+// a focus requested without preview or during a picture, and it stops the
+// preview when the shutter fires.
+public class FakeCameraDevice implements CameraDevice {
+    private final ScheduledExecutorService mScheduler;
+    private final Executor mCallbackExecutor;
+    private final Random mRandom;
+
+    // The simulated hardware. Latencies are in milliseconds.
+    private long mAutoFocusLatency = 300;
+    private float mAutoFocusSuccessRate = 0.9f;
+    private long mShutterLag = 100;
+    private long mPostViewLatency = 150;  // after the shutter
+    private long mJpegLatency = 400;  // after the shutter
+    private int mJpegMeanSize = 1500000;
+    private int mJpegSizeDeviation = 200000;
+    private int mPreviewWidth = 640;
+    private int mPreviewHeight = 480;
+    private int mPreviewFrameRate = 30;
+
+    // Guarded by "this".
+    private boolean mPreviewRunning;
+    private boolean mTakingPicture;
+    private PreviewCallback mPreviewCallback;
+    private ScheduledFuture<?> mPreviewTask;
+    private ScheduledFuture<?> mFocusTask;
+    private int mFrameCount;
+    private int mPictureCount;
+
+    public FakeCameraDevice(long seed, Executor callbackExecutor) {
+        mScheduler = Executors.newSingleThreadScheduledExecutor();
+        mCallbackExecutor = callbackExecutor;
+        mRandom = new Random(seed);
+    }
+
+    public synchronized void setAutoFocus(long latency, float successRate) {
+        mAutoFocusLatency = latency;
+        mAutoFocusSuccessRate = successRate;
+    }
+
+    public synchronized void setPictureLatency(long shutterLag, long postViewLatency,
+            long jpegLatency) {
+        mShutterLag = shutterLag;
+        mPostViewLatency = postViewLatency;
+        mJpegLatency = jpegLatency;
+    }
+
+    // The jpeg sizes follow a normal distribution, clamped to a quarter and
+    // four times the mean.
+    public synchronized void setJpegSize(int mean, int deviation) {
+        mJpegMeanSize = mean;
+        mJpegSizeDeviation = deviation;
+    }
+
+    public synchronized void setPreview(int width, int height, int frameRate) {
+        mPreviewWidth = width;
+        mPreviewHeight = height;
+        mPreviewFrameRate = frameRate;
+    }
+
+    public synchronized int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public synchronized int getPictureCount() {
+        return mPictureCount;
+    }
+
+    public synchronized boolean isPreviewRunning() {
+        return mPreviewRunning;
+    }
+
+    // Stops the simulation. The pending callbacks are not delivered.
+    public void release() {
+        mScheduler.shutdownNow();
+    }
+
+    public synchronized void startPreview() {
+        if (mPreviewRunning) return;
+        mPreviewRunning = true;
+        long period = 1000000 / mPreviewFrameRate;
+        mPreviewTask = mScheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                deliverPreviewFrame();
+            }
+        }, period, period, TimeUnit.MICROSECONDS);
+    }
+
+    public synchronized void stopPreview() {
+        if (!mPreviewRunning) return;
+        mPreviewRunning = false;
+        mPreviewTask.cancel(false);
+        mPreviewTask = null;
+        cancelAutoFocus();
+    }
+
+    public synchronized void setPreviewCallback(PreviewCallback cb) {
+        mPreviewCallback = cb;
+    }
+
+    public synchronized void autoFocus(final AutoFocusCallback cb) {
+        if (!mPreviewRunning || mTakingPicture) {
+            throw new RuntimeException("autoFocus failed");
+        }
+        if (mFocusTask != null) mFocusTask.cancel(false);
+        final boolean focused = mRandom.nextFloat() < mAutoFocusSuccessRate;
+        mFocusTask = mScheduler.schedule(new Runnable() {
+            public void run() {
+                synchronized (FakeCameraDevice.this) {
+                    mFocusTask = null;
+                }
+                post(new Runnable() {
+                    public void run() {
+                        cb.onAutoFocus(focused);
+                    }
+                });
+            }
+        }, mAutoFocusLatency, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void cancelAutoFocus() {
+        if (mFocusTask != null) {
+            mFocusTask.cancel(false);
+            mFocusTask = null;
+        }
+    }
+
+    public synchronized void takePicture(final ShutterCallback shutter,
+            final PictureCallback raw, final PictureCallback postview,
+            final PictureCallback jpeg) {
+        if (!mPreviewRunning || mTakingPicture) {
+            throw new RuntimeException("takePicture failed");
+        }
+        mTakingPicture = true;
+        cancelAutoFocus();
+        final int size = nextJpegSize();
+
+        mScheduler.schedule(new Runnable() {
+            public void run() {
+                stopPreview();
+                if (shutter != null) {
+                    post(new Runnable() {
+                        public void run() {
+                            shutter.onShutter();
+                        }
+                    });
+                }
+            }
+        }, mShutterLag, TimeUnit.MILLISECONDS);
+
+        mScheduler.schedule(new Runnable() {
+            public void run() {
+                // The framework gives no raw data unless a buffer is added.
+                if (raw != null) deliverPicture(raw, null);
+                if (postview != null) deliverPicture(postview, null);
+            }
+        }, mShutterLag + mPostViewLatency, TimeUnit.MILLISECONDS);
+
+        mScheduler.schedule(new Runnable() {
+            public void run() {
+                byte[] data = makeJpeg(size);
+                synchronized (FakeCameraDevice.this) {
+                    mTakingPicture = false;
+                    mPictureCount++;
+                }
+                if (jpeg != null) deliverPicture(jpeg, data);
+            }
+        }, mShutterLag + Math.max(mPostViewLatency, mJpegLatency), TimeUnit.MILLISECONDS);
+    }
+
+    private int nextJpegSize() {
+        double size = mJpegMeanSize + mRandom.nextGaussian() * mJpegSizeDeviation;
+        size = Math.max(mJpegMeanSize / 4, Math.min(size, mJpegMeanSize * 4.0));
+        return (int) size;
+    }
+
+    private void deliverPreviewFrame() {
+        final PreviewCallback cb;
+        final int number;
+        int size;
+        synchronized (this) {
+            if (!mPreviewRunning) return;
+            cb = mPreviewCallback;
+            number = mFrameCount++;
+            size = mPreviewWidth * mPreviewHeight * 3 / 2;  // NV21
+        }
+        if (cb == null) return;
+        final byte[] frame = new byte[size];
+        // Make each frame different, like a moving scene.
+        for (int i = 0; i < size; i += 64) frame[i] = (byte) (number + i);
+        post(new Runnable() {
+            public void run() {
+                cb.onPreviewFrame(frame);
+            }
+        });
+    }
+
+    private void deliverPicture(final PictureCallback cb, final byte[] data) {
+        post(new Runnable() {
+            public void run() {
+                cb.onPictureTaken(data);
+            }
+        });
+    }
+
+    private void post(Runnable r) {
+        if (!mScheduler.isShutdown()) mCallbackExecutor.execute(r);
+    }
+
+    // Returns a jpeg of the given size: SOI, comment segments and EOI. It has
+    // no picture, but the EXIF and file code handle it like a real one.
+    public static byte[] makeJpeg(int size) {
+        size = Math.max(size, 8);
+        byte[] jpeg = new byte[size];
+        jpeg[0] = (byte) 0xFF;
+        jpeg[1] = (byte) 0xD8;
+        int p = 2;
+        int remaining = size - 4;
+        while (remaining > 0) {
+            // A segment is the marker and 2 to 65535 bytes.
+            int n = Math.min(remaining, 65537);
+            if (remaining - n > 0 && remaining - n < 4) n -= 4;
+            int length = n - 2;
+            jpeg[p] = (byte) 0xFF;
+            jpeg[p + 1] = (byte) 0xFE;  // COM
+            jpeg[p + 2] = (byte) (length >> 8);
+            jpeg[p + 3] = (byte) length;
+            for (int i = 4; i < n; i++) jpeg[p + i] = (byte) ('a' + i % 26);
+            p += n;
+            remaining -= n;
+        }
+        jpeg[p] = (byte) 0xFF;
+        jpeg[p + 1] = (byte) 0xD9;
+        return jpeg;
+    }
+}
@@ -59,6 +59,8 @@ public class FocusManager {
     private boolean mFocusAreaSupported;
     private boolean mLockAeAwbNeeded;
     private boolean mAeAwbLock;
+    // Keep focus, AE and AWB locked between the shots of a burst.
+    private boolean mBurstLock;
     private Matrix mMatrix;
     private View mFocusIndicatorRotateLayout;
     private FocusIndicatorView mFocusIndicator;
@@ -156,7 +158,7 @@ public class FocusManager {
     }
 
     public void onShutterUp() {
-        if (!mInitialized) return;
+        if (!mInitialized || mBurstLock) return;
 
         if (needAutoFocusCall()) {
             // User releases half-pressed focus key.
@@ -197,7 +199,8 @@ public class FocusManager {
     }
 
     public void onShutter() {
-        resetTouchFocus();
+        // Keep the focus area of the first shot during a burst.
+        if (!mBurstLock) resetTouchFocus();
         updateFocusUI();
     }
 
@@ -472,6 +475,17 @@ public class FocusManager {
         mOverrideFocusMode = focusMode;
     }
 
+    // Focus, AE and AWB stay locked until the burst lock is released. The
+    // following doSnap() calls take the picture right away without focusing
+    // again.
+    public void setBurstLock(boolean lock) {
+        mBurstLock = lock;
+    }
+
+    public boolean isBurstLocked() {
+        return mBurstLock;
+    }
+
     public void setAeAwbLock(boolean lock) {
         mAeAwbLock = lock;
     }
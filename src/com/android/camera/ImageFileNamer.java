@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.util.Log;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// The class allocates the names (the titles, without the extension) of the
+// files saved in a directory. A name is the date taken in the given format,
+// followed by _1, _2, etc if the name of the same second is already used.
+//
+// It can be called from any thread without locking. The formatted date of the
+// last second is cached with an atomic counter of the names given in it, so
+// a burst formats the date once per second. Every name is claimed in an index
+// of the names in the directory, which is shared by the namers of the
+// directory and is read from the disk in a background thread. That makes the
+// names unique even when the date taken goes back, when two namers use the
+// same format, or when the directory has files from an earlier run, without a
+// file check for each name. A name claimed before the directory is read is
+// checked against its jpeg file instead, so the caller never waits for the
+// directory to be listed.
+public class ImageFileNamer {
+    private static final String TAG = "ImageFileNamer";
+    private static final String JPEG_SUFFIX = ".jpg";
+
+    // The names used in each directory.
+    private static final ConcurrentHashMap<String, NameIndex> sIndexes =
+            new ConcurrentHashMap<String, NameIndex>();
+
+    private final ThreadLocal<SimpleDateFormat> mFormat;
+    private final NameIndex mIndex;
+    private final AtomicReference<Second> mLastSecond = new AtomicReference<Second>();
+
+    // The formatted date of a second and the number of names tried in it.
+    private static class Second {
+        final long mSecond;
+        final String mDate;
+        final AtomicInteger mCount = new AtomicInteger();
+
+        Second(long second, String date) {
+            mSecond = second;
+            mDate = date;
+        }
+    }
+
+    public ImageFileNamer(final String format, String directory) {
+        mFormat = new ThreadLocal<SimpleDateFormat>() {
+            @Override
+            protected SimpleDateFormat initialValue() {
+                return new SimpleDateFormat(format);
+            }
+        };
+        mIndex = getIndex(directory);
+    }
+
+    public String generateName(long dateTaken) {
+        long second = dateTaken / 1000;
+        Second last = mLastSecond.get();
+        if (last == null || last.mSecond != second) {
+            Second next = new Second(second, mFormat.get().format(new Date(dateTaken)));
+            // If another thread has moved to another second in the meantime,
+            // the name is still unique because it is claimed in the index.
+            mLastSecond.compareAndSet(last, next);
+            last = next;
+        }
+
+        while (true) {
+            int n = last.mCount.getAndIncrement();
+            String name = (n == 0) ? last.mDate : last.mDate + "_" + n;
+            if (mIndex.claim(name)) return name;
+        }
+    }
+
+    // Reads the names in the directory, so the names do not need a file
+    // check. Reads the disk, so it should be called in a background thread.
+    public void loadIndex() {
+        mIndex.load(false);
+    }
+
+    // Reads the names in the directory again, for example when the storage
+    // is mounted. Should be called in a background thread too.
+    public void reloadIndex() {
+        mIndex.load(true);
+    }
+
+    // Forgets the names claimed and the names read from the directories. The
+    // directories are read again by the next names. Test only.
+    public static void resetIndexes() {
+        sIndexes.clear();
+    }
+
+    private static NameIndex getIndex(String directory) {
+        NameIndex index = sIndexes.get(directory);
+        if (index == null) {
+            NameIndex created = new NameIndex(directory);
+            index = sIndexes.putIfAbsent(directory, created);
+            if (index == null) index = created;
+        }
+        return index;
+    }
+
+    // The names of the files in a directory and the names claimed since.
+    private static class NameIndex {
+        private final String mDirectory;
+        private final ConcurrentHashMap<String, Boolean> mNames =
+                new ConcurrentHashMap<String, Boolean>();
+        private volatile boolean mLoaded;
+
+        NameIndex(String directory) {
+            mDirectory = directory;
+        }
+
+        // Returns true if the name was not used. It does not wait for load():
+        // until the directory is read, the file of the name is checked.
+        boolean claim(String name) {
+            if (mNames.putIfAbsent(name, Boolean.TRUE) != null) return false;
+            return mLoaded || !new File(mDirectory, name + JPEG_SUFFIX).exists();
+        }
+
+        // Adds the names in the directory to the index. The names claimed
+        // before are kept.
+        synchronized void load(boolean reload) {
+            if (mLoaded && !reload) return;
+            long t0 = System.currentTimeMillis();
+            String[] files = new File(mDirectory).list();
+            if (files == null) {
+                // The storage may not be mounted. Check the files until it
+                // is and the directory is read again.
+                Log.w(TAG, "Cannot read " + mDirectory);
+                mLoaded = false;
+                return;
+            }
+            for (String file : files) {
+                // Skip the hidden files, e.g. the temporary files of
+                // Storage.writeFile.
+                if (file.startsWith(".")) continue;
+                int dot = file.lastIndexOf('.');
+                mNames.put(dot > 0 ? file.substring(0, dot) : file, Boolean.TRUE);
+            }
+            mLoaded = true;
+            Log.v(TAG, "Read " + mNames.size() + " names in "
+                    + (System.currentTimeMillis() - t0) + "ms");
+        }
+    }
+}
@@ -0,0 +1,470 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// We use a SavePipeline to store the Requests that have not been completed
+// yet. The main thread puts the request into the pipeline. The request then
+// goes through four stages, each running in its own thread: (1) writing the
+// file with our EXIF data (location, time and orientation) spliced in, (2) if
+// the user asks for upright pictures, rotating the file losslessly with
+// JpegRotator, (3) inserting it into MediaStore and broadcasting the new
+// picture, and (4) generating the thumbnail. So a slow SD card does not delay
+// the thumbnail of an earlier picture, and vice versa. The file is rotated
+// before it is inserted, so MediaStore never has a row for the file before the
+// rotation.
+//
+// The MediaStore stage inserts all the requests waiting for it (for example,
+// the pictures of a burst) in one batch, and sends one new picture broadcast
+// for the last one.
+//
+// The files, MediaStore and ImageSpool are reached through a Store, and the
+// thumbnail through a ThumbnailListener. The Camera activity uses
+// MediaImageStore. The tests use a Store in memory, so the image saver runs on
+// any JVM. L is the type of the location of a picture.
+//
+// When the activity's onPause() is called, the requests that are not written
+// yet are put into ImageSpool in a background thread, and the main thread
+// returns at once. So a picture is written twice only if the activity is
+// paused before it is saved. A picture whose write fails is spooled too. The
+// stages finish in the background, and SpoolService keeps the process alive
+// until they are done. If the process dies, SpoolService saves the spooled
+// pictures next time.
+//
+// When we need to show the SharePop, the main thread needs to wait for the
+// saver threads to finish all the work, because we want to show the thumbnail
+// of the last image taken.
+//
+// The jpeg data held by the pipeline is limited by a byte budget derived from
+// the heap size of the app (see updateByteBudget()). If the budget is used up
+// or the queues become full, adding a new request will block the main thread
+// until there is room again. So small pictures can be queued deeper than large
+// ones. If we don't do this, we may face several problems: (1) We may OOM
+// because we are holding all the jpeg data in memory. (2) We may ANR when we
+// need to wait for saver threads finishing all the work (in onPause() or
+// showSharePopup()) because the time to finishing a long queue of work may be
+// too long.
+public class ImageSaver<L> {
+    private static final String TAG = "ImageSaver";
+
+    // The number of worker threads and the queue length of each stage. The
+    // queues are long because the byte budget is the real limit.
+    private static final int WRITE_WORKERS = 1;
+    private static final int WRITE_QUEUE_LIMIT = 8;
+    private static final int ROTATE_WORKERS = 1;
+    private static final int ROTATE_QUEUE_LIMIT = 8;
+    private static final int INSERT_MAX_BATCH = 8;
+    private static final int INSERT_QUEUE_LIMIT = 8;
+    private static final int THUMBNAIL_WORKERS = 1;
+    private static final int THUMBNAIL_QUEUE_LIMIT = 4;
+
+    // The part of the heap the queued jpeg data may use, and the bounds of the
+    // byte budget.
+    private static final int HEAP_FRACTION = 4;
+    private static final long MIN_BYTE_BUDGET = 4 * 1024 * 1024;
+    private static final long MAX_BYTE_BUDGET = 48 * 1024 * 1024;
+    // The worst case of jpeg bytes per pixel, used to make sure at least two
+    // pictures of the current size fit in the budget.
+    private static final float MAX_JPEG_BYTES_PER_PIXEL = 0.5f;
+    private static final long BACKGROUND_KEEP_ALIVE_MS = 1000;
+
+    // Each Request remembers the data needed to save an image.
+    public static class Request<L> {
+        public byte[] data;
+        // The size of the jpeg data, and of the file after it is written.
+        public int size;
+        public L location;
+        public int width, height;
+        public long dateTaken;
+        public int previewWidth;
+        public String title;
+        public int orientation;
+        // The orientation and the size of the saved file, for MediaStore.
+        // They differ from the jpeg data if the file is rotated to be upright.
+        public int fileOrientation;
+        public int fileWidth, fileHeight;
+        // The jpeg thumbnail in the EXIF data. The offset is -1 if there is
+        // none.
+        public int thumbnailOffset;
+        public int thumbnailLength;
+        // The content uri, set by Store.insert(). Null if the insert failed.
+        public String uri;
+        // True after the file is written. Guarded by the request.
+        boolean written;
+        // True if the request is in ImageSpool. The title is the spool id.
+        // Guarded by the request.
+        boolean spooled;
+        // True if the title is claimed in ImageSpool, so SpoolService waits
+        // for the request. Guarded by the request.
+        boolean claimed;
+        // True after the request left the image saver. Guarded by the
+        // request.
+        boolean done;
+        // The key of PictureSizeEstimator.
+        String sizeKey;
+        // The trace of the shot. The save spans are added to it.
+        CaptureTrace.Shot shot;
+        // True after the image saver is done with the shot.
+        boolean shotFinished;
+        // True if the picture should be rotated to be upright.
+        boolean upright;
+    }
+
+    // Where the pictures are saved. The methods run in the saver threads and
+    // in the background thread. generateTitle() and claim() run in main thread
+    // too. The files are named by the titles of the requests.
+    public interface Store<L> {
+        // Returns the title of a picture taken at the given time. Called in
+        // the capture order.
+        public String generateTitle(long dateTaken);
+
+        public void setExifLocation(ExifWriter exif, L location);
+
+        public boolean writeFile(String title, ByteBuffer[] jpeg);
+
+        public boolean rotateFile(String title, int orientation, JpegRotator rotator,
+                ExifWriter exif);
+
+        public long getFileSize(String title);
+
+        // Records the size of a written picture for PictureSizeEstimator.
+        public void recordSize(String sizeKey, long size);
+
+        // Inserts the files into MediaStore and sets the uris of the
+        // requests. The uri of a failed insert is null.
+        public void insert(ArrayList<Request<L>> requests);
+
+        public void broadcastNewPicture(String uri);
+
+        // Puts the request into ImageSpool. Returns false if it failed.
+        public boolean spool(Request<L> r);
+
+        // Removes the request from ImageSpool.
+        public void unspool(String title);
+
+        // Claim and release an id in ImageSpool. See ImageSpool.claim().
+        public void claim(String id);
+
+        public void release(String id);
+
+        // Called when the image saver is finished and all its requests are
+        // done.
+        public void close();
+    }
+
+    public interface ThumbnailListener<L> {
+        // Runs in thumbnail thread. Called for the latest picture, whose jpeg
+        // data is still in the request.
+        public void onThumbnail(Request<L> r);
+    }
+
+    private final SavePipeline<Request<L>> mPipeline;
+    private final Store<L> mStore;
+    private final ThumbnailListener<L> mThumbnailListener;
+    // The heap size of the app in bytes.
+    private final long mHeapSize;
+    // The requests in the pipeline. Guarded by itself.
+    private final ArrayList<Request<L>> mInFlight = new ArrayList<Request<L>>();
+    // Runs the disk work of finish() and the thumbnail saves after it in
+    // order, so the main thread does not wait for the disk. Its thread exits
+    // when it is idle.
+    private final ThreadPoolExecutor mBackground = new ThreadPoolExecutor(
+            1, 1, BACKGROUND_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>());
+    // Claimed in ImageSpool from finish() until the requests are spooled, so
+    // SpoolService waits for them.
+    private final String mFinishId = "ImageSaver@" + System.identityHashCode(this);
+
+    // Runs in main thread
+    public ImageSaver(long heapSize, Store<L> store, ThumbnailListener<L> thumbnailListener) {
+        mHeapSize = heapSize;
+        mStore = store;
+        mThumbnailListener = thumbnailListener;
+        mPipeline = new SavePipeline<Request<L>>();
+        mPipeline.addStage("ImageWriter", new WriteStage(),
+                WRITE_WORKERS, WRITE_QUEUE_LIMIT);
+        mPipeline.addStage("ImageRotator", new RotateStage(),
+                ROTATE_WORKERS, ROTATE_QUEUE_LIMIT);
+        mPipeline.addBatchStage("ImageInserter", new InsertStage(),
+                INSERT_MAX_BATCH, INSERT_QUEUE_LIMIT);
+        mPipeline.addStage("ThumbnailMaker", new ThumbnailStage(),
+                THUMBNAIL_WORKERS, THUMBNAIL_QUEUE_LIMIT);
+        mPipeline.setDoneListener(new SavePipeline.DoneListener<Request<L>>() {
+            public void onDone(Request<L> r, boolean dropped) {
+                // A failed request skips the thumbnail stage, which normally
+                // finishes the shot.
+                if (dropped) Log.w(TAG, "Failed to save " + r.title);
+                finishShot(r);
+                // A spooled request that was not saved is replayed by
+                // SpoolService.
+                synchronized (r) {
+                    r.done = true;
+                    if (r.claimed) mStore.release(r.title);
+                }
+                synchronized (mInFlight) {
+                    mInFlight.remove(r);
+                }
+            }
+        });
+        mPipeline.start();
+        mBackground.allowCoreThreadTimeOut(true);
+    }
+
+    // Runs in main thread. The budget is a fraction of the heap of this app,
+    // but large enough for two pictures of the given size.
+    public void updateByteBudget(int pictureWidth, int pictureHeight) {
+        long budget = Math.max(mHeapSize / HEAP_FRACTION, 2L * (long)
+                (pictureWidth * pictureHeight * MAX_JPEG_BYTES_PER_PIXEL));
+        budget = Math.max(MIN_BYTE_BUDGET, Math.min(MAX_BYTE_BUDGET, budget));
+        if (budget != mPipeline.getByteBudget()) {
+            Log.v(TAG, "Image saver byte budget=" + budget);
+            mPipeline.setByteBudget(budget);
+        }
+    }
+
+    public long getByteBudget() {
+        return mPipeline.getByteBudget();
+    }
+
+    public long getQueuedBytes() {
+        return mPipeline.getQueuedBytes();
+    }
+
+    public long getHighWaterBytes() {
+        return mPipeline.getHighWaterBytes();
+    }
+
+    // Returns the number of pictures added and not saved yet.
+    public int getPendingCount() {
+        return mPipeline.getPendingCount();
+    }
+
+    // Runs in main thread. The location is kept, so the caller must not change
+    // it. The shot finishes when both the caller and the image saver are done
+    // with it.
+    public void addImage(byte[] data, L location, int width, int height,
+            int previewWidth, boolean upright, String sizeKey, CaptureTrace.Shot shot) {
+        Request<L> r = new Request<L>();
+        r.shot = shot;
+        r.data = data;
+        r.size = data.length;
+        r.location = location;
+        r.width = width;
+        r.height = height;
+        r.previewWidth = previewWidth;
+        r.upright = upright;
+        r.sizeKey = sizeKey;
+        r.dateTaken = System.currentTimeMillis();
+        // Generate the name here so the names follow the capture order even
+        // if several writers run in parallel.
+        r.title = mStore.generateTitle(r.dateTaken);
+        updateByteBudget(width, height);
+        synchronized (mInFlight) {
+            mInFlight.add(r);
+        }
+        shot.hold();
+        shot.begin(CaptureTrace.SPAN_ADD_IMAGE_BLOCKED);
+        mPipeline.submit(r, r.size);
+        shot.end(CaptureTrace.SPAN_ADD_IMAGE_BLOCKED);
+        shot.begin(CaptureTrace.SPAN_SAVE);
+    }
+
+    // Runs in saver threads. Called by the thumbnail stage, or when a request
+    // leaves the pipeline. Does nothing the second time.
+    private void finishShot(Request<L> r) {
+        if (r.shotFinished) return;
+        r.shotFinished = true;
+        r.shot.end(CaptureTrace.SPAN_SAVE);
+        r.shot.finish();
+    }
+
+    // Runs in main thread
+    public void waitDone() {
+        mPipeline.waitDone();
+    }
+
+    // Runs in main thread. Hands the requests in the pipeline to the
+    // background thread, which spools the ones that are not written yet, and
+    // returns. The main thread does not take the locks of the requests, which
+    // the saver threads hold while they write. The image saver takes no new
+    // requests.
+    public void finish() {
+        final ArrayList<Request<L>> requests;
+        synchronized (mInFlight) {
+            requests = new ArrayList<Request<L>>(mInFlight);
+        }
+        mStore.claim(mFinishId);
+        mBackground.execute(new Runnable() {
+            public void run() {
+                for (Request<L> r : requests) {
+                    synchronized (r) {
+                        if (r.done) continue;
+                        spool(r);
+                        // The written ones are claimed so SpoolService waits
+                        // for them to be inserted.
+                        if (!r.claimed) {
+                            mStore.claim(r.title);
+                            r.claimed = true;
+                        }
+                    }
+                }
+                mStore.release(mFinishId);
+            }
+        });
+        mPipeline.finishInBackground(new Runnable() {
+            public void run() {
+                mStore.close();
+            }
+        });
+    }
+
+    // Runs the task in the background thread, after the disk work of finish().
+    public void runInBackground(Runnable task) {
+        mBackground.execute(task);
+    }
+
+    // Puts the request into ImageSpool if it is not written yet. Go on without
+    // the spool if it fails. The picture is just not protected against a
+    // process death. Called with the request locked, in the background thread
+    // or a writer thread.
+    private void spool(Request<L> r) {
+        if (r.written || r.spooled) return;
+        r.shot.begin(CaptureTrace.SPAN_SPOOL);
+        r.spooled = mStore.spool(r);
+        if (r.spooled) r.claimed = true;
+        r.shot.end(CaptureTrace.SPAN_SPOOL);
+    }
+
+    // Runs in writer threads
+    private class WriteStage implements SavePipeline.Stage<Request<L>> {
+        // Used by the writer thread only, so WRITE_WORKERS must be 1.
+        private final ExifWriter mExifWriter = new ExifWriter();
+        private final int[] mThumbnailRange = new int[2];
+
+        public boolean process(Request<L> r, long sequence) {
+            r.shot.begin(CaptureTrace.SPAN_WRITE);
+            // The static scans are faster than the Exif index for these two
+            // fields (see ExifBenchmark in tests/host).
+            r.orientation = Exif.getOrientation(r.data);
+            if (Exif.getThumbnailRange(r.data, mThumbnailRange)) {
+                r.thumbnailOffset = mThumbnailRange[0];
+                r.thumbnailLength = mThumbnailRange[1];
+            } else {
+                r.thumbnailOffset = -1;
+                r.thumbnailLength = 0;
+            }
+            // Add our metadata to the EXIF data. The parts of the jpeg are
+            // written with one gather write, without copying the jpeg.
+            mExifWriter.clear();
+            mExifWriter.setOrientation(r.orientation);
+            mExifWriter.setDateTime(r.dateTaken);
+            mStore.setExifLocation(mExifWriter, r.location);
+            ByteBuffer[] jpeg = mExifWriter.write(r.data);
+            int size = 0;
+            for (ByteBuffer b : jpeg) size += b.remaining();
+            boolean ok = mStore.writeFile(r.title, jpeg);
+            r.shot.end(CaptureTrace.SPAN_WRITE);
+            synchronized (r) {
+                // Spool the picture that cannot be written. SpoolService will
+                // try again.
+                if (!ok) spool(r);
+                r.written = ok;
+            }
+            if (!ok) return false;
+            r.size = size;
+            r.fileOrientation = r.orientation;
+            r.fileWidth = r.width;
+            r.fileHeight = r.height;
+            mStore.recordSize(r.sizeKey, r.size);
+            // If there are newer requests in the pipeline, we don't need to
+            // generate thumbnail for this image. Because we'll soon replace it
+            // with the thumbnail for some image later. Release the jpeg data
+            // early in this case.
+            if (!mPipeline.isLatest(sequence)) r.data = null;
+            return true;
+        }
+    }
+
+    // Runs in rotator thread. The jpeg data is not changed, so the thumbnail
+    // is still made from it with its orientation.
+    private class RotateStage implements SavePipeline.Stage<Request<L>> {
+        // Used by the rotator thread only, so ROTATE_WORKERS must be 1.
+        private final JpegRotator mRotator = new JpegRotator();
+        private final ExifWriter mExifWriter = new ExifWriter();
+
+        public boolean process(Request<L> r, long sequence) {
+            if (!r.upright || r.orientation == 0) return true;
+            r.shot.begin(CaptureTrace.SPAN_ROTATE);
+            // Keep the picture as it is if it cannot be rotated.
+            if (mStore.rotateFile(r.title, r.orientation, mRotator, mExifWriter)) {
+                r.fileOrientation = 0;
+                r.fileWidth = mRotator.getWidth();
+                r.fileHeight = mRotator.getHeight();
+                r.size = (int) mStore.getFileSize(r.title);
+            }
+            r.shot.end(CaptureTrace.SPAN_ROTATE);
+            return true;
+        }
+    }
+
+    // Runs in inserter thread
+    private class InsertStage implements SavePipeline.BatchStage<Request<L>> {
+        public void process(ArrayList<Request<L>> requests, boolean[] results) {
+            int n = requests.size();
+            for (int i = 0; i < n; i++) {
+                requests.get(i).shot.begin(CaptureTrace.SPAN_INSERT);
+            }
+            mStore.insert(requests);
+
+            String last = null;
+            for (int i = 0; i < n; i++) {
+                Request<L> r = requests.get(i);
+                r.shot.end(CaptureTrace.SPAN_INSERT);
+                // The request cannot be spooled any more once it is written.
+                // If the insert failed, the spooled picture is kept, and it is
+                // released when the request is done.
+                if (r.spooled && r.uri != null) mStore.unspool(r.title);
+                results[i] = (r.uri != null);
+                if (r.uri != null) last = r.uri;
+            }
+            // Gallery and other listeners reload from MediaStore, so one
+            // broadcast covers the whole batch.
+            if (last != null) mStore.broadcastNewPicture(last);
+        }
+    }
+
+    // Runs in thumbnail thread
+    private class ThumbnailStage implements SavePipeline.Stage<Request<L>> {
+        public boolean process(Request<L> r, long sequence) {
+            if (r.data != null && mPipeline.isLatest(sequence)) {
+                r.shot.begin(CaptureTrace.SPAN_THUMBNAIL);
+                mThumbnailListener.onThumbnail(r);
+                r.shot.end(CaptureTrace.SPAN_THUMBNAIL);
+            }
+            r.data = null;
+            finishShot(r);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.content.Context;
+import android.location.Location;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+
+// A spool of captured pictures in the private storage of the app. When Camera
+// is paused, it puts here the pictures that are not written to
+// Storage.DIRECTORY yet, so the activity does not have to wait for the save,
+// and the pictures are not lost if the process dies before the save
+// finishes. A picture that cannot be written is put here too.
+//
+// Each entry has a data file with the jpeg and a small journal record with the
+// fields needed to save it. The journal record is written last and renamed
+// into place, so an entry exists only when its jpeg is complete. The files
+// are not synced: the spool protects against the death of the process, whose
+// writes are still in the page cache, not against a power loss. An entry is
+// removed after the picture is in Storage.DIRECTORY and MediaStore.
+//
+// The entries being saved by this process are claimed. SpoolService only
+// replays the entries nobody claims, which are the ones left behind by a
+// process that died.
+public class ImageSpool {
+    private static final String TAG = "ImageSpool";
+
+    private static final String DIRECTORY = "spool";
+    private static final String DATA_SUFFIX = ".jpg";
+    private static final String JOURNAL_SUFFIX = ".job";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int JOURNAL_VERSION = 1;
+    private static final int BUFSIZE = 4096;
+
+    // The ids of the entries being saved by this process. Guarded by itself.
+    private static final HashSet<String> sClaimed = new HashSet<String>();
+
+    // The fields of a journal record.
+    public static class Entry {
+        public String id;
+        public String title;
+        public long dateTaken;
+        public boolean hasLocation;
+        public double latitude;
+        public double longitude;
+        public int orientation;
+        public int width;
+        public int height;
+    }
+
+    private ImageSpool() {
+    }
+
+    private static File getDirectory(Context context) {
+        File dir = new File(context.getFilesDir(), DIRECTORY);
+        dir.mkdirs();
+        return dir;
+    }
+
+    // Writes the jpeg and its journal record, and claims the entry. The title
+    // is used as the id. Returns false if the entry cannot be written.
+    public static boolean append(Context context, String title, long dateTaken,
+            Location loc, int orientation, int width, int height, byte[] jpeg) {
+        File dir = getDirectory(context);
+        File data = new File(dir, title + DATA_SUFFIX);
+        File journal = new File(dir, title + JOURNAL_SUFFIX);
+        File temp = new File(dir, title + TEMP_SUFFIX);
+
+        synchronized (sClaimed) {
+            sClaimed.add(title);
+        }
+
+        FileOutputStream f = null;
+        DataOutputStream d = null;
+        try {
+            f = new FileOutputStream(data);
+            f.write(jpeg);
+            f.close();
+            f = null;
+
+            f = new FileOutputStream(temp);
+            d = new DataOutputStream(new BufferedOutputStream(f, BUFSIZE));
+            d.writeInt(JOURNAL_VERSION);
+            d.writeUTF(title);
+            d.writeLong(dateTaken);
+            d.writeBoolean(loc != null);
+            d.writeDouble(loc == null ? 0 : loc.getLatitude());
+            d.writeDouble(loc == null ? 0 : loc.getLongitude());
+            d.writeInt(orientation);
+            d.writeInt(width);
+            d.writeInt(height);
+            d.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to spool " + title, e);
+            Util.closeSilently(d);
+            Util.closeSilently(f);
+            temp.delete();
+            data.delete();
+            release(title);
+            return false;
+        } finally {
+            Util.closeSilently(d);
+            Util.closeSilently(f);
+        }
+
+        if (!temp.renameTo(journal)) {
+            Log.e(TAG, "Failed to commit " + title);
+            temp.delete();
+            data.delete();
+            release(title);
+            return false;
+        }
+        return true;
+    }
+
+    // Deletes the entry after its picture is saved, and releases the claim.
+    public static void remove(Context context, String id) {
+        File dir = getDirectory(context);
+        // Delete the journal record first, so a half-deleted entry is not
+        // replayed.
+        new File(dir, id + JOURNAL_SUFFIX).delete();
+        new File(dir, id + DATA_SUFFIX).delete();
+        release(id);
+    }
+
+    // Claims an id without an entry, so SpoolService waits until it is
+    // released. Used for the pictures being saved without a spooled copy.
+    public static void claim(String id) {
+        synchronized (sClaimed) {
+            sClaimed.add(id);
+        }
+    }
+
+    // Releases the claim of an entry that could not be saved, so SpoolService
+    // will try again later.
+    public static void release(String id) {
+        synchronized (sClaimed) {
+            sClaimed.remove(id);
+            sClaimed.notifyAll();
+        }
+    }
+
+    // Waits until no entry is claimed by this process.
+    public static void waitUntilIdle() {
+        synchronized (sClaimed) {
+            while (!sClaimed.isEmpty()) {
+                try {
+                    sClaimed.wait();
+                } catch (InterruptedException ex) {
+                    // ignore.
+                }
+            }
+        }
+    }
+
+    // Claims and returns the entries nobody else claims, oldest first. Also
+    // deletes the leftovers of entries that were never committed.
+    public static ArrayList<Entry> claimOrphans(Context context) {
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        File dir = getDirectory(context);
+        String[] names = dir.list();
+        if (names == null) return entries;
+
+        synchronized (sClaimed) {
+            for (String name : names) {
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    String id = name.substring(0, name.length() - TEMP_SUFFIX.length());
+                    if (!sClaimed.contains(id)) {
+                        new File(dir, name).delete();
+                        new File(dir, id + DATA_SUFFIX).delete();
+                    }
+                    continue;
+                }
+                if (name.endsWith(DATA_SUFFIX)) {
+                    // The process died while writing the jpeg.
+                    String id = name.substring(0, name.length() - DATA_SUFFIX.length());
+                    if (!sClaimed.contains(id) && !new File(dir, id + JOURNAL_SUFFIX).exists()
+                            && !new File(dir, id + TEMP_SUFFIX).exists()) {
+                        new File(dir, name).delete();
+                    }
+                    continue;
+                }
+                if (!name.endsWith(JOURNAL_SUFFIX)) continue;
+                String id = name.substring(0, name.length() - JOURNAL_SUFFIX.length());
+                if (sClaimed.contains(id)) continue;
+                Entry e = readJournal(new File(dir, name));
+                if (e == null) {
+                    new File(dir, name).delete();
+                    new File(dir, id + DATA_SUFFIX).delete();
+                    continue;
+                }
+                e.id = id;
+                sClaimed.add(id);
+                entries.add(e);
+            }
+        }
+
+        // Replay in capture order.
+        Collections.sort(entries, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                return a.dateTaken < b.dateTaken ? -1 : (a.dateTaken > b.dateTaken ? 1 : 0);
+            }
+        });
+        return entries;
+    }
+
+    // Reads the jpeg of an entry. Returns null if it cannot be read.
+    public static byte[] readData(Context context, Entry e) {
+        File file = new File(getDirectory(context), e.id + DATA_SUFFIX);
+        FileInputStream f = null;
+        try {
+            f = new FileInputStream(file);
+            byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < data.length) {
+                int n = f.read(data, offset, data.length - offset);
+                if (n < 0) return null;
+                offset += n;
+            }
+            return data;
+        } catch (IOException ex) {
+            Log.e(TAG, "Failed to read " + file.getPath(), ex);
+            return null;
+        } finally {
+            Util.closeSilently(f);
+        }
+    }
+
+    private static Entry readJournal(File file) {
+        FileInputStream f = null;
+        DataInputStream d = null;
+        try {
+            f = new FileInputStream(file);
+            d = new DataInputStream(new BufferedInputStream(f, BUFSIZE));
+            if (d.readInt() != JOURNAL_VERSION) return null;
+            Entry e = new Entry();
+            e.title = d.readUTF();
+            e.dateTaken = d.readLong();
+            e.hasLocation = d.readBoolean();
+            e.latitude = d.readDouble();
+            e.longitude = d.readDouble();
+            e.orientation = d.readInt();
+            e.width = d.readInt();
+            e.height = d.readInt();
+            return e;
+        } catch (IOException ex) {
+            Log.e(TAG, "Failed to read " + file.getPath(), ex);
+            return null;
+        } finally {
+            Util.closeSilently(d);
+            Util.closeSilently(f);
+        }
+    }
+}
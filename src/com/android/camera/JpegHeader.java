@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+// A JpegHeader reads the frame header (SOF) of a jpeg in memory: the size of
+// the picture, the number of components, their sampling factors and whether
+// it is progressive. parse() only walks the marker segments before the first
+// scan, so it is much cheaper than BitmapFactory with inJustDecodeBounds and
+// can run on the main thread.
+//
+// The class is not thread-safe.
+public class JpegHeader {
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int SOS = 0xDA;
+    private static final int TEM = 0x01;
+    private static final int MAX_COMPONENTS = 4;
+
+    private int mWidth;
+    private int mHeight;
+    private int mComponentCount;
+    private boolean mProgressive;
+    private final int[] mH = new int[MAX_COMPONENTS];
+    private final int[] mV = new int[MAX_COMPONENTS];
+
+    public boolean parse(byte[] jpeg) {
+        return jpeg != null && parse(jpeg, 0, jpeg.length);
+    }
+
+    // Reads the frame header of the jpeg in jpeg[offset, offset + length).
+    // Returns false if the data does not start with a valid jpeg header.
+    public boolean parse(byte[] jpeg, int offset, int length) {
+        mComponentCount = 0;
+        int end = offset + length;
+        if (length < 4 || (jpeg[offset] & 0xFF) != 0xFF
+                || (jpeg[offset + 1] & 0xFF) != SOI) {
+            return false;
+        }
+        int p = offset + 2;
+        while (p + 4 <= end) {
+            if ((jpeg[p] & 0xFF) != 0xFF) return false;
+            int marker = jpeg[p + 1] & 0xFF;
+            if (marker == 0xFF) {  // padding
+                p++;
+                continue;
+            }
+            if (marker == TEM || (marker >= 0xD0 && marker <= 0xD7)) {
+                p += 2;  // no length
+                continue;
+            }
+            if (marker == SOS || marker == EOI) return false;
+            int segmentLength = (jpeg[p + 2] & 0xFF) << 8 | (jpeg[p + 3] & 0xFF);
+            if (segmentLength < 2 || p + 2 + segmentLength > end) return false;
+            if (isFrameMarker(marker)) return parseFrame(jpeg, p + 4, segmentLength - 2, marker);
+            p += 2 + segmentLength;
+        }
+        return false;
+    }
+
+    // SOF0 to SOF15, except DHT (C4), JPG (C8) and DAC (CC).
+    private static boolean isFrameMarker(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF
+                && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private boolean parseFrame(byte[] jpeg, int p, int length, int marker) {
+        if (length < 6) return false;
+        int height = (jpeg[p + 1] & 0xFF) << 8 | (jpeg[p + 2] & 0xFF);
+        int width = (jpeg[p + 3] & 0xFF) << 8 | (jpeg[p + 4] & 0xFF);
+        int count = jpeg[p + 5] & 0xFF;
+        if (width == 0 || height == 0) return false;
+        if (count < 1 || count > MAX_COMPONENTS || length < 6 + count * 3) return false;
+        for (int i = 0; i < count; i++) {
+            int factors = jpeg[p + 7 + i * 3] & 0xFF;
+            mH[i] = factors >> 4;
+            mV[i] = factors & 0x0F;
+            if (mH[i] < 1 || mH[i] > 4 || mV[i] < 1 || mV[i] > 4) return false;
+        }
+        mWidth = width;
+        mHeight = height;
+        mComponentCount = count;
+        // SOF2, SOF6, SOF10 and SOF14 are progressive.
+        mProgressive = (marker & 0x03) == 0x02;
+        return true;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getComponentCount() {
+        return mComponentCount;
+    }
+
+    public boolean isProgressive() {
+        return mProgressive;
+    }
+
+    public int getHorizontalSampling(int component) {
+        return mH[component];
+    }
+
+    public int getVerticalSampling(int component) {
+        return mV[component];
+    }
+
+    // Returns how many times the first component (luma) is wider than the
+    // smallest of the others, e.g. 2 for 4:2:0 and 4:2:2. Returns 1 for
+    // grayscale pictures.
+    public int getHorizontalSubsampling() {
+        return getSubsampling(mH);
+    }
+
+    // Returns how many times the first component is taller than the smallest
+    // of the others, e.g. 2 for 4:2:0 and 1 for 4:2:2.
+    public int getVerticalSubsampling() {
+        return getSubsampling(mV);
+    }
+
+    private int getSubsampling(int[] factors) {
+        if (mComponentCount < 2) return 1;
+        int min = factors[1];
+        for (int i = 2; i < mComponentCount; i++) min = Math.min(min, factors[i]);
+        return Math.max(1, factors[0] / min);
+    }
+}
@@ -0,0 +1,866 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+// The class rotates a baseline jpeg by 90, 180 or 270 degrees clockwise
+// without decoding the pixels, like jpegtran. The Huffman data is decoded to
+// DCT coefficients, each 8x8 block is transposed and/or has the signs of its
+// odd frequencies flipped, the blocks are moved to their new places, and the
+// result is encoded again with the standard Huffman tables. The quantization
+// tables are transposed for 90 and 270 degrees. No information is lost.
+//
+// Blocks on the edges that are not full MCUs cannot move to the top or left
+// of the picture, so those pixels are dropped (like "jpegtran -trim"). The
+// output size is then a bit smaller than the input.
+//
+// The coefficients of the whole picture do not fit in memory, so the output
+// is made in bands of MCU rows. The entropy data is decoded once for each
+// band, and only the blocks of the band are kept. Then the band is encoded
+// and written out.
+//
+// Only 8-bit baseline (SOF0 and SOF1) jpegs with one scan are supported.
+// This is what the camera HALs produce. The class does not depend on Android
+// so it can be tested on a JVM. It is not thread-safe.
+public class JpegRotator {
+    // The memory used for the coefficients of one band.
+    private static final int DEFAULT_BAND_BYTES = 4 * 1024 * 1024;
+
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int SOF0 = 0xC0;
+    private static final int SOF1 = 0xC1;
+    private static final int DHT = 0xC4;
+    private static final int SOS = 0xDA;
+    private static final int DQT = 0xDB;
+    private static final int DRI = 0xDD;
+    private static final int APP1 = 0xE1;
+    private static final int RST0 = 0xD0;
+    private static final int RST7 = 0xD7;
+
+    // The natural (row-major) index of the k-th coefficient in zigzag order.
+    private static final int[] ZIGZAG = {
+         0,  1,  8, 16,  9,  2,  3, 10,
+        17, 24, 32, 25, 18, 11,  4,  5,
+        12, 19, 26, 33, 40, 48, 41, 34,
+        27, 20, 13,  6,  7, 14, 21, 28,
+        35, 42, 49, 56, 57, 50, 43, 36,
+        29, 22, 15, 23, 30, 37, 44, 51,
+        58, 59, 52, 45, 38, 31, 39, 46,
+        53, 60, 61, 54, 47, 55, 62, 63,
+    };
+
+    // The Huffman tables in ITU T.81 Annex K.3. The bits arrays hold the
+    // number of codes of each length from 1 to 16. They have codes for all
+    // the symbols of 8-bit jpegs.
+    private static final int[] DC_LUMINANCE_BITS = {
+        0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0,
+    };
+    private static final int[] DC_CHROMINANCE_BITS = {
+        0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0,
+    };
+    private static final int[] DC_VALUES = {
+        0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11,
+    };
+    private static final int[] AC_LUMINANCE_BITS = {
+        0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d,
+    };
+    private static final int[] AC_LUMINANCE_VALUES = {
+        0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12,
+        0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+        0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08,
+        0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+        0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16,
+        0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+        0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39,
+        0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+        0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59,
+        0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+        0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79,
+        0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+        0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98,
+        0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+        0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6,
+        0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+        0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4,
+        0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+        0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea,
+        0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+        0xf9, 0xfa,
+    };
+    private static final int[] AC_CHROMINANCE_BITS = {
+        0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77,
+    };
+    private static final int[] AC_CHROMINANCE_VALUES = {
+        0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21,
+        0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+        0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91,
+        0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+        0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34,
+        0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+        0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38,
+        0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+        0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58,
+        0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+        0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78,
+        0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+        0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96,
+        0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+        0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4,
+        0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+        0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2,
+        0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+        0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9,
+        0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+        0xf9, 0xfa,
+    };
+
+    private static final HuffmanEncoder[] DC_ENCODERS = {
+        new HuffmanEncoder(DC_LUMINANCE_BITS, DC_VALUES),
+        new HuffmanEncoder(DC_CHROMINANCE_BITS, DC_VALUES),
+    };
+    private static final HuffmanEncoder[] AC_ENCODERS = {
+        new HuffmanEncoder(AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES),
+        new HuffmanEncoder(AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES),
+    };
+
+    // A Huffman table for decoding. Codes up to LOOKAHEAD bits long are found
+    // with one table lookup.
+    private static class HuffmanDecoder {
+        static final int LOOKAHEAD = 9;
+        // (length << 8) | symbol for each LOOKAHEAD-bit prefix, or 0 if the
+        // code is longer.
+        final int[] mLookup = new int[1 << LOOKAHEAD];
+        // The largest code of each length, or -1 if there is none.
+        final int[] mMaxCode = new int[18];
+        // The index of the first symbol of each length in mValues, minus the
+        // first code of that length.
+        final int[] mOffset = new int[17];
+        final int[] mValues;
+
+        HuffmanDecoder(int[] bits, int[] values) {
+            mValues = values;
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                mOffset[length] = k - code;
+                for (int i = 0; i < bits[length - 1]; i++, k++, code++) {
+                    if (length <= LOOKAHEAD) {
+                        int shift = LOOKAHEAD - length;
+                        for (int j = 0; j < (1 << shift); j++) {
+                            mLookup[(code << shift) | j] = (length << 8) | values[k];
+                        }
+                    }
+                }
+                mMaxCode[length] = (bits[length - 1] == 0) ? -1 : code - 1;
+                code <<= 1;
+            }
+            mMaxCode[17] = Integer.MAX_VALUE;  // stops a bad code
+        }
+    }
+
+    // A Huffman table for encoding: the code and the length of each symbol.
+    private static class HuffmanEncoder {
+        final int[] mCodes = new int[256];
+        final int[] mLengths = new int[256];
+        final int[] mBits;
+        final int[] mValues;
+
+        HuffmanEncoder(int[] bits, int[] values) {
+            mBits = bits;
+            mValues = values;
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                for (int i = 0; i < bits[length - 1]; i++, k++, code++) {
+                    mCodes[values[k]] = code;
+                    mLengths[values[k]] = length;
+                }
+                code <<= 1;
+            }
+        }
+    }
+
+    // A segment of the input that is copied to the output.
+    private static class Segment {
+        final int mMarker;
+        final int mOffset;  // of the marker
+        final int mLength;  // including the marker
+
+        Segment(int marker, int offset, int length) {
+            mMarker = marker;
+            mOffset = offset;
+            mLength = length;
+        }
+    }
+
+    private final int mBandBytes;
+
+    // The input.
+    private byte[] mJpeg;
+    private int mSofMarker;
+    private int mWidth;
+    private int mHeight;
+    private int mComponentCount;
+    private final int[] mComponentIds = new int[4];
+    private final int[] mH = new int[4];
+    private final int[] mV = new int[4];
+    private final int[] mQuantTables = new int[4];
+    private final int[] mDcTables = new int[4];
+    private final int[] mAcTables = new int[4];
+    private final HuffmanDecoder[] mDcDecoders = new HuffmanDecoder[4];
+    private final HuffmanDecoder[] mAcDecoders = new HuffmanDecoder[4];
+    private int mRestartInterval;
+    private int mScanStart;
+    private final ArrayList<Segment> mSegments = new ArrayList<Segment>();
+    private int mMcusX;
+    private int mMcusY;
+
+    // The transform.
+    private int mDegrees;
+    private final int[] mMap = new int[64];  // the new index of each coefficient
+    private final int[] mSign = new int[64];
+
+    // The output.
+    private int mOutWidth;
+    private int mOutHeight;
+    private final int[] mOutH = new int[4];
+    private final int[] mOutV = new int[4];
+    private int mOutMcusX;
+    private int mOutMcusY;
+    // The width in blocks of each component, and the number of blocks that
+    // are not trimmed in the input.
+    private final int[] mOutBlocksX = new int[4];
+    private final int[] mKeptBlocksX = new int[4];
+    private final int[] mKeptBlocksY = new int[4];
+
+    // The coefficients of the current band, in natural order.
+    private final short[][] mBand = new short[4][];
+    private int mBandStart;  // in output MCU rows
+    private int mBandEnd;
+
+    // The bit reader.
+    private int mPosition;
+    private int mBitBuffer;
+    private int mBitCount;
+    private final int[] mBlock = new int[64];
+    private final int[] mPredictors = new int[4];
+
+    // The bit writer.
+    private OutputStream mOut;
+    private final byte[] mOutBuffer = new byte[8192];
+    private int mOutCount;
+    private int mPutBuffer;
+    private int mPutBits;
+
+    public JpegRotator() {
+        this(DEFAULT_BAND_BYTES);
+    }
+
+    public JpegRotator(int bandBytes) {
+        mBandBytes = bandBytes;
+    }
+
+    // The size of the last rotated jpeg.
+    public int getWidth() {
+        return mOutWidth;
+    }
+
+    public int getHeight() {
+        return mOutHeight;
+    }
+
+    // Writes the jpeg rotated clockwise by the degrees. The EXIF segment of
+    // the jpeg is replaced with the one from exif if it is not null, with the
+    // orientation set to 0 and the new size. Returns
+    // false without writing anything if the jpeg is not supported. Throws
+    // IOException if the jpeg data is corrupt or the output fails.
+    public boolean rotate(byte[] jpeg, int degrees, ExifWriter exif, OutputStream out)
+            throws IOException {
+        if (degrees != 90 && degrees != 180 && degrees != 270) return false;
+        mJpeg = jpeg;
+        mDegrees = degrees;
+        mSegments.clear();
+        try {
+            if (!parseHeaders()) return false;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return false;
+        }
+        if (!setUpTransform()) return false;
+
+        byte[] exifSegment = null;
+        if (exif != null) {
+            exif.setOrientation(0);
+            exif.setImageSize(mOutWidth, mOutHeight);
+            exifSegment = exif.getSegment(jpeg);
+        }
+        mOut = out;
+        mOutCount = 0;
+        mPutBuffer = 0;
+        mPutBits = 0;
+        try {
+            writeHeaders(exifSegment);
+            writeScan();
+            putByte(0xFF);
+            putByte(EOI);
+            flush();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt jpeg data");
+        } finally {
+            mOut = null;
+            mJpeg = null;
+            for (int i = 0; i < mBand.length; i++) mBand[i] = null;
+        }
+        return true;
+    }
+
+    private int read16(int offset) {
+        return (mJpeg[offset] & 0xFF) << 8 | (mJpeg[offset + 1] & 0xFF);
+    }
+
+    // Reads the segments up to the start of the scan. Returns false if the
+    // jpeg is not supported.
+    private boolean parseHeaders() {
+        boolean hasFrame = false;
+        mRestartInterval = 0;
+        if (read16(0) != (0xFF00 | SOI)) return false;
+        int offset = 2;
+        while (true) {
+            if ((mJpeg[offset] & 0xFF) != 0xFF) return false;
+            int marker = mJpeg[offset + 1] & 0xFF;
+            if (marker == 0xFF) {  // padding
+                offset++;
+                continue;
+            }
+            int length = read16(offset + 2);
+            int p = offset + 4;
+            int end = offset + 2 + length;
+            if (length < 2 || end > mJpeg.length) return false;
+
+            if (marker == SOF0 || marker == SOF1) {
+                mSofMarker = marker;
+                if ((mJpeg[p] & 0xFF) != 8) return false;  // precision
+                mHeight = read16(p + 1);
+                mWidth = read16(p + 3);
+                mComponentCount = mJpeg[p + 5] & 0xFF;
+                if (mWidth == 0 || mHeight == 0) return false;
+                if (mComponentCount != 1 && mComponentCount != 3) return false;
+                for (int i = 0; i < mComponentCount; i++) {
+                    int q = p + 6 + i * 3;
+                    mComponentIds[i] = mJpeg[q] & 0xFF;
+                    mH[i] = (mJpeg[q + 1] >> 4) & 0x0F;
+                    mV[i] = mJpeg[q + 1] & 0x0F;
+                    mQuantTables[i] = mJpeg[q + 2] & 0x0F;
+                    if (mH[i] < 1 || mH[i] > 4 || mV[i] < 1 || mV[i] > 4) return false;
+                }
+                // The sampling factors do not matter in a one-component scan.
+                if (mComponentCount == 1) mH[0] = mV[0] = 1;
+                hasFrame = true;
+            } else if (marker >= 0xC2 && marker <= 0xCF && marker != DHT
+                    && marker != 0xC8 && marker != 0xCC) {
+                return false;  // progressive, lossless or arithmetic coding
+            } else if (marker == DHT) {
+                while (p < end) {
+                    int tc = (mJpeg[p] >> 4) & 0x0F;
+                    int th = mJpeg[p] & 0x0F;
+                    if (tc > 1 || th > 3) return false;
+                    int[] bits = new int[16];
+                    int count = 0;
+                    for (int i = 0; i < 16; i++) {
+                        bits[i] = mJpeg[p + 1 + i] & 0xFF;
+                        count += bits[i];
+                    }
+                    if (count > 256) return false;
+                    int[] values = new int[count];
+                    for (int i = 0; i < count; i++) values[i] = mJpeg[p + 17 + i] & 0xFF;
+                    HuffmanDecoder decoder = new HuffmanDecoder(bits, values);
+                    if (tc == 0) {
+                        mDcDecoders[th] = decoder;
+                    } else {
+                        mAcDecoders[th] = decoder;
+                    }
+                    p += 17 + count;
+                }
+            } else if (marker == DRI) {
+                mRestartInterval = read16(p);
+            } else if (marker == SOS) {
+                if (!hasFrame) return false;
+                int count = mJpeg[p] & 0xFF;
+                if (count != mComponentCount) return false;  // more than one scan
+                for (int i = 0; i < count; i++) {
+                    int id = mJpeg[p + 1 + i * 2] & 0xFF;
+                    int tables = mJpeg[p + 2 + i * 2] & 0xFF;
+                    int c = findComponent(id);
+                    if (c < 0) return false;
+                    mDcTables[c] = (tables >> 4) & 0x03;
+                    mAcTables[c] = tables & 0x03;
+                    if (mDcDecoders[mDcTables[c]] == null
+                            || mAcDecoders[mAcTables[c]] == null) {
+                        return false;
+                    }
+                }
+                mScanStart = end;
+                return true;
+            } else if (marker == EOI) {
+                return false;
+            } else if (marker == DQT || marker >= 0xE0 || marker == 0xFE) {
+                // DQT, APPn and COM are written out again. A DQT segment is
+                // transposed when it is written.
+                mSegments.add(new Segment(marker, offset, length + 2));
+            }
+            offset = end;
+        }
+    }
+
+    private int findComponent(int id) {
+        for (int i = 0; i < mComponentCount; i++) {
+            if (mComponentIds[i] == id) return i;
+        }
+        return -1;
+    }
+
+    // Computes the output size and how the blocks and the coefficients move.
+    // Returns false if nothing is left after trimming.
+    private boolean setUpTransform() {
+        int maxH = 1;
+        int maxV = 1;
+        for (int i = 0; i < mComponentCount; i++) {
+            maxH = Math.max(maxH, mH[i]);
+            maxV = Math.max(maxV, mV[i]);
+        }
+        int mcuWidth = 8 * maxH;
+        int mcuHeight = 8 * maxV;
+        mMcusX = (mWidth + mcuWidth - 1) / mcuWidth;
+        mMcusY = (mHeight + mcuHeight - 1) / mcuHeight;
+
+        // The partial MCUs on the right (for 270 and 180) and the bottom (for
+        // 90 and 180) would move to the top or the left, so they are trimmed.
+        boolean transpose = (mDegrees != 180);
+        int width = mWidth;
+        int height = mHeight;
+        if (mDegrees != 90) width -= width % mcuWidth;
+        if (mDegrees != 270) height -= height % mcuHeight;
+        if (width == 0 || height == 0) return false;
+        int keptMcusX = (mDegrees == 90) ? mMcusX : width / mcuWidth;
+        int keptMcusY = (mDegrees == 270) ? mMcusY : height / mcuHeight;
+        mOutWidth = transpose ? height : width;
+        mOutHeight = transpose ? width : height;
+        mOutMcusX = transpose ? keptMcusY : keptMcusX;
+        mOutMcusY = transpose ? keptMcusX : keptMcusY;
+        for (int i = 0; i < mComponentCount; i++) {
+            mOutH[i] = transpose ? mV[i] : mH[i];
+            mOutV[i] = transpose ? mH[i] : mV[i];
+            mKeptBlocksX[i] = keptMcusX * mH[i];
+            mKeptBlocksY[i] = keptMcusY * mV[i];
+            mOutBlocksX[i] = mOutMcusX * mOutH[i];
+        }
+
+        // Rotating a block by 90 degrees transposes it and flips it
+        // horizontally. A flip negates the odd frequencies in its direction.
+        for (int n = 0; n < 64; n++) {
+            int row = n >> 3;  // the vertical frequency
+            int col = n & 7;  // the horizontal frequency
+            switch (mDegrees) {
+                case 90:
+                    mMap[n] = col * 8 + row;
+                    mSign[n] = ((row & 1) != 0) ? -1 : 1;
+                    break;
+                case 180:
+                    mMap[n] = n;
+                    mSign[n] = (((row + col) & 1) != 0) ? -1 : 1;
+                    break;
+                case 270:
+                    mMap[n] = col * 8 + row;
+                    mSign[n] = ((col & 1) != 0) ? -1 : 1;
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private void writeHeaders(byte[] exifSegment) throws IOException {
+        putByte(0xFF);
+        putByte(SOI);
+        boolean exifWritten = false;
+        for (Segment s : mSegments) {
+            if (!exifWritten && exifSegment != null && s.mMarker != 0xE0) {
+                // After JFIF, if there is one.
+                putBytes(exifSegment, 0, exifSegment.length);
+                exifWritten = true;
+            }
+            if (s.mMarker == DQT) {
+                writeQuantTables(s);
+            } else if (s.mMarker == APP1 && isExif(s) && exifSegment != null) {
+                // Replaced.
+            } else {
+                putBytes(mJpeg, s.mOffset, s.mLength);
+            }
+        }
+        if (!exifWritten && exifSegment != null) {
+            putBytes(exifSegment, 0, exifSegment.length);
+        }
+
+        // SOF
+        putByte(0xFF);
+        putByte(mSofMarker);
+        putShort(8 + 3 * mComponentCount);
+        putByte(8);
+        putShort(mOutHeight);
+        putShort(mOutWidth);
+        putByte(mComponentCount);
+        for (int i = 0; i < mComponentCount; i++) {
+            putByte(mComponentIds[i]);
+            putByte((mOutH[i] << 4) | mOutV[i]);
+            putByte(mQuantTables[i]);
+        }
+
+        // DHT
+        int tables = (mComponentCount == 1) ? 1 : 2;
+        int length = 2;
+        for (int i = 0; i < tables; i++) {
+            length += 17 + DC_ENCODERS[i].mValues.length;
+            length += 17 + AC_ENCODERS[i].mValues.length;
+        }
+        putByte(0xFF);
+        putByte(DHT);
+        putShort(length);
+        for (int i = 0; i < tables; i++) {
+            writeHuffmanTable(0x00 | i, DC_ENCODERS[i]);
+            writeHuffmanTable(0x10 | i, AC_ENCODERS[i]);
+        }
+
+        // SOS
+        putByte(0xFF);
+        putByte(SOS);
+        putShort(6 + 2 * mComponentCount);
+        putByte(mComponentCount);
+        for (int i = 0; i < mComponentCount; i++) {
+            putByte(mComponentIds[i]);
+            int table = (i == 0) ? 0 : 1;
+            putByte((table << 4) | table);
+        }
+        putByte(0);  // Ss
+        putByte(63);  // Se
+        putByte(0);  // Ah, Al
+    }
+
+    private boolean isExif(Segment s) {
+        return s.mLength >= 10 && read16(s.mOffset + 4) == 0x4578
+                && read16(s.mOffset + 6) == 0x6966 && read16(s.mOffset + 8) == 0;
+    }
+
+    private void writeQuantTables(Segment s) throws IOException {
+        putBytes(mJpeg, s.mOffset, 4);
+        int p = s.mOffset + 4;
+        int end = s.mOffset + s.mLength;
+        while (p < end) {
+            int pq = (mJpeg[p] >> 4) & 0x0F;
+            int size = (pq == 0) ? 1 : 2;
+            putByte(mJpeg[p] & 0xFF);
+            // The table is in zigzag order. Write the entry that moves to
+            // each position.
+            for (int k = 0; k < 64; k++) {
+                int n = ZIGZAG[k];
+                int source = (mDegrees == 180) ? n : ((n & 7) * 8 + (n >> 3));
+                int from = p + 1 + findZigzag(source) * size;
+                putBytes(mJpeg, from, size);
+            }
+            p += 1 + 64 * size;
+        }
+    }
+
+    private static int findZigzag(int n) {
+        for (int k = 0; k < 64; k++) {
+            if (ZIGZAG[k] == n) return k;
+        }
+        return -1;
+    }
+
+    private void writeHuffmanTable(int id, HuffmanEncoder table) throws IOException {
+        putByte(id);
+        for (int i = 0; i < 16; i++) putByte(table.mBits[i]);
+        for (int i = 0; i < table.mValues.length; i++) putByte(table.mValues[i]);
+    }
+
+    // Writes the entropy data, one band of MCU rows at a time.
+    private void writeScan() throws IOException {
+        int rowBlocks = 0;
+        for (int i = 0; i < mComponentCount; i++) {
+            rowBlocks += mOutBlocksX[i] * mOutV[i];
+        }
+        int bandRows = Math.max(1, Math.min(mOutMcusY, mBandBytes / (rowBlocks * 128)));
+        for (int i = 0; i < mComponentCount; i++) {
+            mBand[i] = new short[bandRows * mOutV[i] * mOutBlocksX[i] * 64];
+        }
+
+        for (int i = 0; i < mComponentCount; i++) mPredictors[i] = 0;
+        for (mBandStart = 0; mBandStart < mOutMcusY; mBandStart = mBandEnd) {
+            mBandEnd = Math.min(mOutMcusY, mBandStart + bandRows);
+            decodeBand();
+            encodeBand();
+        }
+        // Pad the last byte with 1 bits.
+        putBits(0x7F, 7);
+    }
+
+    // Decodes the whole scan and keeps the blocks of the current band.
+    private void decodeBand() throws IOException {
+        mPosition = mScanStart;
+        mBitBuffer = 0;
+        mBitCount = 0;
+        int[] predictors = new int[4];
+        int restartsLeft = mRestartInterval;
+        for (int mcuY = 0; mcuY < mMcusY; mcuY++) {
+            for (int mcuX = 0; mcuX < mMcusX; mcuX++) {
+                if (mRestartInterval > 0) {
+                    if (restartsLeft == 0) {
+                        readRestart();
+                        for (int i = 0; i < mComponentCount; i++) predictors[i] = 0;
+                        restartsLeft = mRestartInterval;
+                    }
+                    restartsLeft--;
+                }
+                for (int c = 0; c < mComponentCount; c++) {
+                    for (int y = 0; y < mV[c]; y++) {
+                        for (int x = 0; x < mH[c]; x++) {
+                            predictors[c] = decodeBlock(c, predictors[c]);
+                            storeBlock(c, mcuX * mH[c] + x, mcuY * mV[c] + y);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Puts the transformed block into the band if it belongs there.
+    private void storeBlock(int c, int x, int y) {
+        if (x >= mKeptBlocksX[c] || y >= mKeptBlocksY[c]) return;
+        int outX;
+        int outY;
+        switch (mDegrees) {
+            case 90:
+                outX = mKeptBlocksY[c] - 1 - y;
+                outY = x;
+                break;
+            case 180:
+                outX = mKeptBlocksX[c] - 1 - x;
+                outY = mKeptBlocksY[c] - 1 - y;
+                break;
+            default:
+                outX = y;
+                outY = mKeptBlocksX[c] - 1 - x;
+                break;
+        }
+        int bandY = outY - mBandStart * mOutV[c];
+        if (bandY < 0 || bandY >= (mBandEnd - mBandStart) * mOutV[c]) return;
+        short[] band = mBand[c];
+        int base = (bandY * mOutBlocksX[c] + outX) * 64;
+        int[] block = mBlock;
+        for (int n = 0; n < 64; n++) {
+            band[base + mMap[n]] = (short) (block[n] * mSign[n]);
+        }
+    }
+
+    // Decodes a block into mBlock in natural order. Returns the DC value.
+    private int decodeBlock(int c, int predictor) throws IOException {
+        int[] block = mBlock;
+        for (int n = 0; n < 64; n++) block[n] = 0;
+
+        int s = decodeHuffman(mDcDecoders[mDcTables[c]]);
+        int dc = predictor + ((s == 0) ? 0 : extend(getBits(s), s));
+        block[0] = dc;
+
+        HuffmanDecoder ac = mAcDecoders[mAcTables[c]];
+        for (int k = 1; k < 64; k++) {
+            int rs = decodeHuffman(ac);
+            int r = rs >> 4;
+            s = rs & 0x0F;
+            if (s == 0) {
+                if (r != 15) break;  // EOB
+                k += 15;  // ZRL
+                continue;
+            }
+            k += r;
+            if (k > 63) throw new IOException("Bad AC run");
+            block[ZIGZAG[k]] = extend(getBits(s), s);
+        }
+        return dc;
+    }
+
+    private static int extend(int value, int bits) {
+        return (value < (1 << (bits - 1))) ? value - (1 << bits) + 1 : value;
+    }
+
+    // Fills the bit buffer to at least 25 bits. Zeros are used after a
+    // marker.
+    private void fillBits() {
+        while (mBitCount <= 24) {
+            int b = 0;
+            if (mPosition < mJpeg.length) {
+                b = mJpeg[mPosition] & 0xFF;
+                if (b == 0xFF) {
+                    int next = (mPosition + 1 < mJpeg.length)
+                            ? mJpeg[mPosition + 1] & 0xFF : EOI;
+                    if (next == 0) {
+                        mPosition += 2;
+                    } else {
+                        b = 0;  // a marker; stay here
+                    }
+                } else {
+                    mPosition++;
+                }
+            }
+            mBitBuffer |= b << (24 - mBitCount);
+            mBitCount += 8;
+        }
+    }
+
+    private int getBits(int n) {
+        if (mBitCount < n) fillBits();
+        int value = mBitBuffer >>> (32 - n);
+        mBitBuffer <<= n;
+        mBitCount -= n;
+        return value;
+    }
+
+    private int decodeHuffman(HuffmanDecoder table) throws IOException {
+        if (mBitCount < 16) fillBits();
+        int entry = table.mLookup[mBitBuffer >>> (32 - HuffmanDecoder.LOOKAHEAD)];
+        if (entry != 0) {
+            int length = entry >> 8;
+            mBitBuffer <<= length;
+            mBitCount -= length;
+            return entry & 0xFF;
+        }
+        int length = HuffmanDecoder.LOOKAHEAD + 1;
+        int code = mBitBuffer >>> (32 - length);
+        while (code > table.mMaxCode[length]) {
+            length++;
+            if (length > 16) throw new IOException("Bad Huffman code");
+            code = mBitBuffer >>> (32 - length);
+        }
+        mBitBuffer <<= length;
+        mBitCount -= length;
+        return table.mValues[table.mOffset[length] + code];
+    }
+
+    // Skips to the data after the next RST marker.
+    private void readRestart() throws IOException {
+        mBitBuffer = 0;
+        mBitCount = 0;
+        int end = mJpeg.length - 1;
+        while (mPosition < end) {
+            if ((mJpeg[mPosition] & 0xFF) == 0xFF) {
+                int marker = mJpeg[mPosition + 1] & 0xFF;
+                if (marker >= RST0 && marker <= RST7) {
+                    mPosition += 2;
+                    return;
+                }
+                if (marker != 0 && marker != 0xFF) break;
+            }
+            mPosition++;
+        }
+        throw new IOException("Missing RST marker");
+    }
+
+    // Encodes the MCUs of the current band.
+    private void encodeBand() throws IOException {
+        for (int mcuY = mBandStart; mcuY < mBandEnd; mcuY++) {
+            for (int mcuX = 0; mcuX < mOutMcusX; mcuX++) {
+                for (int c = 0; c < mComponentCount; c++) {
+                    int table = (c == 0) ? 0 : 1;
+                    for (int y = 0; y < mOutV[c]; y++) {
+                        int bandY = (mcuY - mBandStart) * mOutV[c] + y;
+                        for (int x = 0; x < mOutH[c]; x++) {
+                            int base = (bandY * mOutBlocksX[c] + mcuX * mOutH[c] + x) * 64;
+                            encodeBlock(mBand[c], base, c, DC_ENCODERS[table],
+                                    AC_ENCODERS[table]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void encodeBlock(short[] band, int base, int c, HuffmanEncoder dc,
+            HuffmanEncoder ac) throws IOException {
+        int diff = band[base] - mPredictors[c];
+        mPredictors[c] = band[base];
+        int s = getCategory(diff);
+        putBits(dc.mCodes[s], dc.mLengths[s]);
+        if (s != 0) putBits(diff < 0 ? diff - 1 : diff, s);
+
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int value = band[base + ZIGZAG[k]];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                putBits(ac.mCodes[0xF0], ac.mLengths[0xF0]);
+                run -= 16;
+            }
+            s = getCategory(value);
+            int rs = (run << 4) | s;
+            putBits(ac.mCodes[rs], ac.mLengths[rs]);
+            putBits(value < 0 ? value - 1 : value, s);
+            run = 0;
+        }
+        if (run > 0) putBits(ac.mCodes[0x00], ac.mLengths[0x00]);
+    }
+
+    // Returns the number of bits of the magnitude of the value.
+    private static int getCategory(int value) {
+        if (value < 0) value = -value;
+        return 32 - Integer.numberOfLeadingZeros(value);
+    }
+
+    // Writes the lowest n bits of the value, with byte stuffing.
+    private void putBits(int value, int n) throws IOException {
+        mPutBuffer = (mPutBuffer << n) | (value & ((1 << n) - 1));
+        mPutBits += n;
+        while (mPutBits >= 8) {
+            int b = (mPutBuffer >> (mPutBits - 8)) & 0xFF;
+            putByte(b);
+            if (b == 0xFF) putByte(0);
+            mPutBits -= 8;
+        }
+    }
+
+    private void putShort(int value) throws IOException {
+        putByte(value >> 8);
+        putByte(value);
+    }
+
+    private void putByte(int b) throws IOException {
+        if (mOutCount == mOutBuffer.length) flush();
+        mOutBuffer[mOutCount++] = (byte) b;
+    }
+
+    private void putBytes(byte[] bytes, int offset, int length) throws IOException {
+        for (int i = 0; i < length; i++) putByte(bytes[offset + i]);
+    }
+
+    private void flush() throws IOException {
+        mOut.write(mOutBuffer, 0, mOutCount);
+        mOutCount = 0;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+// Decides how long CameraHolder keeps the camera device after keep(), so the
+// next activity can reconnect to it instead of opening it again. Keeping it
+// longer catches slower switches, but the device stays powered for nothing
+// if no activity comes.
+//
+// A switch is a keep() followed by an open(). The policy is told the time
+// between them, whether the device was still kept or not.
+public abstract class KeepAlivePolicy {
+    // The time used by CameraHolder before the policies were added.
+    public static final long DEFAULT_KEEP_TIME = 3000;
+
+    // Returns how long to keep the device after keep(), in milliseconds.
+    public abstract long getKeepTime();
+
+    // Called by open() after keep(), with the time between them.
+    public void onSwitch(long interval) {
+    }
+
+    // Keeps the device for the same time after each keep().
+    public static class Fixed extends KeepAlivePolicy {
+        private final long mKeepTime;
+
+        public Fixed(long keepTime) {
+            mKeepTime = keepTime;
+        }
+
+        @Override
+        public long getKeepTime() {
+            return mKeepTime;
+        }
+
+        @Override
+        public String toString() {
+            return "fixed " + mKeepTime + "ms";
+        }
+    }
+
+    // Releases the device at once: every switch opens it again.
+    public static class Never extends Fixed {
+        public Never() {
+            super(0);
+        }
+
+        @Override
+        public String toString() {
+            return "never";
+        }
+    }
+
+    // Keeps the device a little longer than the slowest of the recent
+    // switches, within bounds. A switch that missed the device makes the
+    // time longer the next time. Until enough switches are seen, the default
+    // time is used.
+    public static class Adaptive extends KeepAlivePolicy {
+        private static final int MAX_SAMPLES = 16;
+        private static final int MIN_SAMPLES = 3;
+        private static final float MARGIN = 1.5f;
+
+        private final long mMinKeepTime;
+        private final long mMaxKeepTime;
+        // The last intervals, as a ring buffer.
+        private final long[] mIntervals = new long[MAX_SAMPLES];
+        private int mCount;
+        private int mNext;
+
+        public Adaptive(long minKeepTime, long maxKeepTime) {
+            mMinKeepTime = minKeepTime;
+            mMaxKeepTime = maxKeepTime;
+        }
+
+        public Adaptive() {
+            this(500, 2 * DEFAULT_KEEP_TIME);
+        }
+
+        @Override
+        public synchronized long getKeepTime() {
+            if (mCount < MIN_SAMPLES) return DEFAULT_KEEP_TIME;
+            long slowest = 0;
+            for (int i = 0; i < mCount; i++) slowest = Math.max(slowest, mIntervals[i]);
+            long time = (long) (slowest * MARGIN);
+            return Math.max(mMinKeepTime, Math.min(mMaxKeepTime, time));
+        }
+
+        @Override
+        public synchronized void onSwitch(long interval) {
+            // A switch slower than the longest keep time cannot be caught.
+            if (interval > mMaxKeepTime) return;
+            mIntervals[mNext] = interval;
+            mNext = (mNext + 1) % MAX_SAMPLES;
+            if (mCount < MAX_SAMPLES) mCount++;
+        }
+
+        @Override
+        public String toString() {
+            return "adaptive " + mMinKeepTime + "-" + mMaxKeepTime + "ms";
+        }
+    }
+}
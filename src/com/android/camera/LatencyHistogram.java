@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+// A histogram of latencies in microseconds with a fixed relative precision,
+// like HdrHistogram. The values below 2 * SUB_BUCKETS are counted exactly.
+// Above that, each power of two is split into SUB_BUCKETS buckets, so a value
+// is known within 1 / SUB_BUCKETS (about 3%). Recording a value does not
+// allocate, and the memory does not depend on the number of values.
+//
+// The values larger than MAX_VALUE (about 71 minutes) are counted as
+// MAX_VALUE.
+//
+// The class is not thread-safe.
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_VALUE_BITS = 32;
+    public static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    private final int[] mCounts =
+            new int[(MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+    private long mTotalCount;
+    private long mSum;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+
+    public LatencyHistogram() {
+    }
+
+    public LatencyHistogram(LatencyHistogram other) {
+        System.arraycopy(other.mCounts, 0, mCounts, 0, mCounts.length);
+        mTotalCount = other.mTotalCount;
+        mSum = other.mSum;
+        mMin = other.mMin;
+        mMax = other.mMax;
+    }
+
+    public void record(long value) {
+        value = Math.max(0, Math.min(MAX_VALUE, value));
+        mCounts[getIndex(value)]++;
+        mTotalCount++;
+        mSum += value;
+        mMin = Math.min(mMin, value);
+        mMax = Math.max(mMax, value);
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCounts.length; i++) mCounts[i] = 0;
+        mTotalCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+
+    public long getCount() {
+        return mTotalCount;
+    }
+
+    public long getMean() {
+        return mTotalCount == 0 ? 0 : mSum / mTotalCount;
+    }
+
+    public long getMin() {
+        return mTotalCount == 0 ? 0 : mMin;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    // Returns the smallest value that the given percent (0 to 100) of the
+    // values are less than or equal to, within the precision of the bucket.
+    // The largest value in the bucket is returned, so the result is never
+    // too optimistic. Returns 0 if there is no value.
+    public long getPercentile(float percent) {
+        if (mTotalCount == 0) return 0;
+        long rank = (long) Math.ceil(percent / 100 * mTotalCount);
+        rank = Math.max(1, Math.min(mTotalCount, rank));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) return Math.min(mMax, getHighestValue(i));
+        }
+        return mMax;
+    }
+
+    private static int getIndex(long value) {
+        if (value < 2 * SUB_BUCKETS) return (int) value;
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int mantissa = (int) (value >> shift);  // in [SUB_BUCKETS, 2 * SUB_BUCKETS)
+        return (shift + 1) * SUB_BUCKETS + mantissa - SUB_BUCKETS;
+    }
+
+    // Returns the largest value counted in the bucket of the given index.
+    private static long getHighestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = SUB_BUCKETS + index % SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -20,6 +20,7 @@ import android.content.Context;
 import android.location.Location;
 import android.location.LocationProvider;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 
 /**
@@ -27,11 +28,18 @@ import android.util.Log;
  */
 public class LocationManager {
     private static final String TAG = "LocationManager";
+    // How long the location handed over by another mode is used, if no
+    // provider gives a location.
+    private static final long HANDOFF_LOCATION_TIME = 30000;
 
     private Context mContext;
     private Listener mListener;
     private android.location.LocationManager mLocationManager;
     private boolean mRecordLocation;
+    // The location of the mode that was left (see ModeHandoff), and until when
+    // it is used.
+    private Location mHandoffLocation;
+    private long mHandoffExpireTime;
 
     LocationListener [] mLocationListeners = new LocationListener[] {
             new LocationListener(android.location.LocationManager.GPS_PROVIDER),
@@ -56,6 +64,10 @@ public class LocationManager {
             Location l = mLocationListeners[i].current();
             if (l != null) return l;
         }
+        if (mHandoffLocation != null
+                && SystemClock.uptimeMillis() < mHandoffExpireTime) {
+            return mHandoffLocation;
+        }
         Log.d(TAG, "No location received yet.");
         return null;
     }
@@ -72,6 +84,8 @@ public class LocationManager {
     }
 
     private void startReceivingLocationUpdates() {
+        mHandoffLocation = ModeHandoff.takeLocation();
+        mHandoffExpireTime = SystemClock.uptimeMillis() + HANDOFF_LOCATION_TIME;
         if (mLocationManager == null) {
             mLocationManager = (android.location.LocationManager)
                     mContext.getSystemService(Context.LOCATION_SERVICE);
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.location.Location;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+// The Store of the ImageSaver of the Camera activity: the files in
+// Storage.DIRECTORY, MediaStore and ImageSpool.
+//
+// It has its own ContentProviderClient, because the image saver outlives the
+// activity's onStop(). The client is released by close(), when the last
+// request is done. Without a client, the requests are inserted one by one
+// through the ContentResolver.
+public class MediaImageStore implements ImageSaver.Store<Location> {
+    private final Context mContext;
+    private final ContentResolver mResolver;
+    // May be null.
+    private final ContentProviderClient mProviderClient;
+    // Used by the inserter thread only.
+    private final ArrayList<ContentValues> mValues = new ArrayList<ContentValues>();
+
+    // Runs in main thread
+    public MediaImageStore(Context context) {
+        mContext = context.getApplicationContext();
+        mResolver = context.getContentResolver();
+        mProviderClient = mResolver.acquireContentProviderClient(MediaStore.AUTHORITY);
+    }
+
+    public String generateTitle(long dateTaken) {
+        return Util.createJpegName(dateTaken);
+    }
+
+    public void setExifLocation(ExifWriter exif, Location location) {
+        Storage.setExifLocation(exif, location);
+    }
+
+    public boolean writeFile(String title, ByteBuffer[] jpeg) {
+        return Storage.writeFile(Storage.generateFilepath(title), jpeg);
+    }
+
+    public boolean rotateFile(String title, int orientation, JpegRotator rotator,
+            ExifWriter exif) {
+        return Storage.rotateFile(Storage.generateFilepath(title), orientation, rotator, exif);
+    }
+
+    public long getFileSize(String title) {
+        return new File(Storage.generateFilepath(title)).length();
+    }
+
+    public void recordSize(String sizeKey, long size) {
+        PictureSizeEstimator.instance(mContext).record(sizeKey, size);
+    }
+
+    // Runs in inserter thread. Several requests are inserted in one
+    // applyBatch call.
+    public void insert(ArrayList<ImageSaver.Request<Location>> requests) {
+        int n = requests.size();
+        if (mProviderClient == null || n == 1) {
+            for (int i = 0; i < n; i++) {
+                ImageSaver.Request<Location> r = requests.get(i);
+                Uri uri = Storage.insertImage(mResolver, r.title, r.dateTaken,
+                        r.location, r.fileOrientation, Storage.generateFilepath(r.title),
+                        r.size, r.fileWidth, r.fileHeight);
+                r.uri = (uri == null) ? null : uri.toString();
+            }
+            return;
+        }
+
+        mValues.clear();
+        for (int i = 0; i < n; i++) {
+            ImageSaver.Request<Location> r = requests.get(i);
+            mValues.add(Storage.getImageValues(r.title, r.dateTaken, r.location,
+                    r.fileOrientation, Storage.generateFilepath(r.title), r.size,
+                    r.fileWidth, r.fileHeight));
+        }
+        Uri[] uris = Storage.insertImages(mProviderClient, mValues);
+        for (int i = 0; i < n; i++) {
+            requests.get(i).uri = (uris[i] == null) ? null : uris[i].toString();
+        }
+        mValues.clear();
+    }
+
+    public void broadcastNewPicture(String uri) {
+        Util.broadcastNewPicture(mContext, Uri.parse(uri));
+    }
+
+    public boolean spool(ImageSaver.Request<Location> r) {
+        return ImageSpool.append(mContext, r.title, r.dateTaken, r.location,
+                Exif.getOrientation(r.data), r.width, r.height, r.data);
+    }
+
+    public void unspool(String title) {
+        ImageSpool.remove(mContext, title);
+    }
+
+    public void claim(String id) {
+        ImageSpool.claim(id);
+    }
+
+    public void release(String id) {
+        ImageSpool.release(id);
+    }
+
+    public void close() {
+        if (mProviderClient != null) mProviderClient.release();
+    }
+}
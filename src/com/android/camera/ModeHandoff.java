@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+// The state a camera mode hands to the next one when the user switches modes.
+// A switch finishes one activity and starts another. CameraHolder.keep()
+// carries the device across it, and this class carries the thumbnail and the
+// last location: the next mode shows the thumbnail without reading and
+// decoding the file, and tags its first pictures while the location providers
+// start again.
+//
+// The mode that is left calls put() before it starts the next one. The state
+// is kept as long as CameraHolder keeps the device, and the next mode takes
+// each part once. All the methods run in main thread.
+public class ModeHandoff {
+    private static Thumbnail sThumbnail;
+    private static Location sLocation;
+    private static Handler sHandler;
+
+    private static final Runnable sClear = new Runnable() {
+        public void run() {
+            sThumbnail = null;
+            sLocation = null;
+        }
+    };
+
+    private ModeHandoff() {
+    }
+
+    // The thumbnail must be the last one of the mode, or null if a newer one
+    // may still come, for example from pictures not saved yet.
+    public static void put(Thumbnail thumbnail, Location location) {
+        if (sHandler == null) sHandler = new Handler(Looper.getMainLooper());
+        sHandler.removeCallbacks(sClear);
+        sThumbnail = thumbnail;
+        sLocation = (location == null) ? null : new Location(location);
+        long keepTime = CameraHolder.instance().getKeepAlivePolicy().getKeepTime();
+        sHandler.postAtTime(sClear, SystemClock.uptimeMillis() + keepTime);
+    }
+
+    // Returns the thumbnail handed over, or null. The mode that was left has
+    // saved it to the file in onPause(), so it is marked as from the file.
+    public static Thumbnail takeThumbnail() {
+        Thumbnail t = sThumbnail;
+        sThumbnail = null;
+        if (t != null) t.setFromFile(true);
+        return t;
+    }
+
+    // Returns the last location of the mode that was left, or null.
+    public static Location takeLocation() {
+        Location l = sLocation;
+        sLocation = null;
+        return l;
+    }
+}
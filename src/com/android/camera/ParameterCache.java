@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.hardware.Camera.Parameters;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A cache of the parameters of an opened camera device. The parameters are
+// read once and changed in place by the activity. commit() sends them to the
+// device only if a value changed since the last commit, so an update that
+// changes nothing costs a flatten instead of a get and a set across binder.
+//
+// The device can change parameters by itself: the scene mode overrides flash,
+// white balance and focus mode, and the preview size changes the zoom
+// ratios. After setting those, call reload() to read them back.
+//
+// The cache belongs to one open of the device. Create a new one when the
+// device is opened again.
+public class ParameterCache {
+    private static final String TAG = "ParameterCache";
+
+    private final android.hardware.Camera mDevice;
+    private final long mCreationTime = SystemClock.uptimeMillis();
+    private Parameters mParameters;
+    // The flattened parameters the device has, or null if unknown.
+    private String mCommitted;
+
+    private int mCommitCount;
+    private int mSkippedCount;
+    private int mReadCount;
+    private long mBytesFlattened;
+
+    public ParameterCache(android.hardware.Camera device) {
+        mDevice = device;
+    }
+
+    // Returns the cached parameters. They are read from the device the first
+    // time.
+    public Parameters get() {
+        if (mParameters == null) reload();
+        return mParameters;
+    }
+
+    // Reads the parameters from the device again. The changes that are not
+    // committed are lost.
+    public Parameters reload() {
+        mParameters = mDevice.getParameters();
+        mCommitted = flatten();
+        mReadCount++;
+        return mParameters;
+    }
+
+    // Sends the parameters to the device if they changed since the last
+    // commit. Returns true if they were sent.
+    public boolean commit() {
+        if (mParameters == null) return false;
+        String flattened = flatten();
+        if (flattened.equals(mCommitted)) {
+            mSkippedCount++;
+            return false;
+        }
+        Log.v(TAG, "commit " + (mCommitted == null
+                ? "all" : getChangedKeys(mCommitted, flattened).toString()));
+        try {
+            mDevice.setParameters(mParameters);
+        } catch (RuntimeException e) {
+            // The device may have taken some of the values.
+            mCommitted = null;
+            throw e;
+        }
+        mCommitted = flattened;
+        mCommitCount++;
+        return true;
+    }
+
+    public int getCommitCount() {
+        return mCommitCount;
+    }
+
+    public int getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    public long getBytesFlattened() {
+        return mBytesFlattened;
+    }
+
+    public String getStatistics() {
+        long seconds = Math.max(1, (SystemClock.uptimeMillis() - mCreationTime) / 1000);
+        return "commits=" + mCommitCount + " (" + ((float) mCommitCount / seconds)
+                + "/s) skipped=" + mSkippedCount + " reads=" + mReadCount
+                + " flattened=" + mBytesFlattened + " bytes";
+    }
+
+    // Returns the sorted keys whose values differ in two flattened parameter
+    // strings ("key=value;key=value"), including the keys that are in one
+    // only.
+    public static List<String> getChangedKeys(String before, String after) {
+        Map<String, String> old = split(before);
+        Map<String, String> now = split(after);
+        ArrayList<String> changed = new ArrayList<String>();
+        for (Map.Entry<String, String> e : now.entrySet()) {
+            if (!e.getValue().equals(old.remove(e.getKey()))) changed.add(e.getKey());
+        }
+        changed.addAll(old.keySet());
+        Collections.sort(changed);
+        return changed;
+    }
+
+    private String flatten() {
+        String flattened = mParameters.flatten();
+        mBytesFlattened += flattened.length();
+        return flattened;
+    }
+
+    private static Map<String, String> split(String flattened) {
+        HashMap<String, String> map = new HashMap<String, String>();
+        for (String pair : flattened.split(";")) {
+            int i = pair.indexOf('=');
+            if (i < 0) continue;
+            map.put(pair.substring(0, i), pair.substring(i + 1));
+        }
+        return map;
+    }
+}
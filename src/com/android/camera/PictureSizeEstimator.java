@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+// The class estimates the size of the next jpeg from the sizes of the jpegs
+// saved before, so the number of remaining pictures follows the real pictures
+// instead of a constant.
+//
+// The sizes depend on the camera, the picture size and the jpeg quality, so
+// they are kept separately for each combination (the key). For each key, the
+// sizes of the last MAX_SAMPLES pictures are kept and persisted in a private
+// SharedPreferences file. The estimate is a quantile of them: a high one for
+// the remaining pictures shown to the user, and the largest one plus a margin
+// for a burst, which must never fill the storage in the middle.
+//
+// Until a key has MIN_SAMPLES pictures, the estimate is also at least the
+// prior given by the caller, so the first pictures of a new size are not
+// underestimated.
+public class PictureSizeEstimator {
+    private static final String TAG = "PictureSizeEstimator";
+
+    private static final String PREFS_NAME = "picture_sizes";
+    private static final int MAX_SAMPLES = 32;
+    private static final int MIN_SAMPLES = 4;
+
+    // The quantiles used for single pictures and bursts, and the margin added
+    // to the largest picture seen for a burst.
+    public static final float QUANTILE_PICTURE = 0.9f;
+    public static final float QUANTILE_BURST = 1.0f;
+    private static final float BURST_MARGIN = 1.25f;
+
+    // The number of jpeg bytes per pixel used when nothing is known about a
+    // picture size. This gives the old constant Storage.PICTURE_SIZE for a
+    // five megapixel picture.
+    private static final float PRIOR_BYTES_PER_PIXEL = 0.3f;
+
+    // The key of the panoramas, whose size depends on the sweep only.
+    public static final String KEY_PANORAMA = "panorama";
+
+    // The sizes of the last pictures of one key, as a ring buffer.
+    private static class Samples {
+        final long[] mSizes = new long[MAX_SAMPLES];
+        int mCount;
+        int mNext;
+
+        void add(long size) {
+            mSizes[mNext] = size;
+            mNext = (mNext + 1) % MAX_SAMPLES;
+            if (mCount < MAX_SAMPLES) mCount++;
+        }
+    }
+
+    private final SharedPreferences mPrefs;
+    // Guarded by "this".
+    private final HashMap<String, Samples> mSamples = new HashMap<String, Samples>();
+    private long[] mSortBuffer = new long[MAX_SAMPLES];
+
+    // Use a singleton.
+    private static PictureSizeEstimator sEstimator;
+    public static synchronized PictureSizeEstimator instance(Context context) {
+        if (sEstimator == null) {
+            sEstimator = new PictureSizeEstimator(context.getApplicationContext());
+        }
+        return sEstimator;
+    }
+
+    private PictureSizeEstimator(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static String getKey(int cameraId, int width, int height, int quality) {
+        return cameraId + "-" + width + "x" + height + "-q" + quality;
+    }
+
+    // Returns the prior estimate of a picture of the given size.
+    public static long getPrior(int width, int height) {
+        return (long) (width * (long) height * PRIOR_BYTES_PER_PIXEL);
+    }
+
+    // Runs in saver threads. Remembers the size of a saved jpeg.
+    public synchronized void record(String key, long size) {
+        if (size <= 0) return;
+        Samples s = getSamples(key);
+        s.add(size);
+        // apply() writes the file in the background.
+        mPrefs.edit().putString(key, encode(s)).apply();
+    }
+
+    // Returns the estimated size of the next jpeg of the key, which is the
+    // given quantile of the recent sizes.
+    public synchronized long estimate(String key, float quantile, long prior) {
+        Samples s = getSamples(key);
+        if (s.mCount == 0) return prior;
+        System.arraycopy(s.mSizes, 0, mSortBuffer, 0, s.mCount);
+        Arrays.sort(mSortBuffer, 0, s.mCount);
+        int index = (int) Math.ceil(quantile * s.mCount) - 1;
+        long size = mSortBuffer[Math.max(0, Math.min(s.mCount - 1, index))];
+        if (s.mCount < MIN_SAMPLES) size = Math.max(size, prior);
+        return size;
+    }
+
+    // Returns the number of pictures of the key that fit in the available
+    // space, or the error value of the available space.
+    public long getPicturesRemaining(String key, long prior, long space) {
+        return getRemaining(space, estimate(key, QUANTILE_PICTURE, prior));
+    }
+
+    // Returns the number of pictures of the key a burst may take without
+    // filling the storage. pendingBytes is the size of the pictures that are
+    // taken but not written yet.
+    public long getBurstRemaining(String key, long prior, long space, long pendingBytes) {
+        if (space >= 0) space = Math.max(0, space - pendingBytes);
+        long size = (long) (estimate(key, QUANTILE_BURST, prior) * BURST_MARGIN);
+        return getRemaining(space, size);
+    }
+
+    // Returns the number of panoramas that fit in the available space. A
+    // panorama is large and cannot be resumed, so the largest one seen is used.
+    public long getPanoramasRemaining(long prior, long space) {
+        return getRemaining(space, estimate(KEY_PANORAMA, QUANTILE_BURST, prior));
+    }
+
+    private static long getRemaining(long space, long pictureSize) {
+        if (space < 0) return space;
+        if (space <= Storage.LOW_STORAGE_THRESHOLD) return 0;
+        return (space - Storage.LOW_STORAGE_THRESHOLD) / Math.max(1, pictureSize);
+    }
+
+    private Samples getSamples(String key) {
+        Samples s = mSamples.get(key);
+        if (s == null) {
+            s = decode(mPrefs.getString(key, null));
+            mSamples.put(key, s);
+        }
+        return s;
+    }
+
+    // The sizes are persisted oldest first, separated by commas.
+    private static String encode(Samples s) {
+        StringBuilder sb = new StringBuilder();
+        int start = (s.mNext - s.mCount + MAX_SAMPLES) % MAX_SAMPLES;
+        for (int i = 0; i < s.mCount; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(s.mSizes[(start + i) % MAX_SAMPLES]);
+        }
+        return sb.toString();
+    }
+
+    private static Samples decode(String value) {
+        Samples s = new Samples();
+        if (value == null || value.length() == 0) return s;
+        try {
+            for (String size : value.split(",")) {
+                s.add(Long.parseLong(size));
+            }
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Invalid sizes: " + value);
+            return new Samples();
+        }
+        return s;
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+
+// A pipeline of save stages. Each stage has its own bounded queue and its own
+// worker threads, so a slow stage (for example, writing to the SD card) does
+// not stall the others (for example, decoding the thumbnail). The time between
+// two shots is then bounded by the slowest stage instead of the sum of all.
+//
+// Items are handed from one stage to the next in the order they were
+// submitted, even if a stage has more than one worker. So every stage sees
+// the items in order and waitDone() returns only after all of them passed
+// the last stage.
+//
+// When a stage returns false from process() or throws, the item skips the
+// remaining stages. It still goes through the queues so the order is kept.
+// The DoneListener is told about every item that leaves the pipeline, dropped
+// or not, so the owner can clean up after the items that failed.
+//
+// A batch stage gets all the items waiting in its queue at once (up to a
+// maximum), so it can do the work of several items in one call. It never
+// waits for more items to arrive, so a single item is not delayed.
+//
+// Besides the bounded queues, submit() also limits the total number of bytes
+// held by the pipeline (the byte budget). A new item is admitted only if it
+// fits in the budget, or if the pipeline is empty. So small pictures can be
+// queued deeper than large ones. The counters of queued bytes, blocked time
+// and high-water mark show how much backpressure the caller gets.
+public class SavePipeline<T> {
+    private static final String TAG = "SavePipeline";
+
+    public interface Stage<T> {
+        // Runs in the worker threads of the stage. Returns false if the item
+        // should not be processed by the following stages.
+        public boolean process(T item, long sequence);
+    }
+
+    public interface BatchStage<T> {
+        // Runs in the worker thread of the stage. The items are in submission
+        // order. Sets results[i] to false if items.get(i) should not be
+        // processed by the following stages.
+        public void process(ArrayList<T> items, boolean[] results);
+    }
+
+    public interface DoneListener<T> {
+        // Runs in the worker thread of the last stage. dropped is true if a
+        // stage returned false or threw for the item.
+        public void onDone(T item, boolean dropped);
+    }
+
+    private static class Job<T> {
+        final T mItem;
+        final long mSequence;
+        final long mBytes;
+        boolean mDropped;
+
+        Job(T item, long sequence, long bytes) {
+            mItem = item;
+            mSequence = sequence;
+            mBytes = bytes;
+        }
+    }
+
+    private class StageRunner {
+        final String mName;
+        final Stage<T> mStage;
+        final BatchStage<T> mBatchStage;
+        final int mMaxBatch;
+        final ArrayBlockingQueue<Job<T>> mQueue;
+        // Not Worker[]: an array of an inner class of a generic class
+        // cannot be created.
+        final Thread[] mWorkers;
+        StageRunner mNext;
+
+        // Used by the worker of a batch stage only.
+        private final ArrayList<Job<T>> mBatchJobs = new ArrayList<Job<T>>();
+        private final ArrayList<T> mBatchItems = new ArrayList<T>();
+
+        // Jobs finished out of order, waiting for the earlier ones.
+        private final HashMap<Long, Job<T>> mFinished = new HashMap<Long, Job<T>>();
+        // The number of jobs that passed this stage. Written with both
+        // mFinished and the pipeline locked.
+        private long mNextToForward;
+
+        StageRunner(String name, Stage<T> stage, BatchStage<T> batchStage,
+                int maxBatch, int workers, int capacity) {
+            mName = name;
+            mStage = stage;
+            mBatchStage = batchStage;
+            mMaxBatch = maxBatch;
+            mQueue = new ArrayBlockingQueue<Job<T>>(capacity);
+            mWorkers = new Thread[workers];
+            for (int i = 0; i < workers; i++) {
+                mWorkers[i] = new Worker(this, name + "-" + i);
+            }
+        }
+
+        void enqueue(Job<T> job) {
+            while (true) {
+                try {
+                    mQueue.put(job);
+                    return;
+                } catch (InterruptedException ex) {
+                    // ignore.
+                }
+            }
+        }
+
+        void runJob(Job<T> job) {
+            if (!job.mDropped) {
+                try {
+                    job.mDropped = !mStage.process(job.mItem, job.mSequence);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Stage " + mName + " failed", e);
+                    job.mDropped = true;
+                }
+            }
+            forward(job);
+        }
+
+        // Runs the first job and the jobs waiting behind it in one batch.
+        void runBatch(Job<T> first) {
+            mBatchJobs.clear();
+            mBatchItems.clear();
+            mBatchJobs.add(first);
+            mQueue.drainTo(mBatchJobs, mMaxBatch - 1);
+            for (Job<T> job : mBatchJobs) {
+                if (!job.mDropped) mBatchItems.add(job.mItem);
+            }
+
+            boolean[] results = new boolean[mBatchItems.size()];
+            if (!mBatchItems.isEmpty()) {
+                try {
+                    mBatchStage.process(mBatchItems, results);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Stage " + mName + " failed", e);
+                }
+            }
+
+            int i = 0;
+            for (Job<T> job : mBatchJobs) {
+                if (!job.mDropped) job.mDropped = !results[i++];
+                forward(job);
+            }
+            mBatchJobs.clear();
+            mBatchItems.clear();
+        }
+
+        // Passes the finished jobs to the next stage in submission order.
+        private void forward(Job<T> job) {
+            synchronized (mFinished) {
+                mFinished.put(job.mSequence, job);
+                Job<T> j;
+                while ((j = mFinished.remove(mNextToForward)) != null) {
+                    if (mNext != null) {
+                        mNext.enqueue(j);
+                    } else {
+                        notifyDone(j);
+                        Runnable onFinished = onJobDone(j);
+                        if (onFinished != null) onFinished.run();
+                    }
+                    onJobPassed(this);
+                }
+            }
+        }
+    }
+
+    private class Worker extends Thread {
+        private final StageRunner mRunner;
+
+        Worker(StageRunner runner, String name) {
+            super(name);
+            mRunner = runner;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Job<T> job;
+                try {
+                    job = mRunner.mQueue.take();
+                } catch (InterruptedException ex) {
+                    // We are only interrupted in finish() or
+                    // finishInBackground(), after all the work is done.
+                    break;
+                }
+                if (mRunner.mBatchStage != null) {
+                    mRunner.runBatch(job);
+                } else {
+                    mRunner.runJob(job);
+                }
+            }
+        }
+    }
+
+    private final ArrayList<StageRunner> mStages = new ArrayList<StageRunner>();
+    private DoneListener<T> mDoneListener;
+    private long mNextSequence;
+    private int mPending;
+    private boolean mStarted;
+    // Set by finishInBackground(). The workers stop when mPending drops to 0,
+    // and then mOnFinished is run.
+    private boolean mStopping;
+    private Runnable mOnFinished;
+
+    // The byte budget and the counters. Guarded by "this".
+    private long mByteBudget = Long.MAX_VALUE;
+    private long mQueuedBytes;
+    private long mHighWaterBytes;
+    private long mLastBlockedTime;
+    private long mTotalBlockedTime;
+
+    // Runs in main thread. All the stages must be added before start().
+    public void addStage(String name, Stage<T> stage, int workers, int capacity) {
+        addRunner(new StageRunner(name, stage, null, 1, workers, capacity));
+    }
+
+    // Runs in main thread. A batch stage has one worker, which processes up to
+    // maxBatch items at a time.
+    public void addBatchStage(String name, BatchStage<T> stage, int maxBatch,
+            int capacity) {
+        addRunner(new StageRunner(name, null, stage, maxBatch, 1, capacity));
+    }
+
+    // Runs in main thread. Must be called before start().
+    public void setDoneListener(DoneListener<T> listener) {
+        if (mStarted) throw new IllegalStateException("already started");
+        mDoneListener = listener;
+    }
+
+    private void addRunner(StageRunner runner) {
+        if (mStarted) throw new IllegalStateException("already started");
+        if (!mStages.isEmpty()) mStages.get(mStages.size() - 1).mNext = runner;
+        mStages.add(runner);
+    }
+
+    // Runs in main thread
+    public void start() {
+        if (mStages.isEmpty()) throw new IllegalStateException("no stage");
+        mStarted = true;
+        for (StageRunner runner : mStages) {
+            for (Thread w : runner.mWorkers) w.start();
+        }
+    }
+
+    // Sets the maximum number of bytes held by the items in the pipeline. An
+    // item larger than the budget is still admitted when the pipeline is
+    // empty.
+    public synchronized void setByteBudget(long bytes) {
+        mByteBudget = bytes;
+        notifyAll();  // the main thread may wait in submit
+    }
+
+    public synchronized long getByteBudget() {
+        return mByteBudget;
+    }
+
+    // Runs in main thread. Blocks if the item does not fit in the byte budget
+    // or the queue of the first stage is full. Returns the sequence number of
+    // the item.
+    public long submit(T item, long bytes) {
+        Job<T> job;
+        synchronized (this) {
+            long start = SystemClock.uptimeMillis();
+            while (mPending > 0 && mQueuedBytes + bytes > mByteBudget) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    // ignore.
+                }
+            }
+            mLastBlockedTime = SystemClock.uptimeMillis() - start;
+            mTotalBlockedTime += mLastBlockedTime;
+            if (mLastBlockedTime > 0) {
+                Log.v(TAG, "Blocked " + mLastBlockedTime + "ms. queued bytes="
+                        + mQueuedBytes + ", budget=" + mByteBudget);
+            }
+            if (mStopping) throw new IllegalStateException("finishing");
+            job = new Job<T>(item, mNextSequence++, bytes);
+            mPending++;
+            mQueuedBytes += bytes;
+            mHighWaterBytes = Math.max(mHighWaterBytes, mQueuedBytes);
+        }
+        mStages.get(0).enqueue(job);
+        return job.mSequence;
+    }
+
+    // Returns true if no item was submitted after the given one. Stages use
+    // this to skip work that a later item will make useless.
+    public synchronized boolean isLatest(long sequence) {
+        return sequence == mNextSequence - 1;
+    }
+
+    public synchronized int getPendingCount() {
+        return mPending;
+    }
+
+    // The number of bytes held by the items in the pipeline now.
+    public synchronized long getQueuedBytes() {
+        return mQueuedBytes;
+    }
+
+    // The largest number of bytes ever held by the pipeline.
+    public synchronized long getHighWaterBytes() {
+        return mHighWaterBytes;
+    }
+
+    // The time in milliseconds the last submit() was blocked.
+    public synchronized long getLastBlockedTime() {
+        return mLastBlockedTime;
+    }
+
+    // The total time in milliseconds submit() was blocked.
+    public synchronized long getTotalBlockedTime() {
+        return mTotalBlockedTime;
+    }
+
+    private void notifyDone(Job<T> job) {
+        if (mDoneListener == null) return;
+        try {
+            mDoneListener.onDone(job.mItem, job.mDropped);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Done listener failed", e);
+        }
+    }
+
+    // Returns the Runnable of finishInBackground() if this was the last job.
+    private synchronized Runnable onJobDone(Job<T> job) {
+        mPending--;
+        mQueuedBytes -= job.mBytes;
+        notifyAll();  // notify main thread in waitDone and submit
+        if (mStopping && mPending == 0) return stopInBackground();
+        return null;
+    }
+
+    private synchronized void onJobPassed(StageRunner runner) {
+        runner.mNextToForward++;
+        notifyAll();  // notify main thread in waitStageDone
+    }
+
+    // Runs in main thread. Waits until all the submitted items passed the
+    // stage with the given index. The following stages may still be working.
+    public synchronized void waitStageDone(int index) {
+        StageRunner runner = mStages.get(index);
+        while (runner.mNextToForward < mNextSequence) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                // ignore.
+            }
+        }
+    }
+
+    // Runs in main thread. Waits until all the submitted items passed the last
+    // stage.
+    public synchronized void waitDone() {
+        while (mPending > 0) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                // ignore.
+            }
+        }
+    }
+
+    // Runs in main thread. Finishes all the work and stops the workers.
+    public void finish() {
+        waitDone();
+        synchronized (this) {
+            interruptWorkers();
+        }
+        for (StageRunner runner : mStages) {
+            for (Thread w : runner.mWorkers) {
+                try {
+                    w.join();
+                } catch (InterruptedException ex) {
+                    // ignore.
+                }
+            }
+        }
+    }
+
+    // Runs in main thread. Does not accept new items, and stops the workers
+    // after the submitted items are done. Returns without waiting. onFinished,
+    // if not null, is run after the last item is done, in the thread of the
+    // last stage, or in this thread if no item is pending.
+    public void finishInBackground(Runnable onFinished) {
+        Runnable r = null;
+        synchronized (this) {
+            mStopping = true;
+            mOnFinished = onFinished;
+            if (mPending == 0) r = stopInBackground();
+        }
+        if (r != null) r.run();
+    }
+
+    private Runnable stopInBackground() {
+        interruptWorkers();
+        Runnable r = mOnFinished;
+        mOnFinished = null;
+        return r;
+    }
+
+    private void interruptWorkers() {
+        for (StageRunner runner : mStages) {
+            for (Thread w : runner.mWorkers) w.interrupt();
+        }
+    }
+}
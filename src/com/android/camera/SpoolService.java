@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.app.IntentService;
+import android.content.ContentResolver;
+import android.content.Intent;
+import android.database.Cursor;
+import android.location.Location;
+import android.net.Uri;
+import android.provider.MediaStore.Images;
+import android.provider.MediaStore.Images.ImageColumns;
+import android.util.Log;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+// A service that drains ImageSpool. Camera starts it when it is paused, so the
+// process keeps running until the image savers of the activity finish. Then
+// the service saves the spooled pictures left behind by a process that died.
+public class SpoolService extends IntentService {
+    private static final String TAG = "SpoolService";
+
+    public SpoolService() {
+        super(TAG);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        // Let the image savers in this process finish their work first.
+        ImageSpool.waitUntilIdle();
+
+        ArrayList<ImageSpool.Entry> entries = ImageSpool.claimOrphans(this);
+        if (entries.isEmpty()) return;
+        Log.v(TAG, "Replaying " + entries.size() + " spooled pictures");
+
+        ContentResolver resolver = getContentResolver();
+        for (ImageSpool.Entry e : entries) {
+            if (replay(resolver, e)) {
+                ImageSpool.remove(this, e.id);
+            } else {
+                // Storage is probably not ready. Try again next time.
+                ImageSpool.release(e.id);
+            }
+        }
+    }
+
+    private boolean replay(ContentResolver resolver, ImageSpool.Entry e) {
+        byte[] data = ImageSpool.readData(this, e);
+        if (data == null) return false;
+
+        Location loc = null;
+        if (e.hasLocation) {
+            loc = new Location(TAG);
+            loc.setLatitude(e.latitude);
+            loc.setLongitude(e.longitude);
+        }
+        // Add the EXIF data like the image saver does.
+        ExifWriter exif = new ExifWriter();
+        exif.setOrientation(e.orientation);
+        exif.setDateTime(e.dateTaken);
+        Storage.setExifLocation(exif, loc);
+        ByteBuffer[] jpeg = exif.write(data);
+        int size = 0;
+        for (ByteBuffer b : jpeg) size += b.remaining();
+
+        String path = Storage.generateFilepath(e.title);
+        File file = new File(path);
+        // The process may have died after the picture was saved but before
+        // the entry was removed. Do not insert it twice. The file is renamed
+        // into place only after it is complete (see Storage.writeFile()). Its
+        // size is not checked because its EXIF data may differ a bit from
+        // this one.
+        if (file.exists() && isInMediaStore(resolver, path)) {
+            return true;
+        }
+        if (!Storage.writeFile(path, jpeg)) return false;
+
+        Uri uri = Storage.insertImage(resolver, e.title, e.dateTaken, loc,
+                e.orientation, path, size, e.width, e.height);
+        if (uri != null) Util.broadcastNewPicture(this, uri);
+        return true;
+    }
+
+    private static boolean isInMediaStore(ContentResolver resolver, String path) {
+        Cursor cursor = null;
+        try {
+            cursor = resolver.query(Images.Media.EXTERNAL_CONTENT_URI,
+                    new String[] {ImageColumns._ID}, ImageColumns.DATA + "=?",
+                    new String[] {path}, null);
+            return cursor != null && cursor.getCount() > 0;
+        } catch (Throwable th) {
+            Log.e(TAG, "Failed to query MediaStore" + th);
+            return false;
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+// The startup of an activity as a graph of tasks. Each task names the tasks
+// that must be done before it starts. A background task is started in its own
+// thread as soon as its prerequisites are done. A main task runs in the main
+// thread, when the main thread waits for a task in runUntil(). A milestone
+// has no code: it is done when markDone() is called, for example by a task
+// when it has read the camera parameters.
+//
+// The graph records when each task started and ended, relative to the
+// creation of the graph, and finds the critical path: the chain of tasks that
+// decided when the last one ended. Shortening anything else does not make
+// the startup faster.
+//
+// If a task cancels the graph (for example, the camera cannot be opened), the
+// background tasks that have not started are not run. The main tasks still
+// run when their prerequisites are done, and runUntil() returns false for a
+// task that cannot be done any more.
+public class StartupGraph {
+    private static final String TAG = "StartupGraph";
+
+    private static final int WAITING = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+
+    private class Task implements Runnable {
+        final String mName;
+        final Runnable mRunnable;  // null for a milestone
+        final boolean mBackground;
+        final String[] mPrerequisites;
+        int mState = WAITING;
+        long mStart = -1;
+        long mEnd = -1;
+        // The order in which the tasks were done. The end times have a
+        // resolution of one millisecond, so several tasks can have the same.
+        int mDoneOrder = -1;
+
+        Task(String name, Runnable runnable, boolean background, String[] prerequisites) {
+            mName = name;
+            mRunnable = runnable;
+            mBackground = background;
+            mPrerequisites = prerequisites;
+        }
+
+        public void run() {
+            try {
+                mRunnable.run();
+            } finally {
+                onTaskDone(this);
+            }
+        }
+    }
+
+    private final String mName;
+    private final long mStartTime = SystemClock.uptimeMillis();
+    // Guarded by "this".
+    private final LinkedHashMap<String, Task> mTasks = new LinkedHashMap<String, Task>();
+    private boolean mStarted;
+    private boolean mCancelled;
+    private int mDoneCount;
+
+    public StartupGraph(String name) {
+        mName = name;
+    }
+
+    // Adds a task. The prerequisites must be added before.
+    public synchronized void addTask(String name, boolean background, Runnable r,
+            String... prerequisites) {
+        add(new Task(name, r, background, prerequisites));
+    }
+
+    // Adds a milestone, which is done by markDone().
+    public synchronized void addMilestone(String name, String... prerequisites) {
+        add(new Task(name, null, false, prerequisites));
+    }
+
+    private void add(Task task) {
+        if (mStarted) throw new IllegalStateException("already started");
+        if (mTasks.containsKey(task.mName)) {
+            throw new IllegalArgumentException("duplicate task " + task.mName);
+        }
+        for (String p : task.mPrerequisites) {
+            if (!mTasks.containsKey(p)) throw new IllegalArgumentException("unknown task " + p);
+        }
+        mTasks.put(task.mName, task);
+    }
+
+    // Starts the background tasks that have no prerequisite.
+    public synchronized void start() {
+        mStarted = true;
+        startReadyTasks();
+    }
+
+    // Runs in main thread. Runs the main tasks whose prerequisites are done
+    // and waits for the background tasks, until the given task is done.
+    // Returns false if the graph is cancelled and the task cannot be done.
+    public boolean runUntil(String name) {
+        while (true) {
+            Task next = null;
+            synchronized (this) {
+                Task target = getTask(name);
+                if (target.mState == DONE) return true;
+                next = findReadyMainTask();
+                if (next == null) {
+                    if (mCancelled) return false;
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        // ignore.
+                    }
+                    continue;
+                }
+                next.mState = RUNNING;
+                next.mStart = now();
+            }
+            next.run();
+        }
+    }
+
+    // Marks a milestone done. Does nothing if it is done already. The
+    // prerequisites of a milestone should be done before.
+    public synchronized void markDone(String name) {
+        Task task = getTask(name);
+        if (task.mState == DONE) return;
+        // A milestone starts when its prerequisites are done.
+        task.mStart = 0;
+        for (String p : task.mPrerequisites) {
+            task.mStart = Math.max(task.mStart, mTasks.get(p).mEnd);
+        }
+        setDone(task);
+        startReadyTasks();
+    }
+
+    // Does not start the background tasks that are still waiting.
+    public synchronized void cancel() {
+        mCancelled = true;
+        notifyAll();
+    }
+
+    public synchronized boolean isDone(String name) {
+        return getTask(name).mState == DONE;
+    }
+
+    // Returns the duration of the task in milliseconds, or -1 if it is not
+    // done.
+    public synchronized long getDuration(String name) {
+        Task task = getTask(name);
+        return task.mState == DONE ? task.mEnd - task.mStart : -1;
+    }
+
+    // Returns the time in milliseconds from the creation of the graph to the
+    // end of the task, or -1 if it is not done.
+    public synchronized long getEndTime(String name) {
+        Task task = getTask(name);
+        return task.mState == DONE ? task.mEnd : -1;
+    }
+
+    public synchronized String[] getTaskNames() {
+        return mTasks.keySet().toArray(new String[mTasks.size()]);
+    }
+
+    // Returns the chain of tasks that ends with the task done last, where
+    // each task is the prerequisite that was done last before the next one.
+    // "Last" is by the order the tasks were done, not by the end times,
+    // which may be equal.
+    public synchronized String[] getCriticalPath() {
+        ArrayList<String> path = new ArrayList<String>();
+        Task task = null;
+        for (Task t : mTasks.values()) {
+            if (t.mState == DONE && (task == null || t.mDoneOrder > task.mDoneOrder)) {
+                task = t;
+            }
+        }
+        while (task != null) {
+            path.add(0, task.mName);
+            Task last = null;
+            for (String p : task.mPrerequisites) {
+                Task t = mTasks.get(p);
+                if (t.mState == DONE && (last == null || t.mDoneOrder > last.mDoneOrder)) {
+                    last = t;
+                }
+            }
+            task = last;
+        }
+        return path.toArray(new String[path.size()]);
+    }
+
+    // Returns one line per task with its start and end times, and the critical
+    // path.
+    public synchronized String dump() {
+        StringBuilder sb = new StringBuilder(mName).append(" (start, end in ms):");
+        for (Task task : mTasks.values()) {
+            sb.append("\n  ").append(task.mName).append(": ");
+            if (task.mState == DONE) {
+                sb.append(task.mStart).append(", ").append(task.mEnd);
+            } else {
+                sb.append(task.mState == RUNNING ? "running" : "not run");
+            }
+            if (task.mBackground) sb.append(" (background)");
+        }
+        sb.append("\n  critical path:");
+        for (String t : getCriticalPath()) {
+            sb.append(' ').append(t).append(' ').append(getDuration(t)).append("ms");
+        }
+        return sb.toString();
+    }
+
+    private void onTaskDone(Task task) {
+        synchronized (this) {
+            setDone(task);
+            startReadyTasks();
+        }
+        if (task.mBackground) {
+            Log.v(TAG, mName + ": " + task.mName + " took " + (task.mEnd - task.mStart) + "ms");
+        }
+    }
+
+    private void setDone(Task task) {
+        task.mEnd = now();
+        task.mDoneOrder = mDoneCount++;
+        task.mState = DONE;
+        notifyAll();
+    }
+
+    // Starts the background tasks whose prerequisites are done.
+    private void startReadyTasks() {
+        if (!mStarted || mCancelled) return;
+        for (Task task : mTasks.values()) {
+            if (task.mBackground && task.mState == WAITING && isReady(task)) {
+                task.mState = RUNNING;
+                task.mStart = now();
+                new Thread(task, mName + ": " + task.mName).start();
+            }
+        }
+    }
+
+    private Task findReadyMainTask() {
+        if (!mStarted) return null;
+        for (Task task : mTasks.values()) {
+            if (!task.mBackground && task.mRunnable != null && task.mState == WAITING
+                    && isReady(task)) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private boolean isReady(Task task) {
+        for (String p : task.mPrerequisites) {
+            if (mTasks.get(p).mState != DONE) return false;
+        }
+        return true;
+    }
+
+    private Task getTask(String name) {
+        Task task = mTasks.get(name);
+        if (task == null) throw new IllegalArgumentException("unknown task " + name);
+        return task;
+    }
+
+    private long now() {
+        return SystemClock.uptimeMillis() - mStartTime;
+    }
+}
@@ -16,18 +16,28 @@
 
 package com.android.camera;
 
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.location.Location;
 import android.net.Uri;
 import android.os.Environment;
 import android.os.StatFs;
+import android.os.SystemClock;
 import android.provider.MediaStore.Images;
 import android.provider.MediaStore.Images.ImageColumns;
 import android.util.Log;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 
 public class Storage {
     private static final String TAG = "CameraStorage";
@@ -47,42 +57,196 @@ public class Storage {
     public static final long LOW_STORAGE_THRESHOLD= 50000000;
     public static final long PICTURE_SIZE = 1500000;
 
-    private static final int BUFSIZE = 4096;
+    // When to call fsync in writeFile() and rotateFile(). The file is always
+    // written to a temporary file and renamed into place, so a crash of the
+    // process never leaves a truncated picture, and the old file of a
+    // rotation stays intact. Syncing also protects against a power loss, at
+    // the cost of an SD card flush for every picture, so it is off by default.
+    public static final int SYNC_NONE = 0;
+    public static final int SYNC_DATA = 1;
+    public static final int SYNC_ALL = 2;
+
+    private static final String TEMP_PREFIX = ".";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static volatile int sSyncPolicy = SYNC_NONE;
+
+    // The statistics of writeFile(). Guarded by Storage.class.
+    private static long sLastWriteBytes;
+    private static long sLastWriteTime;
+    private static long sTotalWriteBytes;
+    private static long sTotalWriteTime;
 
     public static Uri addImage(ContentResolver resolver, String title, long date,
                 Location location, int orientation, byte[] jpeg, int width, int height) {
         // Save the image.
         String path = generateFilepath(title);
+        if (!writeFile(path, jpeg)) return null;
+
+        // Insert into MediaStore.
+        return insertImage(resolver, title, date, location, orientation, path,
+                jpeg.length, width, height);
+    }
+
+    // Saves a jpeg given in parts, like the ones from ExifWriter.write().
+    public static Uri addImage(ContentResolver resolver, String title, long date,
+                Location location, int orientation, ByteBuffer[] jpeg, int width, int height) {
+        String path = generateFilepath(title);
+        long size = 0;
+        for (ByteBuffer b : jpeg) size += b.remaining();
+        if (!writeFile(path, jpeg)) return null;
+
+        return insertImage(resolver, title, date, location, orientation, path,
+                (int) size, width, height);
+    }
+
+    public static boolean writeFile(String path, byte[] jpeg) {
+        return writeFile(path, new ByteBuffer[] {ByteBuffer.wrap(jpeg)});
+    }
+
+    // Writes the buffers in order with one gather write. The data goes to a
+    // temporary file in the same directory first, which is renamed to the
+    // path after it is complete.
+    public static boolean writeFile(String path, ByteBuffer[] buffers) {
+        long start = SystemClock.uptimeMillis();
+        File file = new File(path);
+        File temp = new File(file.getParent(), TEMP_PREFIX + file.getName() + TEMP_SUFFIX);
+        long size = 0;
+        for (ByteBuffer b : buffers) size += b.remaining();
+
         FileOutputStream out = null;
         try {
-            out = new FileOutputStream(path);
-            out.write(jpeg);
+            out = new FileOutputStream(temp);
+            FileChannel channel = out.getChannel();
+            long written = 0;
+            while (written < size) {
+                written += channel.write(buffers);
+            }
+            if (sSyncPolicy != SYNC_NONE) channel.force(sSyncPolicy == SYNC_ALL);
         } catch (Exception e) {
             Log.e(TAG, "Failed to write image", e);
-            return null;
+            temp.delete();
+            return false;
         } finally {
+            Util.closeSilently(out);
+        }
+
+        if (!temp.renameTo(file)) {
+            Log.e(TAG, "Failed to rename " + temp.getPath());
+            temp.delete();
+            return false;
+        }
+
+        StorageMonitor.instance().onBytesWritten(size);
+        long time = SystemClock.uptimeMillis() - start;
+        synchronized (Storage.class) {
+            sLastWriteBytes = size;
+            sLastWriteTime = time;
+            sTotalWriteBytes += size;
+            sTotalWriteTime += time;
+        }
+        Log.v(TAG, "Wrote " + size + " bytes in " + time + "ms");
+        return true;
+    }
+
+    public static void setSyncPolicy(int policy) {
+        sSyncPolicy = policy;
+    }
+
+    // The time in milliseconds and the size of the last writeFile().
+    public static synchronized long getLastWriteTime() {
+        return sLastWriteTime;
+    }
+
+    public static synchronized long getLastWriteBytes() {
+        return sLastWriteBytes;
+    }
+
+    // The average throughput of writeFile() in bytes per second.
+    public static synchronized long getWriteThroughput() {
+        return sTotalWriteTime == 0 ? 0 : sTotalWriteBytes * 1000 / sTotalWriteTime;
+    }
+
+    // Adds the location to the EXIF data, like getImageValues() adds it to
+    // MediaStore, so both have the same location.
+    public static void setExifLocation(ExifWriter exif, Location location) {
+        if (location == null) return;
+        exif.setLocation(location.getLatitude(), location.getLongitude());
+        if (location.hasAltitude()) exif.setAltitude(location.getAltitude());
+        if (location.getTime() != 0) exif.setGpsDateTime(location.getTime());
+    }
+
+    // Rotates the picture in the file to be upright, without losing quality.
+    // The thumbnail in the EXIF data is rotated too, or removed if it cannot
+    // be. The new file replaces the old one like in writeFile(). Returns false
+    // if the picture cannot be rotated. The file is not changed then.
+    public static boolean rotateFile(String path, int orientation,
+            JpegRotator rotator, ExifWriter exif) {
+        File file = new File(path);
+        File temp = new File(file.getParent(), TEMP_PREFIX + file.getName() + TEMP_SUFFIX);
+        byte[] jpeg = readFile(file);
+        if (jpeg == null) return false;
+
+        exif.clear();
+        int[] range = new int[2];
+        byte[] thumbnail = null;
+        if (Exif.getThumbnailRange(jpeg, range)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(range[1]);
+            byte[] old = new byte[range[1]];
+            System.arraycopy(jpeg, range[0], old, 0, range[1]);
             try {
-                out.close();
-            } catch (Exception e) {
+                if (rotator.rotate(old, orientation, null, out)) thumbnail = out.toByteArray();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to rotate the thumbnail", e);
             }
         }
+        exif.setThumbnail(thumbnail);
 
-        // Insert into MediaStore.
-        ContentValues values = new ContentValues(9);
-        values.put(ImageColumns.TITLE, title);
-        values.put(ImageColumns.DISPLAY_NAME, title + ".jpg");
-        values.put(ImageColumns.DATE_TAKEN, date);
-        values.put(ImageColumns.MIME_TYPE, "image/jpeg");
-        values.put(ImageColumns.ORIENTATION, orientation);
-        values.put(ImageColumns.DATA, path);
-        values.put(ImageColumns.SIZE, jpeg.length);
-        values.put(ImageColumns.WIDTH, width);
-        values.put(ImageColumns.HEIGHT, height);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            if (!rotator.rotate(jpeg, orientation, exif, out)) {
+                Log.v(TAG, "Cannot rotate " + path);
+                temp.delete();
+                return false;
+            }
+            if (sSyncPolicy != SYNC_NONE) out.getChannel().force(sSyncPolicy == SYNC_ALL);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to rotate image", e);
+            temp.delete();
+            return false;
+        } finally {
+            Util.closeSilently(out);
+        }
 
-        if (location != null) {
-            values.put(ImageColumns.LATITUDE, location.getLatitude());
-            values.put(ImageColumns.LONGITUDE, location.getLongitude());
+        if (!temp.renameTo(file)) {
+            Log.e(TAG, "Failed to rename " + temp.getPath());
+            temp.delete();
+            return false;
         }
+        return true;
+    }
+
+    private static byte[] readFile(File file) {
+        RandomAccessFile f = null;
+        try {
+            f = new RandomAccessFile(file, "r");
+            byte[] data = new byte[(int) f.length()];
+            f.readFully(data);
+            return data;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read " + file.getPath(), e);
+            return null;
+        } finally {
+            Util.closeSilently(f);
+        }
+    }
+
+    public static Uri insertImage(ContentResolver resolver, String title, long date,
+                Location location, int orientation, String path, int size,
+                int width, int height) {
+        ContentValues values = getImageValues(title, date, location, orientation,
+                path, size, width, height);
 
         Uri uri = null;
         try {
@@ -98,6 +262,51 @@ public class Storage {
         return uri;
     }
 
+    // Inserts several images into MediaStore in one binder call. The returned
+    // array has the URI of each image, or null if it could not be inserted.
+    public static Uri[] insertImages(ContentProviderClient client,
+            ArrayList<ContentValues> valuesList) {
+        Uri[] uris = new Uri[valuesList.size()];
+        ArrayList<ContentProviderOperation> ops =
+                new ArrayList<ContentProviderOperation>(valuesList.size());
+        for (ContentValues values : valuesList) {
+            ops.add(ContentProviderOperation.newInsert(Images.Media.EXTERNAL_CONTENT_URI)
+                    .withValues(values).build());
+        }
+
+        try {
+            ContentProviderResult[] results = client.applyBatch(ops);
+            for (int i = 0; i < results.length && i < uris.length; i++) {
+                uris[i] = results[i].uri;
+            }
+        } catch (Throwable th)  {
+            // See insertImage(). MediaScanner will insert the pictures later.
+            Log.e(TAG, "Failed to write MediaStore" + th);
+        }
+        return uris;
+    }
+
+    public static ContentValues getImageValues(String title, long date,
+                Location location, int orientation, String path, int size,
+                int width, int height) {
+        ContentValues values = new ContentValues(11);
+        values.put(ImageColumns.TITLE, title);
+        values.put(ImageColumns.DISPLAY_NAME, title + ".jpg");
+        values.put(ImageColumns.DATE_TAKEN, date);
+        values.put(ImageColumns.MIME_TYPE, "image/jpeg");
+        values.put(ImageColumns.ORIENTATION, orientation);
+        values.put(ImageColumns.DATA, path);
+        values.put(ImageColumns.SIZE, size);
+        values.put(ImageColumns.WIDTH, width);
+        values.put(ImageColumns.HEIGHT, height);
+
+        if (location != null) {
+            values.put(ImageColumns.LATITUDE, location.getLatitude());
+            values.put(ImageColumns.LONGITUDE, location.getLongitude());
+        }
+        return values;
+    }
+
     public static String generateFilepath(String title) {
         return DIRECTORY + '/' + title + ".jpg";
     }
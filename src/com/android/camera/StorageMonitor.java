@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * The class keeps track of the available space in {@link Storage#DIRECTORY}.
+ *
+ * <p>{@link Storage#getAvailableSpace()} checks the storage state, creates the
+ * directory and runs {@code StatFs}, which is too slow for the shutter path.
+ * This class runs it in a background thread, at most once every
+ * {@code MIN_POLL_INTERVAL} unless the storage is invalidated by a media
+ * broadcast. Between two polls, the bytes written by {@link Storage#writeFile}
+ * are subtracted from the polled value. {@code getAvailableSpace()} returns
+ * the cached value without blocking. The first poll starts when the monitor
+ * is created. Until it is done, {@link Storage#PREPARING} is returned.
+ *
+ * <p>The listeners are called in the main thread when a poll changes the
+ * available space.
+ */
+public class StorageMonitor {
+    private static final String TAG = "StorageMonitor";
+
+    private static final long MIN_POLL_INTERVAL = 2000;
+    private static final long NOT_POLLED = Long.MIN_VALUE;
+
+    public interface Listener {
+        public void onStorageSpaceChanged();
+    }
+
+    private final Handler mPollHandler;
+    private final Handler mMainHandler;
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+
+    // Guarded by "this".
+    private long mPolledSpace = NOT_POLLED;
+    private long mBytesWritten;  // bytes written since the last poll started
+    private long mLastPollTime;
+    private boolean mPollPending;
+
+    // Use a singleton.
+    private static StorageMonitor sMonitor;
+    public static synchronized StorageMonitor instance() {
+        if (sMonitor == null) {
+            sMonitor = new StorageMonitor();
+        }
+        return sMonitor;
+    }
+
+    private static final int POLL = 1;
+    private static final int NOTIFY_LISTENERS = 2;
+
+    private class PollHandler extends Handler {
+        PollHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what == POLL) poll();
+        }
+    }
+
+    private class MainHandler extends Handler {
+        MainHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what == NOTIFY_LISTENERS) {
+                for (Listener l : new ArrayList<Listener>(mListeners)) {
+                    l.onStorageSpaceChanged();
+                }
+            }
+        }
+    }
+
+    private StorageMonitor() {
+        HandlerThread ht = new HandlerThread("StorageMonitor");
+        ht.start();
+        mPollHandler = new PollHandler(ht.getLooper());
+        mMainHandler = new MainHandler(Looper.getMainLooper());
+        // Start the first poll now, so it is likely done when the space is
+        // first needed.
+        mPollPending = true;
+        mPollHandler.sendEmptyMessage(POLL);
+    }
+
+    // Returns the available space in bytes, or one of Storage.UNAVAILABLE,
+    // Storage.PREPARING and Storage.UNKNOWN_SIZE. Returns Storage.PREPARING
+    // if the first poll is not done yet. The listeners are called when it is.
+    public synchronized long getAvailableSpace() {
+        if (mPolledSpace == NOT_POLLED) return Storage.PREPARING;
+        if (mPolledSpace < 0) return mPolledSpace;
+        return Math.max(0, mPolledSpace - mBytesWritten);
+    }
+
+    // Polls in the background if the last poll is older than
+    // MIN_POLL_INTERVAL, or schedules a poll when it is.
+    public synchronized void requestUpdate() {
+        if (mPollPending) return;
+        mPollPending = true;
+        long delay = mLastPollTime + MIN_POLL_INTERVAL - SystemClock.uptimeMillis();
+        mPollHandler.sendEmptyMessageDelayed(POLL, Math.max(0, delay));
+    }
+
+    // The storage may have changed (for example, the SD card is mounted). Polls
+    // in the background right away.
+    public synchronized void invalidate() {
+        mPollHandler.removeMessages(POLL);
+        mPollPending = true;
+        mPollHandler.sendEmptyMessage(POLL);
+    }
+
+    // Called by the writers after they committed a file to Storage.DIRECTORY.
+    public synchronized void onBytesWritten(long bytes) {
+        mBytesWritten += bytes;
+    }
+
+    // Runs in main thread
+    public void addListener(Listener l) {
+        if (!mListeners.contains(l)) mListeners.add(l);
+    }
+
+    // Runs in main thread
+    public void removeListener(Listener l) {
+        mListeners.remove(l);
+    }
+
+    private void poll() {
+        long writtenBefore;
+        synchronized (this) {
+            writtenBefore = mBytesWritten;
+        }
+        long space = Storage.getAvailableSpace();
+        boolean changed;
+        synchronized (this) {
+            changed = (space != mPolledSpace);
+            mPolledSpace = space;
+            // The writes done while StatFs runs may not be counted by it.
+            mBytesWritten -= writtenBefore;
+            mLastPollTime = SystemClock.uptimeMillis();
+            mPollPending = false;
+        }
+        if (changed) {
+            Log.v(TAG, "Available space=" + space);
+            mMainHandler.sendEmptyMessage(NOTIFY_LISTENERS);
+        }
+    }
+}
@@ -46,6 +46,10 @@ public class Thumbnail {
 
     public static final String LAST_THUMB_FILENAME = "last_thumb";
     private static final int BUFSIZE = 4096;
+    // The embedded EXIF thumbnail is used only if its aspect ratio is within
+    // 1/MAX_ASPECT_ERROR_INVERSE of the picture's. Some cameras embed a 4:3
+    // thumbnail with black bars for a 16:9 picture.
+    private static final int MAX_ASPECT_ERROR_INVERSE = 50;
 
     private Uri mUri;
     private Bitmap mBitmap;
@@ -253,6 +257,44 @@ public class Thumbnail {
         return createThumbnail(uri, bitmap, orientation);
     }
 
+    // Creates a thumbnail whose width is equal or bigger than minWidth, before
+    // the rotation. If the jpeg has a thumbnail in its EXIF data that is big
+    // enough and has the aspect ratio of the picture, it is decoded in place.
+    // That is much cheaper than decoding the picture, which is the fallback.
+    public static Thumbnail createThumbnail(byte[] jpeg, int orientation,
+            int pictureWidth, int pictureHeight, int minWidth, Uri uri) {
+        int[] range = new int[2];
+        if (!Exif.getThumbnailRange(jpeg, range)) range[0] = -1;
+        return createThumbnail(jpeg, range[0], range[1], orientation,
+                pictureWidth, pictureHeight, minWidth, uri);
+    }
+
+    // Like above, but the caller has found the embedded thumbnail (for
+    // example, with an Exif index). thumbnailOffset is -1 if there is none.
+    public static Thumbnail createThumbnail(byte[] jpeg, int thumbnailOffset,
+            int thumbnailLength, int orientation, int pictureWidth, int pictureHeight,
+            int minWidth, Uri uri) {
+        minWidth = Math.max(1, minWidth);
+        JpegHeader header = new JpegHeader();
+        if (thumbnailOffset >= 0
+                && header.parse(jpeg, thumbnailOffset, thumbnailLength)) {
+            int w = header.getWidth();
+            int h = header.getHeight();
+            if (w >= minWidth && Math.abs((long) w * pictureHeight
+                    - (long) h * pictureWidth) * MAX_ASPECT_ERROR_INVERSE
+                    <= (long) h * pictureWidth) {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = Integer.highestOneBit(Math.max(1, w / minWidth));
+                Bitmap bitmap = BitmapFactory.decodeByteArray(
+                        jpeg, thumbnailOffset, thumbnailLength, options);
+                if (bitmap != null) return createThumbnail(uri, bitmap, orientation);
+            }
+        }
+
+        int ratio = (int) Math.ceil((double) pictureWidth / minWidth);
+        return createThumbnail(jpeg, orientation, Integer.highestOneBit(ratio), uri);
+    }
+
     public static Bitmap createVideoThumbnail(FileDescriptor fd, int targetWidth) {
         return createVideoThumbnail(null, fd, targetWidth);
     }
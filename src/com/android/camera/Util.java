@@ -53,8 +53,6 @@ import android.view.animation.Animation;
 import java.io.Closeable;
 import java.io.IOException;
 import java.lang.reflect.Method;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.List;
 import java.util.StringTokenizer;
 
@@ -97,8 +95,12 @@ public class Util {
                 context.getSystemService(Context.WINDOW_SERVICE);
         wm.getDefaultDisplay().getMetrics(metrics);
         sPixelDensity = metrics.density;
+        CapabilityCache.initialize(context);
         sImageFileNamer = new ImageFileNamer(
-                context.getString(R.string.image_file_name_format));
+                context.getString(R.string.image_file_name_format), Storage.DIRECTORY);
+        loadImageNames(false);
+        // Start polling the available space.
+        StorageMonitor.instance();
     }
 
     public static boolean isTabletUI() {
@@ -174,60 +176,37 @@ public class Util {
      */
     public static int computeSampleSize(BitmapFactory.Options options,
             int minSideLength, int maxNumOfPixels) {
-        int initialSize = computeInitialSampleSize(options, minSideLength,
-                maxNumOfPixels);
-
-        int roundedSize;
-        if (initialSize <= 8) {
-            roundedSize = 1;
-            while (roundedSize < initialSize) {
-                roundedSize <<= 1;
-            }
-        } else {
-            roundedSize = (initialSize + 7) / 8 * 8;
-        }
-
-        return roundedSize;
+        return computeSampleSize(options.outWidth, options.outHeight,
+                minSideLength, maxNumOfPixels);
     }
 
-    private static int computeInitialSampleSize(BitmapFactory.Options options,
+    // Like above, but takes the size of the picture, for example from a
+    // JpegHeader.
+    public static int computeSampleSize(int width, int height,
             int minSideLength, int maxNumOfPixels) {
-        double w = options.outWidth;
-        double h = options.outHeight;
-
-        int lowerBound = (maxNumOfPixels < 0) ? 1 :
-                (int) Math.ceil(Math.sqrt(w * h / maxNumOfPixels));
-        int upperBound = (minSideLength < 0) ? 128 :
-                (int) Math.min(Math.floor(w / minSideLength),
-                Math.floor(h / minSideLength));
-
-        if (upperBound < lowerBound) {
-            // return the larger one when there is no overlapping zone.
-            return lowerBound;
-        }
-
-        if (maxNumOfPixels < 0 && minSideLength < 0) {
-            return 1;
-        } else if (minSideLength < 0) {
-            return lowerBound;
-        } else {
-            return upperBound;
-        }
+        return SampleSize.compute(width, height, minSideLength, maxNumOfPixels);
     }
 
     public static Bitmap makeBitmap(byte[] jpegData, int maxNumOfPixels) {
         try {
             BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;
-            BitmapFactory.decodeByteArray(jpegData, 0, jpegData.length,
-                    options);
-            if (options.mCancel || options.outWidth == -1
-                    || options.outHeight == -1) {
-                return null;
+            JpegHeader header = new JpegHeader();
+            if (header.parse(jpegData)) {
+                options.inSampleSize = computeSampleSize(header.getWidth(),
+                        header.getHeight(), -1, maxNumOfPixels);
+            } else {
+                // Not a jpeg we can read. Let BitmapFactory find the size.
+                options.inJustDecodeBounds = true;
+                BitmapFactory.decodeByteArray(jpegData, 0, jpegData.length,
+                        options);
+                if (options.mCancel || options.outWidth == -1
+                        || options.outHeight == -1) {
+                    return null;
+                }
+                options.inSampleSize = computeSampleSize(
+                        options, -1, maxNumOfPixels);
+                options.inJustDecodeBounds = false;
             }
-            options.inSampleSize = computeSampleSize(
-                    options, -1, maxNumOfPixels);
-            options.inJustDecodeBounds = false;
 
             options.inDither = false;
             options.inPreferredConfig = Bitmap.Config.ARGB_8888;
@@ -373,13 +352,8 @@ public class Util {
 
     public static Size getOptimalPreviewSize(Activity currentActivity,
             List<Size> sizes, double targetRatio) {
-        // Use a very small tolerance because we want an exact match.
-        final double ASPECT_TOLERANCE = 0.001;
         if (sizes == null) return null;
 
-        Size optimalSize = null;
-        double minDiff = Double.MAX_VALUE;
-
         // Because of bugs of overlay and layout, we sometimes will try to
         // layout the viewfinder in the portrait orientation and thus get the
         // wrong size of mSurfaceView. When we change the preview size, the
@@ -393,6 +367,18 @@ public class Util {
             // We don't know the size of SurfaceView, use screen height
             targetHeight = display.getHeight();
         }
+        return getOptimalPreviewSize(sizes, targetRatio, targetHeight);
+    }
+
+    // Like above, but the caller gives the height to match.
+    public static Size getOptimalPreviewSize(List<Size> sizes,
+            double targetRatio, int targetHeight) {
+        // Use a very small tolerance because we want an exact match.
+        final double ASPECT_TOLERANCE = 0.001;
+        if (sizes == null) return null;
+
+        Size optimalSize = null;
+        double minDiff = Double.MAX_VALUE;
 
         // Try to find an size match aspect ratio and size
         for (Size size : sizes) {
@@ -586,9 +572,23 @@ public class Util {
     }
 
     public static String createJpegName(long dateTaken) {
-        synchronized (sImageFileNamer) {
-            return sImageFileNamer.generateName(dateTaken);
-        }
+        return sImageFileNamer.generateName(dateTaken);
+    }
+
+    // Reads the names of the pictures in the background, so createJpegName()
+    // does not check the files. The names are read again when the storage is
+    // mounted.
+    public static void loadImageNames(final boolean reload) {
+        new Thread("ImageFileNamer") {
+            @Override
+            public void run() {
+                if (reload) {
+                    sImageFileNamer.reloadIndex();
+                } else {
+                    sImageFileNamer.loadIndex();
+                }
+            }
+        }.start();
     }
 
     public static void broadcastNewPicture(Context context, Uri uri) {
@@ -616,6 +616,10 @@ public class Util {
     }
 
     public static void setRotationParameter(Parameters parameters, int cameraId, int orientation) {
+        parameters.setRotation(getJpegRotation(cameraId, orientation));
+    }
+
+    public static int getJpegRotation(int cameraId, int orientation) {
         // See android.hardware.Camera.Parameters.setRotation for
         // documentation.
         int rotation = 0;
@@ -627,7 +631,7 @@ public class Util {
                 rotation = (info.orientation + orientation) % 360;
             }
         }
-        parameters.setRotation(rotation);
+        return rotation;
     }
 
     public static void setGpsParameters(Parameters parameters, Location loc) {
@@ -684,35 +688,4 @@ public class Util {
             win.setAttributes(winParams);
         }
     }
-
-    private static class ImageFileNamer {
-        private SimpleDateFormat mFormat;
-
-        // The date (in milliseconds) used to generate the last name.
-        private long mLastDate;
-
-        // Number of names generated for the same second.
-        private int mSameSecondCount;
-
-        public ImageFileNamer(String format) {
-            mFormat = new SimpleDateFormat(format);
-        }
-
-        public String generateName(long dateTaken) {
-            Date date = new Date(dateTaken);
-            String result = mFormat.format(date);
-
-            // If the last name was generated for the same second,
-            // we append _1, _2, etc to the name.
-            if (dateTaken / 1000 == mLastDate / 1000) {
-                mSameSecondCount++;
-                result += "_" + mSameSecondCount;
-            } else {
-                mLastDate = dateTaken;
-                mSameSecondCount = 0;
-            }
-
-            return result;
-        }
-    }
 }
@@ -324,9 +324,12 @@ public class VideoCamera extends ActivityBase
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
             if (action.equals(Intent.ACTION_MEDIA_EJECT)) {
+                StorageMonitor.instance().invalidate();
                 updateAndShowStorageHint();
                 stopVideoRecording();
             } else if (action.equals(Intent.ACTION_MEDIA_MOUNTED)) {
+                StorageMonitor.instance().invalidate();
+                Util.loadImageNames(true);
                 updateAndShowStorageHint();
                 updateThumbnailButton();
             } else if (action.equals(Intent.ACTION_MEDIA_UNMOUNTED)) {
@@ -336,11 +339,21 @@ public class VideoCamera extends ActivityBase
                 Toast.makeText(VideoCamera.this,
                         getResources().getString(R.string.wait), Toast.LENGTH_LONG).show();
             } else if (action.equals(Intent.ACTION_MEDIA_SCANNER_FINISHED)) {
+                StorageMonitor.instance().invalidate();
                 updateAndShowStorageHint();
             }
         }
     }
 
+    // Updates the storage hint when StorageMonitor finishes a poll.
+    private final StorageMonitor.Listener mStorageListener =
+            new StorageMonitor.Listener() {
+        public void onStorageSpaceChanged() {
+            mStorageSpace = StorageMonitor.instance().getAvailableSpace();
+            showStorageHint();
+        }
+    };
+
     private String createName(long dateTaken) {
         Date date = new Date(dateTaken);
         SimpleDateFormat dateFormat = new SimpleDateFormat(
@@ -682,8 +695,11 @@ public class VideoCamera extends ActivityBase
 
     private OnScreenHint mStorageHint;
 
+    // Reads the cached available space and asks StorageMonitor to poll in the
+    // background. The result of the poll comes to mStorageListener.
     private void updateAndShowStorageHint() {
-        mStorageSpace = Storage.getAvailableSpace();
+        StorageMonitor.instance().requestUpdate();
+        mStorageSpace = StorageMonitor.instance().getAvailableSpace();
         showStorageHint();
     }
 
@@ -865,7 +881,9 @@ public class VideoCamera extends ActivityBase
         intentFilter.addDataScheme("file");
         mReceiver = new MyBroadcastReceiver();
         registerReceiver(mReceiver, intentFilter);
-        mStorageSpace = Storage.getAvailableSpace();
+        StorageMonitor.instance().addListener(mStorageListener);
+        StorageMonitor.instance().requestUpdate();
+        mStorageSpace = StorageMonitor.instance().getAvailableSpace();
 
         mHandler.postDelayed(new Runnable() {
             public void run() {
@@ -994,6 +1012,7 @@ public class VideoCamera extends ActivityBase
 
         if (mReceiver != null) {
             unregisterReceiver(mReceiver);
+            StorageMonitor.instance().removeListener(mStorageListener);
             mReceiver = null;
         }
         resetScreenOn();
@@ -1719,6 +1738,8 @@ public class VideoCamera extends ActivityBase
             }
 
             mMediaRecorderRecording = false;
+            // MediaRecorder does not tell StorageMonitor what it wrote.
+            StorageMonitor.instance().invalidate();
             showRecordingUI(false);
             if (!mIsVideoCaptureIntent) {
                 enableCameraControls(true);
@@ -1757,8 +1778,12 @@ public class VideoCamera extends ActivityBase
         mThumbnailView = (RotateImageView) findViewById(R.id.thumbnail);
         mThumbnailView.enableFilter(false);
         mThumbnailView.setVisibility(View.VISIBLE);
-        // Load the thumbnail from the disk.
-        mThumbnail = Thumbnail.loadFrom(new File(getFilesDir(), Thumbnail.LAST_THUMB_FILENAME));
+        // Take the thumbnail of the mode that was left, or load it from the
+        // disk.
+        mThumbnail = ModeHandoff.takeThumbnail();
+        if (mThumbnail == null) {
+            mThumbnail = Thumbnail.loadFrom(new File(getFilesDir(), Thumbnail.LAST_THUMB_FILENAME));
+        }
     }
 
     private void updateThumbnailButton() {
@@ -1958,6 +1983,7 @@ public class VideoCamera extends ActivityBase
 
     private boolean switchToOtherMode(int mode) {
         if (isFinishing()) return false;
+        ModeHandoff.put(mThumbnail, mLocationManager.getCurrentLocation());
         MenuHelper.gotoMode(mode, this);
         finish();
         return true;
@@ -2415,10 +2441,8 @@ public class VideoCamera extends ActivityBase
                 s.width, s.height);
         if (uri != null) {
             // Create a thumbnail whose width is equal or bigger than that of the preview.
-            int ratio = (int) Math.ceil((double) mParameters.getPictureSize().width
-                    / mPreviewFrameLayout.getWidth());
-            int inSampleSize = Integer.highestOneBit(ratio);
-            mThumbnail = Thumbnail.createThumbnail(data, orientation, inSampleSize, uri);
+            mThumbnail = Thumbnail.createThumbnail(data, orientation, s.width, s.height,
+                    mPreviewFrameLayout.getWidth(), uri);
             if (mThumbnail != null) {
                 mThumbnailView.setBitmap(mThumbnail.getBitmap());
             }
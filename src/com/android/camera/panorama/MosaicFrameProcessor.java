@@ -70,7 +70,13 @@ public class MosaicFrameProcessor {
     }
 
     public MosaicFrameProcessor(int previewWidth, int previewHeight, int bufSize) {
-        mMosaicer = new Mosaic();
+        this(new Mosaic(), previewWidth, previewHeight, bufSize);
+    }
+
+    // Uses the given mosaicer instead of a new one. Test only.
+    public MosaicFrameProcessor(Mosaic mosaicer, int previewWidth, int previewHeight,
+            int bufSize) {
+        mMosaicer = mosaicer;
         mPreviewWidth = previewWidth;
         mPreviewHeight = previewHeight;
         mPreviewBufferSize = bufSize;
@@ -16,16 +16,7 @@
 
 package com.android.camera.panorama;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-
 public class PanoUtil {
-    public static String createName(String format, long dateTaken) {
-        Date date = new Date(dateTaken);
-        SimpleDateFormat dateFormat = new SimpleDateFormat(format);
-        return dateFormat.format(date);
-    }
-
     // TODO: Add comments about the range of these two arguments.
     public static double calculateDifferenceBetweenAngles(double firstAngle,
             double secondAngle) {
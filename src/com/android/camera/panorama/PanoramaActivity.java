@@ -21,13 +21,18 @@ import com.android.camera.CameraDisabledException;
 import com.android.camera.CameraHardwareException;
 import com.android.camera.CameraHolder;
 import com.android.camera.Exif;
+import com.android.camera.ExifWriter;
+import com.android.camera.ImageFileNamer;
 import com.android.camera.MenuHelper;
+import com.android.camera.ModeHandoff;
 import com.android.camera.ModePicker;
 import com.android.camera.OnClickAttr;
+import com.android.camera.PictureSizeEstimator;
 import com.android.camera.R;
 import com.android.camera.RotateDialogController;
 import com.android.camera.ShutterButton;
 import com.android.camera.Storage;
+import com.android.camera.StorageMonitor;
 import com.android.camera.Thumbnail;
 import com.android.camera.Util;
 import com.android.camera.ui.PopupManager;
@@ -53,8 +58,8 @@ import android.hardware.Camera.Size;
 import android.hardware.CameraSound;
 import android.hardware.Sensor;
 import android.hardware.SensorManager;
-import android.media.ExifInterface;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -74,7 +79,7 @@ import android.widget.TextView;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
@@ -108,7 +113,11 @@ public class PanoramaActivity extends ActivityBase implements
     // Ratio of nanosecond to second
     private static final float NS2S = 1.0f / 1000000000.0f;
 
+    // The size of a panorama assumed before any panorama is saved.
+    private static final long PANORAMA_SIZE_PRIOR = 4 * 1024 * 1024;
+
     private boolean mPausing;
+    private ImageFileNamer mFileNamer;
 
     private View mPanoLayout;
     private View mCaptureLayout;
@@ -275,6 +284,9 @@ public class PanoramaActivity extends ActivityBase implements
 
         createContentView();
 
+        mFileNamer = new ImageFileNamer(
+                getResources().getString(R.string.pano_file_name_format), Storage.DIRECTORY);
+
         mSensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
         mSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
         if (mSensor == null) {
@@ -443,6 +455,8 @@ public class PanoramaActivity extends ActivityBase implements
         if (isFinishing()) {
             return false;
         }
+        // Panorama does not record the location.
+        ModeHandoff.put(mThumbnail, null);
         MenuHelper.gotoMode(mode, this);
         finish();
         return true;
@@ -763,6 +777,7 @@ public class PanoramaActivity extends ActivityBase implements
         // right now.
         switch (mCaptureState) {
             case CAPTURE_STATE_VIEWFINDER:
+                if (!checkStorage()) return;
                 mCameraSound.playSound(CameraSound.START_VIDEO_RECORDING);
                 startCapture();
                 break;
@@ -772,6 +787,30 @@ public class PanoramaActivity extends ActivityBase implements
         }
     }
 
+    // Returns true if there is room for one more panorama. Otherwise tells the
+    // user why.
+    private boolean checkStorage() {
+        long space = StorageMonitor.instance().getAvailableSpace();
+        long remaining = PictureSizeEstimator.instance(this).getPanoramasRemaining(
+                PANORAMA_SIZE_PRIOR, space);
+        StorageMonitor.instance().requestUpdate();
+        if (remaining >= 1) return true;
+
+        int message;
+        if (remaining == Storage.UNAVAILABLE) {
+            message = R.string.no_storage;
+        } else if (remaining == Storage.PREPARING) {
+            message = R.string.preparing_sd;
+        } else if (remaining == Storage.UNKNOWN_SIZE) {
+            message = R.string.access_sd_fail;
+        } else {
+            message = R.string.not_enough_space;
+        }
+        mRotateDialog.showAlertDialog(mDialogTitle, getString(message),
+                mDialogOkString, null, null, null);
+        return false;
+    }
+
     @Override
     public void onShutterButtonFocus(boolean pressed) {
     }
@@ -806,7 +845,9 @@ public class PanoramaActivity extends ActivityBase implements
     }
 
     private void initThumbnailButton() {
-        // Load the thumbnail from the disk.
+        // Take the thumbnail of the mode that was left, or load it from the
+        // disk.
+        if (mThumbnail == null) mThumbnail = ModeHandoff.takeThumbnail();
         if (mThumbnail == null) {
             mThumbnail = Thumbnail.loadFrom(new File(getFilesDir(), Thumbnail.LAST_THUMB_FILENAME));
         }
@@ -946,42 +987,25 @@ public class PanoramaActivity extends ActivityBase implements
 
     private Uri savePanorama(byte[] jpegData, int width, int height, int orientation) {
         if (jpegData != null) {
-            String filename = PanoUtil.createName(
-                    getResources().getString(R.string.pano_file_name_format), mTimeTaken);
+            String filename = mFileNamer.generateName(mTimeTaken);
+            // Add EXIF in memory so the file is written only once.
+            ExifWriter exif = new ExifWriter();
+            exif.setOrientation(orientation);
+            exif.setDateTime(mTimeTaken);
+            exif.setMake(Build.MANUFACTURER);
+            exif.setModel(Build.MODEL);
+            ByteBuffer[] jpeg = exif.write(jpegData);
             Uri uri = Storage.addImage(getContentResolver(), filename, mTimeTaken, null,
-                    orientation, jpegData, width, height);
-            if (uri != null && orientation != 0) {
-                String filepath = Storage.generateFilepath(filename);
-                try {
-                    // Save the orientation in EXIF.
-                    ExifInterface exif = new ExifInterface(filepath);
-                    exif.setAttribute(ExifInterface.TAG_ORIENTATION,
-                            getExifOrientation(orientation));
-                    exif.saveAttributes();
-                } catch (IOException e) {
-                    Log.e(TAG, "cannot set exif data: " + filepath);
-                }
+                    orientation, jpeg, width, height);
+            if (uri != null) {
+                PictureSizeEstimator.instance(this).record(
+                        PictureSizeEstimator.KEY_PANORAMA, jpegData.length);
             }
             return uri;
         }
         return null;
     }
 
-    private static String getExifOrientation(int orientation) {
-        switch (orientation) {
-            case 0:
-                return String.valueOf(ExifInterface.ORIENTATION_NORMAL);
-            case 90:
-                return String.valueOf(ExifInterface.ORIENTATION_ROTATE_90);
-            case 180:
-                return String.valueOf(ExifInterface.ORIENTATION_ROTATE_180);
-            case 270:
-                return String.valueOf(ExifInterface.ORIENTATION_ROTATE_270);
-            default:
-                throw new AssertionError("invalid: " + orientation);
-        }
-    }
-
     private void clearMosaicFrameProcessorIfNeeded() {
         if (!mPausing || mThreadRunning) return;
         mMosaicFrameProcessor.clear();
@@ -16,3 +16,4 @@ LOCAL_INSTRUMENTATION_FOR := Camera
 include $(BUILD_PACKAGE)
 
 
+include $(call all-makefiles-under,$(LOCAL_PATH))
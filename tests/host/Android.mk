@@ -0,0 +1,53 @@
+LOCAL_PATH:= $(call my-dir)
+include $(CLEAR_VARS)
+
+# The benchmarks of the pure Java camera classes, which run on the host JVM.
+# Run them with run-benchmarks.sh.
+LOCAL_MODULE := CameraHostBenchmarks
+
+LOCAL_MODULE_TAGS := tests
+
+# Keep in sync with SOURCES in run-benchmarks.sh.
+LOCAL_SRC_FILES := \
+    $(call all-java-files-under, src/com/android/camera/benchmark) \
+    $(call all-java-files-under, stubs) \
+    ../../src/com/android/camera/Exif.java \
+    ../../src/com/android/camera/ExifWriter.java \
+    ../../src/com/android/camera/ImageFileNamer.java \
+    ../../src/com/android/camera/IntArray.java \
+    ../../src/com/android/camera/JpegHeader.java \
+    ../../src/com/android/camera/SampleSize.java \
+    ../src/com/android/camera/unittest/ExifTestData.java
+
+include $(BUILD_HOST_JAVA_LIBRARY)
+
+include $(CLEAR_VARS)
+
+# The tests of the image saver and the capture sequencing, which run on the
+# host JVM with FakeCameraDevice. Run them with run-tests.sh.
+LOCAL_MODULE := CameraHostTests
+
+LOCAL_MODULE_TAGS := tests
+
+LOCAL_JAVA_LIBRARIES := junit
+
+# Keep in sync with SOURCES in run-tests.sh.
+LOCAL_SRC_FILES := \
+    $(call all-java-files-under, src/com/android/camera/unittest) \
+    $(call all-java-files-under, stubs) \
+    ../../src/com/android/camera/BurstController.java \
+    ../../src/com/android/camera/CameraDevice.java \
+    ../../src/com/android/camera/CaptureSequencer.java \
+    ../../src/com/android/camera/CaptureTrace.java \
+    ../../src/com/android/camera/Exif.java \
+    ../../src/com/android/camera/ExifWriter.java \
+    ../../src/com/android/camera/FakeCameraDevice.java \
+    ../../src/com/android/camera/ImageSaver.java \
+    ../../src/com/android/camera/IntArray.java \
+    ../../src/com/android/camera/JpegHeader.java \
+    ../../src/com/android/camera/JpegRotator.java \
+    ../../src/com/android/camera/LatencyHistogram.java \
+    ../../src/com/android/camera/SavePipeline.java \
+    ../src/com/android/camera/unittest/ExifTestData.java
+
+include $(BUILD_HOST_JAVA_LIBRARY)
@@ -0,0 +1,45 @@
+#!/bin/sh
+#
+# Copyright (C) 2012 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Builds the host benchmarks of the camera with the JDK and runs them on the
+# host, without a device. Fails if a benchmark is slower than its baseline in
+# benchmark-baselines.properties or has no baseline.
+#
+# Usage: run-benchmarks.sh [--update]
+#   --update  write the results as the new baselines, to check in
+
+set -e
+
+HOST_DIR=$(cd "$(dirname "$0")" && pwd)
+TOP=$HOST_DIR/../..
+CAMERA=$TOP/src/com/android/camera
+
+# Keep in sync with LOCAL_SRC_FILES in Android.mk.
+SOURCES="$CAMERA/Exif.java
+$CAMERA/ExifWriter.java
+$CAMERA/ImageFileNamer.java
+$CAMERA/IntArray.java
+$CAMERA/JpegHeader.java
+$CAMERA/SampleSize.java
+$TOP/tests/src/com/android/camera/unittest/ExifTestData.java
+$(find "$HOST_DIR/src/com/android/camera/benchmark" "$HOST_DIR/stubs" -name '*.java')"
+
+OUT=$(mktemp -d)
+trap 'rm -rf "$OUT"' EXIT
+
+javac -nowarn -d "$OUT" $SOURCES
+java -cp "$OUT" com.android.camera.benchmark.HostBenchmarks \
+        "$HOST_DIR/benchmark-baselines.properties" "$@"
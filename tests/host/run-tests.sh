@@ -0,0 +1,60 @@
+#!/bin/sh
+#
+# Copyright (C) 2012 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Builds the host tests of the camera with the JDK and runs them on the host,
+# without a device: the image saver and the capture sequencing, driven by
+# FakeCameraDevice.
+#
+# Usage: JUNIT_JAR=<path to junit 3 jar> run-tests.sh
+
+set -e
+
+if [ -z "$JUNIT_JAR" ]; then
+    echo "Set JUNIT_JAR to the path of a junit 3 jar." >&2
+    exit 2
+fi
+
+HOST_DIR=$(cd "$(dirname "$0")" && pwd)
+TOP=$HOST_DIR/../..
+CAMERA=$TOP/src/com/android/camera
+
+# Keep in sync with LOCAL_SRC_FILES of CameraHostTests in Android.mk.
+SOURCES="$CAMERA/BurstController.java
+$CAMERA/CameraDevice.java
+$CAMERA/CaptureSequencer.java
+$CAMERA/CaptureTrace.java
+$CAMERA/Exif.java
+$CAMERA/ExifWriter.java
+$CAMERA/FakeCameraDevice.java
+$CAMERA/ImageSaver.java
+$CAMERA/IntArray.java
+$CAMERA/JpegHeader.java
+$CAMERA/JpegRotator.java
+$CAMERA/LatencyHistogram.java
+$CAMERA/SavePipeline.java
+$TOP/tests/src/com/android/camera/unittest/ExifTestData.java
+$(find "$HOST_DIR/src/com/android/camera/unittest" "$HOST_DIR/stubs" -name '*.java')"
+
+TESTS="com.android.camera.unittest.CaptureSequencerTest
+com.android.camera.unittest.ImageSaverTest"
+
+OUT=$(mktemp -d)
+trap 'rm -rf "$OUT"' EXIT
+
+javac -nowarn -cp "$JUNIT_JAR" -d "$OUT" $SOURCES
+for test in $TESTS; do
+    java -cp "$OUT:$JUNIT_JAR" junit.textui.TestRunner $test
+done
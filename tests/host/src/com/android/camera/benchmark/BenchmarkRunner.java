@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.benchmark;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Times small operations in one JVM. HostBenchmarks runs it in several JVMs
+ * and compares the results with the checked-in baselines.
+ *
+ * A benchmark runs for WARMUP_NANOS first, for the JIT, and the number of
+ * operations of a trial is doubled until a warm trial takes MIN_TRIAL_NANOS.
+ * The time is the fastest of TRIALS trials, the one least disturbed by the
+ * garbage collector and the scheduler.
+ *
+ * The result of a benchmark is its time divided by the time of a fixed
+ * calibration loop, timed in trials between those of the benchmark, so it
+ * does not depend on the speed of the machine or on a slow period of a
+ * shared one.
+ */
+public class BenchmarkRunner {
+    private static final long WARMUP_NANOS = 250L * 1000 * 1000;
+    private static final long MIN_TRIAL_NANOS = 10L * 1000 * 1000;
+    private static final int TRIALS = 30;
+    private static final int MAX_ITERATIONS = 1 << 30;
+    private static final int CALIBRATION_BYTES = 4096;
+
+    /** The operation to time. */
+    public interface Benchmark {
+        /** Runs the operation the given number of times. */
+        void run(int iterations);
+    }
+
+    private static volatile int sSink;
+
+    private final Map<String, Double> mResults = new LinkedHashMap<String, Double>();
+    private final Benchmark mCalibration = new Calibration();
+    private int mCalibrationIterations;
+
+    /**
+     * Keeps a result alive, so the JIT cannot drop the work of a benchmark.
+     * Benchmarks call it once per run with the sum of their results.
+     */
+    public static void consume(int value) {
+        sSink += value;
+    }
+
+    /**
+     * Times the benchmark and returns the time of an operation in units of
+     * the calibration loop.
+     */
+    public double measure(String name, Benchmark benchmark) {
+        int iterations = warmUp(benchmark);
+        if (mCalibrationIterations == 0) mCalibrationIterations = warmUp(mCalibration);
+
+        // The trials of the benchmark and of the calibration alternate, so
+        // a slow period of the machine slows both.
+        double best = Double.MAX_VALUE;
+        double bestCalibration = Double.MAX_VALUE;
+        for (int i = 0; i < TRIALS; i++) {
+            best = Math.min(best, time(benchmark, iterations));
+            bestCalibration = Math.min(bestCalibration,
+                    time(mCalibration, mCalibrationIterations));
+        }
+        double score = best / bestCalibration;
+        mResults.put(name, score);
+        return score;
+    }
+
+    /** Returns the results by benchmark name, in the order they were run. */
+    public Map<String, Double> getResults() {
+        return mResults;
+    }
+
+    // Runs the benchmark for WARMUP_NANOS and returns the number of operations
+    // of a trial. The first runs are slow, with the class loading and the
+    // interpreter, so the number is sized on a warm run.
+    private static int warmUp(Benchmark benchmark) {
+        int iterations = 1;
+        long warmup = 0;
+        while (true) {
+            long start = System.nanoTime();
+            benchmark.run(iterations);
+            long elapsed = System.nanoTime() - start;
+            warmup += elapsed;
+            if (elapsed < MIN_TRIAL_NANOS && iterations < MAX_ITERATIONS) {
+                iterations *= 2;
+            } else if (warmup >= WARMUP_NANOS) {
+                return iterations;
+            }
+        }
+    }
+
+    // Returns the time of an operation in nanoseconds.
+    private static double time(Benchmark benchmark, int iterations) {
+        long start = System.nanoTime();
+        benchmark.run(iterations);
+        return (double) (System.nanoTime() - start) / iterations;
+    }
+
+    // A hash of a small array: integer work that stays in the cache, like
+    // the parsers the benchmarks time, as a measure of the machine.
+    private static class Calibration implements Benchmark {
+        private final byte[] mData = new byte[CALIBRATION_BYTES];
+
+        Calibration() {
+            for (int i = 0; i < mData.length; i++) mData[i] = (byte) (i * 31);
+        }
+
+        public void run(int iterations) {
+            int hash = 0;
+            for (int i = 0; i < iterations; i++) {
+                for (int j = 0; j < mData.length; j++) hash = hash * 31 + mData[j];
+            }
+            consume(hash);
+        }
+    }
+}
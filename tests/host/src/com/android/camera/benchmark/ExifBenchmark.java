@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.benchmark;
+
+import com.android.camera.Exif;
+import com.android.camera.unittest.ExifTestData;
+
+/**
+ * Compares the time to read the EXIF fields the image saver needs with the
+ * static Exif methods, which scan the jpeg once per field, and with an Exif
+ * index, which scans it once for all the fields.
+ */
+public class ExifBenchmark {
+    private static final int PICTURE_BYTES = 64 * 1024;
+
+    private final BenchmarkRunner mRunner;
+    private final byte[] mJpeg = ExifTestData.buildJpeg(true, 90, PICTURE_BYTES);
+
+    public ExifBenchmark(BenchmarkRunner runner) {
+        mRunner = runner;
+    }
+
+    public void run() {
+        benchmarkStatic();
+        benchmarkIndex();
+    }
+
+    // Reads the orientation and the thumbnail, like the image saver does.
+    private void benchmarkStatic() {
+        final int[] range = new int[2];
+        mRunner.measure("Exif.static.orientation+thumbnail", new BenchmarkRunner.Benchmark() {
+            public void run(int iterations) {
+                int sum = 0;
+                for (int i = 0; i < iterations; i++) {
+                    sum += Exif.getOrientation(mJpeg);
+                    if (Exif.getThumbnailRange(mJpeg, range)) sum += range[0];
+                }
+                BenchmarkRunner.consume(sum);
+            }
+        });
+    }
+
+    // Reads the same fields and the size, the date and the location from one
+    // scan.
+    private void benchmarkIndex() {
+        final Exif exif = new Exif();
+        final double[] latLong = new double[2];
+        mRunner.measure("Exif.index.parse+getters", new BenchmarkRunner.Benchmark() {
+            public void run(int iterations) {
+                int sum = 0;
+                for (int i = 0; i < iterations; i++) {
+                    exif.parse(mJpeg);
+                    sum += exif.getOrientation() + exif.getThumbnailOffset()
+                            + exif.getImageWidth() + (int) exif.getDateTime();
+                    if (exif.getLatLong(latLong)) sum += (int) latLong[0];
+                }
+                BenchmarkRunner.consume(sum);
+            }
+        });
+    }
+}
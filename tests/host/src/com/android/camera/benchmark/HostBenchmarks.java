@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Runs the host benchmarks and compares them with the checked-in baselines.
+ *
+ * The JIT of each JVM compiles the benchmarks its own way, and one JVM can be
+ * much faster than the next on the same code. So the benchmarks run in FORKS
+ * new JVMs, and the result of a benchmark is the median of the JVMs. A result
+ * slower than its baseline by more than REGRESSION_RATIO is measured in FORKS
+ * more JVMs, and is a regression if the median of all of them is still slow.
+ *
+ * A benchmark without a baseline fails too. Run with --update to write the
+ * baselines after an expected change or a new benchmark, and check them in.
+ *
+ * Usage: HostBenchmarks <baseline file> [--update]
+ */
+public class HostBenchmarks {
+    private static final int FORKS = 5;
+    private static final double REGRESSION_RATIO = 1.25;
+    private static final String[] FORK_JVM_OPTIONS = {
+        "-Xms256m", "-Xmx256m", "-XX:+UseSerialGC",
+    };
+    private static final String FORK = "--fork";
+    private static final String UPDATE = "--update";
+    private static final String RESULT = "RESULT ";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 1 && args[0].equals(FORK)) {
+            runFork();
+            return;
+        }
+        if (args.length < 1 || args.length > 2
+                || (args.length == 2 && !args[1].equals(UPDATE))) {
+            System.err.println("Usage: HostBenchmarks <baseline file> [" + UPDATE + "]");
+            System.exit(2);
+        }
+        File baselineFile = new File(args[0]);
+        Map<String, List<Double>> results = new TreeMap<String, List<Double>>();
+        runForks(results);
+
+        if (args.length == 2) {
+            saveBaselines(baselineFile, results);
+            System.out.print(getReport(results, null));
+            System.out.println("Wrote " + baselineFile);
+            return;
+        }
+
+        Properties baselines = loadBaselines(baselineFile);
+        if (getFailures(results, baselines, false).length() != 0) {
+            runForks(results);
+        }
+        System.out.print(getReport(results, baselines));
+        String failures = getFailures(results, baselines, true);
+        if (failures.length() != 0) {
+            System.out.print("FAILED:\n" + failures);
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    // Runs the benchmarks in this JVM and prints the results for the parent.
+    private static void runFork() throws IOException {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        new HotPathBenchmark(runner).run();
+        new ExifBenchmark(runner).run();
+        for (Map.Entry<String, Double> e : runner.getResults().entrySet()) {
+            System.out.println(RESULT + e.getKey() + " " + e.getValue());
+        }
+    }
+
+    // Runs the benchmarks in FORKS new JVMs and adds their results.
+    private static void runForks(Map<String, List<Double>> results)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java");
+        Collections.addAll(command, FORK_JVM_OPTIONS);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(HostBenchmarks.class.getName());
+        command.add(FORK);
+
+        for (int i = 0; i < FORKS; i++) {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(process.getInputStream()));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (!line.startsWith(RESULT)) {
+                        System.err.println(line);
+                        continue;
+                    }
+                    String[] fields = line.substring(RESULT.length()).split(" ");
+                    List<Double> scores = results.get(fields[0]);
+                    if (scores == null) {
+                        scores = new ArrayList<Double>();
+                        results.put(fields[0], scores);
+                    }
+                    scores.add(Double.parseDouble(fields[1]));
+                }
+            } finally {
+                in.close();
+            }
+            if (process.waitFor() != 0) {
+                throw new IOException("Benchmark JVM failed: " + process.exitValue());
+            }
+        }
+    }
+
+    // Returns the benchmarks slower than their baselines or without one, or
+    // an empty string. Without confirmed, a benchmark measured only once is
+    // not a failure yet: it is measured again first.
+    private static String getFailures(Map<String, List<Double>> results,
+            Properties baselines, boolean confirmed) {
+        StringBuilder failures = new StringBuilder();
+        for (Map.Entry<String, List<Double>> e : results.entrySet()) {
+            String name = e.getKey();
+            String baseline = baselines.getProperty(name);
+            if (baseline == null) {
+                if (confirmed) failures.append(name).append(": no baseline\n");
+                continue;
+            }
+            double median = median(e.getValue());
+            if (median > Double.parseDouble(baseline) * REGRESSION_RATIO) {
+                failures.append(String.format(Locale.US, "%s: %.4f, baseline %s (limit %.2fx)\n",
+                        name, median, baseline, REGRESSION_RATIO));
+            }
+        }
+        return failures.toString();
+    }
+
+    private static String getReport(Map<String, List<Double>> results, Properties baselines) {
+        StringBuilder report = new StringBuilder(String.format(Locale.US,
+                "%-34s %9s %9s %9s %9s  (%d JVMs, in units of the calibration loop)\n",
+                "benchmark", "median", "min", "max", "baseline",
+                results.isEmpty() ? 0 : results.values().iterator().next().size()));
+        for (Map.Entry<String, List<Double>> e : results.entrySet()) {
+            List<Double> scores = e.getValue();
+            String baseline = (baselines == null) ? "new" : baselines.getProperty(e.getKey(), "none");
+            report.append(String.format(Locale.US, "%-34s %9.4f %9.4f %9.4f %9s\n", e.getKey(),
+                    median(scores), Collections.min(scores), Collections.max(scores), baseline));
+        }
+        return report.toString();
+    }
+
+    private static double median(List<Double> scores) {
+        List<Double> sorted = new ArrayList<Double>(scores);
+        Collections.sort(sorted);
+        int n = sorted.size();
+        return (n % 2 == 1) ? sorted.get(n / 2) : (sorted.get(n / 2 - 1) + sorted.get(n / 2)) / 2;
+    }
+
+    private static Properties loadBaselines(File file) throws IOException {
+        Properties baselines = new Properties();
+        if (!file.exists()) return baselines;
+        InputStream in = new FileInputStream(file);
+        try {
+            baselines.load(in);
+        } finally {
+            in.close();
+        }
+        return baselines;
+    }
+
+    private static void saveBaselines(File file, Map<String, List<Double>> results)
+            throws IOException {
+        Writer out = new FileWriter(file);
+        try {
+            out.write("# Camera host benchmark baselines: the median of " + FORKS + " JVMs, in\n");
+            out.write("# units of the calibration loop of BenchmarkRunner. Written by\n");
+            out.write("# run-benchmarks.sh --update.\n");
+            for (Map.Entry<String, List<Double>> e : results.entrySet()) {
+                out.write(String.format(Locale.US, "%s = %.4f\n",
+                        e.getKey(), median(e.getValue())));
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
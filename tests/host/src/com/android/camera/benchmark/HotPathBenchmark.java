@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.benchmark;
+
+import com.android.camera.Exif;
+import com.android.camera.ExifWriter;
+import com.android.camera.ImageFileNamer;
+import com.android.camera.IntArray;
+import com.android.camera.JpegHeader;
+import com.android.camera.SampleSize;
+import com.android.camera.unittest.ExifTestData;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Benchmarks of the pure Java code that runs for every picture: the EXIF
+ * parser and writer, the jpeg header parser, the sample size of the
+ * thumbnails and the file names.
+ */
+public class HotPathBenchmark {
+    private static final int PICTURE_BYTES = 64 * 1024;
+    // The value of R.string.image_file_name_format.
+    private static final String NAME_FORMAT = "'IMG'_yyyyMMdd_HHmmss";
+    private static final long NAME_START = 1338554096000L;  // 2012:06:01 12:34:56
+    private static final double LATITUDE = 37.422;
+    private static final double LONGITUDE = -122.084;
+    private static final int[] SOF0 = {
+        0xFF, 0xC0, 0x00, 0x11, 0x08, 0x09, 0x90, 0x0C, 0xC0, 0x03,
+        0x01, 0x22, 0x00, 0x02, 0x11, 0x01, 0x03, 0x11, 0x01,
+    };
+
+    private final BenchmarkRunner mRunner;
+
+    public HotPathBenchmark(BenchmarkRunner runner) {
+        mRunner = runner;
+    }
+
+    public void run() throws IOException {
+        benchmarkExifOrientation();
+        benchmarkExifWriterPatch();
+        benchmarkExifWriterRebuild();
+        benchmarkJpegHeader();
+        benchmarkSampleSize();
+        benchmarkIntArray();
+        benchmarkImageFileNamer();
+    }
+
+    private void benchmarkExifOrientation() {
+        final byte[] jpeg = ExifTestData.buildJpeg(true, 90, PICTURE_BYTES);
+        mRunner.measure("Exif.getOrientation", new BenchmarkRunner.Benchmark() {
+            public void run(int iterations) {
+                int sum = 0;
+                for (int i = 0; i < iterations; i++) sum += Exif.getOrientation(jpeg);
+                BenchmarkRunner.consume(sum);
+            }
+        });
+    }
+
+    // The fields are the size of the old ones, so they are written in place.
+    private void benchmarkExifWriterPatch() {
+        final byte[] jpeg = ExifTestData.buildJpeg(true, 90, PICTURE_BYTES);
+        final ExifWriter writer = new ExifWriter();
+        writer.setOrientation(180);
+        writer.setDateTime(NAME_START);
+        mRunner.measure("ExifWriter.write.patch", new BenchmarkRunner.Benchmark() {
+            public void run(int iterations) {
+                int sum = 0;
+                for (int i = 0; i < iterations; i++) sum += writer.write(jpeg).length;
+                BenchmarkRunner.consume(sum);
+            }
+        });
+    }
+
+    // The location is new, so the EXIF segment is built again.
+    private void benchmarkExifWriterRebuild() {
+        final byte[] jpeg = ExifTestData.buildJpeg(true, 90, PICTURE_BYTES);
+        final ExifWriter writer = new ExifWriter();
+        writer.setOrientation(270);
+        writer.setLocation(LATITUDE, LONGITUDE);
+        mRunner.measure("ExifWriter.write.rebuild", new BenchmarkRunner.Benchmark() {
+            public void run(int iterations) {
+                int sum = 0;
+                for (int i = 0; i < iterations; i++) sum += writer.write(jpeg)[1].remaining();
+                BenchmarkRunner.consume(sum);
+            }
+        });
+    }
+
+    private void benchmarkJpegHeader() {
+        final byte[] jpeg = withFrameHeader(ExifTestData.buildJpeg(true, 90, PICTURE_BYTES));
+        final JpegHeader header = new JpegHeader();
+        mRunner.measure("JpegHeader.parse", new BenchmarkRunner.Benchmark() {
+            public void run(int iterations) {
+                int sum = 0;
+                for (int i = 0; i < iterations; i++) {
+                    if (header.parse(jpeg)) sum += header.getWidth();
+                }
+                BenchmarkRunner.consume(sum);
+            }
+        });
+    }
+
+    private void benchmarkSampleSize() {
+        mRunner.measure("SampleSize.compute", new BenchmarkRunner.Benchmark() {
+            public void run(int iterations) {
+                int sum = 0;
+                for (int i = 0; i < iterations; i++) {
+                    int width = 640 + (i & 0xFFF);
+                    sum += SampleSize.compute(width, width * 3 / 4, -1, 50 * 1024);
+                    sum += SampleSize.compute(width, width * 3 / 4, 320, 200 * 1024);
+                }
+                BenchmarkRunner.consume(sum);
+            }
+        });
+    }
+
+    private void benchmarkIntArray() {
+        final int[] result = new int[1024];
+        mRunner.measure("IntArray.add+toArray", new BenchmarkRunner.Benchmark() {
+            public void run(int iterations) {
+                int sum = 0;
+                for (int i = 0; i < iterations; i++) {
+                    IntArray array = new IntArray();
+                    for (int j = 0; j < 1000; j++) array.add(j);
+                    sum += array.toArray(result)[i % 1000];
+                }
+                BenchmarkRunner.consume(sum);
+            }
+        });
+    }
+
+    // Names ten pictures per second, like a burst, in an empty directory of
+    // its own. Each run starts with a new index, so the index does not grow
+    // from one trial to the next.
+    private void benchmarkImageFileNamer() throws IOException {
+        final File directory = createTempDirectory();
+        try {
+            mRunner.measure("ImageFileNamer.generateName", new BenchmarkRunner.Benchmark() {
+                public void run(int iterations) {
+                    ImageFileNamer.resetIndexes();
+                    ImageFileNamer namer = new ImageFileNamer(NAME_FORMAT, directory.getPath());
+                    namer.loadIndex();
+                    int sum = 0;
+                    long time = NAME_START;
+                    for (int i = 0; i < iterations; i++) {
+                        sum += namer.generateName(time).length();
+                        time += 100;
+                    }
+                    BenchmarkRunner.consume(sum);
+                }
+            });
+        } finally {
+            ImageFileNamer.resetIndexes();
+            directory.delete();
+        }
+    }
+
+    // Returns the jpeg with a baseline frame header before the scan, which
+    // ExifTestData leaves out.
+    private static byte[] withFrameHeader(byte[] jpeg) {
+        int app1End = 4 + (((jpeg[4] & 0xFF) << 8) | (jpeg[5] & 0xFF));
+        byte[] result = new byte[jpeg.length + SOF0.length];
+        System.arraycopy(jpeg, 0, result, 0, app1End);
+        for (int i = 0; i < SOF0.length; i++) result[app1End + i] = (byte) SOF0[i];
+        System.arraycopy(jpeg, app1End, result, app1End + SOF0.length, jpeg.length - app1End);
+        return result;
+    }
+
+    private static File createTempDirectory() throws IOException {
+        File directory = File.createTempFile("namer", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        return directory;
+    }
+}
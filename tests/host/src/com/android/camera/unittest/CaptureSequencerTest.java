@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.BurstController;
+import com.android.camera.CaptureSequencer;
+import com.android.camera.CaptureTrace;
+import com.android.camera.FakeCameraDevice;
+import com.android.camera.ImageSaver;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes pictures and bursts with CaptureSequencer on a FakeCameraDevice, and
+ * saves them with an ImageSaver on a MemoryImageStore, like the Camera
+ * activity does. The main thread of the activity is a single thread executor.
+ */
+public class CaptureSequencerTest extends TestCase {
+    private static final long TIMEOUT_MS = 5000;
+
+    private ExecutorService mMainThread;
+    private FakeCameraDevice mDevice;
+    private MemoryImageStore mStore;
+    private ImageSaver<String> mSaver;
+    private CaptureSequencer<String> mSequencer;
+    private final LinkedBlockingQueue<String> mEvents = new LinkedBlockingQueue<String>();
+    // The number of pictures a burst may still take. Used in main thread.
+    private long mBurstRemaining = Long.MAX_VALUE;
+    private CaptureTrace.Shot mLastShot;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mMainThread = Executors.newSingleThreadExecutor();
+        mDevice = new FakeCameraDevice(1, mMainThread);
+        mDevice.setAutoFocus(1, 1f);
+        mDevice.setPictureLatency(1, 2, 3);
+        mDevice.setJpegSize(20000, 2000);
+        mStore = new MemoryImageStore();
+        mSaver = new ImageSaver<String>(64L * 1024 * 1024, mStore,
+                new ImageSaver.ThumbnailListener<String>() {
+                    public void onThumbnail(ImageSaver.Request<String> r) {
+                    }
+                });
+        mSequencer = new CaptureSequencer<String>(new Host());
+        runOnMain(new Runnable() {
+            public void run() {
+                mSequencer.setDevice(mDevice);
+                mSequencer.resume();
+                mDevice.startPreview();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDevice.release();
+        mSaver.finish();
+        mMainThread.shutdown();
+        super.tearDown();
+    }
+
+    public void testShot() throws Exception {
+        runOnMain(new Runnable() {
+            public void run() {
+                mSequencer.beginShot();
+                mSequencer.autoFocus();
+            }
+        });
+        assertEquals("focus true", next());
+        runOnMain(new Runnable() {
+            public void run() {
+                mSequencer.capture("here");
+            }
+        });
+        assertEquals("shutter", next());
+        assertEquals("jpeg here", next());
+        assertEquals("shot done", next());
+
+        // The shot of the shutter button is the shot of the picture, and it
+        // went through all the spans of the capture.
+        CaptureTrace.Shot shot = mLastShot;
+        assertTrue(shot.getDuration(CaptureTrace.SPAN_AUTO_FOCUS) >= 0);
+        assertTrue(shot.getDuration(CaptureTrace.SPAN_SHUTTER_LAG) >= 0);
+        assertTrue(shot.getDuration(CaptureTrace.SPAN_SHUTTER_TO_PICTURE_DISPLAYED) >= 0);
+        assertTrue(shot.getDuration(CaptureTrace.SPAN_PICTURE_DISPLAYED_TO_JPEG) >= 0);
+        assertTrue(shot.getDuration(CaptureTrace.SPAN_JPEG_CALLBACK) >= 0);
+
+        mSaver.waitDone();
+        assertEquals(1, mStore.mInserted.size());
+        // The image saver finishes the shot.
+        assertTrue(shot.getDuration(CaptureTrace.SPAN_SAVE) >= 0);
+        assertTrue(shot.getDuration(CaptureTrace.SPAN_SHOT) >= 0);
+    }
+
+    public void testBurst() throws Exception {
+        startBurst(5);
+        assertEquals("burst stopped 5", nextMatching("burst"));
+        mSaver.waitDone();
+        assertEquals(5, mDevice.getPictureCount());
+        assertEquals(5, mStore.mInserted.size());
+        assertFalse(isBurstActive());
+    }
+
+    public void testBurstStopsWhenStorageIsFull() throws Exception {
+        mBurstRemaining = 3;
+        startBurst(10);
+        assertEquals("burst stopped 3", nextMatching("burst"));
+        mSaver.waitDone();
+        assertEquals(3, mStore.mInserted.size());
+    }
+
+    public void testPause() throws Exception {
+        startBurst(10);
+        runOnMain(new Runnable() {
+            public void run() {
+                mSequencer.pause();
+            }
+        });
+        assertEquals("burst stopped", nextMatching("burst").substring(0, 13));
+        // The jpeg of the picture in progress is ignored, and no picture is
+        // taken after it.
+        Thread.sleep(50);
+        mEvents.clear();
+        int pictures = mDevice.getPictureCount();
+        assertNull(mEvents.poll(50, TimeUnit.MILLISECONDS));
+        assertEquals(pictures, mDevice.getPictureCount());
+    }
+
+    // Starts a burst and takes its first picture, like the activity does when
+    // the shutter button is held.
+    private void startBurst(final int maxLength) throws Exception {
+        runOnMain(new Runnable() {
+            public void run() {
+                mSequencer.startBurst(maxLength);
+                mSequencer.capture(null);
+            }
+        });
+    }
+
+    private boolean isBurstActive() throws Exception {
+        final boolean[] active = new boolean[1];
+        runOnMain(new Runnable() {
+            public void run() {
+                active[0] = mSequencer.isBurstActive();
+            }
+        });
+        return active[0];
+    }
+
+    private void runOnMain(Runnable r) throws Exception {
+        mMainThread.submit(r).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private String next() throws InterruptedException {
+        String event = mEvents.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertNotNull("timeout", event);
+        return event;
+    }
+
+    private String nextMatching(String prefix) throws InterruptedException {
+        while (true) {
+            String event = next();
+            if (event.startsWith(prefix)) return event;
+        }
+    }
+
+    // The activity. Runs in main thread.
+    private class Host implements CaptureSequencer.Host<String> {
+        public void onShutter() {
+            mEvents.add("shutter");
+        }
+
+        public void onAutoFocus(boolean focused) {
+            mEvents.add("focus " + focused);
+        }
+
+        public void onJpegTaken(byte[] jpeg, String location, CaptureTrace.Shot shot) {
+            mDevice.startPreview();
+            mSaver.addImage(jpeg, location, 640, 480, 640, false, "key", shot);
+            if (mBurstRemaining != Long.MAX_VALUE) mBurstRemaining--;
+            mEvents.add("jpeg " + location);
+        }
+
+        public long getBurstRemaining() {
+            return mBurstRemaining;
+        }
+
+        public void snap() {
+            mSequencer.capture(null);
+        }
+
+        public void onBurstStopped(BurstController burst) {
+            mEvents.add("burst stopped " + burst.getFrameCount());
+        }
+
+        public void onShotDone(CaptureTrace.Shot shot) {
+            mLastShot = shot;
+            mEvents.add("shot done");
+        }
+
+        public void post(Runnable r) {
+            mMainThread.execute(r);
+        }
+
+        public void removeCallbacks(Runnable r) {
+            // The executor cannot remove a task. The snap runnable checks the
+            // burst itself.
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.CaptureTrace;
+import com.android.camera.Exif;
+import com.android.camera.ImageSaver;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+
+/**
+ * Runs the stages of ImageSaver on the host, with a MemoryImageStore.
+ */
+public class ImageSaverTest extends TestCase {
+    private static final long HEAP_SIZE = 64L * 1024 * 1024;
+    private static final int PICTURE_BYTES = 16 * 1024;
+    private static final long TIMEOUT_MS = 5000;
+
+    private MemoryImageStore mStore;
+    // The titles of the thumbnails, and whether they had the jpeg data.
+    private final ArrayList<String> mThumbnails = new ArrayList<String>();
+    private ImageSaver<String> mSaver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mStore = new MemoryImageStore();
+        mSaver = new ImageSaver<String>(HEAP_SIZE, mStore,
+                new ImageSaver.ThumbnailListener<String>() {
+                    public void onThumbnail(ImageSaver.Request<String> r) {
+                        synchronized (mThumbnails) {
+                            mThumbnails.add(r.title + (r.data != null ? "" : " no data"));
+                        }
+                    }
+                });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mSaver != null) mSaver.finish();
+        super.tearDown();
+    }
+
+    public void testSave() throws Exception {
+        long finished = CaptureTrace.instance().getFinishedCount();
+        addImage(90, "here", false);
+        addImage(90, null, false);
+        addImage(90, null, false);
+        mSaver.waitDone();
+
+        assertEquals(3, mStore.mFiles.size());
+        assertEquals("[IMG_0, IMG_1, IMG_2]", mStore.mFiles.keySet().toString());
+        byte[] file = mStore.mFiles.get("IMG_0");
+        assertEquals(90, Exif.getOrientation(file));
+        Exif exif = new Exif();
+        exif.parse(file);
+        double[] latLong = new double[2];
+        assertTrue(exif.getLatLong(latLong));
+        assertEquals(1.0, latLong[0], 1e-6);
+        assertEquals(2.0, latLong[1], 1e-6);
+
+        assertEquals(3, mStore.mInserted.size());
+        assertEquals(3, mStore.mRecordedSizes);
+        ImageSaver.Request<String> r = mStore.mInserted.get("IMG_2");
+        assertEquals(90, r.fileOrientation);
+        assertEquals(file.length, mStore.mInserted.get("IMG_0").size);
+        assertEquals("content://media/IMG_2", mStore.mBroadcasts.get(mStore.mBroadcasts.size() - 1));
+        // The jpeg data is released after the thumbnail of the latest.
+        assertNull(r.data);
+        synchronized (mThumbnails) {
+            assertEquals("IMG_2", mThumbnails.get(mThumbnails.size() - 1));
+        }
+        assertTrue(mStore.mRotated.isEmpty());
+        assertTrue(mStore.mSpooled.isEmpty());
+        assertTrue(CaptureTrace.instance().waitForFinishedCount(finished + 3, TIMEOUT_MS));
+    }
+
+    public void testUpright() throws Exception {
+        mStore.mRotateResult = true;
+        addImage(90, null, true);
+        addImage(0, null, true);
+        addImage(180, null, false);
+        mSaver.waitDone();
+
+        // Only the picture that asks for it and is not upright is rotated.
+        assertEquals("[IMG_0 90]", mStore.mRotated.toString());
+        assertEquals(0, mStore.mInserted.get("IMG_0").fileOrientation);
+        assertEquals(0, mStore.mInserted.get("IMG_1").fileOrientation);
+        assertEquals(180, mStore.mInserted.get("IMG_2").fileOrientation);
+
+        // A picture that cannot be rotated is saved as it is.
+        mStore.mRotateResult = false;
+        addImage(270, null, true);
+        mSaver.waitDone();
+        assertEquals(270, mStore.mInserted.get("IMG_3").fileOrientation);
+    }
+
+    public void testFailedWrite() throws Exception {
+        long finished = CaptureTrace.instance().getFinishedCount();
+        mStore.mFailingWrites.add("IMG_1");
+        addImage(90, null, false);
+        addImage(90, null, false);
+        addImage(90, null, false);
+        mSaver.waitDone();
+
+        // The failed picture is spooled for SpoolService, and released.
+        assertEquals("[IMG_0, IMG_2]", mStore.mInserted.keySet().toString());
+        assertTrue(mStore.mSpooled.contains("IMG_1"));
+        assertEquals(1, mStore.mSpooled.size());
+        assertTrue(mStore.mClaimed.isEmpty());
+        assertTrue(CaptureTrace.instance().waitForFinishedCount(finished + 3, TIMEOUT_MS));
+    }
+
+    public void testFinishSpoolsUnwritten() throws Exception {
+        mStore.holdWrites();
+        addImage(90, null, false);
+        addImage(90, null, false);
+        addImage(90, null, false);
+        // Returns without waiting for the writes.
+        mSaver.finish();
+        ImageSaver<String> saver = mSaver;
+        mSaver = null;
+        waitSpooled(3);
+
+        mStore.releaseWrites();
+        assertTrue(mStore.waitClosed(TIMEOUT_MS));
+        // The pictures are saved in the background, and taken out of the
+        // spool.
+        assertEquals(3, mStore.mInserted.size());
+        synchronized (mStore) {
+            assertTrue(mStore.mSpooled.isEmpty());
+            assertTrue(mStore.mClaimed.isEmpty());
+        }
+        assertEquals(0, saver.getQueuedBytes());
+    }
+
+    public void testByteBudget() {
+        // A quarter of the heap.
+        mSaver.updateByteBudget(640, 480);
+        assertEquals(HEAP_SIZE / 4, mSaver.getByteBudget());
+        // Two pictures of the worst case, up to the maximum.
+        mSaver.updateByteBudget(10000, 8000);
+        assertEquals(48L * 1024 * 1024, mSaver.getByteBudget());
+        ImageSaver<String> small = new ImageSaver<String>(8L * 1024 * 1024,
+                new MemoryImageStore(), null);
+        small.updateByteBudget(640, 480);
+        assertEquals(4L * 1024 * 1024, small.getByteBudget());
+        small.finish();
+    }
+
+    private void addImage(int orientation, String location, boolean upright) {
+        byte[] jpeg = ExifTestData.buildJpeg(true, orientation, PICTURE_BYTES);
+        CaptureTrace.Shot shot = CaptureTrace.instance().beginShot();
+        mSaver.addImage(jpeg, location, ExifTestData.WIDTH, ExifTestData.HEIGHT, 640,
+                upright, "key", shot);
+        // The jpeg callback is done with the shot.
+        shot.finish();
+    }
+
+    private void waitSpooled(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (true) {
+            synchronized (mStore) {
+                if (mStore.mSpooled.size() == count) return;
+            }
+            if (System.currentTimeMillis() > deadline) fail("not spooled");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.ExifWriter;
+import com.android.camera.ImageSaver;
+import com.android.camera.JpegRotator;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An ImageSaver.Store in memory, for the tests of the image saver on the host.
+ * The files, the MediaStore rows and the spool are maps by title, and the
+ * location is a String. A write can be made to fail or to wait for the test.
+ */
+public class MemoryImageStore implements ImageSaver.Store<String> {
+    public final LinkedHashMap<String, byte[]> mFiles = new LinkedHashMap<String, byte[]>();
+    public final LinkedHashMap<String, ImageSaver.Request<String>> mInserted =
+            new LinkedHashMap<String, ImageSaver.Request<String>>();
+    public final HashSet<String> mSpooled = new HashSet<String>();
+    public final HashSet<String> mClaimed = new HashSet<String>();
+    public final ArrayList<String> mBroadcasts = new ArrayList<String>();
+    public final ArrayList<String> mRotated = new ArrayList<String>();
+    public int mInsertBatches;
+    public int mRecordedSizes;
+
+    // The titles whose write fails, and whether rotateFile() succeeds.
+    public final HashSet<String> mFailingWrites = new HashSet<String>();
+    public boolean mRotateResult;
+
+    // Open by default. A test closes it to hold the writes.
+    private volatile CountDownLatch mWriteGate = new CountDownLatch(0);
+    private final CountDownLatch mClosed = new CountDownLatch(1);
+    private int mNextTitle;
+
+    public void holdWrites() {
+        mWriteGate = new CountDownLatch(1);
+    }
+
+    public void releaseWrites() {
+        mWriteGate.countDown();
+    }
+
+    public boolean waitClosed(long timeoutMs) throws InterruptedException {
+        return mClosed.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized String generateTitle(long dateTaken) {
+        return "IMG_" + mNextTitle++;
+    }
+
+    public void setExifLocation(ExifWriter exif, String location) {
+        if (location != null) exif.setLocation(1, 2);
+    }
+
+    public boolean writeFile(String title, ByteBuffer[] jpeg) {
+        try {
+            mWriteGate.await();
+        } catch (InterruptedException e) {
+            return false;
+        }
+        int size = 0;
+        for (ByteBuffer b : jpeg) size += b.remaining();
+        byte[] data = new byte[size];
+        int offset = 0;
+        for (ByteBuffer b : jpeg) {
+            int n = b.remaining();
+            b.duplicate().get(data, offset, n);
+            offset += n;
+        }
+        synchronized (this) {
+            if (mFailingWrites.contains(title)) return false;
+            mFiles.put(title, data);
+            return true;
+        }
+    }
+
+    public synchronized boolean rotateFile(String title, int orientation,
+            JpegRotator rotator, ExifWriter exif) {
+        mRotated.add(title + " " + orientation);
+        return mRotateResult;
+    }
+
+    public synchronized long getFileSize(String title) {
+        return mFiles.get(title).length;
+    }
+
+    public synchronized void recordSize(String sizeKey, long size) {
+        mRecordedSizes++;
+    }
+
+    public synchronized void insert(ArrayList<ImageSaver.Request<String>> requests) {
+        mInsertBatches++;
+        for (ImageSaver.Request<String> r : requests) {
+            r.uri = "content://media/" + r.title;
+            mInserted.put(r.title, r);
+        }
+    }
+
+    public synchronized void broadcastNewPicture(String uri) {
+        mBroadcasts.add(uri);
+    }
+
+    public synchronized boolean spool(ImageSaver.Request<String> r) {
+        mSpooled.add(r.title);
+        mClaimed.add(r.title);
+        return true;
+    }
+
+    public synchronized void unspool(String title) {
+        mSpooled.remove(title);
+        mClaimed.remove(title);
+    }
+
+    public synchronized void claim(String id) {
+        mClaimed.add(id);
+    }
+
+    public synchronized void release(String id) {
+        mClaimed.remove(id);
+    }
+
+    public void close() {
+        mClosed.countDown();
+    }
+}
@@ -29,6 +29,7 @@ public class CameraStressTestRunner extends InstrumentationTestRunner {
     public static int mVideoDuration = 20000; // set default to 20 seconds
     public static int mVideoIterations = 100; // set default to 100 videos
     public static int mImageIterations = 100; // set default to 100 images
+    public static String mSwitchTrace = null; // the default trace of SwitchTrace
 
     @Override
     public TestSuite getAllTests() {
@@ -49,6 +50,7 @@ public class CameraStressTestRunner extends InstrumentationTestRunner {
         String video_iterations = (String) icicle.get("video_iterations");
         String image_iterations = (String) icicle.get("image_iterations");
         String video_duration = (String) icicle.get("video_duration");
+        String switch_trace = (String) icicle.get("switch_trace");
 
         if ( video_iterations != null ) {
             mVideoIterations = Integer.parseInt(video_iterations);
@@ -59,5 +61,8 @@ public class CameraStressTestRunner extends InstrumentationTestRunner {
         if ( video_duration != null) {
             mVideoDuration = Integer.parseInt(video_duration);
         }
+        if ( switch_trace != null) {
+            mSwitchTrace = switch_trace;
+        }
     }
 }
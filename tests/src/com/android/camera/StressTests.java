@@ -18,8 +18,11 @@ package com.android.camera;
 
 import com.android.camera.stress.ImageCapture;
 import com.android.camera.stress.SwitchPreview;
+import com.android.camera.stress.SwitchTrace;
 import com.android.camera.stress.CameraLatency;
 import com.android.camera.stress.CameraStartUp;
+import com.android.camera.stress.HotPathBenchmark;
+import com.android.camera.stress.BurstSimulation;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -38,9 +41,12 @@ public class StressTests extends TestSuite {
     public static Test suite() {
         TestSuite result = new TestSuite();
         result.addTestSuite(SwitchPreview.class);
+        result.addTestSuite(SwitchTrace.class);
         result.addTestSuite(ImageCapture.class);
         result.addTestSuite(CameraLatency.class);
         result.addTestSuite(CameraStartUp.class);
+        result.addTestSuite(HotPathBenchmark.class);
+        result.addTestSuite(BurstSimulation.class);
         return result;
     }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.stress;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Times small operations on the device and reports the results.
+ *
+ * A benchmark is run for a warm-up trial, then for TRIALS trials of a fixed
+ * number of operations. The result is the median time per operation of the
+ * trials.
+ *
+ * There are no baselines on the device: the results depend on the device and
+ * on what else runs on it. The pure Java hot paths are compared with their
+ * baselines on the host, by tests/host/run-benchmarks.sh.
+ */
+public class BenchmarkRunner {
+    private static final String TAG = "BenchmarkRunner";
+    private static final int TRIALS = 9;
+
+    /** The operation to time. */
+    public interface Benchmark {
+        /** Runs the operation the given number of times. */
+        void run(int iterations);
+    }
+
+    private final StringBuilder mReport = new StringBuilder();
+
+    /**
+     * Times the benchmark and returns the median time of an operation in
+     * nanoseconds.
+     */
+    public double measure(String name, int iterations, Benchmark benchmark) {
+        benchmark.run(iterations);  // warm up
+        double[] times = new double[TRIALS];
+        for (int i = 0; i < TRIALS; i++) {
+            long start = System.nanoTime();
+            benchmark.run(iterations);
+            times[i] = (double) (System.nanoTime() - start) / iterations;
+        }
+        Arrays.sort(times);
+        double median = times[TRIALS / 2];
+
+        mReport.append(name).append(" = ").append(format(median)).append(" ns\n");
+        Log.v(TAG, name + ": " + format(median) + " ns, min=" + format(times[0])
+                + ", max=" + format(times[TRIALS - 1]));
+        return median;
+    }
+
+    /** Returns the results, one benchmark per line. */
+    public String getReport() {
+        return mReport.toString();
+    }
+
+    private static String format(double nanos) {
+        return String.valueOf(Math.round(nanos * 10) / 10.0);
+    }
+}
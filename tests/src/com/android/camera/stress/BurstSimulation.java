@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.stress;
+
+import com.android.camera.BurstController;
+import com.android.camera.CameraDevice;
+import com.android.camera.ExifWriter;
+import com.android.camera.FakeCameraDevice;
+import com.android.camera.SavePipeline;
+import com.android.camera.Storage;
+
+import android.os.Environment;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives a burst with a fake camera much faster than a real one, through a
+ * SavePipeline with two stages of its own: EXIF splicing, then the file write
+ * to the external storage, so it runs on a device. It measures the sustained
+ * rate and the backpressure of SavePipeline, BurstController and
+ * Storage.writeFile(), and checks that every picture is written once. It does
+ * not run the capture code or the image saver of the Camera activity.
+ */
+public class BurstSimulation extends TestCase {
+    private static final String TAG = "BurstSimulation";
+    private static final int BURST_LENGTH = 60;
+    private static final int JPEG_SIZE = 1500000;
+    private static final long BYTE_BUDGET = 8 * JPEG_SIZE;
+
+    private static class Picture {
+        final int mNumber;
+        byte[] mJpeg;
+        ByteBuffer[] mBuffers;
+
+        Picture(int number, byte[] jpeg) {
+            mNumber = number;
+            mJpeg = jpeg;
+        }
+    }
+
+    private File mDirectory;
+    private ExecutorService mMainThread;
+    private FakeCameraDevice mDevice;
+    private SavePipeline<Picture> mPipeline;
+    private final BurstController mBurst = new BurstController();
+    private final AtomicInteger mWritten = new AtomicInteger();
+    private CountDownLatch mDone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(Environment.getExternalStorageDirectory(), TAG);
+        mDirectory.mkdirs();
+        mMainThread = Executors.newSingleThreadExecutor();
+        mDevice = new FakeCameraDevice(1, mMainThread);
+        mDevice.setPictureLatency(5, 10, 20);
+        mDevice.setJpegSize(JPEG_SIZE, JPEG_SIZE / 10);
+
+        mPipeline = new SavePipeline<Picture>();
+        mPipeline.setByteBudget(BYTE_BUDGET);
+        final ExifWriter exif = new ExifWriter();
+        mPipeline.addStage("Exif", new SavePipeline.Stage<Picture>() {
+            public boolean process(Picture p, long sequence) {
+                exif.clear();
+                exif.setOrientation(90);
+                exif.setDateTime(System.currentTimeMillis());
+                p.mBuffers = exif.write(p.mJpeg);
+                return true;
+            }
+        }, 1, 4);
+        mPipeline.addStage("Write", new SavePipeline.Stage<Picture>() {
+            public boolean process(Picture p, long sequence) {
+                File file = new File(mDirectory, "IMG_" + p.mNumber + ".jpg");
+                if (Storage.writeFile(file.getPath(), p.mBuffers)) {
+                    mWritten.incrementAndGet();
+                }
+                file.delete();
+                return true;
+            }
+        }, 1, 4);
+        mPipeline.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDevice.release();
+        mMainThread.shutdown();
+        mDirectory.delete();
+        super.tearDown();
+    }
+
+    @LargeTest
+    public void testBurst() throws Exception {
+        mDone = new CountDownLatch(1);
+        mMainThread.execute(new Runnable() {
+            public void run() {
+                mBurst.start(BURST_LENGTH);
+                mDevice.startPreview();
+                capture();
+            }
+        });
+        assertTrue(mDone.await(60, TimeUnit.SECONDS));
+        mPipeline.finish();
+
+        assertEquals(BURST_LENGTH, mBurst.getFrameCount());
+        assertEquals(BURST_LENGTH, mDevice.getPictureCount());
+        assertEquals(BURST_LENGTH, mWritten.get());
+
+        TestUtil testUtil = new TestUtil();
+        testUtil.prepareOutputFile();
+        testUtil.mOut.write("Burst simulation (" + BURST_LENGTH + " pictures):\n");
+        testUtil.mOut.write("fps = " + mBurst.getFramesPerSecond() + "\n");
+        testUtil.mOut.write("blocked ms = " + mPipeline.getTotalBlockedTime() + "\n");
+        testUtil.mOut.write("high-water bytes = " + mPipeline.getHighWaterBytes() + "\n");
+        testUtil.closeOutputFile();
+        Log.v(TAG, "fps=" + mBurst.getFramesPerSecond() + ", blocked="
+                + mPipeline.getTotalBlockedTime() + "ms");
+    }
+
+    // Runs in the main thread, like the shutter and the jpeg callback.
+    private void capture() {
+        mBurst.onCaptureStarted();
+        mDevice.takePicture(null, null, null, new CameraDevice.PictureCallback() {
+            public void onPictureTaken(byte[] jpeg) {
+                mBurst.onJpegTaken();
+                mDevice.startPreview();
+                mPipeline.submit(new Picture(mBurst.getFrameCount(), jpeg), jpeg.length);
+                if (mBurst.canCaptureMore()) {
+                    capture();
+                } else {
+                    mBurst.stop();
+                    mDone.countDown();
+                }
+            }
+        });
+    }
+}
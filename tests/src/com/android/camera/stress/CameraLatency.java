@@ -17,17 +17,14 @@
 package com.android.camera.stress;
 
 import com.android.camera.Camera;
+import com.android.camera.CaptureTrace;
 
 import android.app.Instrumentation;
-import android.os.Environment;
 import android.test.ActivityInstrumentationTestCase2;
 import android.test.suitebuilder.annotation.LargeTest;
 import android.util.Log;
 import android.view.KeyEvent;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-
 /**
  * Junit / Instrumentation test case for camera test
  *
@@ -36,20 +33,30 @@ import java.io.FileWriter;
 public class CameraLatency extends ActivityInstrumentationTestCase2 <Camera> {
     private String TAG = "CameraLatency";
     private static final int TOTAL_NUMBER_OF_IMAGECAPTURE = 20;
-    private static final long WAIT_FOR_IMAGE_CAPTURE_TO_BE_TAKEN = 4000;
-    private static final String CAMERA_TEST_OUTPUT_FILE =
-            Environment.getExternalStorageDirectory().toString() + "/mediaStressOut.txt";
+    // The time to take and save a picture before the capture is a failure.
+    private static final long CAPTURE_TIMEOUT = 10000;
+
+    // The spans reported by the test, and their names in the output.
+    private static final int[] SPANS = {
+        CaptureTrace.SPAN_AUTO_FOCUS,
+        CaptureTrace.SPAN_SHUTTER_LAG,
+        CaptureTrace.SPAN_SHUTTER_TO_PICTURE_DISPLAYED,
+        CaptureTrace.SPAN_PICTURE_DISPLAYED_TO_JPEG,
+        CaptureTrace.SPAN_JPEG_CALLBACK,
+        CaptureTrace.SPAN_ADD_IMAGE_BLOCKED,
+        CaptureTrace.SPAN_SAVE,
+    };
+    private static final String[] SPAN_NAMES = {
+        "AutoFocus",
+        "mShutterLag",
+        "mShutterToPictureDisplayedTime",
+        "mPictureDisplayedToJpegCallbackTime",
+        "mJpegCallbackFinishTime",
+        "mAddImageBlockedTime",
+        "mSaveTime",
+    };
 
-    private long mTotalAutoFocusTime;
-    private long mTotalShutterLag;
-    private long mTotalShutterToPictureDisplayedTime;
-    private long mTotalPictureDisplayedToJpegCallbackTime;
-    private long mTotalJpegCallbackFinishTime;
-    private long mAvgAutoFocusTime;
-    private long mAvgShutterLag = mTotalShutterLag;
-    private long mAvgShutterToPictureDisplayedTime;
-    private long mAvgPictureDisplayedToJpegCallbackTime;
-    private long mAvgJpegCallbackFinishTime;
+    private long mMaxSaverHighWaterBytes;
 
     public CameraLatency() {
         super(Camera.class);
@@ -67,73 +74,43 @@ public class CameraLatency extends ActivityInstrumentationTestCase2 <Camera> {
     }
 
     @LargeTest
-    public void testImageCapture() {
+    public void testImageCapture() throws Exception {
         Log.v(TAG, "start testImageCapture test");
         Instrumentation inst = getInstrumentation();
         inst.sendKeyDownUpSync(KeyEvent.KEYCODE_DPAD_DOWN);
-        try {
-            for (int i = 0; i < TOTAL_NUMBER_OF_IMAGECAPTURE; i++) {
-                Thread.sleep(WAIT_FOR_IMAGE_CAPTURE_TO_BE_TAKEN);
-                inst.sendKeyDownUpSync(KeyEvent.KEYCODE_DPAD_CENTER);
-                Thread.sleep(WAIT_FOR_IMAGE_CAPTURE_TO_BE_TAKEN);
-                //skip the first measurement
-                if (i != 0) {
-                    Camera c = getActivity();
-                    mTotalAutoFocusTime += c.mAutoFocusTime;
-                    mTotalShutterLag += c.mShutterLag;
-                    mTotalShutterToPictureDisplayedTime +=
-                            c.mShutterToPictureDisplayedTime;
-                    mTotalPictureDisplayedToJpegCallbackTime +=
-                            c.mPictureDisplayedToJpegCallbackTime;
-                    mTotalJpegCallbackFinishTime += c.mJpegCallbackFinishTime;
-                }
+        CaptureTrace trace = CaptureTrace.instance();
+        int failed = 0;
+        for (int i = 0; i < TOTAL_NUMBER_OF_IMAGECAPTURE; i++) {
+            // Wait for the shot to be saved instead of a fixed time. A shot
+            // that does not finish is a failed capture, which the trace does
+            // not count.
+            long finished = trace.getFinishedCount();
+            inst.sendKeyDownUpSync(KeyEvent.KEYCODE_DPAD_CENTER);
+            boolean done = trace.waitForFinishedCount(finished + 1, CAPTURE_TIMEOUT);
+            inst.waitForIdleSync();
+            //skip the first measurement
+            if (i == 0) {
+                trace.reset();
+                continue;
             }
-        } catch (Exception e) {
-            Log.v(TAG, "Got exception", e);
+            if (!done) {
+                Log.e(TAG, "Capture " + i + " did not finish");
+                failed++;
+                continue;
+            }
+            Camera c = getActivity();
+            mMaxSaverHighWaterBytes = Math.max(mMaxSaverHighWaterBytes,
+                    c.mSaverHighWaterBytes);
         }
-        //ToDO: yslau
-        //1) Need to get the baseline from the cupcake so that we can add the
-        //failure condition of the camera latency.
-        //2) Only count those number with succesful capture. Set the timer to invalid
-        //before capture and ignore them if the value is invalid
-        int numberofRun = TOTAL_NUMBER_OF_IMAGECAPTURE - 1;
-        mAvgAutoFocusTime = mTotalAutoFocusTime / numberofRun;
-        mAvgShutterLag = mTotalShutterLag / numberofRun;
-        mAvgShutterToPictureDisplayedTime =
-                mTotalShutterToPictureDisplayedTime / numberofRun;
-        mAvgPictureDisplayedToJpegCallbackTime =
-                mTotalPictureDisplayedToJpegCallbackTime / numberofRun;
-        mAvgJpegCallbackFinishTime =
-                mTotalJpegCallbackFinishTime / numberofRun;
 
-        try {
-            FileWriter fstream = null;
-            fstream = new FileWriter(CAMERA_TEST_OUTPUT_FILE, true);
-            BufferedWriter out = new BufferedWriter(fstream);
-            out.write("Camera Latency : \n");
-            out.write("Number of loop: " + TOTAL_NUMBER_OF_IMAGECAPTURE + "\n");
-            out.write("Avg AutoFocus = " + mAvgAutoFocusTime + "\n");
-            out.write("Avg mShutterLag = " + mAvgShutterLag + "\n");
-            out.write("Avg mShutterToPictureDisplayedTime = "
-                    + mAvgShutterToPictureDisplayedTime + "\n");
-            out.write("Avg mPictureDisplayedToJpegCallbackTime = "
-                    + mAvgPictureDisplayedToJpegCallbackTime + "\n");
-            out.write("Avg mJpegCallbackFinishTime = " +
-                    mAvgJpegCallbackFinishTime + "\n");
-            out.close();
-            fstream.close();
-        } catch (Exception e) {
-            fail("Camera Latency write output to file");
+        // The histograms are in microseconds.
+        StressReport report = new StressReport(TAG);
+        for (int i = 0; i < SPANS.length; i++) {
+            report.addHistogram(SPAN_NAMES[i], trace.getHistogram(SPANS[i]), failed);
         }
-        Log.v(TAG, "The Image capture wait time = " +
-            WAIT_FOR_IMAGE_CAPTURE_TO_BE_TAKEN);
-        Log.v(TAG, "Avg AutoFocus = " + mAvgAutoFocusTime);
-        Log.v(TAG, "Avg mShutterLag = " + mAvgShutterLag);
-        Log.v(TAG, "Avg mShutterToPictureDisplayedTime = "
-                + mAvgShutterToPictureDisplayedTime);
-        Log.v(TAG, "Avg mPictureDisplayedToJpegCallbackTime = "
-                + mAvgPictureDisplayedToJpegCallbackTime);
-        Log.v(TAG, "Avg mJpegCallbackFinishTime = " + mAvgJpegCallbackFinishTime);
+        report.putValue("captures", TOTAL_NUMBER_OF_IMAGECAPTURE - 1);
+        report.putValue("mSaverHighWaterBytes", mMaxSaverHighWaterBytes);
+        report.write();
+        assertEquals("failed captures", 0, failed);
     }
 }
-
@@ -16,142 +16,129 @@
 
 package com.android.camera.stress;
 
+import com.android.camera.ActivityBase;
 import com.android.camera.Camera;
+import com.android.camera.StartupGraph;
 import com.android.camera.VideoCamera;
 
-import android.app.Activity;
 import android.app.Instrumentation;
 import android.content.Intent;
-import android.os.Debug;
-import android.os.Environment;
+import android.os.SystemClock;
 import android.test.InstrumentationTestCase;
 import android.test.suitebuilder.annotation.LargeTest;
 import android.util.Log;
 
-import java.io.FileWriter;
-import java.io.BufferedWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Test cases to measure the camera and video recorder startup time.
+ *
+ * For the camera, the duration of each startup phase is reported as
+ * "Phase.<task>", and the number of startups whose critical path went through
+ * a phase as "CriticalPath.<task>". The phases on the critical path of most
+ * startups are the ones to make faster.
  */
 public class CameraStartUp extends InstrumentationTestCase {
 
     private static final int TOTAL_NUMBER_OF_STARTUP = 20;
 
+    private static final long DESTROY_TIMEOUT = 5000;
+
+    private static final long SURFACE_TIMEOUT = 5000;
+
     private String TAG = "CameraStartUp";
-    private static final String CAMERA_TEST_OUTPUT_FILE =
-            Environment.getExternalStorageDirectory().toString() + "/mediaStressOut.txt";
-    private static int WAIT_TIME_FOR_PREVIEW = 1500; //1.5 second
 
-    private long launchCamera() {
-        long startupTime = 0;
+    // Returns the time for the activity to start, or -1 if it failed.
+    private long launch(Class<? extends ActivityBase> activityClass, StressReport report,
+            Map<String, Integer> criticalPathCounts) {
         try {
             Intent intent = new Intent(Intent.ACTION_MAIN);
-            intent.setClass(getInstrumentation().getTargetContext(), Camera.class);
+            intent.setClass(getInstrumentation().getTargetContext(), activityClass);
             intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            long beforeStart = System.currentTimeMillis();
             Instrumentation inst = getInstrumentation();
-            Activity cameraActivity = inst.startActivitySync(intent);
-            long cameraStarted = System.currentTimeMillis();
-            cameraActivity.finish();
-            startupTime = cameraStarted - beforeStart;
-            Thread.sleep(1000);
-            Log.v(TAG, "camera startup time: " + startupTime);
+            long beforeStart = SystemClock.uptimeMillis();
+            final ActivityBase activity = (ActivityBase) inst.startActivitySync(intent);
+            long startupTime = SystemClock.uptimeMillis() - beforeStart;
+            Log.v(TAG, activityClass.getSimpleName() + " startup time: " + startupTime);
+            if (activity instanceof Camera) {
+                reportPhases(((Camera) activity).getStartupGraph(), report, criticalPathCounts);
+            }
+
+            // Wait for the activity to be destroyed, which releases the
+            // camera, instead of a fixed time.
+            activity.finish();
+            boolean destroyed = StressReport.waitFor(new StressReport.Condition() {
+                public boolean isTrue() {
+                    return activity.isDestroyedForTesting();
+                }
+            }, DESTROY_TIMEOUT);
+            if (!destroyed) {
+                Log.e(TAG, activityClass.getSimpleName() + " was not destroyed");
+                return -1;
+            }
+            return startupTime;
         } catch (Exception e) {
-            Log.v(TAG, "Got exception", e);
-            fail("Fails to get the output file");
+            Log.e(TAG, "Got exception", e);
+            return -1;
         }
-        return startupTime;
     }
 
-    private long launchVideo() {
-        long startupTime = 0;
+    // Waits for the preview surface, which ends the startup, and reports the
+    // duration of each phase.
+    private void reportPhases(final StartupGraph graph, StressReport report,
+            Map<String, Integer> criticalPathCounts) {
+        StressReport.waitFor(new StressReport.Condition() {
+            public boolean isTrue() {
+                return graph.isDone("surface ready");
+            }
+        }, SURFACE_TIMEOUT);
+        Log.v(TAG, graph.dump());
 
-        try {
-            Intent intent = new Intent(Intent.ACTION_MAIN);
-            intent.setClass(getInstrumentation().getTargetContext(), VideoCamera.class);
-            intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            long beforeStart = System.currentTimeMillis();
-            Instrumentation inst = getInstrumentation();
-            Activity recorderActivity = inst.startActivitySync(intent);
-            long cameraStarted = System.currentTimeMillis();
-            recorderActivity.finish();
-            startupTime = cameraStarted - beforeStart;
-            Log.v(TAG, "Video Startup Time = " + startupTime);
-            // wait for 1s to make sure it reach a clean stage
-            Thread.sleep(WAIT_TIME_FOR_PREVIEW);
-            Log.v(TAG, "video startup time: " + startupTime);
-        } catch (Exception e) {
-            Log.v(TAG, "Got exception", e);
-            fail("Fails to launch video output file");
+        for (String name : graph.getTaskNames()) {
+            long duration = graph.getDuration(name);
+            if (duration < 0) {
+                report.addInvalid("Phase." + name);
+            } else {
+                report.addMillis("Phase." + name, duration);
+            }
+        }
+        for (String name : graph.getCriticalPath()) {
+            Integer count = criticalPathCounts.get(name);
+            criticalPathCounts.put(name, count == null ? 1 : count + 1);
         }
-        return startupTime;
     }
 
-    private void writeToOutputFile(long totalStartupTime,
-            String individualStartupTime, boolean firstStartUp, String Type) throws Exception {
-        // TODO (yslau) : Need to integrate the output data with central
-        // dashboard
-        try {
-            FileWriter fstream = null;
-            fstream = new FileWriter(CAMERA_TEST_OUTPUT_FILE, true);
-            BufferedWriter out = new BufferedWriter(fstream);
-            if (firstStartUp) {
-                out.write("First " + Type + " Startup: " + totalStartupTime + "\n");
+    private void measure(Class<? extends ActivityBase> activityClass, String type)
+            throws Exception {
+        StressReport report = new StressReport(TAG + "." + type);
+        Map<String, Integer> criticalPathCounts = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < TOTAL_NUMBER_OF_STARTUP; i++) {
+            // The first startup loads the classes and the libraries, so it is
+            // reported by itself.
+            String metric = (i == 0) ? "FirstStartup" : "Startup";
+            long startupTime = launch(activityClass, report, criticalPathCounts);
+            if (startupTime < 0) {
+                report.addInvalid(metric);
             } else {
-                long averageStartupTime = totalStartupTime / (TOTAL_NUMBER_OF_STARTUP -1);
-                out.write(Type + "startup time: " + "\n");
-                out.write("Number of loop: " + (TOTAL_NUMBER_OF_STARTUP -1)  + "\n");
-                out.write(individualStartupTime + "\n\n");
-                out.write(Type + " average startup time: " + averageStartupTime + " ms\n\n");
+                report.addMillis(metric, startupTime);
             }
-            out.close();
-            fstream.close();
-        } catch (Exception e) {
-            fail("Camera write output to file");
         }
+        for (Map.Entry<String, Integer> e : criticalPathCounts.entrySet()) {
+            report.putValue("CriticalPath." + e.getKey(), e.getValue());
+        }
+        report.write();
+        assertEquals("failed startups", 0,
+                report.getInvalidCount("FirstStartup") + report.getInvalidCount("Startup"));
     }
 
     @LargeTest
     public void testLaunchVideo() throws Exception {
-        String individualStartupTime;
-        individualStartupTime = "Individual Video Startup Time = ";
-        long totalStartupTime = 0;
-        long startupTime = 0;
-        for (int i = 0; i < TOTAL_NUMBER_OF_STARTUP; i++) {
-            if (i == 0) {
-                // Capture the first startup time individually
-                long firstStartUpTime = launchVideo();
-                writeToOutputFile(firstStartUpTime, "na", true, "Video");
-            } else {
-                startupTime = launchVideo();
-                totalStartupTime += startupTime;
-                individualStartupTime += startupTime + " ,";
-            }
-        }
-        Log.v(TAG, "totalStartupTime =" + totalStartupTime);
-        writeToOutputFile(totalStartupTime, individualStartupTime, false, "Video");
+        measure(VideoCamera.class, "Video");
     }
 
     @LargeTest
     public void testLaunchCamera() throws Exception {
-        String individualStartupTime;
-        individualStartupTime = "Individual Camera Startup Time = ";
-        long totalStartupTime = 0;
-        long startupTime = 0;
-        for (int i = 0; i < TOTAL_NUMBER_OF_STARTUP; i++) {
-            if (i == 0) {
-                // Capture the first startup time individually
-                long firstStartUpTime = launchCamera();
-                writeToOutputFile(firstStartUpTime, "na", true, "Camera");
-            } else {
-                startupTime = launchCamera();
-                totalStartupTime += startupTime;
-                individualStartupTime += startupTime + " ,";
-            }
-        }
-        Log.v(TAG, "totalStartupTime =" + totalStartupTime);
-        writeToOutputFile(totalStartupTime,
-                individualStartupTime, false, "Camera");
+        measure(Camera.class, "Camera");
     }
-}
\ No newline at end of file
+}
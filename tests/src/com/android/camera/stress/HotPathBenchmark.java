@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.stress;
+
+import com.android.camera.CameraSettings;
+import com.android.camera.ComboPreferences;
+import com.android.camera.Util;
+import com.android.camera.panorama.Mosaic;
+import com.android.camera.panorama.MosaicFrameProcessor;
+
+import android.content.Context;
+import android.hardware.Camera;
+import android.hardware.Camera.Size;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import java.util.List;
+
+/**
+ * Benchmarks of the code that runs for every frame or preference lookup and
+ * needs the framework. The results are written to the stress test output
+ * file. The pure Java hot paths are benchmarked on the host, with baselines,
+ * by tests/host/run-benchmarks.sh.
+ */
+public class HotPathBenchmark extends InstrumentationTestCase {
+    private BenchmarkRunner mRunner;
+    private Context mContext;
+    private int mSink;  // keeps the results alive
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRunner = new BenchmarkRunner();
+        mContext = getInstrumentation().getTargetContext();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtil testUtil = new TestUtil();
+        testUtil.prepareOutputFile();
+        testUtil.mOut.write("Hot path benchmark (ns per operation):\n");
+        testUtil.mOut.write(mRunner.getReport());
+        testUtil.closeOutputFile();
+        super.tearDown();
+    }
+
+    @LargeTest
+    public void testOptimalPreviewSize() {
+        if (Camera.getNumberOfCameras() == 0) return;
+        Camera camera = Camera.open(0);
+        final List<Size> sizes;
+        try {
+            sizes = camera.getParameters().getSupportedPreviewSizes();
+        } finally {
+            camera.release();
+        }
+        mRunner.measure("Util.getOptimalPreviewSize", 20000, new BenchmarkRunner.Benchmark() {
+            public void run(int iterations) {
+                for (int i = 0; i < iterations; i++) {
+                    double ratio = (i & 1) == 0 ? 4.0 / 3 : 16.0 / 9;
+                    Size size = Util.getOptimalPreviewSize(sizes, ratio, 720);
+                    if (size != null) mSink += size.width;
+                }
+            }
+        });
+    }
+
+    @LargeTest
+    public void testComboPreferences() {
+        final ComboPreferences prefs = new ComboPreferences(mContext);
+        prefs.setLocalId(mContext, 0);
+        mRunner.measure("ComboPreferences.getString", 50000, new BenchmarkRunner.Benchmark() {
+            public void run(int iterations) {
+                for (int i = 0; i < iterations; i++) {
+                    // A local and a global key.
+                    mSink += prefs.getString(CameraSettings.KEY_FLASH_MODE, "auto").length();
+                    mSink += prefs.getString(CameraSettings.KEY_RECORD_LOCATION, "none").length();
+                }
+            }
+        });
+    }
+
+    @LargeTest
+    public void testTranslationRate() {
+        final MosaicFrameProcessor processor =
+                new MosaicFrameProcessor(new FakeMosaic(), 640, 480, 640 * 480 * 3 / 2);
+        mRunner.measure("MosaicFrameProcessor.calculateTranslationRate", 100000,
+                new BenchmarkRunner.Benchmark() {
+            private long mNow = 1;
+
+            public void run(int iterations) {
+                for (int i = 0; i < iterations; i++) {
+                    processor.calculateTranslationRate(mNow);
+                    mNow += 33;
+                }
+            }
+        });
+    }
+
+    // Returns a frame that moved by a few pixels, without the native mosaic.
+    private static class FakeMosaic extends Mosaic {
+        private final float[] mFrameData = new float[11];
+        private int mFrame;
+
+        @Override
+        public float[] setSourceImageFromGPU() {
+            mFrame++;
+            mFrameData[2] = mFrame * 3.5f;  // x
+            mFrameData[5] = mFrame * 0.25f;  // y
+            mFrameData[9] = mFrame % 100;  // frame count
+            mFrameData[10] = 0;  // return code
+            return mFrameData;
+        }
+    }
+}
@@ -17,11 +17,11 @@
 package com.android.camera.stress;
 
 import com.android.camera.Camera;
-import com.android.camera.VideoCamera;
-import com.android.camera.stress.CameraStressTestRunner;
+import com.android.camera.CaptureTrace;
 
 import android.app.Instrumentation;
 import android.content.Intent;
+import android.os.SystemClock;
 import android.test.ActivityInstrumentationTestCase2;
 import android.test.suitebuilder.annotation.LargeTest;
 import android.util.Log;
@@ -42,10 +42,8 @@ import android.app.Activity;
 public class ImageCapture extends ActivityInstrumentationTestCase2 <Camera> {
     private String TAG = "ImageCapture";
     private static final int TOTAL_NUMBER_OF_IMAGECAPTURE = 100;
-    private static final long WAIT_FOR_IMAGE_CAPTURE_TO_BE_TAKEN = 1500;   //1.5 sedconds
-    private static final long WAIT_FOR_SWITCH_CAMERA = 3000; //3 seconds
-
-    private TestUtil testUtil = new TestUtil();
+    // The time to take and save a picture before the capture is a failure.
+    private static final long CAPTURE_TIMEOUT = 10000;
 
     // Private intent extras.
     private final static String EXTRAS_CAMERA_FACING =
@@ -55,40 +53,31 @@ public class ImageCapture extends ActivityInstrumentationTestCase2 <Camera> {
         super(Camera.class);
     }
 
-    @Override
-    protected void setUp() throws Exception {
-        testUtil.prepareOutputFile();
-        super.setUp();
-    }
-
-    @Override
-    protected void tearDown() throws Exception {
-        testUtil.closeOutputFile();
-        super.tearDown();
-    }
-
-    public void captureImages(String reportTag, Instrumentation inst) {
+    public void captureImages(String reportName, Instrumentation inst) throws Exception {
         int total_num_of_images = CameraStressTestRunner.mImageIterations;
         Log.v(TAG, "no of images = " + total_num_of_images);
 
-        //TODO(yslau): Need to integrate the outoput with the central dashboard,
-        //write to a txt file as a temp solution
-        boolean memoryResult = false;
+        StressReport report = new StressReport(TAG + "." + reportName);
         KeyEvent focusEvent = new KeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_FOCUS);
-
-        try {
-            testUtil.writeReportHeader(reportTag, total_num_of_images);
-            for (int i = 0; i < total_num_of_images; i++) {
-                Thread.sleep(WAIT_FOR_IMAGE_CAPTURE_TO_BE_TAKEN);
-                inst.sendKeySync(focusEvent);
-                inst.sendCharacterSync(KeyEvent.KEYCODE_CAMERA);
-                Thread.sleep(WAIT_FOR_IMAGE_CAPTURE_TO_BE_TAKEN);
-                testUtil.writeResult(i);
+        CaptureTrace trace = CaptureTrace.instance();
+        for (int i = 0; i < total_num_of_images; i++) {
+            // Wait for the picture to be saved instead of a fixed time. A
+            // picture that is not saved in time is a failed capture.
+            long finished = trace.getFinishedCount();
+            long start = SystemClock.uptimeMillis();
+            inst.sendKeySync(focusEvent);
+            inst.sendCharacterSync(KeyEvent.KEYCODE_CAMERA);
+            if (trace.waitForFinishedCount(finished + 1, CAPTURE_TIMEOUT)) {
+                report.addMillis("Capture", SystemClock.uptimeMillis() - start);
+            } else {
+                Log.e(TAG, "Capture " + i + " did not finish");
+                report.addInvalid("Capture");
             }
-        } catch (Exception e) {
-            Log.v(TAG, "Got exception: " + e.toString());
-            assertTrue("testImageCapture", false);
+            inst.waitForIdleSync();
         }
+        report.putValue("captures", total_num_of_images);
+        report.write();
+        assertEquals("failed captures", 0, report.getInvalidCount("Capture"));
     }
 
     @LargeTest
@@ -101,8 +90,8 @@ public class ImageCapture extends ActivityInstrumentationTestCase2 <Camera> {
         intent.putExtra(EXTRAS_CAMERA_FACING,
                 android.hardware.Camera.CameraInfo.CAMERA_FACING_BACK);
         Activity act = inst.startActivitySync(intent);
-        Thread.sleep(WAIT_FOR_SWITCH_CAMERA);
-        captureImages("Back Camera Image Capture\n", inst);
+        inst.waitForIdleSync();
+        captureImages("Back", inst);
         act.finish();
     }
 
@@ -116,8 +105,8 @@ public class ImageCapture extends ActivityInstrumentationTestCase2 <Camera> {
         intent.putExtra(EXTRAS_CAMERA_FACING,
                 android.hardware.Camera.CameraInfo.CAMERA_FACING_FRONT);
         Activity act = inst.startActivitySync(intent);
-        Thread.sleep(WAIT_FOR_SWITCH_CAMERA);
-        captureImages("Front Camera Image Capture\n", inst);
+        inst.waitForIdleSync();
+        captureImages("Front", inst);
         act.finish();
     }
 }
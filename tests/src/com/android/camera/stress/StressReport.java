@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.stress;
+
+import com.android.camera.LatencyHistogram;
+
+import android.os.Build;
+import android.os.Environment;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The results of a stress test, written as JSON for the continuous
+ * integration: the device and the build, and for each metric the number of
+ * valid and invalid samples and the percentiles of the valid ones.
+ *
+ * An invalid sample is an iteration that failed or timed out. It is counted
+ * but not added to the percentiles, so a failed capture does not look like a
+ * fast one.
+ *
+ * The report of a test replaces the previous one in
+ * /sdcard/cameraStressResults/<test>.json.
+ */
+public class StressReport {
+    private static final String TAG = "StressReport";
+    private static final String DIRECTORY =
+            Environment.getExternalStorageDirectory().toString() + "/cameraStressResults";
+    private static final float[] PERCENTILES = {50, 90, 99};
+
+    private static class Metric {
+        final LatencyHistogram mHistogram;  // in microseconds
+        long mInvalid;
+
+        Metric(LatencyHistogram histogram) {
+            mHistogram = histogram;
+        }
+    }
+
+    /** A condition polled by waitFor(). */
+    public interface Condition {
+        boolean isTrue();
+    }
+
+    private final String mTest;
+    private final LinkedHashMap<String, Metric> mMetrics = new LinkedHashMap<String, Metric>();
+    private final LinkedHashMap<String, Long> mValues = new LinkedHashMap<String, Long>();
+
+    public StressReport(String test) {
+        mTest = test;
+    }
+
+    /** Adds a valid sample in milliseconds. */
+    public void addMillis(String metric, long millis) {
+        getMetric(metric).mHistogram.record(millis * 1000);
+    }
+
+    /** Counts a failed or timed out sample. */
+    public void addInvalid(String metric) {
+        getMetric(metric).mInvalid++;
+    }
+
+    /** Adds a metric whose samples are in a histogram in microseconds. */
+    public void addHistogram(String metric, LatencyHistogram histogram, long invalid) {
+        Metric m = new Metric(new LatencyHistogram(histogram));
+        m.mInvalid = invalid;
+        mMetrics.put(metric, m);
+    }
+
+    /** Adds a value that is not a latency, e.g. a byte count. */
+    public void putValue(String name, long value) {
+        mValues.put(name, value);
+    }
+
+    public long getInvalidCount(String metric) {
+        Metric m = mMetrics.get(metric);
+        return m == null ? 0 : m.mInvalid;
+    }
+
+    /** Writes the report. */
+    public void write() throws IOException, JSONException {
+        JSONObject root = new JSONObject();
+        root.put("test", mTest);
+        root.put("device", Build.DEVICE);
+        root.put("model", Build.MODEL);
+        root.put("build", Build.FINGERPRINT);
+        root.put("time", System.currentTimeMillis());
+
+        JSONObject metrics = new JSONObject();
+        for (Map.Entry<String, Metric> e : mMetrics.entrySet()) {
+            LatencyHistogram h = e.getValue().mHistogram;
+            JSONObject m = new JSONObject();
+            m.put("count", h.getCount());
+            m.put("invalid", e.getValue().mInvalid);
+            m.put("mean_ms", toMillis(h.getMean()));
+            for (float percent : PERCENTILES) {
+                m.put("p" + (int) percent + "_ms", toMillis(h.getPercentile(percent)));
+            }
+            m.put("max_ms", toMillis(h.getMax()));
+            metrics.put(e.getKey(), m);
+        }
+        root.put("metrics", metrics);
+
+        JSONObject values = new JSONObject();
+        for (Map.Entry<String, Long> e : mValues.entrySet()) {
+            values.put(e.getKey(), e.getValue().longValue());
+        }
+        root.put("values", values);
+
+        new File(DIRECTORY).mkdirs();
+        FileWriter out = new FileWriter(DIRECTORY + "/" + mTest + ".json");
+        try {
+            out.write(root.toString(2));
+            out.write("\n");
+        } finally {
+            out.close();
+        }
+        Log.v(TAG, mTest + ": " + root.toString());
+    }
+
+    /**
+     * Polls the condition until it is true. Returns false if it is still
+     * false after the timeout.
+     */
+    public static boolean waitFor(Condition condition, long timeoutMs) {
+        long deadline = SystemClock.uptimeMillis() + timeoutMs;
+        while (!condition.isTrue()) {
+            if (SystemClock.uptimeMillis() >= deadline) return false;
+            SystemClock.sleep(10);
+        }
+        return true;
+    }
+
+    private Metric getMetric(String name) {
+        Metric m = mMetrics.get(name);
+        if (m == null) {
+            m = new Metric(new LatencyHistogram());
+            mMetrics.put(name, m);
+        }
+        return m;
+    }
+
+    private static double toMillis(long micros) {
+        return micros / 1000.0;
+    }
+}
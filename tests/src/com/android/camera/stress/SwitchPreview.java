@@ -19,15 +19,12 @@ package com.android.camera.stress;
 import com.android.camera.Camera;
 import com.android.camera.VideoCamera;
 
+import android.app.Activity;
 import android.app.Instrumentation;
 import android.content.Intent;
+import android.os.SystemClock;
 import android.test.ActivityInstrumentationTestCase2;
 import android.test.suitebuilder.annotation.LargeTest;
-import android.os.Environment;
-import android.util.Log;
-
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 
 /**
  * Junit / Instrumentation test case for camera test
@@ -42,12 +39,7 @@ import java.io.FileWriter;
 public class SwitchPreview extends ActivityInstrumentationTestCase2 <VideoCamera>{
     private String TAG = "SwitchPreview";
     private static final int TOTAL_NUMBER_OF_SWITCHING = 200;
-    private static final long WAIT_FOR_PREVIEW = 4000;
-
-    private static final String CAMERA_TEST_OUTPUT_FILE =
-            Environment.getExternalStorageDirectory().toString() + "/mediaStressOut.txt";
-    private BufferedWriter mOut;
-    private FileWriter mfstream;
+    private static final long SWITCH_TIMEOUT = 10000;
 
     public SwitchPreview() {
         super(VideoCamera.class);
@@ -56,62 +48,56 @@ public class SwitchPreview extends ActivityInstrumentationTestCase2 <VideoCamera
     @Override
     protected void setUp() throws Exception {
         getActivity();
-        prepareOutputFile();
         super.setUp();
     }
 
     @Override
     protected void tearDown() throws Exception {
         getActivity().finish();
-        closeOutputFile();
         super.tearDown();
     }
 
-    private void prepareOutputFile(){
-        try{
-            mfstream = new FileWriter(CAMERA_TEST_OUTPUT_FILE, true);
-            mOut = new BufferedWriter(mfstream);
-        } catch (Exception e){
-            assertTrue("Camera Switch Mode", false);
-        }
-    }
-
-    private void closeOutputFile() {
+    // Starts the activity and waits for it to be created and idle. Returns
+    // the time it took, or -1 if the activity did not start.
+    private long switchTo(Class<? extends Activity> to) {
+        Instrumentation inst = getInstrumentation();
+        Instrumentation.ActivityMonitor monitor = inst.addMonitor(to.getName(), null, false);
         try {
-            mOut.write("\n");
-            mOut.close();
-            mfstream.close();
-        } catch (Exception e) {
-            assertTrue("CameraSwitchMode close output", false);
+            Intent intent = new Intent();
+            // The activity started before is finished by the switch, so
+            // start from the context, in the task of the camera.
+            intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_NEW_TASK);
+            intent.setClass(inst.getTargetContext(), to);
+            long start = SystemClock.uptimeMillis();
+            inst.getTargetContext().startActivity(intent);
+            Activity activity = monitor.waitForActivityWithTimeout(SWITCH_TIMEOUT);
+            if (activity == null) return -1;
+            inst.waitForIdleSync();
+            return SystemClock.uptimeMillis() - start;
+        } finally {
+            inst.removeMonitor(monitor);
         }
     }
 
     @LargeTest
-    public void testSwitchMode() {
+    public void testSwitchMode() throws Exception {
         //Switching the video and the video recorder mode
-        Instrumentation inst = getInstrumentation();
-        try{
-            mOut.write("Camera Switch Mode:\n");
-            mOut.write("No of loops :" + TOTAL_NUMBER_OF_SWITCHING + "\n");
-            mOut.write("loop: ");
-            for (int i=0; i< TOTAL_NUMBER_OF_SWITCHING; i++) {
-                Thread.sleep(WAIT_FOR_PREVIEW);
-                Intent intent = new Intent();
-                intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-                intent.setClass(getInstrumentation().getTargetContext(),
-                        VideoCamera.class);
-                getActivity().startActivity(intent);
-                Thread.sleep(WAIT_FOR_PREVIEW);
-                intent = new Intent();
-                intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-                intent.setClass(getInstrumentation().getTargetContext(),
-                        Camera.class);
-                getActivity().startActivity(intent);
-                mOut.write(" ," + i);
-                mOut.flush();
-            }
-        } catch (Exception e){
-            Log.v(TAG, "Got exception", e);
+        StressReport report = new StressReport(TAG);
+        for (int i = 0; i < TOTAL_NUMBER_OF_SWITCHING; i++) {
+            record(report, "SwitchToVideo", switchTo(VideoCamera.class));
+            record(report, "SwitchToCamera", switchTo(Camera.class));
+        }
+        report.putValue("switches", TOTAL_NUMBER_OF_SWITCHING);
+        report.write();
+        assertEquals("failed switches", 0, report.getInvalidCount("SwitchToVideo")
+                + report.getInvalidCount("SwitchToCamera"));
+    }
+
+    private static void record(StressReport report, String metric, long time) {
+        if (time < 0) {
+            report.addInvalid(metric);
+        } else {
+            report.addMillis(metric, time);
         }
     }
 }
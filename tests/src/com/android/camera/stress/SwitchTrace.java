@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.stress;
+
+import com.android.camera.Camera;
+import com.android.camera.CameraHolder;
+import com.android.camera.CameraStressTestRunner;
+import com.android.camera.KeepAlivePolicy;
+import com.android.camera.VideoCamera;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Replays a trace of switches between the camera and the video camera with
+ * each keep alive policy of CameraHolder, and reports for each policy the
+ * reconnect hits and misses, the time the camera was kept without user, and
+ * the open and switch latencies.
+ *
+ * A switch is keep(), as the mode picker does, then a delay, then the start
+ * of the other activity. The delays of the default trace are typical of a
+ * user switching modes. A trace recorded on a device can be given as a file
+ * with one delay in milliseconds per line:
+ *
+ * adb shell am instrument \
+ *    -e class com.android.camera.stress.SwitchTrace \
+ *    -e switch_trace /sdcard/switchTrace.txt \
+ *    -w com.android.camera.tests/com.android.camera.CameraStressTestRunner
+ */
+public class SwitchTrace extends ActivityInstrumentationTestCase2<Camera> {
+    private static final String TAG = "SwitchTrace";
+    private static final long SWITCH_TIMEOUT = 10000;
+
+    private static final long[] DEFAULT_TRACE = {
+            0, 0, 100, 0, 300, 0, 0, 1000, 0, 2500,
+            0, 0, 4000, 0, 100, 0, 0, 6000, 0, 0};
+
+    private static final KeepAlivePolicy[] POLICIES = {
+            new KeepAlivePolicy.Never(),
+            new KeepAlivePolicy.Fixed(1000),
+            new KeepAlivePolicy.Fixed(KeepAlivePolicy.DEFAULT_KEEP_TIME),
+            new KeepAlivePolicy.Adaptive()};
+    private static final String[] POLICY_NAMES = {"Never", "Fixed1000", "Fixed3000", "Adaptive"};
+
+    private KeepAlivePolicy mOldPolicy;
+
+    public SwitchTrace() {
+        super(Camera.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        mOldPolicy = CameraHolder.instance().getKeepAlivePolicy();
+        getActivity();
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        CameraHolder.instance().setKeepAlivePolicy(mOldPolicy);
+        getActivity().finish();
+        super.tearDown();
+    }
+
+    private static long[] readTrace(String path) throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(path));
+        try {
+            ArrayList<Long> delays = new ArrayList<Long>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0) delays.add(Long.parseLong(line));
+            }
+            long[] trace = new long[delays.size()];
+            for (int i = 0; i < trace.length; i++) trace[i] = delays.get(i);
+            return trace;
+        } finally {
+            in.close();
+        }
+    }
+
+    // Starts the activity and waits for it to be idle. Returns the time it
+    // took, or -1 if the activity did not start.
+    private long switchTo(Class<? extends Activity> to, long delay) {
+        Instrumentation inst = getInstrumentation();
+        Instrumentation.ActivityMonitor monitor = inst.addMonitor(to.getName(), null, false);
+        try {
+            CameraHolder.instance().keep();
+            SystemClock.sleep(delay);
+            Intent intent = new Intent();
+            intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_NEW_TASK);
+            intent.setClass(inst.getTargetContext(), to);
+            long start = SystemClock.uptimeMillis();
+            inst.getTargetContext().startActivity(intent);
+            Activity activity = monitor.waitForActivityWithTimeout(SWITCH_TIMEOUT);
+            if (activity == null) return -1;
+            inst.waitForIdleSync();
+            return SystemClock.uptimeMillis() - start;
+        } finally {
+            inst.removeMonitor(monitor);
+        }
+    }
+
+    @LargeTest
+    public void testPolicies() throws Exception {
+        long[] trace = (CameraStressTestRunner.mSwitchTrace == null)
+                ? DEFAULT_TRACE : readTrace(CameraStressTestRunner.mSwitchTrace);
+        CameraHolder holder = CameraHolder.instance();
+        long invalid = 0;
+        for (int p = 0; p < POLICIES.length; p++) {
+            StressReport report = new StressReport(TAG + "." + POLICY_NAMES[p]);
+            holder.setKeepAlivePolicy(POLICIES[p]);
+            holder.resetStatistics();
+            for (int i = 0; i < trace.length; i++) {
+                Class<? extends Activity> to = (i % 2 == 0) ? VideoCamera.class : Camera.class;
+                long time = switchTo(to, trace[i]);
+                if (time < 0) {
+                    report.addInvalid("Switch");
+                } else {
+                    report.addMillis("Switch", time);
+                }
+            }
+            int hits = holder.getReconnectHits();
+            int misses = holder.getReconnectMisses();
+            Log.v(TAG, POLICIES[p] + ": hits=" + hits + " misses=" + misses
+                    + " hold=" + holder.getHoldTime() + "ms");
+            report.addHistogram("Open", holder.getOpenLatency(), 0);
+            report.addHistogram("Reconnect", holder.getReconnectLatency(), 0);
+            report.putValue("switches", trace.length);
+            report.putValue("hits", hits);
+            report.putValue("misses", misses);
+            report.putValue("cold_opens", holder.getColdOpens());
+            report.putValue("hold_ms", holder.getHoldTime());
+            report.write();
+            invalid += report.getInvalidCount("Switch");
+        }
+        assertEquals("failed switches", 0, invalid);
+    }
+}
@@ -16,20 +16,15 @@
 
 package com.android.camera.stress;
 
-import com.android.camera.Camera;
 import com.android.camera.VideoCamera;
-import com.android.camera.stress.TestUtil;
 
-import android.app.Activity;
 import android.app.Instrumentation;
 import android.content.Intent;
+import android.os.SystemClock;
 import android.test.ActivityInstrumentationTestCase2;
 import android.test.suitebuilder.annotation.LargeTest;
 import android.util.Log;
 import android.view.KeyEvent;
-
-import com.android.camera.stress.ImageCapture;
-import com.android.camera.stress.CameraStressTestRunner;
 /**
  * Junit / Instrumentation test case for camera test
  *
@@ -43,75 +38,84 @@ import com.android.camera.stress.CameraStressTestRunner;
 
 public class VideoCapture extends ActivityInstrumentationTestCase2 <VideoCamera> {
     private String TAG = "VideoCapture";
-    private static final long WAIT_FOR_PREVIEW = 1500; //1.5 seconds
-    private static final long WAIT_FOR_SWITCH_CAMERA = 3000; //2 seconds
+    // The time for the recording to start or stop before it is a failure.
+    private static final long RECORDING_TIMEOUT = 10000;
 
     // Private intent extras which control the camera facing.
     private final static String EXTRAS_CAMERA_FACING =
         "android.intent.extras.CAMERA_FACING";
 
-    private TestUtil testUtil = new TestUtil();
-
     public VideoCapture() {
         super(VideoCamera.class);
     }
 
-    @Override
-    protected void setUp() throws Exception {
-        testUtil.prepareOutputFile();
-        super.setUp();
-    }
-
-    @Override
-    protected void tearDown() throws Exception {
-        testUtil.closeOutputFile();
-        super.tearDown();
+    // Presses the camera key and waits for the recording to start or stop.
+    // Returns the time it took, or -1 if it did not happen in time.
+    private long toggleRecording(Instrumentation inst, final VideoCamera camera,
+            final boolean recording) {
+        long start = SystemClock.uptimeMillis();
+        inst.sendCharacterSync(KeyEvent.KEYCODE_CAMERA);
+        boolean done = StressReport.waitFor(new StressReport.Condition() {
+            public boolean isTrue() {
+                return camera.isRecording() == recording;
+            }
+        }, RECORDING_TIMEOUT);
+        return done ? SystemClock.uptimeMillis() - start : -1;
     }
 
-    @LargeTest
-    public void captureVideos(String reportTag, Instrumentation inst) throws Exception{
-        boolean memoryResult = false;
+    public void captureVideos(String reportName, Instrumentation inst, VideoCamera camera)
+            throws Exception {
         int total_num_of_videos = CameraStressTestRunner.mVideoIterations;
         int video_duration = CameraStressTestRunner.mVideoDuration;
-        testUtil.writeReportHeader(reportTag, total_num_of_videos);
+        StressReport report = new StressReport(TAG + "." + reportName);
 
         for (int i = 0; i < total_num_of_videos; i++) {
-            Thread.sleep(WAIT_FOR_PREVIEW);
-            // record a video
-            inst.sendCharacterSync(KeyEvent.KEYCODE_CAMERA);
+            long time = toggleRecording(inst, camera, true);
+            if (time < 0) {
+                Log.e(TAG, "Recording " + i + " did not start");
+                report.addInvalid("StartRecording");
+                continue;
+            }
+            report.addMillis("StartRecording", time);
+            // The length of the video, not a wait for the camera.
             Thread.sleep(video_duration);
-            inst.sendCharacterSync(KeyEvent.KEYCODE_CAMERA);
-            testUtil.writeResult(i);
+            time = toggleRecording(inst, camera, false);
+            if (time < 0) {
+                Log.e(TAG, "Recording " + i + " did not stop");
+                report.addInvalid("StopRecording");
+                break;
+            }
+            report.addMillis("StopRecording", time);
+            // Wait for the video to be saved and the preview to restart.
+            inst.waitForIdleSync();
         }
+        report.putValue("videos", total_num_of_videos);
+        report.putValue("video_duration_ms", video_duration);
+        report.write();
+        assertEquals("failed recordings", 0, report.getInvalidCount("StartRecording")
+                + report.getInvalidCount("StopRecording"));
     }
 
     @LargeTest
     public void testBackVideoCapture() throws Exception {
-        Instrumentation inst = getInstrumentation();
-        Intent intent = new Intent();
-
-        intent.setClass(getInstrumentation().getTargetContext(), VideoCamera.class);
-        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-        intent.putExtra(EXTRAS_CAMERA_FACING,
-                android.hardware.Camera.CameraInfo.CAMERA_FACING_BACK);
-        Activity act = inst.startActivitySync(intent);
-        Thread.sleep(WAIT_FOR_SWITCH_CAMERA);
-        captureVideos("Back Camera Video Capture\n", inst);
-        act.finish();
+        captureVideos("Back", android.hardware.Camera.CameraInfo.CAMERA_FACING_BACK);
     }
 
     @LargeTest
     public void testFrontVideoCapture() throws Exception {
+        captureVideos("Front", android.hardware.Camera.CameraInfo.CAMERA_FACING_FRONT);
+    }
+
+    private void captureVideos(String reportName, int facing) throws Exception {
         Instrumentation inst = getInstrumentation();
         Intent intent = new Intent();
 
         intent.setClass(getInstrumentation().getTargetContext(), VideoCamera.class);
         intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-        intent.putExtra(EXTRAS_CAMERA_FACING,
-                android.hardware.Camera.CameraInfo.CAMERA_FACING_FRONT);
-        Activity act = inst.startActivitySync(intent);
-        Thread.sleep(WAIT_FOR_SWITCH_CAMERA);
-        captureVideos("Front Camera Video Capture\n", inst);
+        intent.putExtra(EXTRAS_CAMERA_FACING, facing);
+        VideoCamera act = (VideoCamera) inst.startActivitySync(intent);
+        inst.waitForIdleSync();
+        captureVideos(reportName, inst, act);
         act.finish();
     }
 }
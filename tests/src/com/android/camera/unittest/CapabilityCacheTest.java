@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.CapabilityCache;
+
+import android.hardware.Camera.CameraInfo;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+@SmallTest
+public class CapabilityCacheTest extends TestCase {
+    private static CameraInfo newInfo(int facing, int orientation) {
+        CameraInfo info = new CameraInfo();
+        info.facing = facing;
+        info.orientation = orientation;
+        return info;
+    }
+
+    public void testEncodeDecode() {
+        CameraInfo[] info = {
+                newInfo(CameraInfo.CAMERA_FACING_BACK, 90),
+                newInfo(CameraInfo.CAMERA_FACING_FRONT, 270)};
+        String s = CapabilityCache.encodeCameraInfo(info);
+        assertEquals("0,90;1,270", s);
+        CameraInfo[] decoded = CapabilityCache.decodeCameraInfo(s);
+        assertEquals(2, decoded.length);
+        assertTrue(CapabilityCache.equals(info, decoded));
+    }
+
+    public void testNoCamera() {
+        CameraInfo[] decoded = CapabilityCache.decodeCameraInfo(
+                CapabilityCache.encodeCameraInfo(new CameraInfo[0]));
+        assertEquals(0, decoded.length);
+    }
+
+    public void testMalformed() {
+        assertNull(CapabilityCache.decodeCameraInfo(null));
+        assertNull(CapabilityCache.decodeCameraInfo("0,90;1"));
+        assertNull(CapabilityCache.decodeCameraInfo("0,90;x,270"));
+    }
+
+    public void testEquals() {
+        CameraInfo[] a = {newInfo(CameraInfo.CAMERA_FACING_BACK, 90)};
+        CameraInfo[] b = {newInfo(CameraInfo.CAMERA_FACING_BACK, 0)};
+        assertFalse(CapabilityCache.equals(a, b));
+        assertFalse(CapabilityCache.equals(a, new CameraInfo[0]));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.Exif;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+@SmallTest
+public class ExifTest extends TestCase {
+    // The offset of the TIFF header in the jpegs built by buildJpeg().
+    private static final int TIFF_OFFSET = 12;
+
+    // A big-endian EXIF with the orientation in IFD0 and a four-byte jpeg
+    // thumbnail in IFD1.
+    private static final int[] TIFF = {
+        0x4D, 0x4D, 0x00, 0x2A, 0x00, 0x00, 0x00, 0x08,
+        // IFD0: orientation = 6.
+        0x00, 0x01,
+        0x01, 0x12, 0x00, 0x03, 0x00, 0x00, 0x00, 0x01, 0x00, 0x06, 0x00, 0x00,
+        0x00, 0x00, 0x00, 0x1A,
+        // IFD1: JPEGInterchangeFormat = 56, JPEGInterchangeFormatLength = 4.
+        0x00, 0x02,
+        0x02, 0x01, 0x00, 0x04, 0x00, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x38,
+        0x02, 0x02, 0x00, 0x04, 0x00, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x04,
+        0x00, 0x00, 0x00, 0x00,
+        // The thumbnail.
+        0xFF, 0xD8, 0xFF, 0xD9,
+    };
+
+    public void testGetOrientation() {
+        assertEquals(90, Exif.getOrientation(buildJpeg(TIFF)));
+        assertEquals(0, Exif.getOrientation(new byte[] {(byte) 0xFF, (byte) 0xD8}));
+    }
+
+    public void testGetThumbnailRange() {
+        int[] range = new int[2];
+        assertTrue(Exif.getThumbnailRange(buildJpeg(TIFF), range));
+        assertEquals(TIFF_OFFSET + 56, range[0]);
+        assertEquals(4, range[1]);
+    }
+
+    public void testGetThumbnailRangeOutOfSegment() {
+        int[] tiff = TIFF.clone();
+        tiff[51] = 0x40;  // JPEGInterchangeFormatLength = 64
+        assertFalse(Exif.getThumbnailRange(buildJpeg(tiff), new int[2]));
+    }
+
+    public void testGetThumbnailRangeWithoutIfd1() {
+        int[] tiff = TIFF.clone();
+        tiff[25] = 0x00;  // No next IFD.
+        assertFalse(Exif.getThumbnailRange(buildJpeg(tiff), new int[2]));
+        assertFalse(Exif.getThumbnailRange(null, new int[2]));
+    }
+
+    public void testIndex() {
+        checkIndex(false);
+        checkIndex(true);
+    }
+
+    private void checkIndex(boolean littleEndian) {
+        byte[] jpeg = ExifTestData.buildJpeg(littleEndian, 270, 1024);
+        Exif exif = new Exif();
+        assertTrue(exif.parse(jpeg));
+        assertEquals(littleEndian, exif.isLittleEndian());
+        assertEquals(270, exif.getOrientation());
+        assertEquals(Exif.getOrientation(jpeg), exif.getOrientation());
+        assertEquals(ExifTestData.WIDTH, exif.getImageWidth());
+        assertEquals(ExifTestData.HEIGHT, exif.getImageHeight());
+
+        Calendar c = new GregorianCalendar(2012, Calendar.JUNE, 1, 12, 34, 56);
+        assertEquals(c.getTimeInMillis(), exif.getDateTime());
+
+        double[] latLong = new double[2];
+        assertTrue(exif.getLatLong(latLong));
+        assertEquals(ExifTestData.LATITUDE, latLong[0], 1e-9);
+        assertEquals(ExifTestData.LONGITUDE, latLong[1], 1e-9);
+
+        int[] range = new int[2];
+        assertTrue(Exif.getThumbnailRange(jpeg, range));
+        assertEquals(range[0], exif.getThumbnailOffset());
+        assertEquals(ExifTestData.THUMBNAIL_LENGTH, exif.getThumbnailLength());
+
+        int i = exif.find(Exif.IFD_0, Exif.TAG_MAKE);
+        assertTrue(i >= 0);
+        assertEquals(Exif.TYPE_ASCII, exif.getType(i));
+        assertEquals("Android".length() + 1, exif.getCount(i));
+        assertEquals('A', jpeg[exif.getValueOffset(i)]);
+        assertEquals(-1, exif.find(Exif.IFD_1, Exif.TAG_MAKE));
+
+        i = exif.find(Exif.IFD_INTEROP, 0x0001);
+        assertTrue(i >= 0);
+        assertEquals('R', jpeg[exif.getValueOffset(i)]);
+    }
+
+    public void testIndexReuse() {
+        Exif exif = new Exif();
+        assertTrue(exif.parse(ExifTestData.buildJpeg(false, 90, 0)));
+        assertEquals(90, exif.getOrientation());
+        assertFalse(exif.parse(new byte[] {(byte) 0xFF, (byte) 0xD8}));
+        assertEquals(0, exif.getEntryCount());
+        assertEquals(0, exif.getOrientation());
+        assertEquals(-1, exif.getThumbnailOffset());
+        assertEquals(-1, exif.getDateTime());
+        assertFalse(exif.getLatLong(new double[2]));
+    }
+
+    // Returns SOI, an EXIF APP1 segment with the given TIFF data, and EOI.
+    private static byte[] buildJpeg(int[] tiff) {
+        int length = 8 + tiff.length;
+        byte[] jpeg = new byte[TIFF_OFFSET + tiff.length + 2];
+        int[] header = {0xFF, 0xD8, 0xFF, 0xE1, length >> 8, length & 0xFF,
+                'E', 'x', 'i', 'f', 0x00, 0x00};
+        for (int i = 0; i < header.length; i++) jpeg[i] = (byte) header[i];
+        for (int i = 0; i < tiff.length; i++) jpeg[TIFF_OFFSET + i] = (byte) tiff[i];
+        jpeg[jpeg.length - 2] = (byte) 0xFF;
+        jpeg[jpeg.length - 1] = (byte) 0xD9;
+        return jpeg;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+
+/**
+ * Builds jpegs with EXIF data like the ones from a camera HAL: IFD0 with the
+ * make, model, orientation and date, an Exif IFD with a MakerNote and an
+ * interoperability IFD, a GPS IFD, and IFD1 with a jpeg thumbnail. The
+ * picture itself is not valid.
+ */
+public class ExifTestData {
+    public static final int WIDTH = 3264;
+    public static final int HEIGHT = 2448;
+    public static final String DATE_TIME = "2012:06:01 12:34:56";
+    // 37 deg 25' 19.2" S, 122 deg 5' 2.4" W.
+    public static final double LATITUDE = -(37 + 25 / 60.0 + 19.2 / 3600);
+    public static final double LONGITUDE = -(122 + 5 / 60.0 + 2.4 / 3600);
+    public static final int THUMBNAIL_LENGTH = 4096;
+    // The number of extra tags in the Exif IFD, like exposure and flash.
+    public static final int EXTRA_EXIF_TAGS = 24;
+    // The MakerNote starts with the offset of its second half from the TIFF
+    // header, like the vendor notes that use offsets relative to the header.
+    public static final int MAKER_NOTE_LENGTH = 64;
+    public static final String INTEROP_INDEX = "R98";
+
+    private static class Entry {
+        int tag;
+        int type;
+        int count;
+        byte[] value;  // in the byte order of the TIFF data
+        Ifd pointer;  // the IFD this entry points to, if any
+
+        Entry(int tag, int type, int count, byte[] value) {
+            this.tag = tag;
+            this.type = type;
+            this.count = count;
+            this.value = value;
+        }
+    }
+
+    private static class Ifd {
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        int offset;  // relative to the TIFF header
+
+        int getSize() {
+            int size = 2 + entries.size() * 12 + 4;
+            for (Entry e : entries) {
+                if (e.value.length > 4) size += e.value.length;
+            }
+            return size;
+        }
+    }
+
+    private final boolean mLittleEndian;
+
+    private ExifTestData(boolean littleEndian) {
+        mLittleEndian = littleEndian;
+    }
+
+    // Returns a jpeg with the given orientation in degrees.
+    public static byte[] buildJpeg(boolean littleEndian, int orientation, int pictureBytes) {
+        return new ExifTestData(littleEndian).build(orientation, pictureBytes);
+    }
+
+    private byte[] build(int orientation, int pictureBytes) {
+        Ifd ifd0 = new Ifd();
+        Ifd exif = new Ifd();
+        Ifd gps = new Ifd();
+        Ifd ifd1 = new Ifd();
+        Ifd interop = new Ifd();
+
+        ifd0.entries.add(longEntry(0x0100, WIDTH));
+        ifd0.entries.add(longEntry(0x0101, HEIGHT));
+        ifd0.entries.add(asciiEntry(0x010F, "Android"));
+        ifd0.entries.add(asciiEntry(0x0110, "Camera"));
+        ifd0.entries.add(shortEntry(0x0112, toExifOrientation(orientation)));
+        ifd0.entries.add(asciiEntry(0x0132, DATE_TIME));
+        ifd0.entries.add(pointerEntry(0x8769, exif));
+        ifd0.entries.add(pointerEntry(0x8825, gps));
+
+        exif.entries.add(asciiEntry(0x9003, DATE_TIME));
+        for (int i = 0; i < EXTRA_EXIF_TAGS; i++) {
+            exif.entries.add(shortEntry(0x9200 + i, i));
+        }
+        byte[] makerNote = new byte[MAKER_NOTE_LENGTH];
+        for (int i = 4; i < MAKER_NOTE_LENGTH; i++) makerNote[i] = (byte) i;
+        exif.entries.add(new Entry(0x927C, 7, MAKER_NOTE_LENGTH, makerNote));
+        exif.entries.add(longEntry(0xA002, WIDTH));
+        exif.entries.add(longEntry(0xA003, HEIGHT));
+        exif.entries.add(pointerEntry(0xA005, interop));
+
+        interop.entries.add(asciiEntry(0x0001, INTEROP_INDEX));
+        interop.entries.add(new Entry(0x0002, 7, 4, new byte[] {'0', '1', '0', '0'}));
+
+        gps.entries.add(asciiEntry(0x0001, "S"));
+        gps.entries.add(rationalEntry(0x0002, new int[] {37, 1, 25, 1, 192, 10}));
+        gps.entries.add(asciiEntry(0x0003, "W"));
+        gps.entries.add(rationalEntry(0x0004, new int[] {122, 1, 5, 1, 24, 10}));
+
+        ifd1.entries.add(shortEntry(0x0103, 6));
+        Entry thumbnailOffset = longEntry(0x0201, 0);
+        ifd1.entries.add(thumbnailOffset);
+        ifd1.entries.add(longEntry(0x0202, THUMBNAIL_LENGTH));
+
+        // Lay out the IFDs after the 8-byte header, then the thumbnail.
+        Ifd[] ifds = {ifd0, exif, gps, interop, ifd1};
+        int offset = 8;
+        for (Ifd ifd : ifds) {
+            ifd.offset = offset;
+            offset += ifd.getSize();
+        }
+        int thumbnail = offset;
+        thumbnailOffset.value = int32(thumbnail);
+
+        ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+        write(tiff, mLittleEndian ? new byte[] {'I', 'I', 0x2A, 0}
+                : new byte[] {'M', 'M', 0, 0x2A});
+        write(tiff, int32(8));
+        for (Ifd ifd : ifds) {
+            writeIfd(tiff, ifd, ifd == ifd0 ? ifd1.offset : 0);
+        }
+        byte[] thumb = new byte[THUMBNAIL_LENGTH];
+        thumb[0] = (byte) 0xFF;
+        thumb[1] = (byte) 0xD8;
+        thumb[THUMBNAIL_LENGTH - 2] = (byte) 0xFF;
+        thumb[THUMBNAIL_LENGTH - 1] = (byte) 0xD9;
+        write(tiff, thumb);
+
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        int length = 2 + 6 + tiff.size();
+        write(jpeg, new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE1,
+                (byte) (length >> 8), (byte) length, 'E', 'x', 'i', 'f', 0, 0});
+        write(jpeg, tiff.toByteArray());
+        write(jpeg, new byte[] {(byte) 0xFF, (byte) 0xDA});
+        write(jpeg, new byte[pictureBytes]);
+        write(jpeg, new byte[] {(byte) 0xFF, (byte) 0xD9});
+        return jpeg.toByteArray();
+    }
+
+    private void writeIfd(ByteArrayOutputStream out, Ifd ifd, int next) {
+        write(out, int16(ifd.entries.size()));
+        int data = ifd.offset + 2 + ifd.entries.size() * 12 + 4;
+        for (Entry e : ifd.entries) {
+            if (e.pointer != null) e.value = int32(e.pointer.offset);
+            write(out, int16(e.tag));
+            write(out, int16(e.type));
+            write(out, int32(e.count));
+            if (e.value.length > 4) {
+                if (e.tag == 0x927C) {
+                    System.arraycopy(int32(data + MAKER_NOTE_LENGTH / 2), 0, e.value, 0, 4);
+                }
+                write(out, int32(data));
+                data += e.value.length;
+            } else {
+                byte[] inline = new byte[4];
+                System.arraycopy(e.value, 0, inline, 0, e.value.length);
+                write(out, inline);
+            }
+        }
+        write(out, int32(next));
+        for (Entry e : ifd.entries) {
+            if (e.value.length > 4) write(out, e.value);
+        }
+    }
+
+    private Entry shortEntry(int tag, int value) {
+        return new Entry(tag, 3, 1, int16(value));
+    }
+
+    private Entry longEntry(int tag, int value) {
+        return new Entry(tag, 4, 1, int32(value));
+    }
+
+    private Entry pointerEntry(int tag, Ifd ifd) {
+        Entry e = longEntry(tag, 0);
+        e.pointer = ifd;
+        return e;
+    }
+
+    private Entry asciiEntry(int tag, String value) {
+        byte[] bytes = new byte[value.length() + 1];
+        for (int i = 0; i < value.length(); i++) bytes[i] = (byte) value.charAt(i);
+        return new Entry(tag, 2, bytes.length, bytes);
+    }
+
+    private Entry rationalEntry(int tag, int[] values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int v : values) write(out, int32(v));
+        return new Entry(tag, 5, values.length / 2, out.toByteArray());
+    }
+
+    private byte[] int16(int value) {
+        return mLittleEndian ? new byte[] {(byte) value, (byte) (value >> 8)}
+                : new byte[] {(byte) (value >> 8), (byte) value};
+    }
+
+    private byte[] int32(int value) {
+        return mLittleEndian
+                ? new byte[] {(byte) value, (byte) (value >> 8),
+                        (byte) (value >> 16), (byte) (value >> 24)}
+                : new byte[] {(byte) (value >> 24), (byte) (value >> 16),
+                        (byte) (value >> 8), (byte) value};
+    }
+
+    private static void write(ByteArrayOutputStream out, byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static int toExifOrientation(int degrees) {
+        switch (degrees) {
+            case 90:
+                return 6;
+            case 180:
+                return 3;
+            case 270:
+                return 8;
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.Exif;
+import com.android.camera.ExifWriter;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+@SmallTest
+public class ExifWriterTest extends TestCase {
+    private static final double LATITUDE = 25.0375;
+    private static final double LONGITUDE = 121.5625;
+
+    public void testPatchInPlace() {
+        checkPatchInPlace(false);
+        checkPatchInPlace(true);
+    }
+
+    private void checkPatchInPlace(boolean littleEndian) {
+        byte[] jpeg = ExifTestData.buildJpeg(littleEndian, 90, 1024);
+        int length = jpeg.length;
+        ExifWriter writer = new ExifWriter();
+        writer.setOrientation(180);
+        writer.setDateTime(getTime());
+        writer.setMake("Samsung");
+        writer.setModel("Model1");
+
+        ByteBuffer[] buffers = writer.write(jpeg);
+        assertEquals(1, buffers.length);
+        assertSame(jpeg, buffers[0].array());
+        assertEquals(length, buffers[0].remaining());
+
+        Exif exif = new Exif();
+        assertTrue(exif.parse(jpeg));
+        assertEquals(180, exif.getOrientation());
+        assertEquals(getTime(), exif.getDateTime());
+        assertEquals("Samsung", getAscii(exif, jpeg, Exif.TAG_MAKE));
+        assertEquals(ExifTestData.THUMBNAIL_LENGTH, exif.getThumbnailLength());
+    }
+
+    public void testRebuild() {
+        checkRebuild(false);
+        checkRebuild(true);
+    }
+
+    private void checkRebuild(boolean littleEndian) {
+        byte[] jpeg = ExifTestData.buildJpeg(littleEndian, 90, 1024);
+        ExifWriter writer = new ExifWriter();
+        writer.setOrientation(270);
+        writer.setMake("A longer make");
+        writer.setLocation(LATITUDE, LONGITUDE);
+
+        byte[] result = join(writer.write(jpeg));
+        Exif exif = new Exif();
+        assertTrue(exif.parse(result));
+        assertEquals(littleEndian, exif.isLittleEndian());
+        assertEquals(270, exif.getOrientation());
+        assertEquals("A longer make", getAscii(exif, result, Exif.TAG_MAKE));
+        assertEquals("Camera", getAscii(exif, result, Exif.TAG_MODEL));
+        assertEquals(ExifTestData.WIDTH, exif.getImageWidth());
+        assertEquals(ExifTestData.HEIGHT, exif.getImageHeight());
+        assertEquals(ExifTestData.EXTRA_EXIF_TAGS - 1,
+                exif.getInt(Exif.IFD_EXIF, 0x9200 + ExifTestData.EXTRA_EXIF_TAGS - 1, -1));
+        checkLocation(exif);
+
+        // The thumbnail and the rest of the jpeg are kept.
+        assertEquals(ExifTestData.THUMBNAIL_LENGTH, exif.getThumbnailLength());
+        int thumbnail = exif.getThumbnailOffset();
+        assertEquals((byte) 0xFF, result[thumbnail]);
+        assertEquals((byte) 0xD8, result[thumbnail + 1]);
+        assertEquals((byte) 0xD9, result[thumbnail + ExifTestData.THUMBNAIL_LENGTH - 1]);
+        int tail = exif.getTiffOffset() + exif.getTiffLength();
+        assertEquals(2 + 1024 + 2, result.length - tail);  // SOS, data, EOI
+        assertEquals((byte) 0xDA, result[tail + 1]);
+    }
+
+    public void testRebuildKeepsMakerNoteAndInterop() {
+        checkRebuildKeepsMakerNoteAndInterop(false);
+        checkRebuildKeepsMakerNoteAndInterop(true);
+    }
+
+    private void checkRebuildKeepsMakerNoteAndInterop(boolean littleEndian) {
+        byte[] jpeg = ExifTestData.buildJpeg(littleEndian, 90, 1024);
+        Exif exif = new Exif();
+        assertTrue(exif.parse(jpeg));
+        int makerNote = getMakerNoteOffset(exif);
+
+        ExifWriter writer = new ExifWriter();
+        writer.setMake("A longer make");
+        writer.setLocation(LATITUDE, LONGITUDE);
+        writer.setUserComment("A comment that makes the Exif IFD larger");
+        byte[] result = join(writer.write(jpeg));
+        assertTrue(exif.parse(result));
+        assertEquals("A longer make", getAscii(exif, result, Exif.TAG_MAKE));
+        checkLocation(exif);
+
+        // The MakerNote is at the same offset from the TIFF header, so the
+        // offset at its start still points to its second half.
+        assertEquals(makerNote, getMakerNoteOffset(exif));
+        int value = exif.getTiffOffset() + makerNote;
+        int half = ExifTestData.MAKER_NOTE_LENGTH / 2;
+        assertEquals(makerNote + half, ByteBuffer.wrap(result, value, 4)
+                .order(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN)
+                .getInt());
+        assertEquals((byte) half, result[value + half]);
+
+        // The interoperability IFD is kept.
+        int i = exif.find(Exif.IFD_INTEROP, 0x0001);
+        assertTrue(i >= 0);
+        assertEquals(ExifTestData.INTEROP_INDEX,
+                new String(result, exif.getValueOffset(i), exif.getCount(i) - 1));
+        assertTrue(exif.find(Exif.IFD_INTEROP, 0x0002) >= 0);
+        assertEquals(ExifTestData.THUMBNAIL_LENGTH, exif.getThumbnailLength());
+    }
+
+    // Returns the offset of the MakerNote from the TIFF header.
+    private static int getMakerNoteOffset(Exif exif) {
+        int i = exif.find(Exif.IFD_EXIF, Exif.TAG_MAKER_NOTE);
+        assertTrue(i >= 0);
+        assertEquals(ExifTestData.MAKER_NOTE_LENGTH, exif.getCount(i));
+        return exif.getValueOffset(i) - exif.getTiffOffset();
+    }
+
+    public void testAddToJpegWithoutExif() {
+        byte[] jpeg = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9};
+        ExifWriter writer = new ExifWriter();
+        writer.setOrientation(90);
+        writer.setDateTime(getTime());
+        writer.setLocation(-LATITUDE, -LONGITUDE);
+
+        byte[] result = join(writer.write(jpeg));
+        Exif exif = new Exif();
+        assertTrue(exif.parse(result));
+        assertFalse(exif.isLittleEndian());
+        assertEquals(90, exif.getOrientation());
+        assertEquals(getTime(), exif.getDateTime());
+        assertEquals(-1, exif.getThumbnailOffset());
+        double[] latLong = new double[2];
+        assertTrue(exif.getLatLong(latLong));
+        assertEquals(-LATITUDE, latLong[0], 1e-6);
+        assertEquals(-LONGITUDE, latLong[1], 1e-6);
+        assertEquals((byte) 0xD8, result[1]);
+        assertEquals((byte) 0xD9, result[result.length - 1]);
+    }
+
+    public void testGpsAndUserComment() {
+        byte[] jpeg = ExifTestData.buildJpeg(true, 0, 1024);
+        ExifWriter writer = new ExifWriter();
+        writer.setLocation(LATITUDE, LONGITUDE);
+        writer.setAltitude(-12.5);
+        writer.setGpsDateTime(getTime());
+        writer.setUserComment("Hello");
+
+        byte[] result = join(writer.write(jpeg));
+        Exif exif = new Exif();
+        assertTrue(exif.parse(result));
+        checkLocation(exif);
+        assertEquals(1, exif.getInt(Exif.IFD_GPS, 0x0005, -1));  // below sea level
+        assertEquals(12.5, exif.getRational(Exif.IFD_GPS, 0x0006, 0, 0), 1e-9);
+        assertEquals(0, exif.getOrientation());
+
+        int i = exif.find(Exif.IFD_EXIF, 0x9286);
+        assertTrue(i >= 0);
+        assertEquals("ASCII\0\0\0Hello",
+                new String(result, exif.getValueOffset(i), exif.getCount(i)));
+    }
+
+    public void testLocationRoundsUpToNextDegree() {
+        byte[] jpeg = ExifTestData.buildJpeg(false, 0, 1024);
+        ExifWriter writer = new ExifWriter();
+        writer.setLocation(37.99999999, -121.99999999);
+
+        byte[] result = join(writer.write(jpeg));
+        Exif exif = new Exif();
+        assertTrue(exif.parse(result));
+        // The seconds are rounded to 60.000, which is carried up to 38 deg
+        // 0' 0".
+        assertEquals(38, exif.getRational(Exif.IFD_GPS, Exif.TAG_GPS_LATITUDE, 0, -1), 0);
+        assertEquals(0, exif.getRational(Exif.IFD_GPS, Exif.TAG_GPS_LATITUDE, 1, -1), 0);
+        assertEquals(0, exif.getRational(Exif.IFD_GPS, Exif.TAG_GPS_LATITUDE, 2, -1), 0);
+        assertEquals(122, exif.getRational(Exif.IFD_GPS, Exif.TAG_GPS_LONGITUDE, 0, -1), 0);
+        double[] latLong = new double[2];
+        assertTrue(exif.getLatLong(latLong));
+        assertEquals(38, latLong[0], 1e-6);
+        assertEquals(-122, latLong[1], 1e-6);
+    }
+
+    private static void checkLocation(Exif exif) {
+        double[] latLong = new double[2];
+        assertTrue(exif.getLatLong(latLong));
+        assertEquals(LATITUDE, latLong[0], 1e-6);
+        assertEquals(LONGITUDE, latLong[1], 1e-6);
+    }
+
+    private static long getTime() {
+        return new GregorianCalendar(2012, Calendar.JULY, 4, 8, 9, 10).getTimeInMillis();
+    }
+
+    private static String getAscii(Exif exif, byte[] jpeg, int tag) {
+        int i = exif.find(Exif.IFD_0, tag);
+        assertTrue(i >= 0);
+        return new String(jpeg, exif.getValueOffset(i), exif.getCount(i) - 1);
+    }
+
+    private static byte[] join(ByteBuffer[] buffers) {
+        int size = 0;
+        for (ByteBuffer b : buffers) size += b.remaining();
+        ByteBuffer result = ByteBuffer.allocate(size);
+        for (ByteBuffer b : buffers) result.put(b.duplicate());
+        return result.array();
+    }
+}
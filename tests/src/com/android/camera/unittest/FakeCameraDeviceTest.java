@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.CameraDevice;
+import com.android.camera.FakeCameraDevice;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+@SmallTest
+public class FakeCameraDeviceTest extends TestCase {
+    private ExecutorService mMainThread;
+    private final LinkedBlockingQueue<String> mEvents = new LinkedBlockingQueue<String>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mMainThread = Executors.newSingleThreadExecutor();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mMainThread.shutdown();
+        super.tearDown();
+    }
+
+    public void testTakePicture() throws Exception {
+        FakeCameraDevice device = newDevice(1);
+        device.startPreview();
+        final byte[][] jpeg = new byte[1][];
+        device.takePicture(
+                new CameraDevice.ShutterCallback() {
+                    public void onShutter() {
+                        post("shutter");
+                    }
+                },
+                new EventCallback("raw"), new EventCallback("postview"),
+                new CameraDevice.PictureCallback() {
+                    public void onPictureTaken(byte[] data) {
+                        jpeg[0] = data;
+                        post("jpeg");
+                    }
+                });
+        try {
+            device.takePicture(null, null, null, null);
+            fail("picture during picture");
+        } catch (RuntimeException ex) {
+            // expected
+        }
+
+        assertEquals("shutter", next());
+        assertEquals("raw null", next());
+        assertEquals("postview null", next());
+        assertEquals("jpeg", next());
+        assertFalse(device.isPreviewRunning());
+        assertEquals(1, device.getPictureCount());
+        checkJpeg(jpeg[0]);
+        device.release();
+    }
+
+    public void testNoPreview() {
+        FakeCameraDevice device = newDevice(1);
+        try {
+            device.takePicture(null, null, null, null);
+            fail("picture without preview");
+        } catch (RuntimeException ex) {
+            // expected
+        }
+        try {
+            device.autoFocus(null);
+            fail("focus without preview");
+        } catch (RuntimeException ex) {
+            // expected
+        }
+        device.release();
+    }
+
+    public void testDeterministic() throws Exception {
+        assertEquals(run(7), run(7));
+        assertFalse(run(7).equals(run(8)));
+    }
+
+    public void testAutoFocusCancel() throws Exception {
+        FakeCameraDevice device = newDevice(1);
+        device.setAutoFocus(50, 1f);
+        device.startPreview();
+        device.autoFocus(new CameraDevice.AutoFocusCallback() {
+            public void onAutoFocus(boolean focused) {
+                post("cancelled focus");
+            }
+        });
+        device.cancelAutoFocus();
+        device.setAutoFocus(1, 1f);
+        device.autoFocus(new CameraDevice.AutoFocusCallback() {
+            public void onAutoFocus(boolean focused) {
+                post("focus " + focused);
+            }
+        });
+        assertEquals("focus true", next());
+        assertNull(mEvents.poll(100, TimeUnit.MILLISECONDS));
+        device.release();
+    }
+
+    public void testPreviewFrames() throws Exception {
+        FakeCameraDevice device = newDevice(1);
+        device.setPreview(16, 8, 200);
+        device.setPreviewCallback(new CameraDevice.PreviewCallback() {
+            public void onPreviewFrame(byte[] data) {
+                post("frame " + data.length);
+            }
+        });
+        device.startPreview();
+        assertEquals("frame 192", next());
+        assertEquals("frame 192", next());
+        device.stopPreview();
+        int count = device.getFrameCount();
+        Thread.sleep(50);
+        mEvents.clear();  // the frames posted before the stop
+        assertNull(mEvents.poll(50, TimeUnit.MILLISECONDS));
+        assertEquals(count, device.getFrameCount());
+        device.release();
+    }
+
+    public void testMakeJpeg() {
+        int[] sizes = {0, 8, 9, 11, 100, 65541, 65542, 65543, 65544, 200000};
+        for (int size : sizes) {
+            byte[] jpeg = FakeCameraDevice.makeJpeg(size);
+            assertEquals(Math.max(size, 8), jpeg.length);
+            checkJpeg(jpeg);
+        }
+    }
+
+    // Returns the focus results and the jpeg sizes of a few shots.
+    private String run(long seed) throws Exception {
+        FakeCameraDevice device = newDevice(seed);
+        device.setAutoFocus(1, 0.5f);
+        device.setJpegSize(100000, 20000);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            device.startPreview();
+            device.autoFocus(new CameraDevice.AutoFocusCallback() {
+                public void onAutoFocus(boolean focused) {
+                    post("focus " + focused);
+                }
+            });
+            result.append(next()).append(',');
+            device.takePicture(null, null, null, new CameraDevice.PictureCallback() {
+                public void onPictureTaken(byte[] data) {
+                    post("jpeg " + data.length);
+                }
+            });
+            result.append(next()).append(',');
+        }
+        device.release();
+        return result.toString();
+    }
+
+    private FakeCameraDevice newDevice(long seed) {
+        FakeCameraDevice device = new FakeCameraDevice(seed, mMainThread);
+        device.setPictureLatency(1, 2, 3);
+        return device;
+    }
+
+    // Checks that the jpeg is a chain of segments from SOI to EOI.
+    private static void checkJpeg(byte[] jpeg) {
+        assertEquals((byte) 0xFF, jpeg[0]);
+        assertEquals((byte) 0xD8, jpeg[1]);
+        int p = 2;
+        while (p < jpeg.length - 2) {
+            assertEquals((byte) 0xFF, jpeg[p]);
+            assertEquals((byte) 0xFE, jpeg[p + 1]);
+            int length = (jpeg[p + 2] & 0xFF) << 8 | (jpeg[p + 3] & 0xFF);
+            assertTrue(length >= 2);
+            p += 2 + length;
+        }
+        assertEquals(jpeg.length - 2, p);
+        assertEquals((byte) 0xFF, jpeg[p]);
+        assertEquals((byte) 0xD9, jpeg[p + 1]);
+    }
+
+    private String next() throws InterruptedException {
+        String event = mEvents.poll(5, TimeUnit.SECONDS);
+        assertNotNull(event);
+        return event;
+    }
+
+    private void post(String event) {
+        mEvents.add(event);
+    }
+
+    private class EventCallback implements CameraDevice.PictureCallback {
+        private final String mName;
+
+        EventCallback(String name) {
+            mName = name;
+        }
+
+        public void onPictureTaken(byte[] data) {
+            post(mName + " " + (data == null ? "null" : "data"));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.ImageFileNamer;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+
+@SmallTest
+public class ImageFileNamerTest extends TestCase {
+    private static final String FORMAT = "'IMG'_yyyyMMdd_HHmmss";
+    private static final String NAME = "IMG_20120704_080910";
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = File.createTempFile("names", "");
+        mDirectory.delete();
+        assertTrue(mDirectory.mkdir());
+        ImageFileNamer.resetIndexes();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : mDirectory.listFiles()) file.delete();
+        mDirectory.delete();
+        super.tearDown();
+    }
+
+    public void testSameSecond() {
+        ImageFileNamer namer = new ImageFileNamer(FORMAT, mDirectory.getPath());
+        long time = getTime();
+        assertEquals(NAME, namer.generateName(time));
+        assertEquals(NAME + "_1", namer.generateName(time + 300));
+        assertEquals(NAME + "_2", namer.generateName(time + 999));
+        assertEquals("IMG_20120704_080911", namer.generateName(time + 1000));
+
+        // Going back to a second already used.
+        assertEquals(NAME + "_3", namer.generateName(time));
+    }
+
+    public void testExistingFiles() throws Exception {
+        assertTrue(new File(mDirectory, NAME + ".jpg").createNewFile());
+        assertTrue(new File(mDirectory, NAME + "_1.jpg").createNewFile());
+        assertTrue(new File(mDirectory, "." + NAME + "_2.jpg.tmp").createNewFile());
+        ImageFileNamer namer = new ImageFileNamer(FORMAT, mDirectory.getPath());
+        assertEquals(NAME + "_2", namer.generateName(getTime()));
+    }
+
+    public void testReloadWhenMounted() throws Exception {
+        // The directory cannot be read, like on a storage that is not mounted.
+        assertTrue(mDirectory.delete());
+        ImageFileNamer namer = new ImageFileNamer(FORMAT, mDirectory.getPath());
+        namer.loadIndex();
+        assertEquals(NAME, namer.generateName(getTime()));
+
+        // Until the index is read again, the names are checked against the
+        // jpeg files.
+        assertTrue(mDirectory.mkdir());
+        assertTrue(new File(mDirectory, NAME + "_1.jpg").createNewFile());
+        assertEquals(NAME + "_2", namer.generateName(getTime()));
+
+        // The index has the names of the other files too.
+        assertTrue(new File(mDirectory, NAME + "_3.dng").createNewFile());
+        namer.reloadIndex();
+        assertEquals(NAME + "_4", namer.generateName(getTime()));
+    }
+
+    public void testSharedIndex() {
+        ImageFileNamer first = new ImageFileNamer(FORMAT, mDirectory.getPath());
+        ImageFileNamer second = new ImageFileNamer(FORMAT, mDirectory.getPath());
+        assertEquals(NAME, first.generateName(getTime()));
+        assertEquals(NAME + "_1", second.generateName(getTime()));
+        assertEquals(NAME + "_2", first.generateName(getTime()));
+    }
+
+    public void testConcurrent() throws Exception {
+        final ImageFileNamer namer = new ImageFileNamer(FORMAT, mDirectory.getPath());
+        final int threadCount = 4;
+        final int namesPerThread = 500;
+        final String[] names = new String[threadCount * namesPerThread];
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int first = i * namesPerThread;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    // Bursts over a few seconds.
+                    for (int j = 0; j < namesPerThread; j++) {
+                        names[first + j] = namer.generateName(getTime() + j * 10);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) t.join();
+
+        HashSet<String> unique = new HashSet<String>();
+        for (String name : names) assertTrue(name, unique.add(name));
+    }
+
+    private static long getTime() {
+        return new GregorianCalendar(2012, Calendar.JULY, 4, 8, 9, 10).getTimeInMillis();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.JpegHeader;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+@SmallTest
+public class JpegHeaderTest extends TestCase {
+    private static final int[] APP0 = {
+        0xFF, 0xE0, 0x00, 0x10, 'J', 'F', 'I', 'F', 0x00, 0x01, 0x01, 0x00,
+        0x00, 0x01, 0x00, 0x01, 0x00, 0x00};
+    private static final int[] DQT = {
+        0xFF, 0xDB, 0x00, 0x03, 0x00};
+    // 3264x2448, YCbCr 4:2:0.
+    private static final int[] SOF_420 = {
+        0x00, 0x11, 0x08, 0x09, 0x90, 0x0C, 0xC0, 0x03,
+        0x01, 0x22, 0x00, 0x02, 0x11, 0x01, 0x03, 0x11, 0x01};
+    // 640x480, YCbCr 4:2:2.
+    private static final int[] SOF_422 = {
+        0x00, 0x11, 0x08, 0x01, 0xE0, 0x02, 0x80, 0x03,
+        0x01, 0x21, 0x00, 0x02, 0x11, 0x01, 0x03, 0x11, 0x01};
+    // 100x50, grayscale.
+    private static final int[] SOF_GRAY = {
+        0x00, 0x0B, 0x08, 0x00, 0x32, 0x00, 0x64, 0x01, 0x01, 0x11, 0x00};
+    private static final int[] SOS = {0xFF, 0xDA, 0x00, 0x02};
+
+    public void testBaseline() {
+        byte[] jpeg = build(0xC0, SOF_420);
+        JpegHeader header = new JpegHeader();
+        assertTrue(header.parse(jpeg));
+        assertEquals(3264, header.getWidth());
+        assertEquals(2448, header.getHeight());
+        assertEquals(3, header.getComponentCount());
+        assertFalse(header.isProgressive());
+        assertEquals(2, header.getHorizontalSampling(0));
+        assertEquals(2, header.getVerticalSampling(0));
+        assertEquals(1, header.getHorizontalSampling(1));
+        assertEquals(2, header.getHorizontalSubsampling());
+        assertEquals(2, header.getVerticalSubsampling());
+    }
+
+    public void testProgressive() {
+        JpegHeader header = new JpegHeader();
+        assertTrue(header.parse(build(0xC2, SOF_422)));
+        assertEquals(640, header.getWidth());
+        assertEquals(480, header.getHeight());
+        assertTrue(header.isProgressive());
+        assertEquals(2, header.getHorizontalSubsampling());
+        assertEquals(1, header.getVerticalSubsampling());
+    }
+
+    public void testGrayscale() {
+        JpegHeader header = new JpegHeader();
+        assertTrue(header.parse(build(0xC1, SOF_GRAY)));
+        assertEquals(100, header.getWidth());
+        assertEquals(50, header.getHeight());
+        assertEquals(1, header.getComponentCount());
+        assertEquals(1, header.getHorizontalSubsampling());
+        assertEquals(1, header.getVerticalSubsampling());
+    }
+
+    public void testOffset() {
+        byte[] jpeg = build(0xC0, SOF_422);
+        byte[] padded = new byte[jpeg.length + 20];
+        System.arraycopy(jpeg, 0, padded, 10, jpeg.length);
+        JpegHeader header = new JpegHeader();
+        assertTrue(header.parse(padded, 10, jpeg.length));
+        assertEquals(640, header.getWidth());
+    }
+
+    public void testInvalid() {
+        JpegHeader header = new JpegHeader();
+        assertFalse(header.parse(null));
+        assertFalse(header.parse(new byte[] {(byte) 0xFF, (byte) 0xD8}));
+        assertFalse(header.parse(new byte[] {'P', 'N', 'G', 0}));
+
+        // No frame header before the scan.
+        byte[] jpeg = build(0xC0, SOF_420);
+        assertFalse(header.parse(jpeg, 0, 2 + APP0.length + DQT.length + 4));
+        assertEquals(0, header.getComponentCount());
+
+        // Truncated frame header.
+        assertFalse(header.parse(jpeg, 0, jpeg.length - SOS.length - 1));
+
+        // A segment longer than the data.
+        jpeg[5] = (byte) 0xFF;
+        assertFalse(header.parse(jpeg));
+    }
+
+    private static byte[] build(int sofMarker, int[] sof) {
+        int length = 2 + APP0.length + DQT.length + 2 + sof.length + SOS.length;
+        byte[] jpeg = new byte[length];
+        int p = 0;
+        jpeg[p++] = (byte) 0xFF;
+        jpeg[p++] = (byte) 0xD8;
+        p = put(jpeg, p, APP0);
+        p = put(jpeg, p, DQT);
+        jpeg[p++] = (byte) 0xFF;
+        jpeg[p++] = (byte) sofMarker;
+        p = put(jpeg, p, sof);
+        put(jpeg, p, SOS);
+        return jpeg;
+    }
+
+    private static int put(byte[] jpeg, int p, int[] values) {
+        for (int v : values) jpeg[p++] = (byte) v;
+        return p;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.Exif;
+import com.android.camera.ExifWriter;
+import com.android.camera.JpegRotator;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+@SmallTest
+public class JpegRotatorTest extends TestCase {
+    // A 24x16 baseline jpeg with 2x2 luma and 1x1 chroma sampling, so one MCU
+    // column is partial. It has a color gradient.
+    private static final String JPEG =
+            "ffd8ffe000104a46494600010200000100010000ffdb00430008060607060508"
+            + "0707070909080a0c140d0c0b0b0c1912130f141d1a1f1e1d1a1c1c20242e2720"
+            + "222c231c1c2837292c30313434341f27393d38323c2e333432ffdb0043010909"
+            + "090c0b0c180d0d1832211c213232323232323232323232323232323232323232"
+            + "323232323232323232323232323232323232323232323232323232323232ffc0"
+            + "0011080010001803012200021101031101ffc4001f0000010501010101010100"
+            + "000000000000000102030405060708090a0bffc400b510000201030302040305"
+            + "0504040000017d01020300041105122131410613516107227114328191a10823"
+            + "42b1c11552d1f02433627282090a161718191a25262728292a3435363738393a"
+            + "434445464748494a535455565758595a636465666768696a737475767778797a"
+            + "838485868788898a92939495969798999aa2a3a4a5a6a7a8a9aab2b3b4b5b6b7"
+            + "b8b9bac2c3c4c5c6c7c8c9cad2d3d4d5d6d7d8d9dae1e2e3e4e5e6e7e8e9eaf1"
+            + "f2f3f4f5f6f7f8f9faffc4001f01000301010101010101010100000000000001"
+            + "02030405060708090a0bffc400b5110002010204040304070504040001027700"
+            + "0102031104052131061241510761711322328108144291a1b1c109233352f015"
+            + "6272d10a162434e125f11718191a262728292a35363738393a43444546474849"
+            + "4a535455565758595a636465666768696a737475767778797a82838485868788"
+            + "898a92939495969798999aa2a3a4a5a6a7a8a9aab2b3b4b5b6b7b8b9bac2c3c4"
+            + "c5c6c7c8c9cad2d3d4d5d6d7d8d9dae2e3e4e5e6e7e8e9eaf2f3f4f5f6f7f8f9"
+            + "faffda000c03010002110311003f00f2db4d0ba7c95bb69a174f92bafb4d0ba7"
+            + "c95bb69a174f92b3a5883832dcef6d4e46d342e9f2515e9969a174f928af4238"
+            + "8d0fb7c3e77ee2d4ffd9";
+
+    // The CRC32 of the rotated jpegs, checked against a pixel decoder when
+    // they were made: the pixels away from the trimmed edges match the
+    // rotated pixels of JPEG within the rounding of the IDCT.
+    private static final long CRC_90 = 0xf3bb2b36L;
+    private static final long CRC_180 = 0x0aa8429bL;
+    private static final long CRC_270 = 0x2c563f1aL;
+
+    public void testGolden() throws IOException {
+        checkGolden(90, 16, 24, CRC_90);
+        // The partial MCU column on the right would move to the left.
+        checkGolden(180, 16, 16, CRC_180);
+        checkGolden(270, 16, 16, CRC_270);
+    }
+
+    private void checkGolden(int degrees, int width, int height, long crc)
+            throws IOException {
+        JpegRotator rotator = new JpegRotator();
+        byte[] result = rotate(rotator, getJpeg(), degrees);
+        assertEquals(width, rotator.getWidth());
+        assertEquals(height, rotator.getHeight());
+        CRC32 c = new CRC32();
+        c.update(result);
+        assertEquals(crc, c.getValue());
+    }
+
+    public void testBands() throws IOException {
+        // One MCU row per band gives the same result.
+        for (int degrees = 90; degrees < 360; degrees += 90) {
+            byte[] expected = rotate(new JpegRotator(), getJpeg(), degrees);
+            byte[] actual = rotate(new JpegRotator(1), getJpeg(), degrees);
+            assertTrue(Arrays.equals(expected, actual));
+        }
+    }
+
+    public void testRoundTrip() throws IOException {
+        // The coefficients go back to where they were, so both ways encode
+        // the same data with the same tables.
+        JpegRotator rotator = new JpegRotator();
+        byte[] square = rotate(rotator, getJpeg(), 180);
+        byte[] twice = rotate(rotator, rotate(rotator, square, 180), 180);
+        byte[] quarters = square;
+        for (int i = 0; i < 4; i++) quarters = rotate(rotator, quarters, 90);
+        byte[] there = rotate(rotator, rotate(rotator, square, 90), 270);
+        assertTrue(Arrays.equals(twice, quarters));
+        assertTrue(Arrays.equals(twice, there));
+    }
+
+    public void testExif() throws IOException {
+        ExifWriter writer = new ExifWriter();
+        writer.setDateTime(0);
+        writer.setOrientation(90);
+        JpegRotator rotator = new JpegRotator();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(rotator.rotate(getJpeg(), 90, writer, out));
+
+        Exif exif = new Exif();
+        assertTrue(exif.parse(out.toByteArray()));
+        assertEquals(0, exif.getOrientation());
+        assertEquals(16, exif.getInt(Exif.IFD_EXIF, Exif.TAG_PIXEL_X_DIMENSION, -1));
+        assertEquals(24, exif.getInt(Exif.IFD_EXIF, Exif.TAG_PIXEL_Y_DIMENSION, -1));
+    }
+
+    public void testUnsupported() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JpegRotator rotator = new JpegRotator();
+        assertFalse(rotator.rotate(getJpeg(), 0, null, out));
+        // The picture data of ExifTestData is not a real scan.
+        assertFalse(rotator.rotate(ExifTestData.buildJpeg(false, 90, 16), 90, null, out));
+        assertEquals(0, out.size());
+    }
+
+    private static byte[] rotate(JpegRotator rotator, byte[] jpeg, int degrees)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(rotator.rotate(jpeg, degrees, null, out));
+        return out.toByteArray();
+    }
+
+    private static byte[] getJpeg() {
+        byte[] jpeg = new byte[JPEG.length() / 2];
+        for (int i = 0; i < jpeg.length; i++) {
+            jpeg[i] = (byte) Integer.parseInt(JPEG.substring(i * 2, i * 2 + 2), 16);
+        }
+        return jpeg;
+    }
+}
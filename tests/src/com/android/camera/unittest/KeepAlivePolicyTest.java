@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.KeepAlivePolicy;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+@SmallTest
+public class KeepAlivePolicyTest extends TestCase {
+    public void testFixedAndNever() {
+        KeepAlivePolicy fixed = new KeepAlivePolicy.Fixed(1000);
+        fixed.onSwitch(5000);
+        assertEquals(1000, fixed.getKeepTime());
+        assertEquals(0, new KeepAlivePolicy.Never().getKeepTime());
+    }
+
+    public void testAdaptiveUsesDefaultFirst() {
+        KeepAlivePolicy policy = new KeepAlivePolicy.Adaptive(500, 6000);
+        assertEquals(KeepAlivePolicy.DEFAULT_KEEP_TIME, policy.getKeepTime());
+        policy.onSwitch(200);
+        policy.onSwitch(300);
+        assertEquals(KeepAlivePolicy.DEFAULT_KEEP_TIME, policy.getKeepTime());
+        policy.onSwitch(400);
+        // The slowest switch and a margin.
+        assertEquals(600, policy.getKeepTime());
+    }
+
+    public void testAdaptiveBounds() {
+        KeepAlivePolicy policy = new KeepAlivePolicy.Adaptive(500, 6000);
+        for (int i = 0; i < 3; i++) policy.onSwitch(10);
+        assertEquals(500, policy.getKeepTime());
+        policy.onSwitch(5000);
+        assertEquals(6000, policy.getKeepTime());
+        // Too slow to be caught: ignored.
+        policy.onSwitch(60000);
+        assertEquals(6000, policy.getKeepTime());
+    }
+
+    public void testAdaptiveForgetsOldSwitches() {
+        KeepAlivePolicy policy = new KeepAlivePolicy.Adaptive(500, 6000);
+        policy.onSwitch(4000);
+        for (int i = 0; i < 16; i++) policy.onSwitch(400);
+        assertEquals(600, policy.getKeepTime());
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.LatencyHistogram;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+@SmallTest
+public class LatencyHistogramTest extends TestCase {
+    public void testEmpty() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMean());
+        assertEquals(0, h.getMin());
+        assertEquals(0, h.getMax());
+        assertEquals(0, h.getPercentile(50));
+    }
+
+    public void testSmallValuesAreExact() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 50; i++) h.record(i);
+        assertEquals(50, h.getCount());
+        assertEquals(25, h.getMean());
+        assertEquals(1, h.getMin());
+        assertEquals(50, h.getMax());
+        assertEquals(25, h.getPercentile(50));
+        assertEquals(45, h.getPercentile(90));
+        assertEquals(50, h.getPercentile(100));
+    }
+
+    public void testPrecision() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long i = 1; i <= 10000; i++) h.record(i * 1000);
+        assertWithin(5000000, h.getPercentile(50));
+        assertWithin(9000000, h.getPercentile(90));
+        assertWithin(9900000, h.getPercentile(99));
+        assertEquals(10000000, h.getPercentile(100));
+    }
+
+    public void testLargeValues() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(-1);
+        h.record(Long.MAX_VALUE);
+        assertEquals(0, h.getMin());
+        assertEquals(LatencyHistogram.MAX_VALUE, h.getMax());
+        assertEquals(LatencyHistogram.MAX_VALUE, h.getPercentile(100));
+    }
+
+    public void testCopyAndReset() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(100);
+        LatencyHistogram copy = new LatencyHistogram(h);
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(1, copy.getCount());
+        assertEquals(100, copy.getMax());
+    }
+
+    // The histogram never reports less than the real value, and is off by
+    // at most 1/32.
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected " + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 32);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.CameraHolder;
+import com.android.camera.KeepAlivePolicy;
+import com.android.camera.ModeHandoff;
+import com.android.camera.Thumbnail;
+
+import android.graphics.Bitmap;
+import android.location.Location;
+import android.net.Uri;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+@SmallTest
+public class ModeHandoffTest extends TestCase {
+    private KeepAlivePolicy mPolicy;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPolicy = CameraHolder.instance().getKeepAlivePolicy();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        CameraHolder.instance().setKeepAlivePolicy(mPolicy);
+        ModeHandoff.takeThumbnail();
+        ModeHandoff.takeLocation();
+        super.tearDown();
+    }
+
+    public void testTakeOnce() {
+        Thumbnail thumbnail = newThumbnail();
+        Location location = new Location("gps");
+        location.setLatitude(1);
+        ModeHandoff.put(thumbnail, location);
+        // The location may still change in the mode that is left.
+        location.setLatitude(2);
+
+        Thumbnail t = ModeHandoff.takeThumbnail();
+        assertSame(thumbnail, t);
+        assertTrue(t.fromFile());
+        assertNull(ModeHandoff.takeThumbnail());
+        assertEquals(1.0, ModeHandoff.takeLocation().getLatitude());
+        assertNull(ModeHandoff.takeLocation());
+    }
+
+    public void testExpires() throws Exception {
+        CameraHolder.instance().setKeepAlivePolicy(new KeepAlivePolicy.Fixed(50));
+        ModeHandoff.put(newThumbnail(), new Location("gps"));
+        Thread.sleep(500);
+        assertNull(ModeHandoff.takeThumbnail());
+        assertNull(ModeHandoff.takeLocation());
+    }
+
+    private static Thumbnail newThumbnail() {
+        Bitmap bitmap = Bitmap.createBitmap(4, 4, Bitmap.Config.ARGB_8888);
+        return new Thumbnail(Uri.parse("content://media/external/images/media/1"), bitmap, 0);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.ParameterCache;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+@SmallTest
+public class ParameterCacheTest extends TestCase {
+    private static final String PARAMETERS =
+            "flash-mode=auto;jpeg-quality=95;picture-size=2592x1944;zoom=0";
+
+    public void testNoChange() {
+        assertEquals(Collections.<String>emptyList(),
+                ParameterCache.getChangedKeys(PARAMETERS, PARAMETERS));
+    }
+
+    public void testChangedValues() {
+        assertEquals(Arrays.asList("flash-mode", "zoom"), ParameterCache.getChangedKeys(
+                PARAMETERS, "zoom=3;flash-mode=on;jpeg-quality=95;picture-size=2592x1944"));
+    }
+
+    public void testAddedAndRemovedKeys() {
+        assertEquals(Arrays.asList("gps-latitude", "zoom"), ParameterCache.getChangedKeys(
+                PARAMETERS,
+                "flash-mode=auto;gps-latitude=37.4;jpeg-quality=95;picture-size=2592x1944"));
+    }
+
+    public void testValueWithEquals() {
+        assertEquals(Arrays.asList("focus-areas"), ParameterCache.getChangedKeys(
+                "focus-areas=(0,0,0,0,0)", "focus-areas=(-100,-100,100,100,1)"));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.StartupGraph;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@SmallTest
+public class StartupGraphTest extends TestCase {
+    private final List<String> mOrder = new ArrayList<String>();
+    private Thread mMainThread;
+
+    @Override
+    protected void setUp() {
+        mMainThread = Thread.currentThread();
+    }
+
+    private Runnable record(final String name, final boolean background, final long sleep) {
+        return new Runnable() {
+            public void run() {
+                assertEquals(!background, Thread.currentThread() == mMainThread);
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException ex) {
+                    // ignore.
+                }
+                synchronized (mOrder) {
+                    mOrder.add(name);
+                }
+            }
+        };
+    }
+
+    public void testPrerequisitesAreDoneFirst() {
+        StartupGraph graph = new StartupGraph("test");
+        graph.addTask("id", false, record("id", false, 0));
+        graph.addTask("open", true, record("open", true, 50), "id");
+        graph.addTask("inflate", false, record("inflate", false, 0));
+        graph.addTask("preview", true, record("preview", true, 0), "open", "inflate");
+        graph.addTask("indicators", false, record("indicators", false, 0), "preview");
+        graph.start();
+
+        assertTrue(graph.runUntil("indicators"));
+        // The inflation runs in the main thread while the camera opens.
+        assertEquals(Arrays.asList("id", "inflate", "open", "preview", "indicators"), mOrder);
+        assertEquals(Arrays.asList("id", "open", "preview", "indicators"),
+                Arrays.asList(graph.getCriticalPath()));
+        assertTrue(graph.getDuration("open") >= 50);
+        assertTrue(graph.getEndTime("preview") >= graph.getEndTime("open"));
+    }
+
+    // The tasks below end in the same millisecond. The critical path must
+    // still follow the order they were done.
+    public void testCriticalPathOfQuickTasks() {
+        for (int i = 0; i < 20; i++) {
+            StartupGraph graph = new StartupGraph("test");
+            graph.addTask("id", false, record("id", false, 0));
+            graph.addTask("open", true, record("open", true, 0), "id");
+            graph.addTask("preview", true, record("preview", true, 0), "id", "open");
+            graph.addTask("indicators", false, record("indicators", false, 0), "preview");
+            graph.start();
+
+            assertTrue(graph.runUntil("indicators"));
+            assertEquals(Arrays.asList("id", "open", "preview", "indicators"),
+                    Arrays.asList(graph.getCriticalPath()));
+        }
+    }
+
+    public void testMilestone() {
+        final StartupGraph graph = new StartupGraph("test");
+        graph.addMilestone("parameters");
+        graph.addTask("preview", true, new Runnable() {
+            public void run() {
+                graph.markDone("parameters");
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ex) {
+                    // ignore.
+                }
+            }
+        });
+        graph.addTask("indicators", false, record("indicators", false, 0), "parameters");
+        graph.start();
+
+        // The indicators do not wait for the end of the preview task.
+        assertTrue(graph.runUntil("indicators"));
+        assertFalse(graph.isDone("preview"));
+        assertTrue(graph.runUntil("preview"));
+        graph.markDone("parameters");  // ignored
+        assertEquals(Arrays.asList("indicators"), mOrder);
+    }
+
+    public void testCancel() {
+        final StartupGraph graph = new StartupGraph("test");
+        graph.addTask("open", true, new Runnable() {
+            public void run() {
+                graph.cancel();
+            }
+        });
+        graph.addTask("inflate", false, record("inflate", false, 20));
+        graph.addTask("preview", true, record("preview", true, 0), "open");
+        graph.addTask("controls", false, record("controls", false, 0), "inflate");
+        graph.start();
+
+        assertTrue(graph.runUntil("open"));
+        assertFalse(graph.runUntil("preview"));
+        // The main tasks still run.
+        assertTrue(graph.runUntil("controls"));
+        assertFalse(graph.isDone("preview"));
+        assertEquals(Arrays.asList("inflate", "controls"), mOrder);
+        assertEquals(-1, graph.getDuration("preview"));
+    }
+
+    public void testUnknownPrerequisite() {
+        StartupGraph graph = new StartupGraph("test");
+        try {
+            graph.addTask("preview", true, record("preview", true, 0), "open");
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected.
+        }
+    }
+}